@@ -0,0 +1,33 @@
+package fr.meuret.webtesttech.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * Entry point of the benchmarks jar : runs JMH, publishing the results in JSON (<i>jmh-result.json</i>) unless
+ * another result format is requested, so that runs can be compared.
+ * <p>
+ * All the JMH command line options are supported, e.g. <code>java -jar target/benchmarks.jar HttpServer -t 4</code>.
+ *
+ * @author Jerome
+ */
+public class BenchmarkMain {
+
+
+    private static final String RESULT_FORMAT_OPTION = "-rf";
+
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        String[] jmhArgs = args;
+        if (!Arrays.asList(args).contains(RESULT_FORMAT_OPTION)) {
+            jmhArgs = Arrays.copyOf(args, args.length + 2);
+            jmhArgs[args.length] = RESULT_FORMAT_OPTION;
+            jmhArgs[args.length + 1] = "json";
+        }
+        org.openjdk.jmh.Main.main(jmhArgs);
+    }
+
+
+}
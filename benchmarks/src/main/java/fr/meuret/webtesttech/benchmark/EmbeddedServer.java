@@ -0,0 +1,117 @@
+package fr.meuret.webtesttech.benchmark;
+
+import fr.meuret.webtesttech.cache.FileMetadataCache;
+import fr.meuret.webtesttech.cache.ListingCache;
+import fr.meuret.webtesttech.cache.MappedFileCache;
+import fr.meuret.webtesttech.cache.ResponseCache;
+import fr.meuret.webtesttech.cache.ValidatorCache;
+import fr.meuret.webtesttech.conf.HttpConfiguration;
+import fr.meuret.webtesttech.http.MimeTypes;
+import fr.meuret.webtesttech.log.AccessLog;
+import fr.meuret.webtesttech.nio.HttpServer;
+import fr.meuret.webtesttech.nio.Session;
+import fr.meuret.webtesttech.nio.handlers.HttpProtocolHandler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.SocketChannel;
+
+/**
+ * An {@link HttpServer} wired like <code>HttpServer.main</code>, running in a background thread of the benchmark
+ * process.
+ *
+ * @author Jerome
+ */
+public class EmbeddedServer {
+
+
+    private final HttpConfiguration configuration;
+    private final HttpServer httpServer;
+    private final FileMetadataCache metadataCache;
+    private final ListingCache listingCache;
+    private Thread serverThread;
+
+
+    /**
+     * @param configuration the server configuration, which port must be free.
+     * @throws IOException if the MIME types file of the configuration can not be read.
+     */
+    public EmbeddedServer(HttpConfiguration configuration) throws IOException {
+
+        this.configuration = configuration;
+        //Caches are shared by all the connections
+        final MimeTypes mimeTypes = MimeTypes.load(configuration.getMimeTypes());
+        this.metadataCache = new FileMetadataCache(configuration.getRootPath(), mimeTypes,
+                                                   FileMetadataCache.DEFAULT_MAX_ENTRIES,
+                                                   configuration.getMetadataCacheTtl());
+        final MappedFileCache mappedFileCache = new MappedFileCache(configuration.getMappedCacheSize());
+        final ResponseCache responseCache = new ResponseCache(configuration.getResponseCacheSize(),
+                                                              ResponseCache.DEFAULT_MAX_BODY_SIZE);
+        //The compression on the fly is disabled by a zero cache size
+        final long compressionCacheSize = configuration.getCompressionCacheSize();
+        final ResponseCache compressedCache = new ResponseCache(compressionCacheSize, (int) Math.min(
+                compressionCacheSize, ResponseCache.DEFAULT_MAX_ENCODED_FILE_SIZE));
+        final ValidatorCache validatorCache = new ValidatorCache(ValidatorCache.DEFAULT_MAX_ENTRIES);
+        this.listingCache = new ListingCache(configuration.getListingCacheSize(), configuration.getListingPageSize());
+        this.httpServer = new HttpServer(configuration, (Session session) -> session.registerHandler(
+                new HttpProtocolHandler(configuration.getRootPath(), metadataCache, mappedFileCache, responseCache,
+                                        compressedCache, validatorCache, listingCache, session.getMetrics(),
+                                        AccessLog.NONE)));
+    }
+
+    /**
+     * @return a port that was free when this method was called.
+     * @throws IOException if no port is available.
+     */
+    public static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Starts the server and waits until it accepts connections.
+     *
+     * @throws InterruptedException if interrupted while waiting for the server.
+     */
+    public void start() throws InterruptedException {
+
+        //HttpServer.start() blocks until the server is stopped
+        serverThread = new Thread(() -> {
+            try {
+                httpServer.start();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }, "embedded-server");
+        serverThread.start();
+
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try {
+                SocketChannel.open(new InetSocketAddress("127.0.0.1", getPort())).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("The server does not listen on port " + getPort());
+    }
+
+    public void stop() throws IOException, InterruptedException {
+        httpServer.stop();
+        serverThread.join(10000);
+        listingCache.close();
+        metadataCache.close();
+    }
+
+    public int getPort() {
+        return configuration.getPort();
+    }
+
+    public HttpServer getHttpServer() {
+        return httpServer;
+    }
+
+
+}
@@ -0,0 +1,112 @@
+package fr.meuret.webtesttech.benchmark;
+
+import fr.meuret.webtesttech.http.HttpChunk;
+import fr.meuret.webtesttech.http.HttpException;
+import fr.meuret.webtesttech.http.HttpVersion;
+import fr.meuret.webtesttech.http.request.HttpRequest;
+import fr.meuret.webtesttech.http.request.HttpRequestHeader;
+import fr.meuret.webtesttech.http.response.HttpResponse;
+import fr.meuret.webtesttech.http.response.HttpResponseHeader;
+import fr.meuret.webtesttech.http.response.StatusCode;
+import fr.meuret.webtesttech.util.HttpUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro-benchmarks of the HTTP message handling done for every request : request parsing, path sanitization, header
+ * lookup, response serialization and chunk framing.
+ *
+ * @author Jerome
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HttpMessageBenchmark {
+
+
+    private static final String REQUEST = "GET /static/js/application.min.js?v=42 HTTP/1.1\r\n" +
+            "Host: localhost:8080\r\n" +
+            "Connection: keep-alive\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/39.0\r\n" +
+            "Accept: */*\r\n" +
+            "Accept-Encoding: gzip, deflate, sdch\r\n\r\n";
+    //A streamed listing chunk
+    private static final int CHUNK_SIZE = 256 * 64;
+
+    private ByteBuffer request;
+    private ByteBuffer chunkHeader;
+
+
+    @Setup
+    public void setUp() {
+        final byte[] bytes = REQUEST.getBytes(StandardCharsets.ISO_8859_1);
+        //The session reads into a direct buffer
+        request = ByteBuffer.allocateDirect(bytes.length);
+        request.put(bytes);
+        request.flip();
+        chunkHeader = ByteBuffer.allocateDirect(HttpChunk.MAX_HEADER_LENGTH);
+    }
+
+    @Benchmark
+    public HttpRequest requestFrom() throws HttpException {
+        request.rewind();
+        return HttpRequest.from(request);
+    }
+
+    @Benchmark
+    public ByteBuffer responseToByteBuffer() throws Exception {
+        //A typical file response : the body is written separately
+        final HttpResponse response = new HttpResponse(HttpVersion.HTTP_1_1);
+        response.setStatusCode(StatusCode.OK);
+        response.setHeader(HttpResponseHeader.CONTENT_TYPE, "application/javascript");
+        response.setHeader(HttpResponseHeader.CONTENT_LENGTH, "48213");
+        response.setHeader(HttpResponseHeader.CONNECTION, "keep-alive");
+        return response.toByteBuffer();
+    }
+
+    @Benchmark
+    public ByteBuffer chunkPutHeader() {
+        //The chunk data is written as is, only its header is rendered
+        chunkHeader.clear();
+        HttpChunk.putHeader(chunkHeader, CHUNK_SIZE, false);
+        return chunkHeader;
+    }
+
+    @Benchmark
+    public String sanitizeRequestPath(RequestPath path) {
+        return HttpUtils.sanitizeRequestPath(path.requestPath);
+    }
+
+    @Benchmark
+    public HttpRequestHeader requestHeaderFromHeader(HeaderName header) {
+        return HttpRequestHeader.fromHeader(header.headerName);
+    }
+
+    /**
+     * A plain and a percent-encoded request path.
+     */
+    @State(Scope.Thread)
+    public static class RequestPath {
+
+        @Param({"/static/js/application.min.js", "/docs/R%C3%A9sum%C3%A9%20final.html"})
+        public String requestPath;
+    }
+
+    /**
+     * A frequent, a less frequent and an unknown header name.
+     */
+    @State(Scope.Thread)
+    public static class HeaderName {
+
+        @Param({"Host", "If-Modified-Since", "X-Unknown-Header"})
+        public String headerName;
+    }
+
+
+}
@@ -0,0 +1,84 @@
+package fr.meuret.webtesttech.benchmark;
+
+import fr.meuret.webtesttech.http.HttpException;
+import fr.meuret.webtesttech.http.request.HttpRequest;
+import fr.meuret.webtesttech.http.request.HttpRequestHeader;
+import fr.meuret.webtesttech.http.request.HttpRequestParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the byte-level {@link HttpRequestParser} with the former regex-based parsing of
+ * <code>HttpRequest.from</code>, which is kept here as the baseline.
+ *
+ * @author Jerome
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HttpRequestParserBenchmark {
+
+
+    private static final Pattern RAW_VALUE_PATTERN = Pattern.compile("\\r\\n\\r\\n");
+    private static final Pattern HEADERS_BODY_PATTERN = Pattern.compile("\\r\\n");
+    private static final Pattern HEADER_VALUE_PATTERN = Pattern.compile(":");
+
+    private static final String BROWSER_REQUEST = "GET /static/js/application.min.js?v=42 HTTP/1.1\r\n" +
+            "Host: localhost:8080\r\n" +
+            "Connection: keep-alive\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/39.0\r\n" +
+            "Accept: */*\r\n" +
+            "Referer: http://localhost:8080/index.html\r\n" +
+            "Accept-Encoding: gzip, deflate, sdch\r\n" +
+            "Accept-Language: fr-FR,fr;q=0.8,en-US;q=0.6,en;q=0.4\r\n" +
+            "If-None-Match: \"5f3c-1a2b3c\"\r\n" +
+            "If-Modified-Since: Tue, 18 Nov 2014 10:15:42 GMT\r\n\r\n";
+
+    private final HttpRequestParser parser = new HttpRequestParser();
+    private ByteBuffer request;
+
+    @Setup
+    public void setUp() {
+        final byte[] bytes = BROWSER_REQUEST.getBytes(StandardCharsets.ISO_8859_1);
+        //The session reads into a direct buffer
+        request = ByteBuffer.allocateDirect(bytes.length);
+        request.put(bytes);
+        request.flip();
+    }
+
+    @Benchmark
+    public HttpRequest byteParser() throws HttpException {
+        request.rewind();
+        return parser.parse(request);
+    }
+
+    @Benchmark
+    public Map<HttpRequestHeader, String> regexBaseline() throws CharacterCodingException {
+        request.rewind();
+        final CharBuffer packet = Charset.forName(StandardCharsets.ISO_8859_1.displayName()).newDecoder().decode(
+                request);
+        final String[] httpHeadersAndBody = RAW_VALUE_PATTERN.split(packet.toString());
+        final String[] httpHeadersFields = HEADERS_BODY_PATTERN.split(httpHeadersAndBody[0]);
+        return Arrays.stream(httpHeadersFields)
+                .skip(1)
+                .map(HEADER_VALUE_PATTERN::split)
+                .filter((httpFieldParts) -> httpFieldParts.length == 2)
+                .collect(Collectors.toMap((httpFieldParts) -> HttpRequestHeader.fromHeader(httpFieldParts[0]),
+                                          (httpFieldParts) -> httpFieldParts[1].trim(), (first, second) -> first));
+    }
+
+
+}
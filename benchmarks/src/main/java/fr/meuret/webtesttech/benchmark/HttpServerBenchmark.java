@@ -0,0 +1,94 @@
+package fr.meuret.webtesttech.benchmark;
+
+import fr.meuret.webtesttech.conf.HttpConfiguration;
+import fr.meuret.webtesttech.nio.HttpServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end benchmark : a keep-alive GET of a static file through a {@link HttpServer} listening on the loopback
+ * interface. Measures the whole path, from the client write to the last byte of the response.
+ * <p>
+ * Every benchmark thread has its own connection, run with <code>-t</code> to load the server with several clients.
+ *
+ * @author Jerome
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpServerBenchmark {
+
+
+    /**
+     * The server, shared by all the benchmark threads, serving a small (pre-rendered) and a large (mapped) file.
+     */
+    @State(Scope.Benchmark)
+    public static class Server {
+
+        @Param({"1024", "262144"})
+        public int fileSize;
+
+        private Path rootPath;
+        private EmbeddedServer server;
+
+        @Setup
+        public void start() throws Exception {
+
+            rootPath = Files.createTempDirectory("http-server-benchmark");
+            final byte[] content = new byte[fileSize];
+            for (int i = 0; i < content.length; i++) {
+                content[i] = (byte) ('a' + i % 26);
+            }
+            Files.write(rootPath.resolve("file.txt"), content);
+
+            server = new EmbeddedServer(new HttpConfiguration.Builder().port(EmbeddedServer.freePort()).rootPath(
+                    rootPath.toString()).build());
+            server.start();
+        }
+
+        @TearDown
+        public void stop() throws Exception {
+
+            server.stop();
+            try (Stream<Path> files = Files.walk(rootPath)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * A keep-alive connection per benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+
+        private final ByteBuffer request = LoopbackClient.get("/file.txt", true);
+        private LoopbackClient client;
+
+        @Setup
+        public void connect(Server server) throws IOException {
+            client = new LoopbackClient(server.server.getPort());
+        }
+
+        @TearDown
+        public void disconnect() throws IOException {
+            client.close();
+        }
+    }
+
+    @Benchmark
+    public int keepAliveGet(Client client) throws IOException {
+        return client.client.send(client.request);
+    }
+
+
+}
@@ -0,0 +1,136 @@
+package fr.meuret.webtesttech.benchmark;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A minimal blocking HTTP/1.1 client, sending a request and reading its whole response before the next one. The
+ * response bodies are read into a fixed buffer and discarded, whatever their size.
+ *
+ * @author Jerome
+ */
+public class LoopbackClient implements Closeable {
+
+
+    private static final byte[] CONTENT_LENGTH = "\r\nContent-Length: ".getBytes(StandardCharsets.ISO_8859_1);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final ByteBuffer response = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long responseLength;
+
+
+    /**
+     * Opens a connection to a server listening on the loopback interface.
+     *
+     * @param port the port of the server.
+     * @throws IOException if the connection fails.
+     */
+    public LoopbackClient(int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+        channel.socket().setTcpNoDelay(true);
+    }
+
+    /**
+     * Builds a GET request.
+     *
+     * @param requestPath the request path.
+     * @param keepAlive   true to ask for a persistent connection.
+     * @return the request, ready to be sent.
+     */
+    public static ByteBuffer get(String requestPath, boolean keepAlive) {
+        final String request = "GET " + requestPath + " HTTP/1.1\r\nHost: localhost\r\nConnection: " + (keepAlive ?
+                "keep-alive" : "close") + "\r\n\r\n";
+        return ByteBuffer.wrap(request.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Sends a request and reads the whole response, which must have a <code>Content-Length</code> header (or no body).
+     *
+     * @param request the request, which is rewound first so that it can be sent again.
+     * @return the status code of the response.
+     * @throws IOException if the connection fails or is closed before the end of the response.
+     */
+    public int send(ByteBuffer request) throws IOException {
+
+        request.rewind();
+        while (request.hasRemaining()) {
+            channel.write(request);
+        }
+
+        response.clear();
+        int headerEnd = -1;
+        while (headerEnd < 0) {
+            if (!response.hasRemaining()) {
+                throw new IOException("Response headers larger than " + BUFFER_SIZE + " bytes");
+            }
+            read();
+            headerEnd = indexOfHeaderEnd(response);
+        }
+
+        final int statusCode = (response.get(9) - '0') * 100 + (response.get(10) - '0') * 10 + (response.get(11) - '0');
+        final long contentLength = contentLength(response, headerEnd);
+        long bodyRead = response.position() - headerEnd;
+        while (bodyRead < contentLength) {
+            response.clear();
+            bodyRead += read();
+        }
+        responseLength = headerEnd + contentLength;
+        return statusCode;
+    }
+
+    /**
+     * @return the length of the last response, headers included.
+     */
+    public long getResponseLength() {
+        return responseLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int read() throws IOException {
+        final int bytesRead = channel.read(response);
+        if (bytesRead < 0) {
+            throw new EOFException("Connection closed by the server");
+        }
+        return bytesRead;
+    }
+
+    private static int indexOfHeaderEnd(ByteBuffer response) {
+        for (int i = 3; i < response.position(); i++) {
+            if (response.get(i) == '\n' && response.get(i - 1) == '\r' && response.get(i - 2) == '\n'
+                    && response.get(i - 3) == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static long contentLength(ByteBuffer response, int headerEnd) {
+
+        search:
+        for (int i = 0; i < headerEnd - CONTENT_LENGTH.length; i++) {
+            for (int j = 0; j < CONTENT_LENGTH.length; j++) {
+                if ((response.get(i + j) | 0x20) != (CONTENT_LENGTH[j] | 0x20)) {
+                    continue search;
+                }
+            }
+            long length = 0;
+            for (int k = i + CONTENT_LENGTH.length; response.get(k) != '\r'; k++) {
+                length = length * 10 + (response.get(k) - '0');
+            }
+            return length;
+        }
+        return 0;
+    }
+
+
+}
@@ -0,0 +1,214 @@
+package fr.meuret.webtesttech.benchmark;
+
+import fr.meuret.webtesttech.conf.HttpConfiguration;
+import fr.meuret.webtesttech.nio.HttpServer;
+import org.openjdk.jmh.annotations.*;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end TLS benchmark against a {@link HttpServer} in SSL mode, listening on the loopback interface :
+ * <ul>
+ * <li>handshake : a new connection, its handshake and a small GET, either a full handshake or the resumption of a
+ * cached session.</li>
+ * <li>bulkTransfer : a keep-alive GET of a large file, i.e. the encryption throughput (multiply the operations per
+ * second by the file size).</li>
+ * </ul>
+ * Compare with {@link HttpServerBenchmark} for the cost of TLS. Every benchmark thread has its own connections, run
+ * with <code>-t</code> to load the server with several clients.
+ *
+ * @author Jerome
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TlsBenchmark {
+
+
+    private static final String KEY_STORE = "localhost.p12";
+    private static final char[] KEY_STORE_PASSWORD = "changeit".toCharArray();
+    private static final int LARGE_FILE_SIZE = 1024 * 1024;
+
+    /**
+     * The server, shared by all the benchmark threads, serving a small and a large file with a self-signed certificate.
+     */
+    @State(Scope.Benchmark)
+    public static class Server {
+
+        private Path rootPath;
+        private EmbeddedServer server;
+
+        @Setup
+        public void start() throws Exception {
+
+            rootPath = Files.createTempDirectory("tls-benchmark");
+            final byte[] content = new byte[LARGE_FILE_SIZE];
+            for (int i = 0; i < content.length; i++) {
+                content[i] = (byte) ('a' + i % 26);
+            }
+            Files.write(rootPath.resolve("large.txt"), content);
+            Files.write(rootPath.resolve("small.txt"), "small".getBytes(StandardCharsets.US_ASCII));
+            final Path keyStore = rootPath.resolve(KEY_STORE);
+            try (InputStream in = TlsBenchmark.class.getResourceAsStream(KEY_STORE)) {
+                Files.copy(in, keyStore);
+            }
+
+            server = new EmbeddedServer(new HttpConfiguration.Builder().port(EmbeddedServer.freePort()).rootPath(
+                    rootPath.toString()).useSSL(true).keyStore(keyStore).keyStorePassword(
+                    new String(KEY_STORE_PASSWORD)).build());
+            server.start();
+        }
+
+        @TearDown
+        public void stop() throws Exception {
+
+            server.stop();
+            try (Stream<Path> files = Files.walk(rootPath)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * The client context of a benchmark thread, which caches the sessions of the server for resumption.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+
+        @Param({"false", "true"})
+        public boolean resumption;
+
+        private final byte[] body = new byte[64 * 1024];
+        private SSLContext context;
+        private int port;
+
+        @Setup
+        public void init(Server server) throws Exception {
+            context = clientContext();
+            port = server.server.getPort();
+        }
+    }
+
+    /**
+     * A keep-alive connection per benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Connection {
+
+        private final byte[] request = get("/large.txt", true);
+        private final byte[] body = new byte[64 * 1024];
+        private SSLSocket socket;
+        private InputStream in;
+
+        @Setup
+        public void connect(Server server) throws Exception {
+            socket = open(clientContext(), server.server.getPort());
+            socket.startHandshake();
+            in = new BufferedInputStream(socket.getInputStream());
+        }
+
+        @TearDown
+        public void disconnect() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    public long handshake(Client client) throws IOException {
+
+        try (SSLSocket socket = open(client.context, client.port)) {
+            final long length = send(socket.getOutputStream(), new BufferedInputStream(socket.getInputStream()),
+                                     get("/small.txt", false), client.body);
+            if (!client.resumption) {
+                //The next connection performs a full handshake
+                socket.getSession().invalidate();
+            }
+            return length;
+        }
+    }
+
+    @Benchmark
+    public long bulkTransfer(Connection connection) throws IOException {
+        return send(connection.socket.getOutputStream(), connection.in, connection.request, connection.body);
+    }
+
+    /**
+     * @return a client context trusting the self-signed certificate of the server.
+     */
+    private static SSLContext clientContext() throws Exception {
+
+        final KeyStore trustStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = TlsBenchmark.class.getResourceAsStream(KEY_STORE)) {
+            trustStore.load(in, KEY_STORE_PASSWORD);
+        }
+        final TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(
+                TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(trustStore);
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(), null);
+        return context;
+    }
+
+    private static SSLSocket open(SSLContext context, int port) throws IOException {
+        final SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket("127.0.0.1", port);
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+
+    private static byte[] get(String requestPath, boolean keepAlive) {
+        final String request = "GET " + requestPath + " HTTP/1.1\r\nHost: localhost\r\nConnection: " + (keepAlive ?
+                "keep-alive" : "close") + "\r\n\r\n";
+        return request.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Sends a request and reads the whole response, which must have a <code>Content-Length</code> header.
+     *
+     * @return the length of the response body.
+     */
+    private static long send(OutputStream out, InputStream in, byte[] request, byte[] body) throws IOException {
+
+        out.write(request);
+        out.flush();
+        final StringBuilder headers = new StringBuilder(256);
+        while (headers.length() < 4 || headers.lastIndexOf("\r\n\r\n") != headers.length() - 4) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed by the server");
+            }
+            headers.append((char) b);
+        }
+        //The header names are case-insensitive
+        final String header = headers.toString().toLowerCase(Locale.ROOT);
+        final int start = header.indexOf("content-length:") + "content-length:".length();
+        final long contentLength = Long.parseLong(header.substring(start, header.indexOf("\r\n", start)).trim());
+        long bodyRead = 0;
+        while (bodyRead < contentLength) {
+            final int bytesRead = in.read(body, 0, (int) Math.min(body.length, contentLength - bodyRead));
+            if (bytesRead < 0) {
+                throw new EOFException("Connection closed by the server");
+            }
+            bodyRead += bytesRead;
+        }
+        return bodyRead;
+    }
+
+
+}
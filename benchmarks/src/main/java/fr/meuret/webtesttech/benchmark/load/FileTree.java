@@ -0,0 +1,118 @@
+package fr.meuret.webtesttech.benchmark.load;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * A generated root path, and the request paths of every request type :
+ * <ul>
+ * <li>small/ : small HTML files of random sizes</li>
+ * <li>large/ : a few large binary files</li>
+ * <li>listing/dir-N/ : directories holding many empty files</li>
+ * </ul>
+ * The tree is generated with a fixed seed, so that runs are comparable.
+ *
+ * @author Jerome
+ */
+public class FileTree {
+
+
+    private static final long SEED = 42;
+    private static final int LISTING_DIRECTORIES = 8;
+
+    private final Path rootPath;
+    private final Map<RequestType, List<String>> requestPaths = new EnumMap<>(RequestType.class);
+
+
+    private FileTree(Path rootPath) {
+        this.rootPath = rootPath;
+        for (RequestType requestType : RequestType.values()) {
+            requestPaths.put(requestType, new ArrayList<>());
+        }
+    }
+
+    /**
+     * Generates a tree in a new temporary directory.
+     *
+     * @param options the sizes of the tree.
+     * @return the generated tree.
+     * @throws IOException if the tree cannot be written.
+     */
+    public static FileTree generate(LoadOptions options) throws IOException {
+
+        final FileTree tree = new FileTree(Files.createTempDirectory("load-generator"));
+        final SplittableRandom random = new SplittableRandom(SEED);
+
+        final Path small = Files.createDirectory(tree.rootPath.resolve("small"));
+        for (int i = 0; i < options.getSmallFiles(); i++) {
+            final byte[] content = new byte[1 + random.nextInt(options.getSmallFileSize() * 1024)];
+            fill(content, random);
+            Files.write(small.resolve("file-" + i + ".html"), content);
+            tree.requestPaths.get(RequestType.SMALL).add("/small/file-" + i + ".html");
+            tree.requestPaths.get(RequestType.NOT_FOUND).add("/small/missing-" + i + ".html");
+        }
+
+        final Path large = Files.createDirectory(tree.rootPath.resolve("large"));
+        final byte[] block = new byte[1024 * 1024];
+        for (int i = 0; i < options.getLargeFiles(); i++) {
+            final Path file = large.resolve("file-" + i + ".bin");
+            fill(block, random);
+            Files.write(file, new byte[0]);
+            for (int megabyte = 0; megabyte < options.getLargeFileSize(); megabyte++) {
+                Files.write(file, block, StandardOpenOption.APPEND);
+            }
+            tree.requestPaths.get(RequestType.LARGE).add("/large/file-" + i + ".bin");
+        }
+
+        final Path listing = Files.createDirectory(tree.rootPath.resolve("listing"));
+        for (int i = 0; i < LISTING_DIRECTORIES; i++) {
+            final Path directory = Files.createDirectory(listing.resolve("dir-" + i));
+            for (int entry = 0; entry < options.getListingEntries(); entry++) {
+                Files.createFile(directory.resolve("entry-" + entry + ".txt"));
+            }
+            //The trailing slash avoids the redirection
+            tree.requestPaths.get(RequestType.LISTING).add("/listing/dir-" + i + "/");
+        }
+        return tree;
+    }
+
+    public Path getRootPath() {
+        return rootPath;
+    }
+
+    /**
+     * @param requestType a request type.
+     * @return the request paths of this type.
+     */
+    public List<String> getRequestPaths(RequestType requestType) {
+        return requestPaths.get(requestType);
+    }
+
+    /**
+     * Deletes the tree.
+     *
+     * @throws IOException if the tree cannot be walked.
+     */
+    public void delete() throws IOException {
+        try (Stream<Path> files = Files.walk(rootPath)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static void fill(byte[] content, SplittableRandom random) {
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + random.nextInt(26));
+        }
+    }
+
+
+}
@@ -0,0 +1,152 @@
+package fr.meuret.webtesttech.benchmark.load;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+import fr.meuret.webtesttech.benchmark.EmbeddedServer;
+import fr.meuret.webtesttech.conf.HttpConfiguration;
+import org.HdrHistogram.Histogram;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A load generator starting an {@link fr.meuret.webtesttech.nio.HttpServer} on the loopback interface, against a
+ * generated root path, and reporting the throughput and the latency percentiles.
+ * <p>
+ * The load options are described by {@link LoadOptions}, and every option of the server is supported as well, so that
+ * execution models and cache sizes can be compared on one box, e.g. :
+ * <p>
+ * <code>java -cp target/benchmarks.jar fr.meuret.webtesttech.benchmark.load.LoadGenerator -mode OPEN -rate 5000
+ * -executionModel WORKER_POOL</code>
+ *
+ * @author Jerome
+ */
+public class LoadGenerator {
+
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        final LoadOptions options = new LoadOptions();
+        final HttpConfiguration.Builder serverBuilder = new HttpConfiguration.Builder();
+        final JCommander jCommander = new JCommander(new Object[]{options, serverBuilder});
+        final RequestMix mix;
+        try {
+            jCommander.parse(args);
+            mix = options.getMix();
+        } catch (ParameterException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            jCommander.usage();
+            return;
+        }
+        if (options.isHelp()) {
+            jCommander.usage();
+            return;
+        }
+
+        final FileTree tree = FileTree.generate(options);
+        final HttpConfiguration configuration = serverBuilder.port(EmbeddedServer.freePort()).rootPath(
+                tree.getRootPath().toString()).build();
+        final EmbeddedServer server = new EmbeddedServer(configuration);
+        server.start();
+        try {
+            System.out.println("Load : " + options + ", mix=" + mix);
+            System.out.println("Server : " + configuration);
+            run(options, tree, server);
+        } finally {
+            server.stop();
+            tree.delete();
+        }
+    }
+
+    private static void run(LoadOptions options, FileTree tree, EmbeddedServer server) throws Exception {
+
+        final long start = System.nanoTime();
+        final long warmupEnd = start + TimeUnit.SECONDS.toNanos(options.getWarmup());
+        final long end = warmupEnd + TimeUnit.SECONDS.toNanos(options.getDuration());
+
+        final List<LoadWorker> workers = new ArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < options.getConnections(); i++) {
+            final LoadWorker worker = new LoadWorker(options, tree, server.getPort(), i, warmupEnd, end);
+            final Thread thread = new Thread(worker, "load-worker-" + i);
+            workers.add(worker);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        final Histogram latencies = new Histogram(3);
+        final Histogram serviceTimes = new Histogram(3);
+        final long[] statusCounts = new long[600];
+        long requests = 0;
+        long bytes = 0;
+        long errors = 0;
+        for (LoadWorker worker : workers) {
+            latencies.add(worker.getLatencies());
+            serviceTimes.add(worker.getServiceTimes());
+            requests += worker.getRequestCount();
+            bytes += worker.getByteCount();
+            errors += worker.getErrorCount();
+            for (int status = 0; status < statusCounts.length; status++) {
+                statusCounts[status] += worker.getStatusCounts()[status];
+            }
+        }
+
+        final double seconds = options.getDuration();
+        System.out.printf("Throughput : %.1f requests/s, %.1f MB/s, %d requests, %d errors%n", requests / seconds,
+                          bytes / seconds / (1024 * 1024), requests, errors);
+        final StringBuilder statuses = new StringBuilder("Status codes :");
+        for (int status = 0; status < statusCounts.length; status++) {
+            if (statusCounts[status] > 0) {
+                statuses.append(' ').append(status).append('=').append(statusCounts[status]);
+            }
+        }
+        System.out.println(statuses);
+        printPercentiles(options.getMode() == LoadMode.OPEN ? "Latency (corrected)" : "Latency", latencies);
+        if (options.getMode() == LoadMode.OPEN) {
+            printPercentiles("Service time (uncorrected)", serviceTimes);
+        }
+        for (RequestType requestType : RequestType.values()) {
+            final Histogram byType = new Histogram(3);
+            for (LoadWorker worker : workers) {
+                byType.add(worker.getLatencies(requestType));
+            }
+            if (byType.getTotalCount() > 0) {
+                printPercentiles("  " + requestType.getMixName(), byType);
+            }
+        }
+        System.out.println("Server execution : " + server.getHttpServer().getDispatcher());
+
+        if (options.getHistogramFile() != null) {
+            try (PrintStream histogramFile = new PrintStream(options.getHistogramFile())) {
+                //Microseconds, reported in milliseconds
+                latencies.outputPercentileDistribution(histogramFile, 1000.0);
+            } catch (FileNotFoundException e) {
+                System.err.println("Unable to write the histogram : " + e.getMessage());
+            }
+        }
+    }
+
+    private static void printPercentiles(String title, Histogram histogram) {
+
+        final StringBuilder line = new StringBuilder(String.format("%-28s (ms) :", title));
+        for (double percentile : PERCENTILES) {
+            line.append(String.format(" p%s=%.3f", percentile % 1 == 0 ? Integer.toString((int) percentile) :
+                    Double.toString(percentile), histogram.getValueAtPercentile(percentile) / 1000.0));
+        }
+        line.append(String.format(" max=%.3f count=%d", histogram.getMaxValue() / 1000.0, histogram.getTotalCount()));
+        System.out.println(line);
+    }
+
+
+}
@@ -0,0 +1,21 @@
+package fr.meuret.webtesttech.benchmark.load;
+
+/**
+ * How the load generator paces the requests.
+ *
+ * @author Jerome
+ */
+public enum LoadMode {
+
+    /**
+     * Every connection sends its next request as soon as it has read the previous response : the throughput is
+     * whatever the server sustains, the latency is the service time.
+     */
+    CLOSED,
+    /**
+     * The requests are sent at a fixed rate, whatever the server does. A request that could not be sent on time
+     * (e.g. the connection was still waiting for a slow response) is measured from the time it should have been sent,
+     * which corrects the coordinated omission of the closed loop.
+     */
+    OPEN
+}
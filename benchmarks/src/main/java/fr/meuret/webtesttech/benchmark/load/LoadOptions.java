@@ -0,0 +1,118 @@
+package fr.meuret.webtesttech.benchmark.load;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.validators.PositiveInteger;
+import fr.meuret.webtesttech.conf.StrictlyPositiveInteger;
+
+/**
+ * The options of the load generator. The server options (execution model, caches...) are the ones of
+ * <code>HttpServer</code>, see <code>HttpConfiguration</code>.
+ *
+ * @author Jerome
+ */
+public class LoadOptions {
+
+
+    @Parameter(names = {"-mode"}, description = "Load mode : CLOSED or OPEN.")
+    private LoadMode mode = LoadMode.CLOSED;
+    @Parameter(names = {"-connections"}, description = "Number of concurrent connections (one thread each).",
+               validateWith = StrictlyPositiveInteger.class)
+    private int connections = 16;
+    @Parameter(names = {"-rate"}, description = "Requests per second, for all the connections (OPEN mode).",
+               validateWith = StrictlyPositiveInteger.class)
+    private int rate = 1000;
+    @Parameter(names = {"-duration"}, description = "Measured duration, in seconds.",
+               validateWith = StrictlyPositiveInteger.class)
+    private int duration = 30;
+    @Parameter(names = {"-warmup"}, description = "Warmup duration, in seconds.")
+    private int warmup = 5;
+    @Parameter(names = {"-keepAlive"}, description = "Persistent connections, or a connection per request.",
+               arity = 1)
+    private boolean keepAlive = true;
+    @Parameter(names = {"-mix"}, description = "Request mix, e.g. small=70,large=10,listing=10,notFound=10.")
+    private String mix = "small=70,large=10,listing=10,notFound=10";
+    @Parameter(names = {"-smallFiles"}, description = "Number of small files.", validateWith = PositiveInteger.class)
+    private int smallFiles = 1000;
+    @Parameter(names = {"-smallFileSize"}, description = "Maximum size of the small files, in kilobytes.",
+               validateWith = PositiveInteger.class)
+    private int smallFileSize = 32;
+    @Parameter(names = {"-largeFiles"}, description = "Number of large files.", validateWith = PositiveInteger.class)
+    private int largeFiles = 4;
+    @Parameter(names = {"-largeFileSize"}, description = "Size of the large files, in megabytes.",
+               validateWith = PositiveInteger.class)
+    private int largeFileSize = 4;
+    @Parameter(names = {"-listingEntries"}, description = "Number of entries of the listed directories.",
+               validateWith = PositiveInteger.class)
+    private int listingEntries = 200;
+    @Parameter(names = {"-histogramFile"}, description = "Writes the full latency distribution (hgrm) to this file.")
+    private String histogramFile;
+    @Parameter(names = {"-help"}, help = true, description = "Prints the usage.")
+    private boolean help;
+
+
+    public LoadMode getMode() {
+        return mode;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    public int getDuration() {
+        return duration;
+    }
+
+    public int getWarmup() {
+        return warmup;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public RequestMix getMix() {
+        return RequestMix.parse(mix);
+    }
+
+    public int getSmallFiles() {
+        return smallFiles;
+    }
+
+    public int getSmallFileSize() {
+        return smallFileSize;
+    }
+
+    public int getLargeFiles() {
+        return largeFiles;
+    }
+
+    public int getLargeFileSize() {
+        return largeFileSize;
+    }
+
+    public int getListingEntries() {
+        return listingEntries;
+    }
+
+    public String getHistogramFile() {
+        return histogramFile;
+    }
+
+    public boolean isHelp() {
+        return help;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadOptions{" + "mode=" + mode + ", connections=" + connections + ", rate=" + rate + ", duration=" +
+                duration + ", warmup=" + warmup + ", keepAlive=" + keepAlive + ", mix=" + mix + ", smallFiles=" +
+                smallFiles + ", smallFileSize=" + smallFileSize + ", largeFiles=" + largeFiles + ", largeFileSize=" +
+                largeFileSize + ", listingEntries=" + listingEntries + '}';
+    }
+
+
+}
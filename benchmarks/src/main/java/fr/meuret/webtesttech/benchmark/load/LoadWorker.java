@@ -0,0 +1,180 @@
+package fr.meuret.webtesttech.benchmark.load;
+
+import fr.meuret.webtesttech.benchmark.LoopbackClient;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A connection of the load generator, driven by its own thread. The recorded latencies are in microseconds, and only
+ * the requests started after the warmup are recorded.
+ * <p>
+ * In the open loop, every request has an intended start time. The latency is measured from this time rather than from
+ * the actual send, so that the requests delayed by a slow response are not omitted from the measure.
+ *
+ * @author Jerome
+ */
+public class LoadWorker implements Runnable {
+
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final LoadOptions options;
+    private final RequestMix mix;
+    private final int port;
+    private final ByteBuffer[][] requests = new ByteBuffer[RequestType.values().length][];
+    private final SplittableRandom random;
+    private final long warmupEnd;
+    private final long end;
+    //Latencies corrected for the coordinated omission (same as the service time in the closed loop)
+    private final Histogram latencies = new Histogram(SIGNIFICANT_DIGITS);
+    //Time between the actual send and the end of the response
+    private final Histogram serviceTimes = new Histogram(SIGNIFICANT_DIGITS);
+    private final Histogram[] latenciesByType = new Histogram[RequestType.values().length];
+    private final long[] statusCounts = new long[600];
+    private long requestCount;
+    private long byteCount;
+    private long errorCount;
+    private LoopbackClient client;
+
+
+    /**
+     * @param options   the load options.
+     * @param tree      the tree served by the server.
+     * @param port      the port of the server.
+     * @param seed      the seed of the request paths choice.
+     * @param warmupEnd the {@link System#nanoTime()} from which the requests are recorded.
+     * @param end       the {@link System#nanoTime()} from which no request is sent.
+     */
+    public LoadWorker(LoadOptions options, FileTree tree, int port, long seed, long warmupEnd, long end) {
+
+        this.options = options;
+        this.mix = options.getMix();
+        this.port = port;
+        this.random = new SplittableRandom(seed);
+        this.warmupEnd = warmupEnd;
+        this.end = end;
+        for (RequestType requestType : RequestType.values()) {
+            //Requests are built once, the buffers are rewound before being sent
+            final List<String> requestPaths = tree.getRequestPaths(requestType);
+            requests[requestType.ordinal()] = new ByteBuffer[requestPaths.size()];
+            for (int i = 0; i < requestPaths.size(); i++) {
+                requests[requestType.ordinal()][i] = LoopbackClient.get(requestPaths.get(i), options.isKeepAlive());
+            }
+            latenciesByType[requestType.ordinal()] = new Histogram(SIGNIFICANT_DIGITS);
+        }
+    }
+
+    @Override
+    public void run() {
+
+        //In the open loop, every connection sends its share of the rate. In the closed loop, the next request is sent
+        //as soon as the response has been read : there is no interval
+        final boolean open = options.getMode() == LoadMode.OPEN;
+        final long interval = open ? Math.max(1, TimeUnit.SECONDS.toNanos(options.getConnections()) / options.getRate())
+                : 0;
+        //The connections are spread over the interval rather than sending at the same time
+        long intendedStart = open ? System.nanoTime() + random.nextLong(interval) : 0;
+
+        while (true) {
+            long start = System.nanoTime();
+            if (open) {
+                while (start < intendedStart) {
+                    LockSupport.parkNanos(intendedStart - start);
+                    start = System.nanoTime();
+                }
+            } else {
+                intendedStart = start;
+            }
+            if (start >= end) {
+                break;
+            }
+
+            final RequestType requestType = mix.next(random);
+            final ByteBuffer[] candidates = requests[requestType.ordinal()];
+            final ByteBuffer request = candidates[random.nextInt(candidates.length)];
+            final int statusCode = send(request);
+
+            final long finish = System.nanoTime();
+            if (intendedStart >= warmupEnd) {
+                if (statusCode < 0) {
+                    errorCount++;
+                } else {
+                    final long latency = TimeUnit.NANOSECONDS.toMicros(finish - intendedStart);
+                    latencies.recordValue(latency);
+                    latenciesByType[requestType.ordinal()].recordValue(latency);
+                    serviceTimes.recordValue(TimeUnit.NANOSECONDS.toMicros(finish - start));
+                    statusCounts[statusCode]++;
+                    requestCount++;
+                    byteCount += client.getResponseLength();
+                }
+            }
+            intendedStart += interval;
+
+            if (!options.isKeepAlive() || statusCode < 0) {
+                closeClient();
+            }
+        }
+        closeClient();
+    }
+
+    /**
+     * @return the status code of the response, or -1 if the request failed.
+     */
+    private int send(ByteBuffer request) {
+        try {
+            if (client == null) {
+                client = new LoopbackClient(port);
+            }
+            return client.send(request);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private void closeClient() {
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                //Nothing left to do with this connection
+            }
+            client = null;
+        }
+    }
+
+    public Histogram getLatencies() {
+        return latencies;
+    }
+
+    public Histogram getServiceTimes() {
+        return serviceTimes;
+    }
+
+    public Histogram getLatencies(RequestType requestType) {
+        return latenciesByType[requestType.ordinal()];
+    }
+
+    public long[] getStatusCounts() {
+        return statusCounts;
+    }
+
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+
+}
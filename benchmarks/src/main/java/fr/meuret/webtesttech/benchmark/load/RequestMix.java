@@ -0,0 +1,86 @@
+package fr.meuret.webtesttech.benchmark.load;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A weighted mix of request types, e.g. <i>small=70,large=10,listing=10,notFound=10</i>.
+ *
+ * @author Jerome
+ */
+public class RequestMix {
+
+
+    private final int[] weights = new int[RequestType.values().length];
+    private final int totalWeight;
+
+
+    private RequestMix(int[] weights) {
+        System.arraycopy(weights, 0, this.weights, 0, weights.length);
+        this.totalWeight = Arrays.stream(weights).sum();
+    }
+
+    /**
+     * Parses a mix.
+     *
+     * @param mix comma separated <i>type=weight</i> pairs, the types that are not listed are not requested.
+     * @return the mix.
+     * @throws IllegalArgumentException if the mix is invalid.
+     */
+    public static RequestMix parse(String mix) {
+
+        final int[] weights = new int[RequestType.values().length];
+        for (String entry : mix.split(",")) {
+            final String[] typeAndWeight = entry.trim().split("=");
+            final RequestType requestType = typeAndWeight.length == 2 ? RequestType.fromMixName(
+                    typeAndWeight[0].trim()) : null;
+            if (requestType == null) {
+                throw new IllegalArgumentException("Invalid request mix entry : " + entry);
+            }
+            try {
+                weights[requestType.ordinal()] = Integer.parseInt(typeAndWeight[1].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid request mix weight : " + entry);
+            }
+            if (weights[requestType.ordinal()] < 0) {
+                throw new IllegalArgumentException("Invalid request mix weight : " + entry);
+            }
+        }
+
+        if (Arrays.stream(weights).sum() == 0) {
+            throw new IllegalArgumentException("The request mix is empty : " + mix);
+        }
+        return new RequestMix(weights);
+    }
+
+    /**
+     * @param random the random generator of the calling thread.
+     * @return a request type, drawn as per the weights of the mix.
+     */
+    public RequestType next(SplittableRandom random) {
+
+        int draw = random.nextInt(totalWeight);
+        for (RequestType requestType : RequestType.values()) {
+            draw -= weights[requestType.ordinal()];
+            if (draw < 0) {
+                return requestType;
+            }
+        }
+        throw new IllegalStateException("Unreachable");
+    }
+
+    @Override
+    public String toString() {
+
+        final StringBuilder mix = new StringBuilder();
+        for (RequestType requestType : RequestType.values()) {
+            if (weights[requestType.ordinal()] > 0) {
+                mix.append(mix.length() > 0 ? "," : "").append(requestType.getMixName()).append('=').append(
+                        weights[requestType.ordinal()]);
+            }
+        }
+        return mix.toString();
+    }
+
+
+}
@@ -0,0 +1,48 @@
+package fr.meuret.webtesttech.benchmark.load;
+
+/**
+ * The kinds of requests sent by the load generator, each one exercising a different path of the server.
+ *
+ * @author Jerome
+ */
+public enum RequestType {
+
+    /**
+     * A small file, served as a pre-rendered response.
+     */
+    SMALL("small"),
+    /**
+     * A large file, served from the mapped files cache or streamed.
+     */
+    LARGE("large"),
+    /**
+     * A directory listing.
+     */
+    LISTING("listing"),
+    /**
+     * A file that does not exist.
+     */
+    NOT_FOUND("notFound");
+
+    private final String mixName;
+
+    RequestType(String mixName) {
+        this.mixName = mixName;
+    }
+
+    /**
+     * @return the name of the request type in a mix, e.g. <i>notFound</i>.
+     */
+    public String getMixName() {
+        return mixName;
+    }
+
+    public static RequestType fromMixName(String mixName) {
+        for (RequestType requestType : values()) {
+            if (requestType.mixName.equalsIgnoreCase(mixName)) {
+                return requestType;
+            }
+        }
+        return null;
+    }
+}
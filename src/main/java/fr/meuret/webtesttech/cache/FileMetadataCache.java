@@ -0,0 +1,298 @@
+package fr.meuret.webtesttech.cache;
+
+import fr.meuret.webtesttech.http.MimeTypes;
+import fr.meuret.webtesttech.util.HttpUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of the resolution of the request paths : the real path, the type, the attributes and the MIME type
+ * of the requested file, or the fact that there is no such file.
+ * <p>
+ * Resolving a request path costs a batch of syscalls (existence, hidden flag, real path, attributes) and a MIME type
+ * lookup, for every request. A cached resolution is served for a time to live at most, and is dropped as soon as its
+ * directory changes : the directory of every cached request path is watched by a {@link WatchService}, and a
+ * background thread bumps the version of the changed directories, which invalidates all their entries at once. The
+ * directories that can not be watched (e.g. the missing parent of a missing file) only rely on the time to live. A
+ * zero time to live disables the cache.
+ * <p>
+ * The missing files are cached as well, so that the clients polling a missing resource are answered without any
+ * syscall.
+ *
+ * @author Jerome
+ */
+public class FileMetadataCache implements Closeable {
+
+
+    public static final int DEFAULT_MAX_ENTRIES = 64 * 1024;
+    private static final Logger logger = LoggerFactory.getLogger(FileMetadataCache.class);
+    //Every watched directory holds an inotify watch (or the like) : beyond, the entries only expire
+    private static final int MAX_WATCHED_DIRECTORIES = 4096;
+    private final Path rootPath;
+    private final MimeTypes mimeTypes;
+    private final LruCache<String, FileMetadata> entries;
+    private final long timeToLive;
+    private final WatchService watchService;
+    private final Map<Path, WatchedDirectory> watchedDirectories = new ConcurrentHashMap<>();
+    private final Map<WatchKey, WatchedDirectory> watchKeys = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+
+    /**
+     * @param rootPath         the static files root path.
+     * @param mimeTypes        the MIME types of the files.
+     * @param maxEntries       the maximum number of cached request paths.
+     * @param timeToLiveMillis the maximum age of a cached resolution, in milliseconds. <i>0</i> disables the cache.
+     */
+    public FileMetadataCache(Path rootPath, MimeTypes mimeTypes, int maxEntries, long timeToLiveMillis) {
+
+        this.rootPath = rootPath;
+        this.mimeTypes = mimeTypes;
+        this.entries = new LruCache<>(timeToLiveMillis > 0 ? maxEntries : 0, metadata -> 1);
+        this.timeToLive = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+
+        WatchService service = null;
+        try {
+            service = timeToLiveMillis > 0 ? FileSystems.getDefault().newWatchService() : null;
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.warn("The file system can not be watched, file metadata will only expire : {}", e.getMessage());
+        }
+        this.watchService = service;
+        if (watchService != null) {
+            final Thread watcher = new Thread(this::watch, "metadata-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    /**
+     * Resolves a request path, from the cache when the cached resolution is still valid.
+     *
+     * @param requestPath the request path, as received (not decoded).
+     * @return the metadata of the requested file.
+     * @throws IOException if the request path can not be resolved.
+     */
+    public FileMetadata get(String requestPath) throws IOException {
+
+        FileMetadata metadata = entries.get(requestPath);
+        if (metadata != null) {
+            if (metadata.isValid(timeToLive)) {
+                hits.increment();
+                return metadata;
+            }
+            invalidations.increment();
+        }
+        misses.increment();
+        metadata = load(requestPath);
+        if (timeToLive > 0) {
+            entries.put(requestPath, metadata);
+        }
+        return metadata;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of cached resolutions found expired or invalidated by a change of their directory.
+     */
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileMetadataCache{" + "hits=" + getHitCount() + ", misses=" + getMissCount() + ", invalidations=" +
+                getInvalidationCount() + ", evictions=" + entries.getEvictionCount() + ", entries=" + entries.size() +
+                ", watchedDirectories=" + watchedDirectories.size() + '}';
+    }
+
+    private FileMetadata load(String requestPath) throws IOException {
+
+        final long loadTime = System.nanoTime();
+        final String sanitizedRequestPath = HttpUtils.sanitizeRequestPath(requestPath);
+        if (sanitizedRequestPath == null) {
+            //Insecure paths never resolve to a file
+            return new FileMetadata(FileType.NOT_FOUND, null, null, null, null, 0, loadTime);
+        }
+        final Path resolvedRequestPath = rootPath.resolve(sanitizedRequestPath);
+
+        //Watch before reading, so that no change is missed
+        final WatchedDirectory directory = watch(resolvedRequestPath.getParent());
+        final int version = directory == null ? 0 : directory.version;
+        try {
+            if (Files.notExists(resolvedRequestPath) || Files.isHidden(resolvedRequestPath)) {
+                return new FileMetadata(FileType.NOT_FOUND, null, null, null, directory, version, loadTime);
+            }
+            final Path realPath = resolvedRequestPath.toRealPath();
+            final BasicFileAttributes attributes = Files.readAttributes(realPath, BasicFileAttributes.class);
+            if (attributes.isDirectory()) {
+                return new FileMetadata(FileType.DIRECTORY, realPath, attributes, null, directory, version, loadTime);
+            }
+            if (!attributes.isRegularFile()) {
+                //Devices, sockets, pipes are not served
+                return new FileMetadata(FileType.NOT_FOUND, null, null, null, directory, version, loadTime);
+            }
+            final MimeTypes.MimeType mimeType = mimeTypes.get(realPath.getFileName().toString());
+            return new FileMetadata(FileType.FILE, realPath, attributes, mimeType, directory, version, loadTime);
+        } catch (NoSuchFileException e) {
+            //Deleted in the meantime
+            return new FileMetadata(FileType.NOT_FOUND, null, null, null, directory, version, loadTime);
+        }
+    }
+
+    /**
+     * @return the watched directory, or <code>null</code> if it can not be watched.
+     */
+    private WatchedDirectory watch(Path directory) {
+
+        if (watchService == null || directory == null) {
+            return null;
+        }
+        final WatchedDirectory watchedDirectory = watchedDirectories.get(directory);
+        if (watchedDirectory != null || watchedDirectories.size() >= MAX_WATCHED_DIRECTORIES) {
+            return watchedDirectory;
+        }
+        try {
+            final WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                                    StandardWatchEventKinds.ENTRY_DELETE,
+                                                    StandardWatchEventKinds.ENTRY_MODIFY);
+            //A directory registered twice has a single key
+            final WatchedDirectory registered = watchKeys.computeIfAbsent(key, k -> new WatchedDirectory(directory));
+            watchedDirectories.put(directory, registered);
+            return registered;
+        } catch (IOException | ClosedWatchServiceException e) {
+            //Missing directory, or the cache has been closed
+            return null;
+        }
+    }
+
+    private void watch() {
+
+        try {
+            while (true) {
+                final WatchKey key = watchService.take();
+                //Whatever the events, even an overflow, the entries of the directory are stale
+                key.pollEvents();
+                final WatchedDirectory directory = watchKeys.get(key);
+                if (directory != null) {
+                    directory.version++;
+                }
+                if (!key.reset()) {
+                    //The directory is not accessible anymore, its entries will never be valid again
+                    watchKeys.remove(key);
+                    if (directory != null) {
+                        watchedDirectories.remove(directory.path, directory);
+                        directory.version++;
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            //The cache has been closed
+        }
+    }
+
+    /**
+     * The types of the resolved request paths.
+     */
+    public enum FileType {
+        FILE, DIRECTORY, NOT_FOUND
+    }
+
+    private static final class WatchedDirectory {
+
+        private final Path path;
+        //Only written by the watcher thread
+        private volatile int version;
+
+        private WatchedDirectory(Path path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * The resolution of a request path. Immutable.
+     */
+    public static final class FileMetadata {
+
+        private final FileType type;
+        private final Path realPath;
+        private final BasicFileAttributes attributes;
+        private final MimeTypes.MimeType mimeType;
+        private final WatchedDirectory directory;
+        private final int version;
+        private final long loadTime;
+
+        private FileMetadata(FileType type, Path realPath, BasicFileAttributes attributes, MimeTypes.MimeType mimeType,
+                             WatchedDirectory directory, int version, long loadTime) {
+            this.type = type;
+            this.realPath = realPath;
+            this.attributes = attributes;
+            this.mimeType = mimeType;
+            this.directory = directory;
+            this.version = version;
+            this.loadTime = loadTime;
+        }
+
+        private boolean isValid(long timeToLive) {
+            return System.nanoTime() - loadTime < timeToLive && (directory == null || directory.version == version);
+        }
+
+        public FileType getType() {
+            return type;
+        }
+
+        /**
+         * @return the real path of the file or directory, <code>null</code> if not found.
+         */
+        public Path getRealPath() {
+            return realPath;
+        }
+
+        /**
+         * @return the attributes read when the request path was resolved, <code>null</code> if not found.
+         */
+        public BasicFileAttributes getAttributes() {
+            return attributes;
+        }
+
+        /**
+         * @return the MIME type of the file, <code>null</code> if not a file.
+         */
+        public MimeTypes.MimeType getMimeType() {
+            return mimeType;
+        }
+    }
+
+
+}
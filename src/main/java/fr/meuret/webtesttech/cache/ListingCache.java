@@ -0,0 +1,453 @@
+package fr.meuret.webtesttech.cache;
+
+import fr.meuret.webtesttech.util.HttpUtils;
+import fr.meuret.webtesttech.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of directory listings, keyed by the real path of the directories.
+ * <p>
+ * A listing holds the sorted names of the listed entries, and renders its pages lazily, once. Listing a directory is
+ * the costliest request of the server (one syscall or more per entry), so the cached listings are kept up to date
+ * incrementally : every cached directory is watched by a {@link WatchService}, and a background thread applies the
+ * created, deleted and modified entries to a copy of the listing. A listing is dropped when the watch overflows or
+ * the directory disappears. If the file system can not be watched, or if the cache size is zero, the listings are not
+ * cached.
+ * <p>
+ * Large directories are paginated, so that a single response never holds tens of thousands of entries. Listings that
+ * are not cached can also be streamed while the directory is being read.
+ *
+ * @author Jerome
+ */
+public class ListingCache implements Closeable {
+
+
+    private static final Logger logger = LoggerFactory.getLogger(ListingCache.class);
+    //Rough number of rendered bytes per entry on top of twice its name
+    private static final int ENTRY_OVERHEAD = 64;
+    //Every watched directory holds an inotify watch (or the like) : beyond, the listings are not cached
+    private static final int MAX_WATCHED_DIRECTORIES = 4096;
+    private final LruCache<Path, Listing> listings;
+    private final int pageSize;
+    private final WatchService watchService;
+    //Guards the registration of a new listing against the watcher
+    private final Object watchLock = new Object();
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    private final Map<Path, WatchKey> watchKeys = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+
+
+    /**
+     * @param maxBytes the maximum (estimated) size of the cached listings.
+     * @param pageSize the maximum number of entries of a page.
+     */
+    public ListingCache(long maxBytes, int pageSize) {
+
+        this.listings = new LruCache<>(maxBytes, Listing::weight, this::evicted);
+        this.pageSize = pageSize;
+
+        WatchService service = null;
+        try {
+            service = maxBytes > 0 ? FileSystems.getDefault().newWatchService() : null;
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.warn("The file system can not be watched, directory listings will not be cached : {}",
+                        e.getMessage());
+        }
+        this.watchService = service;
+        if (watchService != null) {
+            final Thread watcher = new Thread(this::watch, "listing-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    /**
+     * Gets the listing of a directory, reading the directory if it is not cached.
+     *
+     * @param realDirectory the real path of the directory.
+     * @param title         the title of the listing pages.
+     * @return the listing.
+     * @throws IOException if the directory can not be read.
+     */
+    public Listing get(Path realDirectory, String title) throws IOException {
+
+        Listing listing = listings.get(realDirectory);
+        if (listing != null) {
+            hits.increment();
+            return listing;
+        }
+        misses.increment();
+        if (watchService == null || watchKeys.size() >= MAX_WATCHED_DIRECTORIES) {
+            return new Listing(title, readEntries(realDirectory), pageSize);
+        }
+
+        //Watch before reading, so that no change is missed : the changes already read are applied twice, harmlessly
+        final WatchKey key;
+        try {
+            key = realDirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                         StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            //E.g. the limit of watches of the user is reached : the directory is read if it is readable
+            logger.debug("Unable to watch {}, its listing is not cached : {}", realDirectory, e.toString());
+            return new Listing(title, readEntries(realDirectory), pageSize);
+        }
+        watchedDirectories.put(key, realDirectory);
+        listing = new Listing(title, readEntries(realDirectory), pageSize);
+        synchronized (watchLock) {
+            //The watcher cancels the keys of the directories that are not cached, the eviction of a listing too
+            if (key.isValid()) {
+                watchKeys.put(realDirectory, key);
+                listings.put(realDirectory, listing);
+            } else {
+                watchedDirectories.remove(key);
+            }
+        }
+        return listing;
+    }
+
+    /**
+     * @return true if the listings are cached, false if every listing is read again.
+     */
+    public boolean isEnabled() {
+        return watchService != null;
+    }
+
+    /**
+     * Opens the listing of a directory, to stream it while it is read, in the order of the directory, on a single
+     * page.
+     *
+     * @param directory      the directory to list.
+     * @param title          the title of the listing.
+     * @param entriesPerPart the number of entries rendered in each part.
+     * @return the listing, which must be closed.
+     * @throws IOException if the directory can not be opened.
+     */
+    public static StreamedListing stream(Path directory, String title, int entriesPerPart) throws IOException {
+        return new StreamedListing(Files.newDirectoryStream(directory, ListingCache::isListed), title, entriesPerPart);
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of incremental updates applied to the cached listings.
+     */
+    public long getUpdateCount() {
+        return updates.sum();
+    }
+
+    /**
+     * @return the number of directories watched to keep their cached listings up to date.
+     */
+    public int getWatchedDirectoryCount() {
+        return watchKeys.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ListingCache{" + "hits=" + getHitCount() + ", misses=" + getMissCount() + ", updates=" +
+                getUpdateCount() + ", evictions=" + listings.getEvictionCount() + ", listings=" + listings.size() + '}';
+    }
+
+    /**
+     * The entries that are listed : not hidden, readable and with a safe name.
+     */
+    private static boolean isListed(Path entry) throws IOException {
+        return !Files.isHidden(entry) && Files.isReadable(entry) && HttpUtils.isAllowedFilename(
+                entry.getFileName().toString());
+    }
+
+    private static List<String> readEntries(Path directory) throws IOException {
+
+        final List<String> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, ListingCache::isListed)) {
+            for (Path entry : stream) {
+                entries.add(entry.getFileName().toString());
+            }
+        } catch (DirectoryIteratorException e) {
+            throw e.getCause();
+        }
+        //The directory order is unspecified, a sorted listing keeps stable pages
+        Collections.sort(entries);
+        return entries;
+    }
+
+    private void watch() {
+
+        try {
+            while (true) {
+                final WatchKey key = watchService.take();
+                final Path directory = watchedDirectories.get(key);
+                if (directory != null) {
+                    applyEvents(key, directory);
+                }
+                if (!key.reset()) {
+                    //The directory is not accessible anymore
+                    watchedDirectories.remove(key);
+                    if (directory != null) {
+                        watchKeys.remove(directory, key);
+                        listings.remove(directory);
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            //The cache has been closed
+        }
+    }
+
+    private void applyEvents(WatchKey key, Path directory) {
+
+        final List<WatchEvent<?>> events = key.pollEvents();
+        synchronized (watchLock) {
+            final Listing listing = listings.get(directory);
+            if (listing == null) {
+                //Removed : stop watching the directory
+                unwatch(key, directory);
+                return;
+            }
+
+            final List<String> entries = new ArrayList<>(listing.entries);
+            for (WatchEvent<?> event : events) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    //Some changes are lost, the directory will be read again
+                    listings.remove(directory);
+                    unwatch(key, directory);
+                    return;
+                }
+                final String name = event.context().toString();
+                final int index = Collections.binarySearch(entries, name);
+                boolean listed = false;
+                if (event.kind() != StandardWatchEventKinds.ENTRY_DELETE) {
+                    try {
+                        listed = isListed(directory.resolve(name));
+                    } catch (IOException e) {
+                        //Deleted in the meantime
+                    }
+                }
+                if (listed && index < 0) {
+                    entries.add(-index - 1, name);
+                } else if (!listed && index >= 0) {
+                    entries.remove(index);
+                }
+            }
+            listings.put(directory, new Listing(listing.title, entries, pageSize));
+            updates.increment();
+        }
+    }
+
+    /**
+     * Stops watching the directory of an evicted listing, so that the watches do not pile up. Guarded by the watch
+     * lock, like every put into the listings.
+     */
+    private void evicted(Path directory, Listing listing) {
+
+        final WatchKey key = watchKeys.get(directory);
+        if (key != null) {
+            unwatch(key, directory);
+        }
+    }
+
+    /**
+     * Guarded by the watch lock.
+     */
+    private void unwatch(WatchKey key, Path directory) {
+        key.cancel();
+        watchedDirectories.remove(key);
+        watchKeys.remove(directory, key);
+    }
+
+    /**
+     * The listing of a directory. Immutable, except its pages which are rendered on first use.
+     */
+    public static final class Listing {
+
+        private final String title;
+        private final List<String> entries;
+        private final int pageSize;
+        private final AtomicReferenceArray<byte[]> pages;
+
+        private Listing(String title, List<String> entries, int pageSize) {
+            this.title = title;
+            this.entries = entries;
+            this.pageSize = pageSize;
+            this.pages = new AtomicReferenceArray<>(Math.max(1, (entries.size() + pageSize - 1) / pageSize));
+        }
+
+        public int getPageCount() {
+            return pages.length();
+        }
+
+        public int getEntryCount() {
+            return entries.size();
+        }
+
+        /**
+         * @param page a page number, from 1 to the page count.
+         * @return the HTML document of the page, as UTF-8 bytes. The returned array is shared and must not be
+         * modified.
+         */
+        public byte[] getPage(int page) {
+
+            byte[] rendered = pages.get(page - 1);
+            if (rendered == null) {
+                //Concurrent threads may render the same page twice, which is harmless
+                rendered = render(page);
+                pages.set(page - 1, rendered);
+            }
+            return rendered;
+        }
+
+        private byte[] render(int page) {
+
+            final StringBuilder html = new StringBuilder();
+            renderHead(html, title);
+            final int from = (page - 1) * pageSize;
+            final int to = Math.min(entries.size(), from + pageSize);
+            for (String entry : entries.subList(from, to)) {
+                renderEntry(html, entry);
+            }
+            html.append("</ul>");
+
+            if (getPageCount() > 1) {
+                html.append("<p>Page ").append(page).append(" of ").append(getPageCount());
+                if (page > 1) {
+                    html.append(" <a href=\"?page=").append(page - 1).append("\">previous</a>");
+                }
+                if (page < getPageCount()) {
+                    html.append(" <a href=\"?page=").append(page + 1).append("\">next</a>");
+                }
+                html.append("</p>");
+            }
+            renderTail(html);
+            return html.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static void renderHead(StringBuilder html, String title) {
+            html.append("<!DOCTYPE html>").append(StringUtils.CRLF);
+            html.append("<html><head><title>Listing of: ").append(title).append("</title></head><body>").append(
+                    StringUtils.CRLF);
+            html.append("<h3>Listing of: ").append(title).append("</h3>").append(StringUtils.CRLF);
+            html.append("<ul>");
+            html.append("<li><a href=\"../\">..</a></li>").append(StringUtils.CRLF);
+        }
+
+        private static void renderEntry(StringBuilder html, String entry) {
+            html.append("<li><a href=\"").append(entry).append("\">").append(entry).append("</a></li>").append(
+                    StringUtils.CRLF);
+        }
+
+        private static void renderTail(StringBuilder html) {
+            html.append("</body></html>").append(StringUtils.CRLF);
+        }
+
+        private long weight() {
+            long weight = 0;
+            for (String entry : entries) {
+                weight += 2 * entry.length() + ENTRY_OVERHEAD;
+            }
+            return weight;
+        }
+    }
+
+    /**
+     * The listing of a directory rendered part after part while the directory is read, each part being rendered only
+     * once it is asked for. Not thread-safe.
+     */
+    public static final class StreamedListing implements Closeable {
+
+        private final DirectoryStream<Path> stream;
+        private final Iterator<Path> entries;
+        private final String title;
+        private final int entriesPerPart;
+        private boolean started;
+        private boolean finished;
+
+        private StreamedListing(DirectoryStream<Path> stream, String title, int entriesPerPart) {
+            this.stream = stream;
+            this.entries = stream.iterator();
+            this.title = title;
+            this.entriesPerPart = entriesPerPart;
+        }
+
+        /**
+         * Reads the next entries of the directory and renders them.
+         *
+         * @return the next part, as UTF-8 bytes which are never reused, or <code>null</code> once the listing is
+         * complete.
+         * @throws IOException if the directory can not be read.
+         */
+        public ByteBuffer next() throws IOException {
+
+            if (finished) {
+                return null;
+            }
+            final StringBuilder html = new StringBuilder();
+            if (!started) {
+                Listing.renderHead(html, title);
+                started = true;
+            }
+            try {
+                for (int i = 0; i < entriesPerPart && entries.hasNext(); i++) {
+                    Listing.renderEntry(html, entries.next().getFileName().toString());
+                }
+                if (!entries.hasNext()) {
+                    html.append("</ul>");
+                    Listing.renderTail(html);
+                    finished = true;
+                }
+            } catch (DirectoryIteratorException e) {
+                throw e.getCause();
+            }
+            return ByteBuffer.wrap(html.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void close() {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                logger.error("Error when closing the directory stream : ", e);
+            }
+        }
+    }
+
+
+}
@@ -0,0 +1,113 @@
+package fr.meuret.webtesttech.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * A thread-safe map bounded by the total weight of its values, evicting the least recently used entries first.
+ * <p>
+ * This is the building block of the caches of the server : it does not count hits and misses, since only the caches
+ * know whether a value found in the map is still valid.
+ *
+ * @param <K> the type of the keys.
+ * @param <V> the type of the values.
+ * @author Jerome
+ */
+public class LruCache<K, V> {
+
+
+    //Access-ordered, guarded by itself
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    private final LongAdder evictions = new LongAdder();
+    private final BiConsumer<K, V> evictionListener;
+    private long weight;
+
+
+    /**
+     * @param maxWeight the maximum total weight of the values.
+     * @param weigher   computes the weight of a value, which must not change while the value is in the map.
+     */
+    public LruCache(long maxWeight, ToLongFunction<V> weigher) {
+        this(maxWeight, weigher, null);
+    }
+
+    /**
+     * @param maxWeight        the maximum total weight of the values.
+     * @param weigher          computes the weight of a value, which must not change while the value is in the map.
+     * @param evictionListener notified of every entry evicted to fit in the budget, by the thread putting a value and
+     *                         while the map is locked : it must not use the map. May be <code>null</code>.
+     */
+    public LruCache(long maxWeight, ToLongFunction<V> weigher, BiConsumer<K, V> evictionListener) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.evictionListener = evictionListener;
+    }
+
+    public V get(K key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    /**
+     * Puts a value, then evicts the least recently used values until the total weight fits in the budget.
+     */
+    public void put(K key, V value) {
+        synchronized (entries) {
+            final V previous = entries.put(key, value);
+            if (previous != null) {
+                weight -= weigher.applyAsLong(previous);
+            }
+            weight += weigher.applyAsLong(value);
+
+            final Iterator<Map.Entry<K, V>> iterator = entries.entrySet().iterator();
+            while (weight > maxWeight && iterator.hasNext()) {
+                final Map.Entry<K, V> eldest = iterator.next();
+                weight -= weigher.applyAsLong(eldest.getValue());
+                iterator.remove();
+                evictions.increment();
+                if (evictionListener != null) {
+                    evictionListener.accept(eldest.getKey(), eldest.getValue());
+                }
+            }
+        }
+    }
+
+    public V remove(K key) {
+        synchronized (entries) {
+            final V previous = entries.remove(key);
+            if (previous != null) {
+                weight -= weigher.applyAsLong(previous);
+            }
+            return previous;
+        }
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public long getWeight() {
+        synchronized (entries) {
+            return weight;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+
+}
@@ -0,0 +1,129 @@
+package fr.meuret.webtesttech.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of memory mapped files, keyed by real path.
+ * <p>
+ * A cached mapping is only served as long as the size and the last modified time of the file are unchanged. The total
+ * number of mapped bytes is bounded : the least recently used mappings are evicted to make room for new ones, and files
+ * bigger than a quarter of the budget are never cached.
+ * <p>
+ * Evicted mappings are simply dereferenced : the JDK does not offer a way to unmap a file, the region is unmapped
+ * once the buffer has been garbage collected, which also guarantees that writes still in flight are not affected.
+ *
+ * @author Jerome
+ */
+public class MappedFileCache {
+
+
+    private final long maxFileSize;
+    private final LruCache<Path, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+
+    /**
+     * @param maxMappedBytes the maximum number of bytes mapped by the cache.
+     */
+    public MappedFileCache(long maxMappedBytes) {
+        this.entries = new LruCache<>(maxMappedBytes, entry -> entry.size);
+        this.maxFileSize = Math.min(Integer.MAX_VALUE, maxMappedBytes / 4);
+    }
+
+    /**
+     * Gets the content of a file.
+     *
+     * @param realPath   the real path of a regular file.
+     * @param attributes the current attributes of the file.
+     * @return a read-only buffer holding the content of the file, which can be freely consumed by the caller, or
+     * <code>null</code> if the file is too big to be cached.
+     * @throws IOException if the file cannot be mapped.
+     */
+    public ByteBuffer get(Path realPath, BasicFileAttributes attributes) throws IOException {
+
+        final long size = attributes.size();
+        final long lastModified = attributes.lastModifiedTime().toMillis();
+
+        Entry entry = entries.get(realPath);
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            hits.increment();
+            return entry.content.duplicate();
+        }
+
+        misses.increment();
+        if (size > maxFileSize) {
+            return null;
+        }
+
+        entry = new Entry(map(realPath, size), size, lastModified);
+        entries.put(realPath, entry);
+        return entry.content.duplicate();
+    }
+
+    /**
+     * Gets the content of a file, reading its attributes first.
+     *
+     * @param realPath the real path of a regular file.
+     * @return a read-only buffer holding the content of the file, or <code>null</code> if the file is too big to be
+     * cached.
+     * @throws IOException if the file cannot be read or mapped.
+     */
+    public ByteBuffer get(Path realPath) throws IOException {
+        return get(realPath, Files.readAttributes(realPath, BasicFileAttributes.class));
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return entries.getEvictionCount();
+    }
+
+    public long getMappedBytes() {
+        return entries.getWeight();
+    }
+
+    @Override
+    public String toString() {
+        return "MappedFileCache{" + "hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions="
+                + getEvictionCount() + ", mappedBytes=" + getMappedBytes() + ", maxMappedBytes="
+                + entries.getMaxWeight() + '}';
+    }
+
+    private static ByteBuffer map(Path realPath, long size) throws IOException {
+
+        try (FileChannel fileChannel = FileChannel.open(realPath, StandardOpenOption.READ)) {
+            final MappedByteBuffer mappedFile = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return mappedFile.asReadOnlyBuffer();
+        }
+    }
+
+    private static final class Entry {
+
+        private final ByteBuffer content;
+        private final long size;
+        private final long lastModified;
+
+        private Entry(ByteBuffer content, long size, long lastModified) {
+            this.content = content;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+
+}
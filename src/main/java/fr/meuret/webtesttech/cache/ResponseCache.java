@@ -0,0 +1,300 @@
+package fr.meuret.webtesttech.cache;
+
+import fr.meuret.webtesttech.http.ContentCoding;
+import fr.meuret.webtesttech.http.HttpVersion;
+import fr.meuret.webtesttech.http.response.HttpResponse;
+import fr.meuret.webtesttech.http.response.HttpResponseHeader;
+import fr.meuret.webtesttech.http.response.StatusCode;
+import fr.meuret.webtesttech.util.HttpDate;
+import fr.meuret.webtesttech.util.StringUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of pre-rendered responses : small static files, and the pages that do not depend on the file system
+ * content such as the "not found" page or the redirections.
+ * <p>
+ * A cached response holds its serialized header section and its body in a read-only direct buffer. Its header section
+ * is rendered once per second, with the current <code>Date</code> header, for every version and both values of the
+ * <code>Connection</code> header : serving a cached response only means sharing these buffers, nothing is copied.
+ * <p>
+ * Responses built from a file remember the size and the last modified time of the file, and are only served as long
+ * as they are unchanged. They are keyed by the real path of the file, or by a {@link VariantKey} for its encoded
+ * variants.
+ *
+ * @author Jerome
+ */
+public class ResponseCache {
+
+
+    public static final int DEFAULT_MAX_BODY_SIZE = 64 * 1024;
+    /**
+     * The default maximum size of the files which responses are encoded on the fly.
+     */
+    public static final int DEFAULT_MAX_ENCODED_FILE_SIZE = 1024 * 1024;
+    private static final byte[] KEEP_ALIVE_HEADER = (HttpResponseHeader.CONNECTION.getHeaderName() + ": keep-alive"
+            + StringUtils.CRLF).getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] CLOSE_HEADER = (HttpResponseHeader.CONNECTION.getHeaderName() + ": close"
+            + StringUtils.CRLF).getBytes(StandardCharsets.ISO_8859_1);
+    private static final HttpVersion[] VERSIONS = HttpVersion.values();
+    private static final byte[] CRLF = StringUtils.CRLF.getBytes(StandardCharsets.ISO_8859_1);
+    private final LruCache<Object, CachedResponse> entries;
+    private final int maxBodySize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+
+    /**
+     * @param maxBytes    the maximum number of bytes (headers and bodies) held by the cache.
+     * @param maxBodySize the maximum size of a cached body.
+     */
+    public ResponseCache(long maxBytes, int maxBodySize) {
+        this.entries = new LruCache<>(maxBytes, CachedResponse::weight);
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Gets a response that does not depend on the file system content.
+     *
+     * @param key the key of the response.
+     * @return the cached response, or <code>null</code>.
+     */
+    public CachedResponse get(Object key) {
+
+        final CachedResponse response = entries.get(key);
+        if (response == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return response;
+    }
+
+    /**
+     * Gets the response of a file, provided that the file has not changed.
+     *
+     * @param fileKey    the real path of the file, or the key of one of its variants.
+     * @param attributes the current attributes of the file.
+     * @return the cached response, or <code>null</code>.
+     */
+    public CachedResponse get(Object fileKey, BasicFileAttributes attributes) {
+
+        final CachedResponse response = entries.get(fileKey);
+        if (response != null && response.size == attributes.size()
+                && response.lastModified == attributes.lastModifiedTime().toMillis()) {
+            hits.increment();
+            return response;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Renders and caches a response that does not depend on the file system content.
+     *
+     * @param key      the key of the response.
+     * @param response the response, which headers are rendered. The <code>Date</code> and <code>Connection</code>
+     *                 headers are ignored.
+     * @param body     the body of the response.
+     * @return the cached response.
+     */
+    public CachedResponse put(Object key, HttpResponse response, byte[] body) {
+
+        final ByteBuffer content = ByteBuffer.allocateDirect(body.length);
+        content.put(body).flip();
+        final CachedResponse cachedResponse = new CachedResponse(response, content.asReadOnlyBuffer(), -1, -1);
+        entries.put(key, cachedResponse);
+        return cachedResponse;
+    }
+
+    /**
+     * Renders and caches the response of a file.
+     *
+     * @param fileKey    the real path of the file, or the key of one of its variants.
+     * @param attributes the attributes of the file when its content has been read.
+     * @param response   the response, which headers are rendered. The <code>Date</code> and <code>Connection</code>
+     *                   headers are ignored.
+     * @param content    the content of the file, or of its variant.
+     * @return the cached response.
+     */
+    public CachedResponse put(Object fileKey, BasicFileAttributes attributes, HttpResponse response,
+                              ByteBuffer content) {
+
+        final ByteBuffer body = ByteBuffer.allocateDirect(content.remaining());
+        body.put(content).flip();
+        final CachedResponse cachedResponse = new CachedResponse(response, body.asReadOnlyBuffer(), attributes.size(),
+                                                                 attributes.lastModifiedTime().toMillis());
+        entries.put(fileKey, cachedResponse);
+        return cachedResponse;
+    }
+
+    public int getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return entries.getEvictionCount();
+    }
+
+    public long getCachedBytes() {
+        return entries.getWeight();
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseCache{" + "hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions="
+                + getEvictionCount() + ", cachedBytes=" + getCachedBytes() + ", entries=" + entries.size() + '}';
+    }
+
+    /**
+     * The key of an encoded variant of a file.
+     */
+    public static final class VariantKey {
+
+        private final Path realPath;
+        private final ContentCoding coding;
+
+        public VariantKey(Path realPath, ContentCoding coding) {
+            this.realPath = realPath;
+            this.coding = coding;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof VariantKey)) {
+                return false;
+            }
+            final VariantKey that = (VariantKey) o;
+            return coding == that.coding && realPath.equals(that.realPath);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * realPath.hashCode() + coding.hashCode();
+        }
+    }
+
+    /**
+     * A pre-rendered response.
+     */
+    public static final class CachedResponse {
+
+        //Status line and fixed headers by version, followed by the date header name
+        private final byte[][] heads;
+        //Every other header but the connection, followed by CRLF
+        private final byte[] headers;
+        private final StatusCode statusCode;
+        private final ByteBuffer body;
+        private final long size;
+        private final long lastModified;
+        //The header sections rendered with the date of the current second
+        private volatile RenderedHeaders rendered;
+
+        private CachedResponse(HttpResponse response, ByteBuffer body, long size, long lastModified) {
+
+            this.heads = new byte[VERSIONS.length][];
+            for (HttpVersion version : VERSIONS) {
+                heads[version.ordinal()] = HttpResponse.renderHead(version, response.getStatusCode());
+            }
+
+            final StringBuilder headerFields = new StringBuilder(StringUtils.CRLF);
+            for (Map.Entry<HttpResponseHeader, String> header : response.getHeaders().entrySet()) {
+                if (header.getKey() != HttpResponseHeader.CONNECTION) {
+                    headerFields.append(header.getKey().getHeaderName()).append(": ").append(header.getValue())
+                            .append(StringUtils.CRLF);
+                }
+            }
+            this.headers = headerFields.toString().getBytes(StandardCharsets.ISO_8859_1);
+            this.body = body;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.statusCode = response.getStatusCode();
+        }
+
+        /**
+         * Gets the header section of the response, with the current date.
+         *
+         * @param version   the version of the request, which the status line advertises.
+         * @param keepAlive true if the connection is kept alive after this response, false if it is closed.
+         * @return a read-only buffer holding the header section, ready to be written.
+         */
+        public ByteBuffer renderHeaders(HttpVersion version, boolean keepAlive) {
+
+            final byte[] date = HttpDate.now();
+            RenderedHeaders current = rendered;
+            if (current == null || current.date != date) {
+                //Concurrent threads may render the same second twice, which is harmless
+                current = new RenderedHeaders(date, render(date));
+                rendered = current;
+            }
+            return current.sections[2 * version.ordinal() + (keepAlive ? 1 : 0)].duplicate();
+        }
+
+        /**
+         * @return the header sections, by version then without and with keep-alive.
+         */
+        private ByteBuffer[] render(byte[] date) {
+
+            final ByteBuffer[] sections = new ByteBuffer[2 * VERSIONS.length];
+            for (int i = 0; i < sections.length; i++) {
+                final byte[] head = heads[i / 2];
+                final byte[] connection = i % 2 == 1 ? KEEP_ALIVE_HEADER : CLOSE_HEADER;
+                final ByteBuffer section = ByteBuffer.allocate(
+                        head.length + date.length + headers.length + connection.length + CRLF.length);
+                section.put(head).put(date).put(headers).put(connection).put(CRLF).flip();
+                sections[i] = section.asReadOnlyBuffer();
+            }
+            return sections;
+        }
+
+        public StatusCode getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * @return a buffer holding the body of the response, which can be freely consumed by the caller.
+         */
+        public ByteBuffer getBody() {
+            return body.duplicate();
+        }
+
+        private long weight() {
+            final long section = heads[0].length + HttpDate.LENGTH + headers.length + KEEP_ALIVE_HEADER.length
+                    + CRLF.length;
+            return 2 * VERSIONS.length * section + body.capacity();
+        }
+    }
+
+    /**
+     * The header sections of a response, rendered with a given date.
+     */
+    private static final class RenderedHeaders {
+
+        //The array shared by HttpDate for the second of the rendering
+        private final byte[] date;
+        private final ByteBuffer[] sections;
+
+        private RenderedHeaders(byte[] date, ByteBuffer[] sections) {
+            this.date = date;
+            this.sections = sections;
+        }
+    }
+
+
+}
@@ -0,0 +1,192 @@
+package fr.meuret.webtesttech.cache;
+
+import fr.meuret.webtesttech.http.ContentCoding;
+import fr.meuret.webtesttech.util.HttpDate;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of the validators of the files, keyed by real path : their entity tags and their last modification
+ * date, as per defined in the RFC 7232.
+ * <p>
+ * The validators are derived from the size and the last modified time of a file, and only served as long as they are
+ * unchanged. Caching them saves rendering an HTTP date and the entity tags for every response, and makes the
+ * revalidation of an unchanged file (the bulk of the browsers traffic) a string comparison.
+ *
+ * @author Jerome
+ * @see <a href="https://tools.ietf.org/html/rfc7232">https://tools.ietf.org/html/rfc7232</a>
+ */
+public class ValidatorCache {
+
+
+    public static final int DEFAULT_MAX_ENTRIES = 64 * 1024;
+    private final LruCache<Path, Validators> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+
+    /**
+     * @param maxEntries the maximum number of cached validators.
+     */
+    public ValidatorCache(int maxEntries) {
+        this.entries = new LruCache<>(maxEntries, validators -> 1);
+    }
+
+    /**
+     * Gets the validators of a file, computing them if they are not cached or if the file has changed.
+     *
+     * @param realPath   the real path of the file.
+     * @param attributes the current attributes of the file.
+     * @return the validators of the file.
+     */
+    public Validators get(Path realPath, BasicFileAttributes attributes) {
+
+        final long size = attributes.size();
+        final long lastModified = attributes.lastModifiedTime().toMillis();
+
+        Validators validators = entries.get(realPath);
+        if (validators != null && validators.size == size && validators.lastModified == lastModified) {
+            hits.increment();
+            return validators;
+        }
+        misses.increment();
+        validators = new Validators(size, lastModified);
+        entries.put(realPath, validators);
+        return validators;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ValidatorCache{" + "hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions="
+                + entries.getEvictionCount() + ", entries=" + entries.size() + '}';
+    }
+
+    /**
+     * The validators of a version of a file.
+     * <p>
+     * The entity tags are strong : every encoded variant of the file has its own tag, derived from the tag of the
+     * identity.
+     */
+    public static final class Validators {
+
+        private static final ContentCoding[] CODINGS = ContentCoding.values();
+        private final long size;
+        private final long lastModified;
+        private final String lastModifiedDate;
+        //The tag of the identity, then the tags of the content codings in declaration order
+        private final String[] entityTags = new String[CODINGS.length + 1];
+
+        private Validators(long size, long lastModified) {
+
+            this.size = size;
+            this.lastModified = lastModified;
+            this.lastModifiedDate = HttpDate.format(lastModified);
+            final String opaqueTag = Long.toHexString(lastModified) + "-" + Long.toHexString(size);
+            entityTags[0] = '"' + opaqueTag + '"';
+            for (ContentCoding coding : CODINGS) {
+                entityTags[coding.ordinal() + 1] = '"' + opaqueTag + "-" + coding.getToken() + '"';
+            }
+        }
+
+        /**
+         * @return the <code>Last-Modified</code> header value.
+         */
+        public String getLastModified() {
+            return lastModifiedDate;
+        }
+
+        /**
+         * @param coding the content coding of the representation, <code>null</code> for the identity.
+         * @return the <code>ETag</code> header value of the representation.
+         */
+        public String getEntityTag(ContentCoding coding) {
+            return entityTags[coding == null ? 0 : coding.ordinal() + 1];
+        }
+
+        /**
+         * Evaluates the preconditions of a GET request : the <code>If-Modified-Since</code> header is only evaluated
+         * when there is no <code>If-None-Match</code> header.
+         * <p>
+         * Only the tag of the representation selected for the request matches : the <i>304</i> response carries that
+         * tag, which tells a cache holding several variants which one is still valid.
+         *
+         * @param coding          the content coding of the selected representation, <code>null</code> for the
+         *                        identity.
+         * @param ifNoneMatch     the <code>If-None-Match</code> header value, may be <code>null</code>.
+         * @param ifModifiedSince the <code>If-Modified-Since</code> header value, may be <code>null</code>.
+         * @return true if the response is <i>304 Not Modified</i>.
+         */
+        public boolean isNotModified(ContentCoding coding, String ifNoneMatch, String ifModifiedSince) {
+
+            if (ifNoneMatch != null) {
+                return matches(ifNoneMatch, getEntityTag(coding));
+            }
+            if (ifModifiedSince == null) {
+                return false;
+            }
+            //Browsers send back the date they have been given
+            if (ifModifiedSince.equals(lastModifiedDate)) {
+                return true;
+            }
+            final long since = HttpDate.parse(ifModifiedSince);
+            //HTTP dates have a one second resolution
+            return since >= 0 && lastModified / 1000 <= since / 1000;
+        }
+
+        /**
+         * Evaluates the <code>If-Range</code> header of a range request : the range is only served if the client
+         * holds the current version of the file, identified by the strong entity tag of the identity or by the exact
+         * last modification date.
+         *
+         * @param ifRange the <code>If-Range</code> header value, may be <code>null</code>.
+         * @return true if the range can be served, false if the whole file must be sent.
+         */
+        public boolean isRangeValid(String ifRange) {
+
+            if (ifRange == null) {
+                return true;
+            }
+            final String validator = ifRange.trim();
+            //Weak tags never match
+            return validator.startsWith("\"") ? validator.equals(entityTags[0]) : validator.equals(lastModifiedDate);
+        }
+
+        /**
+         * Weak comparison of the tags listed in an <code>If-None-Match</code> header with the tag of a representation.
+         */
+        private static boolean matches(String ifNoneMatch, String entityTag) {
+
+            if (ifNoneMatch.trim().equals("*")) {
+                return true;
+            }
+            int start = 0;
+            while (start < ifNoneMatch.length()) {
+                int end = ifNoneMatch.indexOf(',', start);
+                if (end < 0) {
+                    end = ifNoneMatch.length();
+                }
+                String tag = ifNoneMatch.substring(start, end).trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (entityTag.equals(tag)) {
+                    return true;
+                }
+                start = end + 1;
+            }
+            return false;
+        }
+    }
+
+
+}
@@ -0,0 +1,66 @@
+package fr.meuret.webtesttech.conf;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The way the requests are executed once they have been read by the I/O threads.
+ * <p>
+ * The I/O threads always belong to a fixed-size channel group. The execution model tells where the request handling,
+ * including its blocking file system calls, takes place.
+ *
+ * @author Jerome
+ */
+public enum ExecutionModel {
+
+    /**
+     * Requests are handled by the I/O thread that has read them : no thread switch, best for cached contents.
+     */
+    FIXED,
+    /**
+     * Requests are handed over to a bounded pool of worker threads, so that slow file system calls do not stall the
+     * I/O threads. When the pool queue is full, the I/O thread handles the request itself.
+     */
+    WORKER_POOL,
+    /**
+     * Each request is handled by its own virtual thread. Requires a JDK supporting virtual threads.
+     */
+    VIRTUAL_THREADS;
+
+
+    /**
+     * @return true if this execution model can be used with the running JDK.
+     */
+    public boolean isSupported() {
+        return this != VIRTUAL_THREADS || findVirtualThreadFactory() != null;
+    }
+
+    /**
+     * Creates the executor starting a new virtual thread per task.
+     *
+     * @return the executor.
+     * @throws IllegalStateException if virtual threads are not supported by the running JDK.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+
+        final Method factory = findVirtualThreadFactory();
+        if (factory == null) {
+            throw new IllegalStateException("Virtual threads are not supported by this JDK.");
+        }
+        try {
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to create the virtual threads executor.", e);
+        }
+    }
+
+    private static Method findVirtualThreadFactory() {
+        //The sources target Java 8 : virtual threads are looked up at runtime
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -11,12 +11,55 @@ import java.nio.file.Paths;
 /**
  * The configuration for the http server.
  * <p>
- * Basically, there are three parameters :
+ * Basically, there are the following parameters :
  * <p>
  * <ol>
  * <li>port : defaulted to <i>8080</i></li>
  * <li>rootPath : path for the static files directory. Defaulted to the working directory path.</li>
- * <li>useSSL : if the http server runs on SSL. Defaulted to <i>false</i>. </li>
+ * <li>useSSL : if the http server runs on SSL (TLS 1.2 or 1.3), which needs a keyStore. Defaulted to <i>false</i>.
+ * </li>
+ * <li>mappedCacheSize : maximum size of the mapped files cache, in megabytes. Defaulted to <i>256</i>.</li>
+ * <li>responseCacheSize : maximum size of the pre-rendered responses cache, in megabytes. Defaulted to <i>64</i>.</li>
+ * <li>executionModel : where the requests are handled, see {@link ExecutionModel}. Defaulted to <i>FIXED</i>.</li>
+ * <li>ioThreads : number of I/O threads. Defaulted to the number of available processors.</li>
+ * <li>workerThreads : number of worker threads of the WORKER_POOL execution model. Defaulted to four times the
+ * number of available processors.</li>
+ * <li>workerQueueSize : maximum number of requests waiting for a worker thread. Defaulted to <i>1024</i>.</li>
+ * <li>listingCacheSize : maximum size of the directory listings cache, in megabytes. Defaulted to <i>32</i>.</li>
+ * <li>listingPageSize : maximum number of entries of a directory listing page, larger listings are paginated.
+ * Defaulted to <i>1000</i>.</li>
+ * <li>compressionCacheSize : maximum size of the cache of the responses compressed on the fly, in megabytes, <i>0</i>
+ * disables the compression on the fly. Defaulted to <i>32</i>.</li>
+ * <li>metadataCacheTtl : maximum age of the cached resolution of a request path (real path, attributes, MIME type), in
+ * milliseconds, <i>0</i> disables the cache. Defaulted to <i>5000</i>.</li>
+ * <li>mimeTypes : a file of MIME types overriding the default ones, one <i>extension = content type | compressible |
+ * Cache-Control</i> entry per line. Defaulted to none.</li>
+ * <li>idleTimeout : maximum time a persistent connection waits for a new request, in milliseconds, <i>0</i> disables
+ * the timeout. Defaulted to <i>15000</i>.</li>
+ * <li>headerReadTimeout : maximum time to receive the header section of a request from its first byte, in milliseconds,
+ * <i>0</i> disables the timeout. Defaulted to <i>10000</i>.</li>
+ * <li>writeTimeout : maximum time a response write may stay without progress, in milliseconds, <i>0</i> disables the
+ * timeout. Defaulted to <i>30000</i>.</li>
+ * <li>maxConnections : maximum number of open connections : beyond, the server stops accepting until the open
+ * connections go below 90% of the maximum, <i>0</i> disables the limit. Defaulted to <i>10000</i>.</li>
+ * <li>maxConcurrentRequests : upper bound of the adaptive limit of the requests being handled : the limit follows the
+ * observed latency, and the requests beyond are rejected with a 503 response, <i>0</i> disables the limit. Defaulted to
+ * <i>0</i>.</li>
+ * <li>writeHighWatermark : bytes queued for writing above which no more requests are read from a connection, in
+ * kilobytes, <i>0</i> disables the limit. Defaulted to <i>1024</i>.</li>
+ * <li>writeLowWatermark : bytes queued for writing below which the paused reads of a connection are resumed, in
+ * kilobytes. Defaulted to <i>256</i>.</li>
+ * <li>accessLog : a file the requests are logged to, one line per request in the Common Log Format followed by the time
+ * taken in microseconds. Defaulted to none.</li>
+ * <li>keyStore : the key store holding the certificate and the private key of the server, required by the SSL mode.
+ * Defaulted to none.</li>
+ * <li>keyStorePassword : the password of the key store and of the private key. Defaulted to none.</li>
+ * <li>keyStoreType : the type of the key store, e.g. <i>PKCS12</i> or <i>JKS</i>. Defaulted to <i>PKCS12</i>.</li>
+ * <li>sslSessionCacheSize : maximum number of SSL sessions cached for resumption, <i>0</i> for no limit. Defaulted to
+ * <i>20480</i>.</li>
+ * <li>sslSessionTimeout : lifetime of the SSL sessions cached for resumption, in seconds. Defaulted to
+ * <i>3600</i>.</li>
+ * <li>leakDetection : if the buffer pool tracks the outstanding buffers (debug mode). Defaulted to <i>false</i>.</li>
  * </ol>
  * <p>
  * This class is using the Builder Pattern described in the Effective Java book written by Joshua Bloch.
@@ -37,8 +80,86 @@ public class HttpConfiguration {
         @Parameter(names = {"-rootPath"}, description = "Static files root path.",
                    converter = fr.meuret.webtesttech.conf.PathConverter.class)
         private Path rootPath = Paths.get(System.getProperty("user.dir"));
-        @Parameter(names = {"-useSSL"}, description = "SSL mode.")
+        @Parameter(names = {"-useSSL"}, description = "SSL mode, needs a key store.")
         private Boolean useSSL = false;
+        @Parameter(names = {"-mappedCacheSize"}, description = "Mapped files cache size, in megabytes.",
+                   validateWith = PositiveInteger.class)
+        private int mappedCacheSize = 256;
+        @Parameter(names = {"-responseCacheSize"}, description = "Pre-rendered responses cache size, in megabytes.",
+                   validateWith = PositiveInteger.class)
+        private int responseCacheSize = 64;
+        @Parameter(names = {"-executionModel"},
+                   description = "Execution model : FIXED, WORKER_POOL or VIRTUAL_THREADS.")
+        private ExecutionModel executionModel = ExecutionModel.FIXED;
+        @Parameter(names = {"-ioThreads"}, description = "Number of I/O threads.",
+                   validateWith = StrictlyPositiveInteger.class)
+        private int ioThreads = Runtime.getRuntime().availableProcessors();
+        @Parameter(names = {"-workerThreads"}, description = "Number of worker threads (WORKER_POOL model).",
+                   validateWith = StrictlyPositiveInteger.class)
+        private int workerThreads = 4 * Runtime.getRuntime().availableProcessors();
+        @Parameter(names = {"-workerQueueSize"}, description = "Worker pool queue size (WORKER_POOL model).",
+                   validateWith = StrictlyPositiveInteger.class)
+        private int workerQueueSize = 1024;
+        @Parameter(names = {"-listingCacheSize"}, description = "Directory listings cache size, in megabytes.",
+                   validateWith = PositiveInteger.class)
+        private int listingCacheSize = 32;
+        @Parameter(names = {"-listingPageSize"}, description = "Maximum number of entries of a directory listing page.",
+                   validateWith = PositiveInteger.class)
+        private int listingPageSize = 1000;
+        @Parameter(names = {"-compressionCacheSize"}, description = "Compressed responses cache size, in megabytes.",
+                   validateWith = PositiveInteger.class)
+        private int compressionCacheSize = 32;
+        @Parameter(names = {"-metadataCacheTtl"}, description = "File metadata time to live, in milliseconds.",
+                   validateWith = PositiveInteger.class)
+        private int metadataCacheTtl = 5000;
+        @Parameter(names = {"-mimeTypes"}, description = "MIME types file overriding the default ones.",
+                   converter = fr.meuret.webtesttech.conf.PathConverter.class)
+        private Path mimeTypes = null;
+        @Parameter(names = {"-idleTimeout"}, description = "Keep-alive idle timeout, in milliseconds.",
+                   validateWith = PositiveInteger.class)
+        private int idleTimeout = 15000;
+        @Parameter(names = {"-headerReadTimeout"},
+                   description = "Request header section read timeout, in milliseconds.",
+                   validateWith = PositiveInteger.class)
+        private int headerReadTimeout = 10000;
+        @Parameter(names = {"-writeTimeout"}, description = "Write stall timeout, in milliseconds.",
+                   validateWith = PositiveInteger.class)
+        private int writeTimeout = 30000;
+        @Parameter(names = {"-maxConnections"}, description = "Maximum number of open connections.",
+                   validateWith = PositiveInteger.class)
+        private int maxConnections = 10000;
+        @Parameter(names = {"-maxConcurrentRequests"},
+                   description = "Upper bound of the adaptive limit of the requests being handled.",
+                   validateWith = PositiveInteger.class)
+        private int maxConcurrentRequests = 0;
+        @Parameter(names = {"-writeHighWatermark"},
+                   description = "Queued bytes above which the reads of a connection are paused, in kilobytes.",
+                   validateWith = PositiveInteger.class)
+        private int writeHighWatermark = 1024;
+        @Parameter(names = {"-writeLowWatermark"},
+                   description = "Queued bytes below which the paused reads are resumed, in kilobytes.",
+                   validateWith = PositiveInteger.class)
+        private int writeLowWatermark = 256;
+        @Parameter(names = {"-accessLog"}, description = "Access log file.",
+                   converter = fr.meuret.webtesttech.conf.PathConverter.class)
+        private Path accessLog = null;
+        @Parameter(names = {"-keyStore"},
+                   description = "Key store holding the certificate and the private key of the server.",
+                   converter = fr.meuret.webtesttech.conf.PathConverter.class)
+        private Path keyStore = null;
+        @Parameter(names = {"-keyStorePassword"}, description = "Password of the key store and of the private key.")
+        private String keyStorePassword = "";
+        @Parameter(names = {"-keyStoreType"}, description = "Type of the key store.")
+        private String keyStoreType = "PKCS12";
+        @Parameter(names = {"-sslSessionCacheSize"},
+                   description = "Maximum number of cached SSL sessions, 0 for no limit.",
+                   validateWith = PositiveInteger.class)
+        private int sslSessionCacheSize = 20480;
+        @Parameter(names = {"-sslSessionTimeout"}, description = "Lifetime of the cached SSL sessions, in seconds.",
+                   validateWith = PositiveInteger.class)
+        private int sslSessionTimeout = 3600;
+        @Parameter(names = {"-leakDetection"}, description = "Buffer pool leak detection (debug mode).")
+        private Boolean leakDetection = false;
 
 
         public Builder() {
@@ -51,6 +172,31 @@ public class HttpConfiguration {
             int result = port;
             result = 31 * result + (rootPath != null ? rootPath.hashCode() : 0);
             result = 31 * result + (useSSL != null ? useSSL.hashCode() : 0);
+            result = 31 * result + mappedCacheSize;
+            result = 31 * result + responseCacheSize;
+            result = 31 * result + (executionModel != null ? executionModel.hashCode() : 0);
+            result = 31 * result + ioThreads;
+            result = 31 * result + workerThreads;
+            result = 31 * result + workerQueueSize;
+            result = 31 * result + listingCacheSize;
+            result = 31 * result + listingPageSize;
+            result = 31 * result + compressionCacheSize;
+            result = 31 * result + metadataCacheTtl;
+            result = 31 * result + (mimeTypes != null ? mimeTypes.hashCode() : 0);
+            result = 31 * result + idleTimeout;
+            result = 31 * result + headerReadTimeout;
+            result = 31 * result + writeTimeout;
+            result = 31 * result + maxConnections;
+            result = 31 * result + maxConcurrentRequests;
+            result = 31 * result + writeHighWatermark;
+            result = 31 * result + writeLowWatermark;
+            result = 31 * result + (accessLog != null ? accessLog.hashCode() : 0);
+            result = 31 * result + (keyStore != null ? keyStore.hashCode() : 0);
+            result = 31 * result + (keyStorePassword != null ? keyStorePassword.hashCode() : 0);
+            result = 31 * result + (keyStoreType != null ? keyStoreType.hashCode() : 0);
+            result = 31 * result + sslSessionCacheSize;
+            result = 31 * result + sslSessionTimeout;
+            result = 31 * result + (leakDetection != null ? leakDetection.hashCode() : 0);
             return result;
         }
 
@@ -71,13 +217,99 @@ public class HttpConfiguration {
             if (rootPath != null ? !rootPath.equals(builder.rootPath) : builder.rootPath != null) {
                 return false;
             }
-            return !(useSSL != null ? !useSSL.equals(builder.useSSL) : builder.useSSL != null);
+            if (useSSL != null ? !useSSL.equals(builder.useSSL) : builder.useSSL != null) {
+                return false;
+            }
+            if (mappedCacheSize != builder.mappedCacheSize) {
+                return false;
+            }
+            if (responseCacheSize != builder.responseCacheSize) {
+                return false;
+            }
+            if (executionModel != builder.executionModel) {
+                return false;
+            }
+            if (ioThreads != builder.ioThreads || workerThreads != builder.workerThreads) {
+                return false;
+            }
+            if (workerQueueSize != builder.workerQueueSize) {
+                return false;
+            }
+            if (listingCacheSize != builder.listingCacheSize) {
+                return false;
+            }
+            if (listingPageSize != builder.listingPageSize) {
+                return false;
+            }
+            if (compressionCacheSize != builder.compressionCacheSize) {
+                return false;
+            }
+            if (metadataCacheTtl != builder.metadataCacheTtl) {
+                return false;
+            }
+            if (mimeTypes != null ? !mimeTypes.equals(builder.mimeTypes) : builder.mimeTypes != null) {
+                return false;
+            }
+            if (idleTimeout != builder.idleTimeout) {
+                return false;
+            }
+            if (headerReadTimeout != builder.headerReadTimeout) {
+                return false;
+            }
+            if (writeTimeout != builder.writeTimeout) {
+                return false;
+            }
+            if (maxConnections != builder.maxConnections) {
+                return false;
+            }
+            if (maxConcurrentRequests != builder.maxConcurrentRequests) {
+                return false;
+            }
+            if (writeHighWatermark != builder.writeHighWatermark) {
+                return false;
+            }
+            if (writeLowWatermark != builder.writeLowWatermark) {
+                return false;
+            }
+            if (accessLog != null ? !accessLog.equals(builder.accessLog) : builder.accessLog != null) {
+                return false;
+            }
+            if (keyStore != null ? !keyStore.equals(builder.keyStore) : builder.keyStore != null) {
+                return false;
+            }
+            if (keyStorePassword != null ? !keyStorePassword.equals(
+                    builder.keyStorePassword) : builder.keyStorePassword != null) {
+                return false;
+            }
+            if (keyStoreType != null ? !keyStoreType.equals(builder.keyStoreType) : builder.keyStoreType != null) {
+                return false;
+            }
+            if (sslSessionCacheSize != builder.sslSessionCacheSize) {
+                return false;
+            }
+            if (sslSessionTimeout != builder.sslSessionTimeout) {
+                return false;
+            }
+            return !(leakDetection != null ? !leakDetection.equals(
+                    builder.leakDetection) : builder.leakDetection != null);
 
         }
 
         @Override
         public String toString() {
-            return "Builder{" + "port=" + port + ", rootPath=" + rootPath + ", useSSL=" + useSSL + '}';
+            return "Builder{" + "port=" + port + ", rootPath=" + rootPath + ", useSSL=" + useSSL +
+                    ", mappedCacheSize=" + mappedCacheSize + ", responseCacheSize=" + responseCacheSize +
+                    ", executionModel=" + executionModel + ", ioThreads=" + ioThreads + ", workerThreads=" +
+                    workerThreads + ", workerQueueSize=" + workerQueueSize + ", listingCacheSize=" + listingCacheSize +
+                    ", listingPageSize=" + listingPageSize +
+                    ", compressionCacheSize=" + compressionCacheSize + ", metadataCacheTtl=" + metadataCacheTtl +
+                    ", mimeTypes=" + mimeTypes + ", idleTimeout=" + idleTimeout + ", headerReadTimeout=" +
+                    headerReadTimeout + ", writeTimeout=" + writeTimeout + ", maxConnections=" + maxConnections +
+                    ", maxConcurrentRequests=" + maxConcurrentRequests + ", writeHighWatermark=" + writeHighWatermark +
+                    ", writeLowWatermark=" + writeLowWatermark + ", accessLog=" + accessLog + ", keyStore=" + keyStore +
+                    ", keyStorePassword=***, keyStoreType=" + keyStoreType +
+                    ", sslSessionCacheSize=" + sslSessionCacheSize + ", sslSessionTimeout=" + sslSessionTimeout +
+                    ", leakDetection=" + leakDetection + '}';
         }
 
         public Builder port(int port) {
@@ -101,6 +333,157 @@ public class HttpConfiguration {
         }
 
 
+        public Builder mappedCacheSize(int mappedCacheSize) {
+
+            this.mappedCacheSize = mappedCacheSize;
+            return this;
+        }
+
+        public Builder responseCacheSize(int responseCacheSize) {
+
+            this.responseCacheSize = responseCacheSize;
+            return this;
+        }
+
+        public Builder executionModel(ExecutionModel executionModel) {
+
+            this.executionModel = executionModel;
+            return this;
+        }
+
+        public Builder ioThreads(int ioThreads) {
+
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        public Builder workerThreads(int workerThreads) {
+
+            this.workerThreads = workerThreads;
+            return this;
+        }
+
+        public Builder workerQueueSize(int workerQueueSize) {
+
+            this.workerQueueSize = workerQueueSize;
+            return this;
+        }
+
+        public Builder listingCacheSize(int listingCacheSize) {
+
+            this.listingCacheSize = listingCacheSize;
+            return this;
+        }
+
+        public Builder listingPageSize(int listingPageSize) {
+
+            this.listingPageSize = listingPageSize;
+            return this;
+        }
+
+        public Builder compressionCacheSize(int compressionCacheSize) {
+
+            this.compressionCacheSize = compressionCacheSize;
+            return this;
+        }
+
+        public Builder metadataCacheTtl(int metadataCacheTtl) {
+
+            this.metadataCacheTtl = metadataCacheTtl;
+            return this;
+        }
+
+        public Builder mimeTypes(Path mimeTypes) {
+
+            this.mimeTypes = mimeTypes;
+            return this;
+        }
+
+        public Builder idleTimeout(int idleTimeout) {
+
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public Builder headerReadTimeout(int headerReadTimeout) {
+
+            this.headerReadTimeout = headerReadTimeout;
+            return this;
+        }
+
+        public Builder writeTimeout(int writeTimeout) {
+
+            this.writeTimeout = writeTimeout;
+            return this;
+        }
+
+        public Builder maxConnections(int maxConnections) {
+
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder maxConcurrentRequests(int maxConcurrentRequests) {
+
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        public Builder writeHighWatermark(int writeHighWatermark) {
+
+            this.writeHighWatermark = writeHighWatermark;
+            return this;
+        }
+
+        public Builder writeLowWatermark(int writeLowWatermark) {
+
+            this.writeLowWatermark = writeLowWatermark;
+            return this;
+        }
+
+        public Builder accessLog(Path accessLog) {
+
+            this.accessLog = accessLog;
+            return this;
+        }
+
+        public Builder keyStore(Path keyStore) {
+
+            this.keyStore = keyStore;
+            return this;
+        }
+
+        public Builder keyStorePassword(String keyStorePassword) {
+
+            this.keyStorePassword = keyStorePassword;
+            return this;
+        }
+
+        public Builder keyStoreType(String keyStoreType) {
+
+            this.keyStoreType = keyStoreType;
+            return this;
+        }
+
+        public Builder sslSessionCacheSize(int sslSessionCacheSize) {
+
+            this.sslSessionCacheSize = sslSessionCacheSize;
+            return this;
+        }
+
+        public Builder sslSessionTimeout(int sslSessionTimeout) {
+
+            this.sslSessionTimeout = sslSessionTimeout;
+            return this;
+        }
+
+        public Builder leakDetection(boolean leakDetection) {
+
+            this.leakDetection = leakDetection;
+            return this;
+        }
+
+
         public HttpConfiguration build() {
 
             //Check rootPath
@@ -117,6 +500,26 @@ public class HttpConfiguration {
                         "Invalid value for port number. Valid range is [" + MIN_PORT_NUMBER + ", " + MAX_PORT_NUMBER + "]");
             }
 
+            if (executionModel == null || !executionModel.isSupported()) {
+                throw new IllegalArgumentException("Invalid value for execution model directive : " + executionModel
+                                                           + " (not supported by this JDK)");
+            }
+
+            if (ioThreads <= 0 || workerThreads <= 0 || workerQueueSize <= 0) {
+                throw new IllegalArgumentException(
+                        "Invalid value for the thread pools : " + ioThreads + " I/O threads, " + workerThreads
+                                + " worker threads, worker queue size " + workerQueueSize + " (must be positive)");
+            }
+
+            if (writeHighWatermark > 0 && writeLowWatermark > writeHighWatermark) {
+                throw new IllegalArgumentException("Invalid value for write low watermark : " + writeLowWatermark +
+                                                           " (above the high watermark " + writeHighWatermark + ")");
+            }
+            if (useSSL && (keyStore == null || Files.notExists(keyStore))) {
+                throw new IllegalArgumentException(
+                        "Invalid value for key store, required by the SSL mode : " + keyStore);
+            }
+
             return new HttpConfiguration(this);
         }
 
@@ -125,12 +528,62 @@ public class HttpConfiguration {
     private final int port;
     private final Path rootPath;
     private final boolean useSSL;
+    private final long mappedCacheSize;
+    private final long responseCacheSize;
+    private final ExecutionModel executionModel;
+    private final int ioThreads;
+    private final int workerThreads;
+    private final int workerQueueSize;
+    private final long listingCacheSize;
+    private final int listingPageSize;
+    private final long compressionCacheSize;
+    private final int metadataCacheTtl;
+    private final Path mimeTypes;
+    private final int idleTimeout;
+    private final int headerReadTimeout;
+    private final int writeTimeout;
+    private final int maxConnections;
+    private final int maxConcurrentRequests;
+    private final int writeHighWatermark;
+    private final int writeLowWatermark;
+    private final Path accessLog;
+    private final Path keyStore;
+    private final String keyStorePassword;
+    private final String keyStoreType;
+    private final int sslSessionCacheSize;
+    private final int sslSessionTimeout;
+    private final boolean leakDetection;
 
     private HttpConfiguration(Builder builder) {
 
         this.port = builder.port;
         this.rootPath = builder.rootPath;
         this.useSSL = builder.useSSL;
+        this.mappedCacheSize = builder.mappedCacheSize * 1024L * 1024L;
+        this.responseCacheSize = builder.responseCacheSize * 1024L * 1024L;
+        this.executionModel = builder.executionModel;
+        this.ioThreads = builder.ioThreads;
+        this.workerThreads = builder.workerThreads;
+        this.workerQueueSize = builder.workerQueueSize;
+        this.listingCacheSize = builder.listingCacheSize * 1024L * 1024L;
+        this.listingPageSize = builder.listingPageSize;
+        this.compressionCacheSize = builder.compressionCacheSize * 1024L * 1024L;
+        this.metadataCacheTtl = builder.metadataCacheTtl;
+        this.mimeTypes = builder.mimeTypes;
+        this.idleTimeout = builder.idleTimeout;
+        this.headerReadTimeout = builder.headerReadTimeout;
+        this.writeTimeout = builder.writeTimeout;
+        this.maxConnections = builder.maxConnections;
+        this.maxConcurrentRequests = builder.maxConcurrentRequests;
+        this.writeHighWatermark = builder.writeHighWatermark;
+        this.writeLowWatermark = builder.writeLowWatermark;
+        this.accessLog = builder.accessLog;
+        this.keyStore = builder.keyStore;
+        this.keyStorePassword = builder.keyStorePassword;
+        this.keyStoreType = builder.keyStoreType;
+        this.sslSessionCacheSize = builder.sslSessionCacheSize;
+        this.sslSessionTimeout = builder.sslSessionTimeout;
+        this.leakDetection = builder.leakDetection;
 
     }
 
@@ -151,5 +604,123 @@ public class HttpConfiguration {
         return port;
     }
 
+    /**
+     * @return the maximum size of the mapped files cache, in bytes.
+     */
+    public long getMappedCacheSize() {
+        return mappedCacheSize;
+    }
+
+    /**
+     * @return the maximum size of the pre-rendered responses cache, in bytes.
+     */
+    public long getResponseCacheSize() {
+        return responseCacheSize;
+    }
+
+    public ExecutionModel getExecutionModel() {
+        return executionModel;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public int getWorkerQueueSize() {
+        return workerQueueSize;
+    }
+
+    /**
+     * @return the maximum size of the directory listings cache, in bytes.
+     */
+    public long getListingCacheSize() {
+        return listingCacheSize;
+    }
+
+    public int getListingPageSize() {
+        return listingPageSize;
+    }
+
+    /**
+     * @return the maximum size of the compressed responses cache, in bytes.
+     */
+    public long getCompressionCacheSize() {
+        return compressionCacheSize;
+    }
+
+    public int getMetadataCacheTtl() {
+        return metadataCacheTtl;
+    }
+
+    public Path getMimeTypes() {
+        return mimeTypes;
+    }
+
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public int getHeaderReadTimeout() {
+        return headerReadTimeout;
+    }
+
+    public int getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public int getWriteHighWatermark() {
+        return writeHighWatermark;
+    }
+
+    public int getWriteLowWatermark() {
+        return writeLowWatermark;
+    }
+
+    /**
+     * @return the access log file, <code>null</code> if the requests are not logged.
+     */
+    public Path getAccessLog() {
+        return accessLog;
+    }
+
+    /**
+     * @return the key store file, <code>null</code> if none.
+     */
+    public Path getKeyStore() {
+        return keyStore;
+    }
+
+    public String getKeyStorePassword() {
+        return keyStorePassword;
+    }
+
+    public String getKeyStoreType() {
+        return keyStoreType;
+    }
+
+    public int getSslSessionCacheSize() {
+        return sslSessionCacheSize;
+    }
+
+    public int getSslSessionTimeout() {
+        return sslSessionTimeout;
+    }
+
+    public boolean isLeakDetection() {
+        return leakDetection;
+    }
+
 
 }
@@ -0,0 +1,30 @@
+package fr.meuret.webtesttech.conf;
+
+import com.beust.jcommander.IParameterValidator;
+import com.beust.jcommander.ParameterException;
+
+/**
+ * Validates the options which can not be <i>0</i>, e.g. counts of threads, sizes of queues or divisors : unlike
+ * {@link com.beust.jcommander.validators.PositiveInteger}, <i>0</i> is rejected.
+ *
+ * @author Jerome
+ */
+public class StrictlyPositiveInteger implements IParameterValidator {
+
+
+    @Override
+    public void validate(String name, String value) throws ParameterException {
+
+        final int n;
+        try {
+            n = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new ParameterException("Parameter " + name + " should be an integer (found " + value + ")");
+        }
+        if (n <= 0) {
+            throw new ParameterException("Parameter " + name + " should be strictly positive (found " + value + ")");
+        }
+    }
+
+
+}
@@ -0,0 +1,178 @@
+package fr.meuret.webtesttech.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A satisfiable byte range of a representation, as per defined in the RFC 7233 : the positions of its first and last
+ * bytes, both inclusive.
+ *
+ * @author Jerome
+ * @see <a href="https://tools.ietf.org/html/rfc7233">https://tools.ietf.org/html/rfc7233</a>
+ */
+public final class ByteRange {
+
+
+    /**
+     * The maximum number of ranges of a request. Clients asking for more (or for many overlapping ranges) get the
+     * whole representation.
+     */
+    public static final int MAX_RANGES = 16;
+    private static final String BYTES_UNIT = "bytes=";
+    private final long first;
+    private final long last;
+
+
+    private ByteRange(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Parses the <code>Range</code> header of a request. The satisfiable ranges are sorted, and the overlapping or
+     * adjacent ones are coalesced.
+     *
+     * @param range the <code>Range</code> header value.
+     * @param size  the size of the representation.
+     * @return the satisfiable ranges, an empty list if none is satisfiable, or <code>null</code> if the header must be
+     * ignored : invalid syntax, unknown unit or too many ranges.
+     */
+    public static List<ByteRange> parse(String range, long size) {
+
+        if (!range.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+            return null;
+        }
+        final List<ByteRange> ranges = new ArrayList<>();
+        int specs = 0;
+        int start = BYTES_UNIT.length();
+        while (start <= range.length()) {
+            int end = range.indexOf(',', start);
+            if (end < 0) {
+                end = range.length();
+            }
+            final String spec = range.substring(start, end).trim();
+            start = end + 1;
+            //Empty list elements are allowed
+            if (spec.isEmpty()) {
+                continue;
+            }
+            if (++specs > MAX_RANGES) {
+                return null;
+            }
+            final int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            try {
+                if (dash == 0) {
+                    //Suffix range : the last bytes
+                    final long suffixLength = parsePosition(spec.substring(1));
+                    if (suffixLength > 0 && size > 0) {
+                        ranges.add(new ByteRange(Math.max(0, size - suffixLength), size - 1));
+                    }
+                } else {
+                    final long first = parsePosition(spec.substring(0, dash));
+                    final long last = dash == spec.length() - 1 ? Long.MAX_VALUE : parsePosition(spec.substring(
+                            dash + 1));
+                    if (last < first) {
+                        return null;
+                    }
+                    if (first < size) {
+                        ranges.add(new ByteRange(first, Math.min(last, size - 1)));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (specs == 0) {
+            return null;
+        }
+        return coalesce(ranges);
+    }
+
+    private static long parsePosition(String position) {
+
+        final String digits = position.trim();
+        if (digits.isEmpty() || digits.charAt(0) == '+' || digits.charAt(0) == '-') {
+            throw new NumberFormatException(position);
+        }
+        try {
+            return Long.parseLong(digits);
+        } catch (NumberFormatException e) {
+            //Too many digits : beyond the end of any representation
+            for (int i = 0; i < digits.length(); i++) {
+                if (!Character.isDigit(digits.charAt(i))) {
+                    throw e;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+        Collections.sort(ranges, Comparator.comparingLong(ByteRange::getFirst));
+        final List<ByteRange> coalesced = new ArrayList<>(ranges.size());
+        ByteRange current = ranges.get(0);
+        for (ByteRange next : ranges.subList(1, ranges.size())) {
+            if (next.first <= current.last + 1) {
+                current = new ByteRange(current.first, Math.max(current.last, next.last));
+            } else {
+                coalesced.add(current);
+                current = next;
+            }
+        }
+        coalesced.add(current);
+        return coalesced;
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getLast() {
+        return last;
+    }
+
+    public long getLength() {
+        return last - first + 1;
+    }
+
+    /**
+     * @param size the size of the representation.
+     * @return the <code>Content-Range</code> header value of this range, e.g. <i>bytes 0-499/1234</i>.
+     */
+    public String toContentRange(long size) {
+        return "bytes " + first + "-" + last + "/" + size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ByteRange)) {
+            return false;
+        }
+        final ByteRange that = (ByteRange) o;
+        return first == that.first && last == that.last;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(first) + Long.hashCode(last);
+    }
+
+    @Override
+    public String toString() {
+        return first + "-" + last;
+    }
+
+
+}
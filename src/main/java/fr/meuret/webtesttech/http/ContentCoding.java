@@ -0,0 +1,158 @@
+package fr.meuret.webtesttech.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * The content codings supported by the server, as per defined in the RFC 7231 : the identity is implied.
+ * <p>
+ * A content is encoded while it is read, window after window, with a {@link Deflater}.
+ *
+ * @author Jerome
+ * @see <a href="https://tools.ietf.org/html/rfc7231#section-5.3.4">RFC 7231, section 5.3.4</a>
+ */
+public enum ContentCoding {
+
+
+    GZIP("gzip"), DEFLATE("deflate");
+
+    private static final int WINDOW_SIZE = 64 * 1024;
+    //Magic number, deflate method, no flags, no modification time, no extra flags, unknown OS
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private final String token;
+
+    ContentCoding(String token) {
+        this.token = token;
+    }
+
+    /**
+     * Chooses the content coding of a response, as per the <code>Accept-Encoding</code> header of the request. The
+     * codings are chosen by quality value, gzip being preferred to deflate when they are equally acceptable.
+     *
+     * @param acceptEncoding the <code>Accept-Encoding</code> header value, may be <code>null</code>.
+     * @return the preferred content coding, or <code>null</code> if the content must not be encoded.
+     */
+    public static ContentCoding negotiate(String acceptEncoding) {
+
+        if (acceptEncoding == null) {
+            return null;
+        }
+        float gzip = -1, deflate = -1, any = -1;
+        int start = 0;
+        while (start < acceptEncoding.length()) {
+            int end = acceptEncoding.indexOf(',', start);
+            if (end < 0) {
+                end = acceptEncoding.length();
+            }
+            final int parameters = acceptEncoding.indexOf(';', start);
+            final boolean hasParameters = parameters >= 0 && parameters < end;
+            final String coding = acceptEncoding.substring(start, hasParameters ? parameters : end).trim();
+            final float quality = hasParameters ? quality(acceptEncoding.substring(parameters + 1, end)) : 1;
+
+            if (GZIP.token.equalsIgnoreCase(coding) || "x-gzip".equalsIgnoreCase(coding)) {
+                gzip = quality;
+            } else if (DEFLATE.token.equalsIgnoreCase(coding)) {
+                deflate = quality;
+            } else if ("*".equals(coding)) {
+                any = quality;
+            }
+            start = end + 1;
+        }
+        //The codings that are not listed are as acceptable as "*"
+        if (gzip < 0) {
+            gzip = any;
+        }
+        if (deflate < 0) {
+            deflate = any;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : null;
+    }
+
+    /**
+     * @return the quality value of a list of parameters, e.g. <i>q=0.5</i>. Defaulted to <i>1</i>.
+     */
+    private static float quality(String parameters) {
+
+        for (String parameter : parameters.split(";")) {
+            final String trimmed = parameter.trim();
+            if (trimmed.length() > 2 && (trimmed.charAt(0) == 'q' || trimmed.charAt(0) == 'Q') && trimmed.charAt(
+                    1) == '=') {
+                try {
+                    return Float.parseFloat(trimmed.substring(2));
+                } catch (NumberFormatException e) {
+                    //An invalid quality value does not make the coding acceptable
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Encodes a content, window after window.
+     *
+     * @param in           the content to encode, which is read until its end but not closed.
+     * @param expectedSize the expected size of the content, used to size the output.
+     * @return the encoded content.
+     * @throws IOException if the content can not be read.
+     */
+    public byte[] encode(InputStream in, long expectedSize) throws IOException {
+
+        //Text usually shrinks to a fourth of its size, or less
+        final ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8,
+                                                                                    Math.max(64, expectedSize / 4)));
+        final boolean gzip = this == GZIP;
+        //The gzip format wraps a raw deflate stream, the deflate coding is the zlib format
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, gzip);
+        final CRC32 crc = new CRC32();
+        final byte[] input = new byte[WINDOW_SIZE];
+        final byte[] output = new byte[WINDOW_SIZE];
+        try {
+            if (gzip) {
+                out.write(GZIP_HEADER);
+            }
+            int read;
+            while ((read = in.read(input)) >= 0) {
+                if (gzip) {
+                    crc.update(input, 0, read);
+                }
+                deflater.setInput(input, 0, read);
+                while (!deflater.needsInput()) {
+                    out.write(output, 0, deflater.deflate(output));
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                out.write(output, 0, deflater.deflate(output));
+            }
+            if (gzip) {
+                //The CRC and the size of the content, modulo 2^32, in little endian
+                writeIntLE(out, (int) crc.getValue());
+                writeIntLE(out, (int) deflater.getBytesRead());
+            }
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    /**
+     * @return the token of the content coding, e.g. <i>gzip</i>.
+     */
+    public String getToken() {
+        return token;
+    }
+}
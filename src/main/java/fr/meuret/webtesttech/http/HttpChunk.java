@@ -1,46 +1,76 @@
 package fr.meuret.webtesttech.http;
 
-import fr.meuret.webtesttech.util.StringUtils;
-
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetEncoder;
 import java.nio.charset.StandardCharsets;
-import java.util.StringJoiner;
 
 /**
- * An HTTP chunk, as per defined in the RFC 7230.
+ * The framing of the chunked transfer coding, as per defined in the RFC 7230.
+ * <p>
+ * A chunk is made of its size in hexadecimal, CRLF, its data and CRLF. The data is never copied : only the framing is
+ * written, by the caller, into a buffer of its own. The CRLF ending a chunk is written in front of the size of the next
+ * chunk (or of the last chunk), so that every chunk only needs two buffers : its header and its data.
  *
  * @author Jerome
- * @see <a href ="http://tools.ietf.org/html/rfc7230">http://tools.ietf.org/html/rfc7230</a>
+ * @see <a href="https://tools.ietf.org/html/rfc7230#section-4.1">https://tools.ietf.org/html/rfc7230#section-4.1</a>
  */
-public class HttpChunk {
-
+public final class HttpChunk {
 
-    public static final HttpChunk LAST_CHUNK = new HttpChunk("", 0);
 
+    /**
+     * The maximum length of a chunk header : the CRLF ending the previous chunk, eight hexadecimal digits and CRLF.
+     */
+    public static final int MAX_HEADER_LENGTH = 12;
+    /**
+     * The maximum length of the end of a chunked body : the CRLF ending the previous chunk, the last chunk and the
+     * empty trailer section.
+     */
+    public static final int LAST_CHUNK_LENGTH = 7;
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
 
-    private final int size;
-    private final String datas;
+    private HttpChunk() {
+    }
 
+    /**
+     * Puts the header of a chunk.
+     *
+     * @param target the buffer to write into, with at least {@link #MAX_HEADER_LENGTH} bytes remaining.
+     * @param size   the size of the chunk data, greater than zero.
+     * @param first  true if this is the first chunk of the body, which does not end a previous chunk.
+     */
+    public static void putHeader(ByteBuffer target, int size, boolean first) {
 
-    public HttpChunk(String datas, int size) {
-        this.datas = datas; this.size = size;
+        if (size <= 0) {
+            throw new IllegalArgumentException("A chunk can not be empty : " + size);
+        }
+        if (!first) {
+            target.put(CR).put(LF);
+        }
+        putHex(target, size);
+        target.put(CR).put(LF);
     }
 
-    public ByteBuffer toByteBuffer() throws Exception {
-        final String hexSize = Integer.toHexString(size);
-        StringJoiner chunkBuilder = new StringJoiner(StringUtils.CRLF, "", StringUtils.CRLF);
-        chunkBuilder.add(hexSize).add(datas);
-
-        final CharsetEncoder responseEncoder = Charset.forName(StandardCharsets.ISO_8859_1.displayName()).newEncoder();
-        return responseEncoder.encode(CharBuffer.wrap(chunkBuilder.toString()));
+    /**
+     * Puts the end of a chunked body : the last chunk and an empty trailer section.
+     *
+     * @param target the buffer to write into, with at least {@link #LAST_CHUNK_LENGTH} bytes remaining.
+     * @param first  true if the body is empty, i.e. no chunk has been written before.
+     */
+    public static void putLastChunk(ByteBuffer target, boolean first) {
 
+        if (!first) {
+            target.put(CR).put(LF);
+        }
+        target.put((byte) '0').put(CR).put(LF).put(CR).put(LF);
     }
 
-    @Override
-    public String toString() {
-        return String.join(StringUtils.CRLF, Integer.toString(size), datas);
+    private static void putHex(ByteBuffer target, int value) {
+
+        //Number of significant hexadecimal digits, at least one
+        int shift = (31 - Integer.numberOfLeadingZeros(value | 1)) & ~3;
+        for (; shift >= 0; shift -= 4) {
+            target.put(HEX_DIGITS[(value >>> shift) & 0xf]);
+        }
     }
 }
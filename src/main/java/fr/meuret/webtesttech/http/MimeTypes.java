@@ -0,0 +1,154 @@
+package fr.meuret.webtesttech.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * An immutable table of the MIME types of the static files, indexed by file extension, loaded once at startup.
+ * <p>
+ * The defaults are read from the <i>mime-types.properties</i> resource, and can be overridden by a file with the same
+ * format : <code>extension = content type | compressible | Cache-Control</code>. Every type carries the flags the
+ * responses need, so that serving a file never looks anything up beyond the table itself.
+ *
+ * @author Jerome
+ */
+public final class MimeTypes {
+
+
+    /**
+     * The type of the files with an unknown extension.
+     */
+    public static final MimeType DEFAULT_TYPE = new MimeType("application/octet-stream", false, null);
+    private static final String DEFAULTS_RESOURCE = "mime-types.properties";
+    private final Map<String, MimeType> types;
+
+
+    private MimeTypes(Map<String, MimeType> types) {
+        this.types = Collections.unmodifiableMap(types);
+    }
+
+    /**
+     * Loads the default table, overridden by a file if any.
+     *
+     * @param overrides a file of types overriding the default ones, may be <code>null</code>.
+     * @return the table.
+     * @throws IOException              if the overriding file can not be read.
+     * @throws IllegalArgumentException if an entry is malformed.
+     */
+    public static MimeTypes load(Path overrides) throws IOException {
+
+        final Map<String, MimeType> types = new HashMap<>();
+        try (InputStream in = MimeTypes.class.getResourceAsStream(DEFAULTS_RESOURCE)) {
+            if (in == null) {
+                throw new IOException("Missing resource " + DEFAULTS_RESOURCE);
+            }
+            read(new InputStreamReader(in, StandardCharsets.UTF_8), types);
+        }
+        if (overrides != null) {
+            try (Reader reader = Files.newBufferedReader(overrides, StandardCharsets.UTF_8)) {
+                read(reader, types);
+            }
+        }
+        return new MimeTypes(types);
+    }
+
+    /**
+     * @return the default table.
+     * @throws IllegalStateException if the default table can not be read.
+     */
+    public static MimeTypes defaults() {
+        try {
+            return load(null);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void read(Reader reader, Map<String, MimeType> types) throws IOException {
+
+        final Properties properties = new Properties();
+        properties.load(reader);
+        for (String extension : properties.stringPropertyNames()) {
+            final String[] columns = properties.getProperty(extension).split("\\|", -1);
+            if (columns.length != 3 || columns[0].trim().isEmpty()) {
+                throw new IllegalArgumentException("Malformed MIME type of the extension " + extension + " : " +
+                                                           properties.getProperty(extension));
+            }
+            final String cacheControl = columns[2].trim();
+            types.put(extension.toLowerCase(Locale.ROOT), new MimeType(columns[0].trim(), Boolean.parseBoolean(
+                    columns[1].trim()), cacheControl.isEmpty() ? null : cacheControl));
+        }
+    }
+
+    /**
+     * @param filename a file name.
+     * @return the type of the file, according to its extension, {@link #DEFAULT_TYPE} if unknown.
+     */
+    public MimeType get(String filename) {
+
+        final int dot = filename.lastIndexOf('.');
+        if (dot < 0 || dot == filename.length() - 1) {
+            return DEFAULT_TYPE;
+        }
+        final MimeType type = types.get(filename.substring(dot + 1).toLowerCase(Locale.ROOT));
+        return type == null ? DEFAULT_TYPE : type;
+    }
+
+    public int size() {
+        return types.size();
+    }
+
+    /**
+     * A MIME type and the way its files are served. Immutable.
+     */
+    public static final class MimeType {
+
+        private final String contentType;
+        private final boolean compressible;
+        private final String cacheControl;
+
+        private MimeType(String contentType, boolean compressible, String cacheControl) {
+            this.contentType = contentType;
+            this.compressible = compressible;
+            this.cacheControl = cacheControl;
+        }
+
+        /**
+         * @return the <code>Content-Type</code> header value.
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * @return true if the content is worth compressing. Images, archives and videos are already compressed.
+         */
+        public boolean isCompressible() {
+            return compressible;
+        }
+
+        /**
+         * @return the <code>Cache-Control</code> header value, <code>null</code> if none.
+         */
+        public String getCacheControl() {
+            return cacheControl;
+        }
+
+        @Override
+        public String toString() {
+            return contentType;
+        }
+    }
+
+
+}
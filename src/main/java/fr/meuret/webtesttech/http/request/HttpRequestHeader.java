@@ -17,6 +17,8 @@ public enum HttpRequestHeader {
     IF_NONE_MATCH,
     IF_MODIFIED_SINCE,
     IF_RANGE,
+    //Range requests
+    RANGE,
     //Content negotiation
     ACCEPT,
     ACCEPT_CHARSET,
@@ -29,7 +31,10 @@ public enum HttpRequestHeader {
     FROM,
     REFERER,
     USER_AGENT,
-    CONNECTION;
+    CONNECTION,
+    //Message framing
+    CONTENT_LENGTH,
+    TRANSFER_ENCODING;
 
 
     //values() instantiates an array everytime it's called
@@ -0,0 +1,350 @@
+package fr.meuret.webtesttech.http.request;
+
+import fr.meuret.webtesttech.http.HttpException;
+import fr.meuret.webtesttech.http.HttpMethod;
+import fr.meuret.webtesttech.http.HttpVersion;
+import fr.meuret.webtesttech.http.response.StatusCode;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * An incremental HTTP/1.1 request parser working directly on the bytes of a <code>ByteBuffer</code>.
+ * <p>
+ * The parser is a state machine that scans the request line and the header fields byte per byte. It does not
+ * decode the buffer into a String : the request line and the header fields are only recorded as slices
+ * (offsets relative to the beginning of the request), and only the request target and the values of the known
+ * {@link HttpRequestHeader} are materialized once the header section is complete.
+ * <p>
+ * When the buffer does not contain a complete request, {@link #parse(ByteBuffer)} returns <code>null</code> and
+ * leaves the buffer position at the beginning of the request. The parser remembers how far it has scanned
+ * so that, once more bytes have been appended (the buffer may have been compacted in the meantime), parsing resumes
+ * where it stopped.
+ * <p>
+ * A parser instance is stateful and is not thread-safe : it is meant to be owned by a single connection.
+ *
+ * @author Jerome
+ * @see <a href ="http://tools.ietf.org/html/rfc7230#section-3">http://tools.ietf.org/html/rfc7230#section-3</a>
+ */
+public class HttpRequestParser {
+
+
+    private static final byte SP = ' ';
+    private static final byte HT = '\t';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte COLON = ':';
+
+    private static final HttpMethod[] METHODS = HttpMethod.values();
+    private static final byte[][] METHOD_NAMES = new byte[METHODS.length][];
+    private static final HttpRequestHeader[] HEADERS = HttpRequestHeader.values();
+    private static final byte[][] HEADER_NAMES = new byte[HEADERS.length][];
+    private static final byte[] HTTP_1_1 = HttpVersion.HTTP_1_1.toString().getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] HTTP_1_0 = HttpVersion.HTTP_1_0.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+    static {
+        for (int i = 0; i < METHODS.length; i++) {
+            METHOD_NAMES[i] = METHODS[i].name().getBytes(StandardCharsets.ISO_8859_1);
+        }
+        for (int i = 0; i < HEADERS.length; i++) {
+            //Header names are stored in lower case, see HttpRequestHeader
+            HEADER_NAMES[i] = HEADERS[i].getHeaderName().getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private enum State {
+        METHOD,
+        TARGET,
+        VERSION,
+        REQUEST_LINE_LF,
+        HEADER_START,
+        HEADER_NAME,
+        HEADER_VALUE_START,
+        HEADER_VALUE,
+        HEADER_LF,
+        HEADERS_END_LF
+    }
+
+    //All the offsets below are relative to the first byte of the request
+    private final int[] headerValueStarts = new int[HEADERS.length];
+    private final int[] headerValueEnds = new int[HEADERS.length];
+    private State state;
+    private int scanned;
+    private int targetStart;
+    private int targetEnd;
+    private int versionStart;
+    private int versionEnd;
+    private int nameStart;
+    private int nameEnd;
+    private int valueStart;
+    private int valueEnd;
+    private HttpMethod method;
+    private HttpVersion version;
+
+
+    public HttpRequestParser() {
+        reset();
+    }
+
+    /**
+     * Parses the next request available in the buffer, between its position and its limit.
+     *
+     * @param buffer a buffer ready to be read.
+     * @return the parsed request, in which case the buffer position has been moved right after the header section, or
+     * <code>null</code> if the request is not complete yet, in which case the buffer position has only been moved past
+     * the empty lines preceding the request line.
+     * @throws HttpException if the request is malformed.
+     */
+    public HttpRequest parse(ByteBuffer buffer) throws HttpException {
+
+        final int limit = buffer.limit();
+        if (state == State.METHOD && scanned == 0) {
+            //The empty lines received before a request line are ignored (RFC7230 section 3.5), e.g. between requests
+            int first = buffer.position();
+            while (first < limit && (buffer.get(first) == CR || buffer.get(first) == LF)) {
+                first++;
+            }
+            buffer.position(first);
+        }
+        final int start = buffer.position();
+        int i = start + scanned;
+
+        while (i < limit) {
+            final byte b = buffer.get(i);
+            final int offset = i - start;
+
+            switch (state) {
+
+                case METHOD:
+                    if (b == SP) {
+                        method = matchMethod(buffer, start, offset);
+                        targetStart = offset + 1;
+                        state = State.TARGET;
+                    } else if (!isTokenChar(b)) {
+                        throw badRequest();
+                    }
+                    break;
+
+                case TARGET:
+                    if (b == SP) {
+                        if (offset == targetStart) {
+                            throw badRequest();
+                        }
+                        targetEnd = offset;
+                        versionStart = offset + 1;
+                        state = State.VERSION;
+                    } else if (b == CR || b == LF) {
+                        throw badRequest();
+                    }
+                    break;
+
+                case VERSION:
+                    if (b == CR || b == LF) {
+                        versionEnd = offset;
+                        version = matchVersion(buffer, start);
+                        state = b == CR ? State.REQUEST_LINE_LF : State.HEADER_START;
+                    }
+                    break;
+
+                case REQUEST_LINE_LF:
+                    if (b != LF) {
+                        throw badRequest();
+                    } state = State.HEADER_START;
+                    break;
+
+                case HEADER_START:
+                    if (b == CR) {
+                        state = State.HEADERS_END_LF;
+                    } else if (b == LF) {
+                        return complete(buffer, start, i + 1);
+                    } else if (b == SP || b == HT) {
+                        //Obsolete line folding is not supported (RFC7230 section 3.2.4)
+                        throw badRequest();
+                    } else if (isTokenChar(b)) {
+                        nameStart = offset;
+                        state = State.HEADER_NAME;
+                    } else {
+                        throw badRequest();
+                    }
+                    break;
+
+                case HEADER_NAME:
+                    if (b == COLON) {
+                        nameEnd = offset;
+                        valueStart = offset + 1;
+                        valueEnd = valueStart;
+                        state = State.HEADER_VALUE_START;
+                    } else if (!isTokenChar(b)) {
+                        throw badRequest();
+                    }
+                    break;
+
+                case HEADER_VALUE_START:
+                    if (b == SP || b == HT) {
+                        valueStart = offset + 1;
+                        valueEnd = valueStart;
+                        break;
+                    }
+                    //The current byte is the first one of the value, it is scanned again as such
+                    state = State.HEADER_VALUE;
+                    continue;
+
+                case HEADER_VALUE:
+                    if (b == CR) {
+                        endHeader(buffer, start);
+                        state = State.HEADER_LF;
+                    } else if (b == LF) {
+                        endHeader(buffer, start);
+                        state = State.HEADER_START;
+                    } else if (b != SP && b != HT) {
+                        //Trailing whitespaces are not part of the value
+                        valueEnd = offset + 1;
+                    }
+                    break;
+
+                case HEADER_LF:
+                    if (b != LF) {
+                        throw badRequest();
+                    } state = State.HEADER_START;
+                    break;
+
+                case HEADERS_END_LF:
+                    if (b != LF) {
+                        throw badRequest();
+                    } return complete(buffer, start, i + 1);
+
+                default:
+                    throw new IllegalStateException("Unexpected parser state " + state);
+            }
+            i++;
+        }
+
+        scanned = i - start;
+        return null;
+    }
+
+    /**
+     * @return the number of bytes of the current request already scanned by this parser.
+     */
+    public int getScanned() {
+        return scanned;
+    }
+
+    /**
+     * Resets this parser so that it is ready to parse a new request.
+     */
+    public void reset() {
+        state = State.METHOD;
+        scanned = 0;
+        method = null;
+        version = null;
+        targetStart = targetEnd = versionStart = versionEnd = 0;
+        Arrays.fill(headerValueStarts, -1);
+        Arrays.fill(headerValueEnds, -1);
+    }
+
+    private HttpRequest complete(ByteBuffer buffer, int start, int end) {
+
+        final String target = slice(buffer, start, targetStart, targetEnd);
+        final Map<HttpRequestHeader, String> headers = new EnumMap<>(HttpRequestHeader.class);
+        for (int i = 0; i < HEADERS.length; i++) {
+            if (headerValueStarts[i] >= 0) {
+                headers.put(HEADERS[i], slice(buffer, start, headerValueStarts[i], headerValueEnds[i]));
+            }
+        }
+
+        final HttpRequest request = new HttpRequest(method, target, version, headers);
+        buffer.position(end);
+        reset();
+        return request;
+
+    }
+
+    private void endHeader(ByteBuffer buffer, int start) {
+
+        final int header = matchHeader(buffer, start);
+        //Unknown headers are simply skipped, no String is built for them
+        if (header >= 0) {
+            headerValueStarts[header] = valueStart;
+            headerValueEnds[header] = valueEnd;
+        }
+    }
+
+    private HttpMethod matchMethod(ByteBuffer buffer, int start, int length) throws HttpException {
+
+        for (int i = 0; i < METHOD_NAMES.length; i++) {
+            if (regionMatches(buffer, start, METHOD_NAMES[i], length, false)) {
+                return METHODS[i];
+            }
+        }
+        throw badRequest();
+    }
+
+    private HttpVersion matchVersion(ByteBuffer buffer, int start) throws HttpException {
+
+        final int length = versionEnd - versionStart;
+        if (regionMatches(buffer, start + versionStart, HTTP_1_1, length, false)) {
+            return HttpVersion.HTTP_1_1;
+        }
+        if (regionMatches(buffer, start + versionStart, HTTP_1_0, length, false)) {
+            return HttpVersion.HTTP_1_0;
+        }
+        throw badRequest();
+    }
+
+    private int matchHeader(ByteBuffer buffer, int start) {
+
+        final int length = nameEnd - nameStart;
+        for (int i = 0; i < HEADER_NAMES.length; i++) {
+            //Header field names are case-insensitive
+            if (regionMatches(buffer, start + nameStart, HEADER_NAMES[i], length, true)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(ByteBuffer buffer, int from, byte[] expected, int length,
+                                         boolean ignoreCase) {
+
+        if (expected.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            byte b = buffer.get(from + i);
+            if (ignoreCase && b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String slice(ByteBuffer buffer, int start, int from, int to) {
+
+        final byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + from + i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean isTokenChar(byte b) {
+        //tchar as per defined in the RFC7230 section 3.2.6, i.e. any visible US-ASCII character except delimiters
+        return b > 32 && b < 127 && b != '(' && b != ')' && b != ',' && b != '/' && b != ':' && b != ';' && b != '<'
+                && b != '=' && b != '>' && b != '?' && b != '@' && b != '[' && b != '\\' && b != ']' && b != '{'
+                && b != '}' && b != '"';
+    }
+
+    private HttpException badRequest() {
+        reset();
+        return new HttpException(StatusCode.BAD_REQUEST);
+    }
+
+
+}
@@ -1,22 +1,21 @@
 package fr.meuret.webtesttech.http.response;
 
 import fr.meuret.webtesttech.http.HttpVersion;
+import fr.meuret.webtesttech.util.HttpDate;
 import fr.meuret.webtesttech.util.StringUtils;
 
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetEncoder;
 import java.nio.charset.StandardCharsets;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Map;
-import java.util.StringJoiner;
 
 /**
  * A Http response as per defined in the RFC7230.
+ * <p>
+ * The constant parts of the header section are pre-encoded : the status lines, the header names, and the
+ * <code>Server</code> header. The <code>Date</code> header is the current date shared by all the responses, rendered
+ * once per second by {@link HttpDate#now()} : rendering a header section is a sequence of copies.
  *
  * @author Jerome
  * @see <a href ="http://tools.ietf.org/html/rfc7230">http://tools.ietf.org/html/rfc7230</a>
@@ -24,16 +23,30 @@ import java.util.StringJoiner;
 public class HttpResponse {
 
 
-    private final Map<HttpResponseHeader, String> headers = new HashMap<>();
+    private static final byte[] CRLF = StringUtils.CRLF.getBytes(StandardCharsets.ISO_8859_1);
+    //The headers sent with every response, up to the value of the date header
+    private static final byte[] FIXED_HEADERS = (HttpResponseHeader.SERVER.getHeaderName() + ": AdobeWebTechTest/1.0"
+            + StringUtils.CRLF + HttpResponseHeader.DATE.getHeaderName() + ": ").getBytes(StandardCharsets.ISO_8859_1);
+    //Status lines, by version and status code, followed by CRLF
+    private static final byte[][][] STATUS_LINES = new byte[HttpVersion.values().length][StatusCode.values().length][];
+
+    static {
+        for (HttpVersion version : HttpVersion.values()) {
+            for (StatusCode statusCode : StatusCode.values()) {
+                STATUS_LINES[version.ordinal()][statusCode.ordinal()] = (buildStatusLine(version, statusCode)
+                        + StringUtils.CRLF).getBytes(StandardCharsets.ISO_8859_1);
+            }
+        }
+    }
+
+    //The date and the server headers are not part of the map, they are always sent
+    private final Map<HttpResponseHeader, String> headers = new EnumMap<>(HttpResponseHeader.class);
     private final StringBuilder content = new StringBuilder();
     private StatusCode statusCode;
     private String statusLine;
     private HttpVersion httpVersion;
 
     public HttpResponse(HttpVersion version) {
-        headers.put(HttpResponseHeader.DATE,
-                    DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneId.of("GMT"))));
-        headers.put(HttpResponseHeader.SERVER, "AdobeWebTechTest/1.0");
         this.httpVersion = version;
 
     }
@@ -43,6 +56,23 @@ public class HttpResponse {
         return httpVersion + " " + statusCode;
     }
 
+    /**
+     * Renders the constant head of a response : its status line, the fixed headers, and the name of the date header
+     * which value must follow.
+     *
+     * @param version    the version of the response.
+     * @param statusCode the status code of the response.
+     * @return a new array holding the head.
+     */
+    public static byte[] renderHead(HttpVersion version, StatusCode statusCode) {
+
+        final byte[] statusLine = STATUS_LINES[version.ordinal()][statusCode.ordinal()];
+        final byte[] head = new byte[statusLine.length + FIXED_HEADERS.length];
+        System.arraycopy(statusLine, 0, head, 0, statusLine.length);
+        System.arraycopy(FIXED_HEADERS, 0, head, statusLine.length, FIXED_HEADERS.length);
+        return head;
+    }
+
 
     public static HttpResponse error(StatusCode statusCode) {
         final HttpResponse httpResponse = new HttpResponse(HttpVersion.HTTP_1_1);
@@ -59,6 +89,10 @@ public class HttpResponse {
         this.headers.put(httpResponseHeader, value);
     }
 
+    public Map<HttpResponseHeader, String> getHeaders() {
+        return Collections.unmodifiableMap(headers);
+    }
+
     public StringBuilder content() {
         return content;
     }
@@ -71,6 +105,10 @@ public class HttpResponse {
         this.statusCode = statusCode;
     }
 
+    public HttpVersion getHttpVersion() {
+        return httpVersion;
+    }
+
     public void setHttpVersion(HttpVersion version) {
         this.httpVersion = version;
     }
@@ -80,25 +118,44 @@ public class HttpResponse {
 
 
         //FOR HTTP 1.1, default charset is ISO-8859-1
-        final CharsetEncoder responseEncoder = Charset.forName(StandardCharsets.ISO_8859_1.displayName()).newEncoder();
-        final StringBuilder response = new StringBuilder();
-        final StringJoiner headersBuffer = new StringJoiner(StringUtils.CRLF, "", StringUtils.CRLF);
-
-        boolean hasContent = content.length() > 0;
-        if (hasContent) {
-            setHeader(HttpResponseHeader.CONTENT_LENGTH, Integer.toString(content.length()));
+        final byte[] body = content.length() > 0 ? content.toString().getBytes(StandardCharsets.ISO_8859_1) : null;
+        if (body != null) {
+            setHeader(HttpResponseHeader.CONTENT_LENGTH, Integer.toString(body.length));
         }
-        headersBuffer.add(buildStatusLine(httpVersion, statusCode));
-        headers.forEach((header, value) -> headersBuffer.add(String.join(": ", header.getHeaderName(), value)));
 
-        response.append(headersBuffer.toString());
+        final byte[] statusLine = STATUS_LINES[httpVersion.ordinal()][statusCode.ordinal()];
+        int length = statusLine.length + FIXED_HEADERS.length + HttpDate.LENGTH + CRLF.length;
+        for (Map.Entry<HttpResponseHeader, String> header : headers.entrySet()) {
+            length += header.getKey().getFieldPrefix().length + header.getValue().length() + CRLF.length;
+        }
+        //The header section always ends with an empty line, even if the body is written separately
+        length += CRLF.length + (body != null ? body.length : 0);
+
+        final ByteBuffer response = ByteBuffer.allocate(length);
+        response.put(statusLine).put(FIXED_HEADERS).put(HttpDate.now()).put(CRLF);
+        for (Map.Entry<HttpResponseHeader, String> header : headers.entrySet()) {
+            response.put(header.getKey().getFieldPrefix());
+            putLatin1(response, header.getValue());
+            response.put(CRLF);
+        }
+        response.put(CRLF);
         //Add HTML content
-        if (hasContent) {
-            response.append(StringUtils.CRLF);
-            response.append(content);
+        if (body != null) {
+            response.put(body);
         }
-        return responseEncoder.encode(CharBuffer.wrap(response.toString()));
+        response.flip();
+        return response;
+
 
+    }
 
+    /**
+     * Header values are ISO-8859-1 : every character is a byte.
+     */
+    private static void putLatin1(ByteBuffer buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            buffer.put(c <= 0xFF ? (byte) c : (byte) '?');
+        }
     }
 }
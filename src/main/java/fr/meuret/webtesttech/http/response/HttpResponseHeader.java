@@ -2,6 +2,8 @@ package fr.meuret.webtesttech.http.response;
 
 import com.google.common.base.CaseFormat;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Http response headers as per defined in the RFC7231.
  *
@@ -29,18 +31,23 @@ public enum HttpResponseHeader {
     ACCEPT_RANGES,
     SERVER,
     //Content
+    CONTENT_ENCODING,
     CONTENT_LENGTH,
+    CONTENT_RANGE,
     CONTENT_TYPE,
     TRANSFER_ENCODING, CONNECTION;
 
     //values() instantiates an array everytime it's called
     private final static HttpResponseHeader[] httpResponseHeaders = values();
     private String headerName;
+    //The header name followed by the separator, ISO-8859-1 encoded
+    private final byte[] fieldPrefix;
 
 
     private HttpResponseHeader() {
         //headers are case-insensitive
         headerName = CaseFormat.UPPER_UNDERSCORE.to(CaseFormat.LOWER_HYPHEN, toString());
+        fieldPrefix = (headerName + ": ").getBytes(StandardCharsets.ISO_8859_1);
     }
 
     public static HttpResponseHeader fromHeader(String header) {
@@ -59,4 +66,12 @@ public enum HttpResponseHeader {
         return headerName;
     }
 
+    /**
+     * @return the header name followed by the separator of its value, as ISO-8859-1 bytes. The returned array is shared
+     * and must not be modified.
+     */
+    public byte[] getFieldPrefix() {
+        return fieldPrefix;
+    }
+
 }
@@ -44,6 +44,7 @@ public enum StatusCode {
     RANGE_NOT_SATISFIABLE(416, "Range Not Satisfiable"),
     EXPECTATION_FAILED(417, "Expectation Failed"),
     UPGRADE_REQUIRED(426, "Upgrade Required"),
+    REQUEST_HEADER_FIELDS_TOO_LARGE(431, "Request Header Fields Too Large"),
     INTERNAL_SERVER_ERROR(500, "Internal Server Error"),
     NOT_IMPLEMENTED(501, "Not Implemented", true),
     BAD_GATEWAY(502, "Bad Gateway"),
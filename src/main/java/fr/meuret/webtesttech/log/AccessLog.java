@@ -0,0 +1,291 @@
+package fr.meuret.webtesttech.log;
+
+import fr.meuret.webtesttech.http.HttpMethod;
+import fr.meuret.webtesttech.http.HttpVersion;
+import fr.meuret.webtesttech.http.response.StatusCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An access log, one line per request in the Common Log Format followed by the time taken to build the response in
+ * microseconds, e.g. <i>127.0.0.1 - - [18/Oct/2026:01:33:47 +0200] "GET /index.html HTTP/1.1" 200 2326 57</i>.
+ * <p>
+ * Logging a request costs a few field writes : the records are published in a ring buffer of preallocated records,
+ * which the threads claim with a compare-and-set, and a background thread formats and appends them to the file by
+ * batches. The threads handling the requests never wait for the disk nor for each other : when the writer lags behind
+ * a full ring, the records are dropped and counted.
+ *
+ * @author Jerome
+ */
+public class AccessLog implements Closeable {
+
+
+    /**
+     * No access log : the requests are not logged.
+     */
+    public static final AccessLog NONE = new AccessLog();
+    public static final int DEFAULT_CAPACITY = 8192;
+    private static final Logger logger = LoggerFactory.getLogger(AccessLog.class);
+    //Maximum size of a batched append
+    private static final int BATCH_SIZE = 64 * 1024;
+    //Longer request paths are truncated, a line always fits in a batch
+    private static final int MAX_REQUEST_PATH_LENGTH = 4096;
+    //The writer polls the ring when there is nothing to write : the lines are not meant to be read in real time
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final DateTimeFormatter CLF_DATE = DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US)
+                                                                       .withZone(ZoneId.systemDefault());
+    private final Record[] ring;
+    private final int mask;
+    //The next sequence to claim, and the next sequence to write
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long consumed;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final FileChannel channel;
+    private final Thread writer;
+    private volatile boolean closed;
+    //Owned by the writer
+    private final ByteBuffer batch;
+    private final StringBuilder line = new StringBuilder(256);
+    private long formattedSecond = -1;
+    private String formattedDate;
+
+
+    /**
+     * @param file     the file the lines are appended to, created if needed.
+     * @param capacity the number of records of the ring, rounded up to a power of two.
+     * @throws IOException if the file can not be opened.
+     */
+    public AccessLog(Path file, int capacity) throws IOException {
+
+        if (file.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                        StandardOpenOption.APPEND);
+        this.ring = new Record[Integer.highestOneBit(Math.max(1, capacity - 1)) << 1];
+        this.mask = ring.length - 1;
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = new Record();
+        }
+        this.batch = ByteBuffer.allocateDirect(BATCH_SIZE);
+        this.writer = new Thread(this::write, "access-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private AccessLog() {
+        this.ring = null;
+        this.mask = 0;
+        this.channel = null;
+        this.writer = null;
+        this.batch = null;
+    }
+
+    /**
+     * @return false if the requests are not logged.
+     */
+    public boolean isEnabled() {
+        return ring != null;
+    }
+
+    /**
+     * Logs a request. Never blocks : the record is dropped if the ring is full.
+     *
+     * @param remoteAddress the literal IP address of the client.
+     * @param method        the request method, <code>null</code> if the request could not be parsed.
+     * @param requestPath   the request path, as received.
+     * @param version       the request HTTP version.
+     * @param status        the response status.
+     * @param bodyLength    the length of the response body, <i>-1</i> if unknown (e.g. chunked).
+     * @param startNanos    the time the request was parsed, as per {@link System#nanoTime()}.
+     */
+    public void log(String remoteAddress, HttpMethod method, String requestPath, HttpVersion version, StatusCode status,
+                    long bodyLength, long startNanos) {
+
+        if (ring == null) {
+            return;
+        }
+        final long durationNanos = System.nanoTime() - startNanos;
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= ring.length) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        final Record record = ring[(int) sequence & mask];
+        record.timestamp = System.currentTimeMillis();
+        record.remoteAddress = remoteAddress;
+        record.method = method;
+        record.requestPath = requestPath;
+        record.version = version;
+        record.status = status;
+        record.bodyLength = bodyLength;
+        record.durationNanos = durationNanos;
+        //Publishes the fields above to the writer
+        record.published = sequence;
+    }
+
+    /**
+     * @return the number of lines appended to the file.
+     */
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    /**
+     * @return the number of records dropped because the ring was full.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes the records already logged, then closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+
+        if (ring == null || closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return isEnabled() ? "AccessLog{" + "capacity=" + ring.length + ", written=" + getWrittenCount() +
+                ", dropped=" + getDroppedCount() + '}' : "AccessLog{disabled}";
+    }
+
+    private void write() {
+
+        long next = consumed;
+        while (true) {
+            Record record;
+            while ((record = ring[(int) next & mask]).published == next) {
+                append(record);
+                record.clear();
+                //Frees the slot for the producers
+                consumed = ++next;
+            }
+            flush();
+            if (closed && claimed.get() == next) {
+                return;
+            }
+            LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+    }
+
+    private void append(Record record) {
+
+        line.setLength(0);
+        final long second = record.timestamp / 1000;
+        if (second != formattedSecond) {
+            formattedDate = CLF_DATE.format(Instant.ofEpochMilli(record.timestamp));
+            formattedSecond = second;
+        }
+        line.append(record.remoteAddress).append(" - - [").append(formattedDate).append("] \"");
+        if (record.method != null) {
+            line.append(record.method).append(' ');
+            appendRequestPath(record.requestPath);
+            line.append(' ').append(record.version);
+        } else {
+            line.append('-');
+        }
+        line.append("\" ").append(record.status.getCode()).append(' ');
+        if (record.bodyLength >= 0) {
+            line.append(record.bodyLength);
+        } else {
+            line.append('-');
+        }
+        line.append(' ').append(TimeUnit.NANOSECONDS.toMicros(record.durationNanos)).append('\n');
+
+        if (batch.remaining() < line.length()) {
+            flush();
+        }
+        for (int i = 0; i < line.length(); i++) {
+            batch.put((byte) line.charAt(i));
+        }
+        written.increment();
+    }
+
+    /**
+     * Appends a request path, which can neither break the line nor the quoted request, nor exceed the maximum size.
+     */
+    private void appendRequestPath(String requestPath) {
+
+        final int length = Math.min(requestPath.length(), MAX_REQUEST_PATH_LENGTH);
+        for (int i = 0; i < length; i++) {
+            final char c = requestPath.charAt(i);
+            line.append(c < 0x20 || c == '"' || c > 0xff ? '?' : c);
+        }
+    }
+
+    private void flush() {
+
+        if (batch.position() == 0) {
+            return;
+        }
+        batch.flip();
+        try {
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+        } catch (IOException e) {
+            logger.error("Error when writing the access log : ", e);
+        }
+        batch.clear();
+    }
+
+    /**
+     * A slot of the ring, reused for every record.
+     */
+    private static final class Record {
+
+        //The sequence of the record held by this slot, written last by the producer
+        private volatile long published = -1;
+        private long timestamp;
+        private String remoteAddress;
+        private HttpMethod method;
+        private String requestPath;
+        private HttpVersion version;
+        private StatusCode status;
+        private long bodyLength;
+        private long durationNanos;
+
+        private void clear() {
+            //Do not retain the strings of the requests
+            remoteAddress = null;
+            requestPath = null;
+        }
+    }
+
+
+}
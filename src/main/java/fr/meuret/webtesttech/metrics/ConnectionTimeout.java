@@ -0,0 +1,32 @@
+package fr.meuret.webtesttech.metrics;
+
+/**
+ * The timeouts closing the connections, which are counted separately.
+ *
+ * @author Jerome
+ */
+public enum ConnectionTimeout {
+
+    /**
+     * A persistent connection waiting for a new request.
+     */
+    IDLE("idle"),
+    /**
+     * A request which header section is not complete.
+     */
+    HEADER_READ("header_read"),
+    /**
+     * A response which write does not progress, e.g. a client not reading.
+     */
+    WRITE_STALL("write_stall");
+
+    private final String label;
+
+    ConnectionTimeout(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
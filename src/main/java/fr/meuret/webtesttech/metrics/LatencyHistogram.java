@@ -0,0 +1,95 @@
+package fr.meuret.webtesttech.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with power of two buckets, in microseconds.
+ * <p>
+ * Recording a value only increments striped counters, so that concurrent threads do not contend. The percentiles are
+ * approximated by the upper bound of their bucket, i.e. within a factor of two, which is enough to tell a
+ * cached file from a disk read or a listing.
+ *
+ * @author Jerome
+ */
+public class LatencyHistogram {
+
+
+    //Bucket i counts the values in [2^(i-1), 2^i[ microseconds, bucket 0 counts 0
+    private static final int BUCKETS = 40;
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records the time elapsed since a start time.
+     *
+     * @param startNanos the start time, as per {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * @param micros the value to record, in microseconds.
+     */
+    public void record(long micros) {
+
+        final long value = Math.max(0, micros);
+        buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value))].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile a percentile, between 0 and 100.
+     * @return the upper bound of the bucket holding the percentile, in microseconds, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                //The max is a tighter bound for the last bucket
+                return Math.min(i == 0 ? 0 : (1L << i) - 1, getMax());
+            }
+        }
+        return getMax();
+    }
+
+
+}
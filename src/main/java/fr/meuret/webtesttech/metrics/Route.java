@@ -0,0 +1,36 @@
+package fr.meuret.webtesttech.metrics;
+
+/**
+ * The kinds of responses built by the server, which latencies are recorded separately.
+ *
+ * @author Jerome
+ */
+public enum Route {
+
+    /**
+     * A static file.
+     */
+    FILE("file"),
+    /**
+     * A directory listing.
+     */
+    LISTING("listing"),
+    /**
+     * A redirection to a directory.
+     */
+    REDIRECT("redirect"),
+    /**
+     * A file that does not exist.
+     */
+    NOT_FOUND("not_found");
+
+    private final String label;
+
+    Route(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
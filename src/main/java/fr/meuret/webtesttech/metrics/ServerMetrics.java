@@ -0,0 +1,290 @@
+package fr.meuret.webtesttech.metrics;
+
+import fr.meuret.webtesttech.http.HttpMethod;
+import fr.meuret.webtesttech.http.response.StatusCode;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The runtime metrics of a server : connections, timeouts, admission control, write queues, TLS handshakes, I/O,
+ * requests, responses and latencies.
+ * <p>
+ * The registry is shared by all the connections and is lock-free : every counter is a {@link LongAdder}, so that the
+ * I/O threads recording concurrently do not contend on a single memory location. Reading a metric sums the stripes,
+ * it is only meant for monitoring.
+ *
+ * @author Jerome
+ */
+public class ServerMetrics {
+
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+    private final LongAdder acceptedConnections = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder parseFailures = new LongAdder();
+    private final LongAdder[] timeouts = newAdders(ConnectionTimeout.values().length);
+    private final LongAdder acceptPauses = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
+    private final LongAdder pausedReads = new LongAdder();
+    private final LongAdder queuedWriteBytes = new LongAdder();
+    private final AtomicLong maxQueuedWriteBytes = new AtomicLong();
+    private final LongAdder tlsHandshakes = new LongAdder();
+    private final LongAdder resumedTlsHandshakes = new LongAdder();
+    private final LongAdder failedTlsHandshakes = new LongAdder();
+    private final LongAdder[] requestsByMethod = newAdders(HttpMethod.values().length);
+    private final LongAdder[] responsesByStatus = newAdders(StatusCode.values().length);
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Route.values().length];
+
+
+    public ServerMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    private static LongAdder[] newAdders(int count) {
+        final LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    public void connectionOpened() {
+        acceptedConnections.increment();
+        activeConnections.increment();
+    }
+
+    public void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    public void timeout(ConnectionTimeout timeout) {
+        timeouts[timeout.ordinal()].increment();
+    }
+
+    /**
+     * Records that the acceptor has been paused, the maximum number of connections being reached.
+     */
+    public void acceptPaused() {
+        acceptPauses.increment();
+    }
+
+    /**
+     * Records a request rejected by the admission control.
+     */
+    public void requestRejected() {
+        rejectedRequests.increment();
+    }
+
+    /**
+     * Records that the reads of a connection have been paused, too many bytes being queued for writing.
+     */
+    public void readPaused() {
+        pausedReads.increment();
+    }
+
+    /**
+     * Records a change of the bytes queued for writing by a connection.
+     *
+     * @param delta       the change.
+     * @param queuedBytes the bytes now queued by the connection.
+     */
+    public void writeQueueChanged(long delta, long queuedBytes) {
+        queuedWriteBytes.add(delta);
+        if (queuedBytes > maxQueuedWriteBytes.get()) {
+            maxQueuedWriteBytes.accumulateAndGet(queuedBytes, Math::max);
+        }
+    }
+
+    /**
+     * Records a completed TLS handshake.
+     *
+     * @param resumed true if an abbreviated handshake has resumed a cached session.
+     */
+    public void tlsHandshake(boolean resumed) {
+        tlsHandshakes.increment();
+        if (resumed) {
+            resumedTlsHandshakes.increment();
+        }
+    }
+
+    /**
+     * Records a TLS handshake which has not completed, e.g. no common cipher suite or an untrusted certificate.
+     */
+    public void tlsHandshakeFailed() {
+        failedTlsHandshakes.increment();
+    }
+
+    public void bytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    public void bytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    public void parseFailure() {
+        parseFailures.increment();
+    }
+
+    public void request(HttpMethod method) {
+        requestsByMethod[method.ordinal()].increment();
+    }
+
+    public void response(StatusCode statusCode) {
+        responsesByStatus[statusCode.ordinal()].increment();
+    }
+
+    /**
+     * Records the time spent building a response, from the parsed request to the queued response.
+     *
+     * @param route      the kind of response.
+     * @param startNanos the time the request was parsed, as per {@link System#nanoTime()}.
+     */
+    public void latency(Route route, long startNanos) {
+        latencies[route.ordinal()].recordSince(startNanos);
+    }
+
+    public long getAcceptedConnections() {
+        return acceptedConnections.sum();
+    }
+
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    public long getTimeouts(ConnectionTimeout timeout) {
+        return timeouts[timeout.ordinal()].sum();
+    }
+
+    public long getAcceptPauses() {
+        return acceptPauses.sum();
+    }
+
+    public long getRejectedRequests() {
+        return rejectedRequests.sum();
+    }
+
+    public long getPausedReads() {
+        return pausedReads.sum();
+    }
+
+    /**
+     * @return the bytes currently queued for writing, by all the connections.
+     */
+    public long getQueuedWriteBytes() {
+        return queuedWriteBytes.sum();
+    }
+
+    /**
+     * @return the maximum of the bytes queued for writing by a single connection.
+     */
+    public long getMaxQueuedWriteBytes() {
+        return maxQueuedWriteBytes.get();
+    }
+
+    public long getTlsHandshakes() {
+        return tlsHandshakes.sum();
+    }
+
+    public long getResumedTlsHandshakes() {
+        return resumedTlsHandshakes.sum();
+    }
+
+    public long getFailedTlsHandshakes() {
+        return failedTlsHandshakes.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    public long getParseFailures() {
+        return parseFailures.sum();
+    }
+
+    public long getRequests(HttpMethod method) {
+        return requestsByMethod[method.ordinal()].sum();
+    }
+
+    public long getResponses(StatusCode statusCode) {
+        return responsesByStatus[statusCode.ordinal()].sum();
+    }
+
+    public LatencyHistogram getLatency(Route route) {
+        return latencies[route.ordinal()];
+    }
+
+    /**
+     * Renders the metrics in plain text, one <i>name{labels} value</i> line per metric. The counters that are still
+     * zero are omitted for the methods and the status codes.
+     *
+     * @return the rendered metrics.
+     */
+    public String render() {
+
+        final StringBuilder metrics = new StringBuilder();
+        line(metrics, "connections_accepted", "", getAcceptedConnections());
+        line(metrics, "connections_active", "", getActiveConnections());
+        for (ConnectionTimeout timeout : ConnectionTimeout.values()) {
+            line(metrics, "connections_timed_out", "{timeout=\"" + timeout.getLabel() + "\"}", getTimeouts(timeout));
+        }
+        line(metrics, "accept_pauses", "", getAcceptPauses());
+        line(metrics, "requests_rejected", "", getRejectedRequests());
+        line(metrics, "reads_paused", "", getPausedReads());
+        line(metrics, "write_queue_bytes", "", getQueuedWriteBytes());
+        line(metrics, "write_queue_bytes_max", "", getMaxQueuedWriteBytes());
+        line(metrics, "tls_handshakes", "", getTlsHandshakes());
+        line(metrics, "tls_handshakes_resumed", "", getResumedTlsHandshakes());
+        line(metrics, "tls_handshake_failures", "", getFailedTlsHandshakes());
+        line(metrics, "bytes_read", "", getBytesRead());
+        line(metrics, "bytes_written", "", getBytesWritten());
+        line(metrics, "parse_failures", "", getParseFailures());
+        for (HttpMethod method : HttpMethod.values()) {
+            if (getRequests(method) > 0) {
+                line(metrics, "requests", "{method=\"" + method + "\"}", getRequests(method));
+            }
+        }
+        for (StatusCode statusCode : StatusCode.values()) {
+            if (getResponses(statusCode) > 0) {
+                line(metrics, "responses", "{status=\"" + statusCode.getCode() + "\"}", getResponses(statusCode));
+            }
+        }
+        for (Route route : Route.values()) {
+            final LatencyHistogram histogram = getLatency(route);
+            final String label = "{route=\"" + route.getLabel() + "\"";
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                line(metrics, "latency_micros", label + ",quantile=\"" + QUANTILES[i] + "\"}",
+                     histogram.getValueAtPercentile(PERCENTILES[i]));
+            }
+            line(metrics, "latency_micros_max", label + "}", histogram.getMax());
+            line(metrics, "latency_micros_sum", label + "}", histogram.getSum());
+            line(metrics, "latency_micros_count", label + "}", histogram.getCount());
+        }
+        return metrics.toString();
+    }
+
+    private static void line(StringBuilder metrics, String name, String labels, long value) {
+        metrics.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+
+    @Override
+    public String toString() {
+        return "ServerMetrics{" + "acceptedConnections=" + getAcceptedConnections() + ", activeConnections=" +
+                getActiveConnections() + ", bytesRead=" + getBytesRead() + ", bytesWritten=" + getBytesWritten() +
+                ", parseFailures=" + getParseFailures() + ", acceptPauses=" + getAcceptPauses() +
+                ", rejectedRequests=" + getRejectedRequests() + ", pausedReads=" + getPausedReads() +
+                ", maxQueuedWriteBytes=" + getMaxQueuedWriteBytes() + '}';
+    }
+
+
+}
@@ -0,0 +1,132 @@
+package fr.meuret.webtesttech.nio;
+
+import fr.meuret.webtesttech.util.AdaptiveLimiter;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The admission control of a server, shared by all its sessions : it bounds the open connections and, optionally, the
+ * requests being handled.
+ * <p>
+ * The acceptor stops accepting once the maximum number of connections is reached, and resumes once enough connections
+ * are closed to go below the low-water mark : the connections beyond the limit wait in the backlog of the listening
+ * socket, without costing any file descriptor, buffer or thread. The gap between the two marks avoids pausing and
+ * resuming on every connection.
+ * <p>
+ * The requests are bounded by an {@link AdaptiveLimiter} : the requests beyond its limit are rejected at once. A
+ * permit is taken before the bytes read are handed over to the handler, so that the overload is shed before queuing any
+ * work, and then one per request.
+ *
+ * @author Jerome
+ */
+public final class AdmissionControl {
+
+
+    /**
+     * No limit at all.
+     */
+    public static final AdmissionControl NONE = new AdmissionControl(0, 0, null, null);
+    private final int maxConnections;
+    private final int resumeConnections;
+    private final AdaptiveLimiter requestLimiter;
+    private final Runnable resumeAccept;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicBoolean accepting = new AtomicBoolean(true);
+
+
+    /**
+     * @param maxConnections    the maximum number of open connections, <i>0</i> for no limit.
+     * @param resumeConnections the low-water mark, below which the acceptor resumes.
+     * @param requestLimiter    the limiter of the requests being handled, may be <code>null</code>.
+     * @param resumeAccept      resumes the acceptor, may be <code>null</code> if there is no connection limit.
+     */
+    public AdmissionControl(int maxConnections, int resumeConnections, AdaptiveLimiter requestLimiter,
+                            Runnable resumeAccept) {
+
+        if (maxConnections > 0 && (resumeConnections < 0 || resumeConnections >= maxConnections ||
+                resumeAccept == null)) {
+            throw new IllegalArgumentException("Invalid connection limits : " + resumeConnections + " < " +
+                                                       maxConnections);
+        }
+        this.maxConnections = maxConnections;
+        this.resumeConnections = resumeConnections;
+        this.requestLimiter = requestLimiter;
+        this.resumeAccept = resumeAccept;
+    }
+
+    /**
+     * Gets called by the acceptor for every accepted connection.
+     *
+     * @return true if the acceptor accepts the next connection at once, false if it is paused : it is resumed by the
+     * session that closes the connection crossing the low-water mark.
+     */
+    public boolean connectionAccepted() {
+
+        if (maxConnections == 0 || connections.incrementAndGet() < maxConnections) {
+            return true;
+        }
+        accepting.set(false);
+        //The connections may have been closed in the meantime, with nobody left to resume
+        return connections.get() <= resumeConnections && accepting.compareAndSet(false, true);
+    }
+
+    /**
+     * Gets called once for every closed connection.
+     */
+    void connectionClosed() {
+
+        if (maxConnections > 0 && connections.decrementAndGet() <= resumeConnections &&
+                accepting.compareAndSet(false, true)) {
+            resumeAccept.run();
+        }
+    }
+
+    /**
+     * @return false if the request must be rejected, otherwise {@link #requestHandled(long)} must be called once it has
+     * been handled.
+     */
+    boolean tryAcquireRequest() {
+        return requestLimiter == null || requestLimiter.tryAcquire();
+    }
+
+    /**
+     * @param startNanos the time the request was admitted, as per {@link System#nanoTime()}.
+     */
+    void requestHandled(long startNanos) {
+        if (requestLimiter != null) {
+            requestLimiter.release(startNanos);
+        }
+    }
+
+    /**
+     * Gets called instead of {@link #requestHandled(long)} when no request has been handled.
+     */
+    void requestCancelled() {
+        if (requestLimiter != null) {
+            requestLimiter.cancel();
+        }
+    }
+
+    /**
+     * @return the number of open connections, only counted if they are limited.
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * @return false if the acceptor is paused.
+     */
+    public boolean isAccepting() {
+        return accepting.get();
+    }
+
+    @Override
+    public String toString() {
+        return "AdmissionControl{" + "maxConnections=" + maxConnections + ", resumeConnections=" + resumeConnections +
+                ", connections=" + getConnections() + ", requestLimiter=" + requestLimiter + '}';
+    }
+
+
+}
@@ -0,0 +1,108 @@
+package fr.meuret.webtesttech.nio;
+
+import fr.meuret.webtesttech.http.HttpChunk;
+import fr.meuret.webtesttech.util.ByteBufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A write source streaming a body of unknown length with the chunked transfer coding.
+ * <p>
+ * The body is pulled from another write source, one buffer at a time, only once the previous chunk has been sent : a
+ * client that reads slowly slows down the production of the body instead of filling the write queue. Every buffer of
+ * the body is sent as a chunk, without being copied : its header is written into a pooled buffer, and both are returned
+ * by {@link #next(ByteBuffer[])} so that the session sends them with a single gathering write. The last chunk ends the
+ * body.
+ * <p>
+ * The header section of the response, with the <code>Transfer-Encoding: chunked</code> header, must be written first.
+ *
+ * @author Jerome
+ * @see HttpChunk
+ */
+public class ChunkedWriteSource implements WriteSource {
+
+
+    private final WriteSource body;
+    private final ByteBufferPool bufferPool;
+    //Holds the header of the chunk being sent
+    private ByteBuffer header;
+    //The data of the chunk which header has just been returned by next()
+    private ByteBuffer data;
+    private boolean first = true;
+    private boolean finished;
+
+
+    /**
+     * @param body       the source of the body, which is owned (and closed) by this source.
+     * @param bufferPool the pool the header buffer is borrowed from.
+     */
+    public ChunkedWriteSource(WriteSource body, ByteBufferPool bufferPool) {
+        this.body = body;
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Gets the header of the next chunk, then its data on the following call.
+     */
+    @Override
+    public ByteBuffer next() throws IOException {
+
+        if (data != null) {
+            final ByteBuffer chunkData = data;
+            data = null;
+            return chunkData;
+        }
+        if (finished) {
+            return null;
+        }
+        //Empty buffers are skipped, since an empty chunk would end the body
+        ByteBuffer next;
+        do {
+            next = body.next();
+        } while (next != null && !next.hasRemaining());
+        if (header == null) {
+            header = bufferPool.acquireBuffer(HttpChunk.MAX_HEADER_LENGTH);
+        }
+
+        header.clear();
+        if (next == null) {
+            HttpChunk.putLastChunk(header, first);
+            finished = true;
+        } else {
+            HttpChunk.putHeader(header, next.remaining(), first);
+            first = false;
+            data = next;
+        }
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Gets the header of the next chunk and its data.
+     */
+    @Override
+    public int next(ByteBuffer[] buffers) throws IOException {
+
+        final ByteBuffer chunkHeader = next();
+        if (chunkHeader == null) {
+            return 0;
+        }
+        buffers[0] = chunkHeader;
+        if (data == null) {
+            return 1;
+        }
+        buffers[1] = data;
+        data = null;
+        return 2;
+    }
+
+    @Override
+    public void close() {
+        header = bufferPool.releaseBuffer(header);
+        data = null;
+        body.close();
+    }
+
+
+}
@@ -0,0 +1,62 @@
+package fr.meuret.webtesttech.nio;
+
+import fr.meuret.webtesttech.util.TimerWheel;
+
+/**
+ * The timeouts of the connections, shared by all the sessions of a server and driven by a single {@link TimerWheel}.
+ * A zero timeout is disabled.
+ *
+ * @author Jerome
+ */
+public final class ConnectionTimeouts {
+
+
+    /**
+     * No timeout at all : the connections are only closed by the clients, or by the server after an error.
+     */
+    public static final ConnectionTimeouts NONE = new ConnectionTimeouts(null, 0, 0, 0);
+    private final TimerWheel timer;
+    private final long idleMillis;
+    private final long headerReadMillis;
+    private final long writeMillis;
+
+
+    /**
+     * @param timer            the wheel driving the timeouts, may be <code>null</code> if they are all disabled.
+     * @param idleMillis       the maximum time a persistent connection waits for a new request, in milliseconds.
+     * @param headerReadMillis the maximum time to receive the header section of a request, from its first byte, in
+     *                         milliseconds.
+     * @param writeMillis      the maximum time a write may stay without progress, in milliseconds.
+     */
+    public ConnectionTimeouts(TimerWheel timer, long idleMillis, long headerReadMillis, long writeMillis) {
+        this.timer = timer;
+        this.idleMillis = idleMillis;
+        this.headerReadMillis = headerReadMillis;
+        this.writeMillis = writeMillis;
+        if (timer == null && (idleMillis > 0 || headerReadMillis > 0 || writeMillis > 0)) {
+            throw new IllegalArgumentException("Timeouts need a timer wheel");
+        }
+    }
+
+    TimerWheel getTimer() {
+        return timer;
+    }
+
+    long getIdleMillis() {
+        return idleMillis;
+    }
+
+    long getHeaderReadMillis() {
+        return headerReadMillis;
+    }
+
+    long getWriteMillis() {
+        return writeMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionTimeouts{" + "idleMillis=" + idleMillis + ", headerReadMillis=" + headerReadMillis +
+                ", writeMillis=" + writeMillis + '}';
+    }
+}
@@ -0,0 +1,101 @@
+package fr.meuret.webtesttech.nio;
+
+import fr.meuret.webtesttech.util.ByteBufferPool;
+import fr.meuret.webtesttech.util.PooledByteBufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A write source streaming a region of a file through a single pooled buffer.
+ * <p>
+ * The file is read window after window with positional reads, so that the memory used per connection does not depend
+ * on the file size.
+ *
+ * @author Jerome
+ */
+public class FileWriteSource implements WriteSource {
+
+
+    private static final Logger logger = LoggerFactory.getLogger(FileWriteSource.class);
+    private final FileChannel fileChannel;
+    private final ByteBufferPool bufferPool;
+    private final boolean closeChannel;
+    private final long end;
+    private long position;
+    private ByteBuffer window;
+
+
+    /**
+     * @param fileChannel the file to stream, which is owned (and closed) by this source.
+     * @param position    the position of the first byte to stream.
+     * @param count       the number of bytes to stream.
+     * @param bufferPool  the pool the window buffer is borrowed from.
+     */
+    public FileWriteSource(FileChannel fileChannel, long position, long count, ByteBufferPool bufferPool) {
+        this(fileChannel, position, count, bufferPool, true);
+    }
+
+    /**
+     * @param fileChannel  the file to stream.
+     * @param position     the position of the first byte to stream.
+     * @param count        the number of bytes to stream.
+     * @param bufferPool   the pool the window buffer is borrowed from.
+     * @param closeChannel true if the file is owned (and closed) by this source, false if it is shared with the
+     *                     sources written before this one, e.g. the parts of a multipart response.
+     */
+    public FileWriteSource(FileChannel fileChannel, long position, long count, ByteBufferPool bufferPool,
+                           boolean closeChannel) {
+        this.fileChannel = fileChannel;
+        this.bufferPool = bufferPool;
+        this.closeChannel = closeChannel;
+        this.position = position;
+        this.end = position + count;
+    }
+
+    @Override
+    public ByteBuffer next() throws IOException {
+
+        if (position >= end) {
+            return null;
+        }
+        if (window == null) {
+            window = bufferPool.acquireBuffer(PooledByteBufferPool.LARGE_BUFFER_SIZE);
+        }
+
+        window.clear();
+        if (end - position < window.capacity()) {
+            window.limit((int) (end - position));
+        }
+        while (window.hasRemaining()) {
+            final int read = fileChannel.read(window, position);
+            if (read < 0) {
+                //The file has been truncated after the content length has been sent
+                throw new EOFException("Unexpected end of file at position " + position);
+            }
+            position += read;
+        }
+        window.flip();
+        return window;
+    }
+
+    @Override
+    public void close() {
+
+        window = bufferPool.releaseBuffer(window);
+        if (!closeChannel) {
+            return;
+        }
+        try {
+            fileChannel.close();
+        } catch (IOException e) {
+            logger.error("Error when closing the streamed file : ", e);
+        }
+    }
+
+
+}
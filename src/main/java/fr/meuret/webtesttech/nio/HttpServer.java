@@ -2,8 +2,20 @@ package fr.meuret.webtesttech.nio;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
+import fr.meuret.webtesttech.cache.FileMetadataCache;
+import fr.meuret.webtesttech.cache.ListingCache;
+import fr.meuret.webtesttech.cache.MappedFileCache;
+import fr.meuret.webtesttech.cache.ResponseCache;
+import fr.meuret.webtesttech.cache.ValidatorCache;
+import fr.meuret.webtesttech.conf.ExecutionModel;
 import fr.meuret.webtesttech.conf.HttpConfiguration;
+import fr.meuret.webtesttech.http.MimeTypes;
+import fr.meuret.webtesttech.log.AccessLog;
+import fr.meuret.webtesttech.metrics.ServerMetrics;
 import fr.meuret.webtesttech.nio.handlers.HttpProtocolHandler;
+import fr.meuret.webtesttech.util.AdaptiveLimiter;
+import fr.meuret.webtesttech.util.PooledByteBufferPool;
+import fr.meuret.webtesttech.util.TimerWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,8 +25,12 @@ import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A HTTP Server based on the NIO framework.
@@ -25,34 +41,60 @@ public class HttpServer {
 
 
     private static Logger logger = LoggerFactory.getLogger(HttpServer.class);
+    //The resolution of the connection timeouts, and the number of ticks of a round of the timer wheel
+    private static final long TIMER_TICK_MILLIS = 100;
+    private static final int TIMER_BUCKETS = 512;
     private final HttpConfiguration configuration;
     private final ConnectionListener connectionListener;
+    private final PooledByteBufferPool bufferPool;
+    private final ServerMetrics metrics = new ServerMetrics();
     private final CompletionHandler<AsynchronousSocketChannel, Object> acceptCompletionHandler = new CompletionHandler<AsynchronousSocketChannel, Object>() {
         @Override
         public void completed(AsynchronousSocketChannel client, Object attachment) {
-            //Accept further connection
-            serverSocketChannel.accept(null, this); try {
-                logger.info("New client: {}", client.getRemoteAddress());
-                //Create new Session
-                final Session session = new Session(client); if (connectionListener != null) {
-                    connectionListener.onConnect(session);
-                } session.start();
-            } catch (IOException e) {
-                logger.error("Error when getting the client remote address : ", e);
+            //Accept further connection, unless the maximum is reached : the next ones wait in the backlog
+            if (admission.connectionAccepted()) {
+                serverSocketChannel.accept(null, this);
+            } else {
+                metrics.acceptPaused();
+                logger.debug("Maximum number of connections reached, accepting is paused");
             }
+            //Create new Session, which is counted by the admission control until it is closed
+            final Session session = new Session(client, bufferPool, dispatcher, metrics, timeouts, admission);
+            if (tlsContext != null) {
+                session.useTls(tlsContext);
+            }
+            session.setWriteWatermarks(configuration.getWriteHighWatermark() * 1024L,
+                                       configuration.getWriteLowWatermark() * 1024L);
+            if (connectionListener != null) {
+                connectionListener.onConnect(session);
+            } session.start();
         }
 
         @Override
         public void failed(Throwable exc, Object attachment) {
+            if (!serverSocketChannel.isOpen()) {
+                //The server has been stopped
+                return;
+            }
             logger.error("Error during accept phase: ", exc); serverSocketChannel.accept(null, this);
         }
     };
     private AsynchronousServerSocketChannel serverSocketChannel;
     private AsynchronousChannelGroup channelGroup;
+    //Runs the request handling, as per the execution model
+    private InstrumentedExecutor dispatcher;
+    //A single timer wheel drives the timeouts of all the connections
+    private TimerWheel timer;
+    private ConnectionTimeouts timeouts = ConnectionTimeouts.NONE;
+    private AdmissionControl admission = AdmissionControl.NONE;
+    //The TLS configuration of the secure sessions, null in plaintext
+    private TlsContext tlsContext;
+    private ExecutorService workerExecutor;
 
     public HttpServer(HttpConfiguration configuration, ConnectionListener connectionListener) {
 
         this.connectionListener = connectionListener; this.configuration = configuration;
+        this.bufferPool = new PooledByteBufferPool(configuration.isLeakDetection());
 
     }
 
@@ -68,8 +110,33 @@ public class HttpServer {
         final JCommander jCommander = new JCommander(configurationBuilder); try {
             //Parse command line arguments and set values in the configuration
             jCommander.parse(args); HttpConfiguration configuration = configurationBuilder.build();
+            //Caches are shared by all the connections
+            final MimeTypes mimeTypes = MimeTypes.load(configuration.getMimeTypes());
+            final FileMetadataCache metadataCache = new FileMetadataCache(configuration.getRootPath(), mimeTypes,
+                                                                          FileMetadataCache.DEFAULT_MAX_ENTRIES,
+                                                                          configuration.getMetadataCacheTtl());
+            final MappedFileCache mappedFileCache = new MappedFileCache(configuration.getMappedCacheSize());
+            final ResponseCache responseCache = new ResponseCache(configuration.getResponseCacheSize(),
+                                                                  ResponseCache.DEFAULT_MAX_BODY_SIZE);
+            //The compression on the fly is disabled by a zero cache size
+            final long compressionCacheSize = configuration.getCompressionCacheSize();
+            final ResponseCache compressedCache = new ResponseCache(compressionCacheSize, (int) Math.min(
+                    compressionCacheSize, ResponseCache.DEFAULT_MAX_ENCODED_FILE_SIZE));
+            final ValidatorCache validatorCache = new ValidatorCache(ValidatorCache.DEFAULT_MAX_ENTRIES);
+            final ListingCache listingCache = new ListingCache(configuration.getListingCacheSize(),
+                                                               configuration.getListingPageSize());
+            final AccessLog accessLog = configuration.getAccessLog() != null ? new AccessLog(
+                    configuration.getAccessLog(), AccessLog.DEFAULT_CAPACITY) : AccessLog.NONE;
             final HttpServer httpServer = new HttpServer(configuration, (Session session) -> session.registerHandler(
-                    new HttpProtocolHandler(configuration.getRootPath()))); httpServer.start();
+                    new HttpProtocolHandler(configuration.getRootPath(), metadataCache, mappedFileCache, responseCache,
+                                            compressedCache, validatorCache, listingCache, session.getMetrics(),
+                                            accessLog)));
+            try {
+                httpServer.start();
+            } finally {
+                accessLog.close();
+                logger.info("Access log : {}", accessLog);
+            }
         } catch (ParameterException e) {
             logger.error("Invalid configuration for the HTTP server.", e); jCommander.usage();
         }
@@ -79,14 +146,70 @@ public class HttpServer {
 
     private void bind(int port) throws IOException {
 
-        channelGroup = AsynchronousChannelGroup.withCachedThreadPool(Executors.newCachedThreadPool(),
-                                                                     Runtime.getRuntime().availableProcessors());
+        //The key store is checked first
+        if (configuration.useSSL()) {
+            tlsContext = TlsContext.load(configuration.getKeyStore(), configuration.getKeyStoreType(),
+                                         configuration.getKeyStorePassword().toCharArray(),
+                                         configuration.getSslSessionCacheSize(), configuration.getSslSessionTimeout());
+            logger.info("SSL mode : {}", tlsContext);
+        }
+        //A fixed number of I/O threads : a cached thread pool would grow without limit under load
+        channelGroup = AsynchronousChannelGroup.withFixedThreadPool(configuration.getIoThreads(),
+                                                                    namedThreadFactory("http-io-"));
+        dispatcher = createDispatcher();
+        if (configuration.getIdleTimeout() > 0 || configuration.getHeaderReadTimeout() > 0 ||
+                configuration.getWriteTimeout() > 0) {
+            timer = new TimerWheel(TIMER_TICK_MILLIS, TIMER_BUCKETS, "connection-timer");
+            timeouts = new ConnectionTimeouts(timer, configuration.getIdleTimeout(),
+                                              configuration.getHeaderReadTimeout(), configuration.getWriteTimeout());
+        }
+        logger.info("Connection timeouts : {}", timeouts);
+        final int maxConnections = configuration.getMaxConnections();
+        final AdaptiveLimiter requestLimiter = configuration.getMaxConcurrentRequests() > 0 ?
+                new AdaptiveLimiter(configuration.getMaxConcurrentRequests()) : null;
+        if (maxConnections > 0 || requestLimiter != null) {
+            //Resume accepting 10% below the maximum
+            admission = new AdmissionControl(maxConnections, maxConnections - Math.max(1, maxConnections / 10),
+                                             requestLimiter, this::resumeAccept);
+        }
+        logger.info("Admission control : {}", admission);
+        logger.info("Execution model : {}, {} I/O threads", configuration.getExecutionModel(),
+                    configuration.getIoThreads());
 
         serverSocketChannel = AsynchronousServerSocketChannel.open(channelGroup);
 
         serverSocketChannel.bind(new InetSocketAddress(port));
     }
 
+    private InstrumentedExecutor createDispatcher() {
+
+        switch (configuration.getExecutionModel()) {
+            case WORKER_POOL:
+                //When the queue is full, the I/O thread runs the request itself, which slows down the reads
+                workerExecutor = new ThreadPoolExecutor(configuration.getWorkerThreads(),
+                                                        configuration.getWorkerThreads(), 0L, TimeUnit.MILLISECONDS,
+                                                        new ArrayBlockingQueue<>(configuration.getWorkerQueueSize()),
+                                                        namedThreadFactory("http-worker-"),
+                                                        new ThreadPoolExecutor.CallerRunsPolicy());
+                return new InstrumentedExecutor(ExecutionModel.WORKER_POOL.name(), workerExecutor);
+            case VIRTUAL_THREADS:
+                workerExecutor = ExecutionModel.newVirtualThreadPerTaskExecutor();
+                return new InstrumentedExecutor(ExecutionModel.VIRTUAL_THREADS.name(), workerExecutor);
+            default:
+                return InstrumentedExecutor.direct(ExecutionModel.FIXED.name());
+        }
+    }
+
+    private static ThreadFactory namedThreadFactory(String prefix) {
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+            thread.setDaemon(false);
+            return thread;
+        };
+    }
+
     public void start() throws IOException {
 
         bind(configuration.getPort()); pendingAccept(); try {
@@ -109,19 +232,72 @@ public class HttpServer {
         serverSocketChannel.accept(null, acceptCompletionHandler);
     }
 
+    private void resumeAccept() {
+
+        if (serverSocketChannel.isOpen()) {
+            logger.debug("Open connections below the low-water mark, accepting is resumed");
+            serverSocketChannel.accept(null, acceptCompletionHandler);
+        }
+    }
+
     public void stop() throws IOException {
         logger.info("Trying to shutdown the HTTP server..."); if (serverSocketChannel != null) {
             serverSocketChannel.close();
         }
 
+        if (timer != null) {
+            //No connection is closed by a timeout while the channel group shuts down
+            timer.close();
+        }
+
         if (channelGroup != null) {
-            channelGroup.shutdown();
+            //Closes the open connections too : the idle persistent ones would otherwise keep the group alive
+            channelGroup.shutdownNow();
+        }
+
+        if (workerExecutor != null) {
+            workerExecutor.shutdown();
         }
 
+        if (tlsContext != null) {
+            tlsContext.close();
+        }
+
+        logger.info("Execution statistics : {}", dispatcher);
+        logger.info("Server metrics : {}", metrics);
+        logger.info("Admission control : {}", admission);
+        logger.info("Buffer pool statistics : {}", bufferPool);
+        bufferPool.reportLeaks();
+
 
     }
 
 
+    /**
+     * @return the executor handling the requests, which records the statistics of the execution model.
+     */
+    public InstrumentedExecutor getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * @return the runtime metrics of the server, also served by the <code>/__metrics</code> endpoint.
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the admission control of the server, which bounds the open connections and the requests being handled.
+     */
+    public AdmissionControl getAdmissionControl() {
+        return admission;
+    }
+
+    public PooledByteBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
     @FunctionalInterface
     public static interface ConnectionListener {
 
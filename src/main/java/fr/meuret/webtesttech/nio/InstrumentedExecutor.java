@@ -0,0 +1,130 @@
+package fr.meuret.webtesttech.nio;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An executor recording how the tasks it runs are scheduled : how many tasks have been submitted and completed, how
+ * many are running, how long they have waited before running and how long they have run.
+ *
+ * @author Jerome
+ */
+public class InstrumentedExecutor implements Executor {
+
+
+    private final String name;
+    private final Executor delegate;
+    //Tasks run by the calling thread don't need to be wrapped
+    private final boolean inline;
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder runNanos = new LongAdder();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+
+    /**
+     * @param name     the name of the execution model, used in the statistics.
+     * @param delegate the executor actually running the tasks.
+     */
+    public InstrumentedExecutor(String name, Executor delegate) {
+        this(name, delegate, false);
+    }
+
+    private InstrumentedExecutor(String name, Executor delegate, boolean inline) {
+        this.name = name;
+        this.delegate = delegate;
+        this.inline = inline;
+    }
+
+    /**
+     * Creates an instrumented executor running the tasks in the calling thread.
+     */
+    public static InstrumentedExecutor direct(String name) {
+        return new InstrumentedExecutor(name, Runnable::run, true);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+
+        submitted.increment();
+        final long submittedAt = System.nanoTime();
+        if (inline) {
+            run(task, submittedAt);
+        } else {
+            delegate.execute(() -> run(task, submittedAt));
+        }
+    }
+
+    private void run(Runnable task, long submittedAt) {
+
+        final long startedAt = System.nanoTime();
+        waitNanos.add(startedAt - submittedAt);
+        final int running = active.incrementAndGet();
+        int max;
+        while (running > (max = maxActive.get()) && !maxActive.compareAndSet(max, running)) {
+            //Retry until the maximum is up to date
+        }
+        try {
+            task.run();
+        } finally {
+            active.decrementAndGet();
+            completed.increment();
+            runNanos.add(System.nanoTime() - startedAt);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Executor getDelegate() {
+        return delegate;
+    }
+
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public int getMaxActiveCount() {
+        return maxActive.get();
+    }
+
+    /**
+     * @return the average time spent by a task between its submission and the beginning of its execution, in
+     * microseconds.
+     */
+    public double getAverageWaitMicros() {
+        final long count = completed.sum();
+        return count == 0 ? 0 : (double) TimeUnit.NANOSECONDS.toMicros(waitNanos.sum()) / count;
+    }
+
+    /**
+     * @return the average execution time of a task, in microseconds.
+     */
+    public double getAverageRunMicros() {
+        final long count = completed.sum();
+        return count == 0 ? 0 : (double) TimeUnit.NANOSECONDS.toMicros(runNanos.sum()) / count;
+    }
+
+    @Override
+    public String toString() {
+        return "InstrumentedExecutor{" + "name=" + name + ", submitted=" + getSubmittedCount() + ", completed="
+                + getCompletedCount() + ", active=" + getActiveCount() + ", maxActive=" + getMaxActiveCount()
+                + ", averageWaitMicros=" + getAverageWaitMicros() + ", averageRunMicros=" + getAverageRunMicros()
+                + '}';
+    }
+
+
+}
@@ -1,18 +1,37 @@
 package fr.meuret.webtesttech.nio;
 
+import fr.meuret.webtesttech.metrics.ConnectionTimeout;
+import fr.meuret.webtesttech.metrics.ServerMetrics;
 import fr.meuret.webtesttech.nio.handlers.Handler;
+import fr.meuret.webtesttech.util.ByteBufferPool;
+import fr.meuret.webtesttech.util.TimerWheel;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Use <code>Session</code> to handle the socket connection between the server and a client.
+ * <p>
+ * A session is closed by the client, after an error, after the last byte of a response which does not keep the
+ * connection alive, or by a timeout : while a response is being written, a write without progress for too long; else
+ * an incomplete request header section for too long, or a persistent connection idle for too long.
+ * <p>
+ * The bytes queued for writing are bounded : above the high watermark, no more bytes are read from the client until the
+ * queued bytes go below the low watermark, and the handler is told to stop handling the pipelined requests already read
+ * (see {@link #checkWriteBackpressure()}). A client pipelining requests without reading the responses thus holds about
+ * the high watermark, plus one response.
+ * <p>
+ * A secure session (see {@link #useTls(TlsContext)}) reads and writes through a {@link TlsTransport}, which
+ * decrypts and encrypts the bytes : the handlers only see plaintext.
  *
  * @author Jerome
  */
@@ -20,42 +39,47 @@ public class Session {
 
 
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger(Session.class);
+    //Maximum number of buffers written by a single gathering write
+    private static final int MAX_GATHERED_BUFFERS = 16;
+
+    //The completion handlers are stateless, the session is passed as the attachment
+    private static final ReadCompletionHandler READ_COMPLETION_HANDLER = new ReadCompletionHandler();
+    private static final WriteCompletionHandler WRITE_COMPLETION_HANDLER = new WriteCompletionHandler();
+    //Initial capacity of the write queue, which grows when needed
+    private static final int WRITE_QUEUE_CAPACITY = 16;
+    public static final long DEFAULT_WRITE_HIGH_WATERMARK = 1024 * 1024;
+    public static final long DEFAULT_WRITE_LOW_WATERMARK = 256 * 1024;
+    //The bytes accounted for a source, which holds a few buffers at once, usually at most a large buffer of the pool
+    private static final long SOURCE_QUEUED_BYTES = 64 * 1024;
 
     /**
      * A read completion handler that is notified by the OS when a asynchronous read operation has been performed.
+     * <p>
+     * Stateless : a single instance is shared by all the sessions.
      *
      * @author Jerome
      */
     public static final class ReadCompletionHandler implements CompletionHandler<Integer, Session> {
 
 
-        private org.slf4j.Logger logger = LoggerFactory.getLogger(ReadCompletionHandler.class);
-
         @Override
         public void completed(Integer bytesRead, Session session) {
 
-            logger.debug("ReadCompletionHandler : READ {} bytes : {}", bytesRead, session.getRemoteAddress());
-
             if (bytesRead < 0)
             //Client closed the session
             {
-                session.close();
+                session.releaseReadBuffer();
+                session.shutdown();
             } else {
-                session.getReadBuffer().flip(); if (session.getHandler() != null) {
-                    session.getHandler().onMessage(session);
-                }
-
-                if (session.isKeepAlive()) {
-                    session.pendingRead();
-                }
-
-
+                session.metrics.bytesRead(bytesRead);
+                session.dispatchRead();
             }
 
         }
 
         @Override
         public void failed(Throwable exc, Session session) {
+            session.releaseReadBuffer();
             session.close();
 
         }
@@ -63,66 +87,157 @@ public class Session {
 
     /**
      * A Write completion handler that is notified by the OS when a asynchronous write operation has been performed.
+     * <p>
+     * Stateless : a single instance is shared by all the sessions.
      *
      * @author Jerome
      */
-    public static final class WriteCompletionHandler implements CompletionHandler<Integer, Session> {
+    public static final class WriteCompletionHandler implements CompletionHandler<Long, Session> {
 
 
-        private static final org.slf4j.Logger logger = LoggerFactory.getLogger(WriteCompletionHandler.class);
-
         @Override
-        public void completed(Integer bytesWritten, Session session) {
-
-            logger.debug("WriteCompletionHandler : {} bytes written : {}", bytesWritten, session.getRemoteAddress());
-            ByteBuffer next; Queue<ByteBuffer> writeQueue = session.getWriteQueue(); synchronized (writeQueue) {
-                next = writeQueue.peek(); if (!next.hasRemaining()) {
-                    writeQueue.remove(); next = writeQueue.peek();
+        public void completed(Long bytesWritten, Session session) {
 
-                }
-            } if (next != null) {
-                session.pendingWrite(next);
-            }
-            /*else if(!session.isKeepAlive()){
-                session.close();
+            session.metrics.bytesWritten(bytesWritten);
+            //A gathering write may complete partially, only the fully written elements are dropped
+            session.releaseGatheredBuffers();
+            if (session.removeCompletedWrites()) {
+                session.writeNext();
+            } else {
+                session.onWritesDrained();
             }
-            */
 
 
         }
 
         @Override
         public void failed(Throwable exc, Session session) {
+            session.releaseGatheredBuffers();
             session.close();
+            session.discardWrites();
         }
     }
 
     private final AsynchronousSocketChannel client;
-    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(8192);
+    private final ByteBufferPool bufferPool;
+    private final Executor dispatcher;
+    private final ServerMetrics metrics;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final Runnable readTask = this::onRead;
+    private final ConnectionTimeouts timeouts;
+    private final AdmissionControl admission;
+    //The time the read being handled was admitted, only accessed from the read completion path
+    private long admittedAt;
+    //True while the permit taken for the read being handled has not been handed over to a request
+    private boolean readPermit;
+    private final TimerWheel.Task timeoutTask = new TimerWheel.Task() {
+        @Override
+        protected void expire() {
+            onTimeout();
+        }
+    };
+    //The timeout of the read side, armed again once the pending writes are sent
+    private volatile ConnectionTimeout readTimeout;
+    private volatile long readDeadline;
+    //The timeout currently armed
+    private volatile ConnectionTimeout armedTimeout;
+    //True while writes are pending : the write stall timeout takes precedence
+    private volatile boolean writing;
+    //Only borrowed from the pool while a read is in flight or being processed,
+    //and only ever accessed from the read completion path
+    private ByteBuffer readBuffer;
     //To guarantee a thread-safe writing process
     //(please refer to : https://webtide.com/on-jdk-7-asynchronous-io/ for more details)
-    private final Queue<ByteBuffer> writeQueue = new LinkedList<>();
-    private boolean keepAlive;
-    private String remoteAddress;
+    //The head of the queue is owned by the writer, i.e. the thread that found the queue empty
+    private final WriteQueue writeQueue = new WriteQueue(WRITE_QUEUE_CAPACITY);
+    //Owned by the writer
+    private final PendingWrite[] gatheredWrites = new PendingWrite[MAX_GATHERED_BUFFERS];
+    private final ByteBuffer[] gatheredBuffers = new ByteBuffer[MAX_GATHERED_BUFFERS];
+    private int gatheredCount;
+    //The connection is closed once the pending writes are sent, guarded by the write queue
+    private boolean closeAfterWrites;
+    //No read is pending while too many bytes are queued, guarded by the write queue
+    private boolean readPaused;
+    //True while a read is being handled, and if the handler has been told to stop, guarded by the write queue
+    private boolean handlingRead;
+    private boolean handlerBackpressured;
+    //The queued bytes last added to the metrics, guarded by the write queue
+    private long reportedQueuedBytes;
+    private long writeHighWatermark = DEFAULT_WRITE_HIGH_WATERMARK;
+    private long writeLowWatermark = DEFAULT_WRITE_LOW_WATERMARK;
+    //A connection is persistent until a request or a response says otherwise
+    private boolean keepAlive = true;
+    private final String remoteAddress;
+    //The TLS layer of a secure session, null for plaintext
+    private TlsTransport tls;
     private Handler handler;
 
-    public Session(AsynchronousSocketChannel client) {
+    /**
+     * @param client     the client socket channel.
+     * @param bufferPool the pool the read buffers are borrowed from.
+     * @param dispatcher the executor handling the messages read from the client.
+     * @param metrics    the metrics of the server, the connection is counted as active until it is closed.
+     */
+    public Session(AsynchronousSocketChannel client, ByteBufferPool bufferPool, Executor dispatcher,
+                   ServerMetrics metrics) {
+        this(client, bufferPool, dispatcher, metrics, ConnectionTimeouts.NONE);
+    }
+
+    /**
+     * @param client     the client socket channel.
+     * @param bufferPool the pool the read buffers are borrowed from.
+     * @param dispatcher the executor handling the messages read from the client.
+     * @param metrics    the metrics of the server, the connection is counted as active until it is closed.
+     * @param timeouts   the timeouts of the connection.
+     */
+    public Session(AsynchronousSocketChannel client, ByteBufferPool bufferPool, Executor dispatcher,
+                   ServerMetrics metrics, ConnectionTimeouts timeouts) {
+        this(client, bufferPool, dispatcher, metrics, timeouts, AdmissionControl.NONE);
+    }
+
+    /**
+     * @param client     the client socket channel.
+     * @param bufferPool the pool the read buffers are borrowed from.
+     * @param dispatcher the executor handling the messages read from the client.
+     * @param metrics    the metrics of the server, the connection is counted as active until it is closed.
+     * @param timeouts   the timeouts of the connection.
+     * @param admission  the admission control of the server, notified when the connection is closed.
+     */
+    public Session(AsynchronousSocketChannel client, ByteBufferPool bufferPool, Executor dispatcher,
+                   ServerMetrics metrics, ConnectionTimeouts timeouts, AdmissionControl admission) {
         this.client = client;
+        this.bufferPool = bufferPool;
+        this.dispatcher = dispatcher;
+        this.metrics = metrics;
+        this.timeouts = timeouts;
+        this.admission = admission;
+        this.remoteAddress = readRemoteAddress(client);
+        metrics.connectionOpened();
 
     }
 
+    /**
+     * @return the literal IP address of the client, captured once the connection is accepted, <i>-</i> if unknown.
+     */
     public String getRemoteAddress() {
+        return remoteAddress;
+    }
 
-        String remoteAddress = ""; try {
-            InetSocketAddress socketAddress = (InetSocketAddress) client.getRemoteAddress();
-            remoteAddress = socketAddress.getHostName();
-        } catch (IOException e) {
-            logger.error("Unable to read client's remote address : ", e);
+    /**
+     * Reads the address of the client without any reverse DNS lookup.
+     */
+    private static String readRemoteAddress(AsynchronousSocketChannel client) {
 
-        } finally {
-            return remoteAddress;
+        try {
+            final SocketAddress socketAddress = client.getRemoteAddress();
+            if (socketAddress instanceof InetSocketAddress) {
+                return ((InetSocketAddress) socketAddress).getAddress().getHostAddress();
+            }
+        } catch (IOException e) {
+            //E.g. the client has already gone
+            logger.debug("Unable to read client's remote address : {}", e.toString());
         }
-
+        return "-";
     }
 
     public AsynchronousSocketChannel getClient() {
@@ -130,16 +245,233 @@ public class Session {
     }
 
     public void write(ByteBuffer out) {
+        enqueue(out, null);
+    }
+
+    /**
+     * Writes two buffers, e.g. the headers and the body of a response, so that they are sent with a single gathering
+     * write. This is the only vectored write : a varargs method would allocate an array for every response.
+     *
+     * @param first  the first buffer to write.
+     * @param second the second buffer to write.
+     */
+    public void write(ByteBuffer first, ByteBuffer second) {
+        boolean needToWrite = false;
+        synchronized (writeQueue) {
+
+            needToWrite = writeQueue.isEmpty();
+            writeQueue.offer(first, null);
+            writeQueue.offer(second, null);
+            queued();
+        }
+
+        if (needToWrite) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Streams the buffers of a source, after the buffers already queued.
+     *
+     * @param source the source to write, which is closed by the session once exhausted and sent.
+     */
+    public void write(WriteSource source) {
+        enqueue(null, source);
+    }
+
+    private void enqueue(ByteBuffer buffer, WriteSource source) {
         boolean needToWrite = false; synchronized (writeQueue) {
 
-            needToWrite = writeQueue.isEmpty(); writeQueue.offer(out);
+            needToWrite = writeQueue.isEmpty();
+            writeQueue.offer(buffer, source);
+            queued();
         }
 
         if (needToWrite) {
-            pendingWrite(out);
+            writeNext();
+        }
+    }
+
+    /**
+     * Guarded by the write queue.
+     */
+    private void queued() {
+
+        final long queuedBytes = writeQueue.getQueuedBytes();
+        if (queuedBytes != reportedQueuedBytes) {
+            metrics.writeQueueChanged(queuedBytes - reportedQueuedBytes, queuedBytes);
+            reportedQueuedBytes = queuedBytes;
         }
     }
 
+    /**
+     * Writes as many pending buffers as possible with a single gathering write, starting from the head of the write
+     * queue. Must only be called by the writer, i.e. the thread that found the queue empty or the write completion
+     * handler.
+     */
+    private void writeNext() {
+
+        do {
+            if (!getClient().isOpen()) {
+                discardWrites();
+                return;
+            }
+
+            int pendingWrites;
+            synchronized (writeQueue) {
+                pendingWrites = Math.min(writeQueue.size(), MAX_GATHERED_BUFFERS);
+                for (int i = 0; i < pendingWrites; i++) {
+                    gatheredWrites[i] = writeQueue.get(i);
+                }
+            }
+
+            gatheredCount = 0;
+            for (int i = 0; i < pendingWrites; i++) {
+                final PendingWrite pendingWrite = gatheredWrites[i];
+                gatheredWrites[i] = null;
+                try {
+                    pendingWrite.fill();
+                } catch (IOException e) {
+                    logger.error("Error when reading the content to write : ", e);
+                    //The response may be partially written, the only option left is to close the connection
+                    releaseGatheredBuffers();
+                    close();
+                    discardWrites();
+                    return;
+                }
+                if (gatheredCount + pendingWrite.count > MAX_GATHERED_BUFFERS) {
+                    //Sent by the next write, with the elements following it
+                    Arrays.fill(gatheredWrites, i + 1, pendingWrites, null);
+                    break;
+                }
+                for (int j = 0; j < pendingWrite.count; j++) {
+                    if (pendingWrite.buffers[j].hasRemaining()) {
+                        gatheredBuffers[gatheredCount++] = pendingWrite.buffers[j];
+                    }
+                }
+                if (!pendingWrite.exhausted) {
+                    //The next buffers of a source are not known yet, nothing can be written after it
+                    Arrays.fill(gatheredWrites, i + 1, pendingWrites, null);
+                    break;
+                }
+            }
+
+            if (gatheredCount > 0) {
+                armWriteTimeout();
+                if (tls != null) {
+                    tls.write(gatheredBuffers, 0, gatheredCount, WRITE_COMPLETION_HANDLER);
+                } else {
+                    getClient().write(gatheredBuffers, 0, gatheredCount, 0L, TimeUnit.MILLISECONDS, this,
+                                      WRITE_COMPLETION_HANDLER);
+                }
+                return;
+            }
+            //Nothing to write, e.g. empty buffers or exhausted sources
+        } while (removeCompletedWrites());
+        onWritesDrained();
+    }
+
+    /**
+     * Called by the writer once the write queue is empty.
+     */
+    private void onWritesDrained() {
+
+        if (writing) {
+            //The read side timeout starts over once the response is sent, e.g. after a long download
+            writing = false;
+            armReadTimeout(readTimeout, readTimeout == ConnectionTimeout.HEADER_READ ?
+                    timeouts.getHeaderReadMillis() : timeouts.getIdleMillis());
+        }
+        final boolean close;
+        synchronized (writeQueue) {
+            //Another thread may have queued writes in the meantime, it is the writer now
+            close = closeAfterWrites && writeQueue.isEmpty();
+        }
+        if (close) {
+            shutdown();
+        }
+    }
+
+    /**
+     * Closes the connection once the pending writes, if any, are sent.
+     */
+    private void closeAfterWrites() {
+
+        final boolean close;
+        synchronized (writeQueue) {
+            //Nothing will be read anymore
+            closeAfterWrites = true;
+            handlingRead = false;
+            readPaused = false;
+            close = writeQueue.isEmpty();
+        }
+        if (close) {
+            shutdown();
+        }
+    }
+
+    private void releaseGatheredBuffers() {
+        //Do not retain buffers (e.g. mapped files) once written
+        Arrays.fill(gatheredBuffers, 0, gatheredCount, null);
+        gatheredCount = 0;
+    }
+
+    /**
+     * Removes the completed writes at the head of the write queue.
+     *
+     * @return true if there are pending writes left, in which case the caller is still the writer.
+     */
+    private boolean removeCompletedWrites() {
+
+        PendingWrite head;
+        boolean resumeRead = false;
+        synchronized (writeQueue) {
+            while ((head = writeQueue.peek()) != null && head.isComplete()) {
+                //Everything queued before this source has been sent too
+                if (head.source != null) {
+                    head.source.close();
+                }
+                writeQueue.removeHead();
+            }
+            queued();
+            if (readPaused && writeQueue.getQueuedBytes() <= writeLowWatermark) {
+                //Resumed by the handling read, if any, once it is over
+                readPaused = false;
+                resumeRead = !handlingRead;
+            }
+        }
+        if (resumeRead) {
+            //No read is in flight nor being handled while paused : the writer takes over the reads
+            resumeReading();
+        }
+        return head != null;
+    }
+
+    /**
+     * Drops the pending writes of a closed session, releasing their sources.
+     */
+    private void discardWrites() {
+
+        synchronized (writeQueue) {
+            PendingWrite pendingWrite;
+            while ((pendingWrite = writeQueue.peek()) != null) {
+                if (pendingWrite.source != null) {
+                    pendingWrite.source.close();
+                }
+                writeQueue.removeHead();
+            }
+            queued();
+        }
+    }
+
+    /**
+     * Gets the buffer holding the bytes read from the client, ready to be read while a message is being handled.
+     * <p>
+     * A handler consumes the bytes it has processed. The bytes left in the buffer (e.g. the beginning of a pipelined
+     * request) are kept for the next read.
+     *
+     * @return the read buffer.
+     */
     public ByteBuffer getReadBuffer() {
         return readBuffer;
     }
@@ -152,27 +484,281 @@ public class Session {
         this.keepAlive = keepAlive;
     }
 
+    /**
+     * Closes the connection gracefully, once nothing is left to send : a secure session sends a close_notify alert
+     * first. The writes still pending are dropped.
+     */
+    private void shutdown() {
+
+        if (tls != null) {
+            //A client which does not read anymore can not hold the connection open with the alert
+            armWriteTimeout();
+            tls.shutdown();
+        } else {
+            close();
+        }
+    }
+
+    /**
+     * Closes the connection at once, e.g. after an error : the client of a secure session sees a truncation.
+     */
     public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (timeouts.getTimer() != null) {
+            timeouts.getTimer().cancel(timeoutTask);
+        }
+        metrics.connectionClosed();
         try {
             if (client.isOpen())
                 client.close();
         } catch (IOException e) {
             logger.error("Error when closing the client socket : ", e);
         }
+        if (tls != null) {
+            tls.close();
+        }
+        admission.connectionClosed();
     }
 
     private void pendingRead() {
 
-        getReadBuffer().clear(); if (getClient().isOpen()) {
-            getClient().read(getReadBuffer(), this, new ReadCompletionHandler());
+        if (getClient().isOpen()) {
+            if (readBuffer == null) {
+                //A TLS record is decrypted directly into the read buffer when the latter can hold any record
+                readBuffer = tls != null ? bufferPool.acquireBuffer(tls.getApplicationBufferSize()) :
+                        bufferPool.acquireBuffer();
+            }
+            if (tls != null) {
+                tls.read(readBuffer, READ_COMPLETION_HANDLER);
+            } else {
+                getClient().read(readBuffer, this, READ_COMPLETION_HANDLER);
+            }
         }
 
     }
 
-    private void pendingWrite(ByteBuffer out) {
-        if (getClient().isOpen()) {
-            this.getClient().write(out, this, new WriteCompletionHandler());
+    /**
+     * Hands the read buffer over to the handler, as per the execution model : the next read is armed once it has been
+     * handled. A request permit is taken first, and handed over to the first request of the read by
+     * {@link #admitRequest()}.
+     */
+    private void dispatchRead() {
+
+        if (!admission.tryAcquireRequest()) {
+            //Overloaded : rejected at once, without queuing more work
+            reject();
+            return;
         }
+        admittedAt = System.nanoTime();
+        readPermit = true;
+        dispatcher.execute(readTask);
+    }
+
+    private void onRead() {
+
+        readBuffer.flip();
+        final int received = readBuffer.remaining();
+        synchronized (writeQueue) {
+            handlingRead = true;
+        }
+        try {
+            if (getHandler() != null) {
+                getHandler().onMessage(this);
+            }
+        } finally {
+            if (readPermit) {
+                //No request has been admitted, e.g. the bytes read are not a whole request yet
+                readPermit = false;
+                admission.requestCancelled();
+            }
+        }
+
+        if (isKeepAlive() && readBuffer.hasRemaining()) {
+            //The header read timeout starts with the first byte of a request, it is not pushed back by later bytes
+            if (readTimeout != ConnectionTimeout.HEADER_READ || readBuffer.remaining() < received) {
+                armReadTimeout(ConnectionTimeout.HEADER_READ, timeouts.getHeaderReadMillis());
+            }
+            //Keep the beginning of the next request, the next read appends to it
+            readBuffer.compact();
+        } else {
+            //The whole buffer has been consumed, give it back until the next read
+            releaseReadBuffer();
+            armReadTimeout(ConnectionTimeout.IDLE, timeouts.getIdleMillis());
+        }
+
+        if (isKeepAlive()) {
+            continueReading();
+        } else {
+            //The last response has been queued
+            closeAfterWrites();
+        }
+    }
+
+    /**
+     * Arms the next read once a read has been handled, unless too many bytes are queued : the writer resumes the reads
+     * once enough bytes are sent.
+     */
+    private void continueReading() {
+
+        final boolean paused;
+        final boolean stoppedEarly;
+        synchronized (writeQueue) {
+            handlingRead = false;
+            stoppedEarly = handlerBackpressured;
+            handlerBackpressured = false;
+            if (!readPaused && writeHighWatermark > 0 && writeQueue.getQueuedBytes() > writeHighWatermark) {
+                readPaused = true;
+                metrics.readPaused();
+            }
+            paused = readPaused;
+        }
+        if (!paused) {
+            if (stoppedEarly) {
+                //Already resumed by the writer while the handler was running
+                resumeReading();
+            } else {
+                pendingRead();
+            }
+        }
+    }
+
+    /**
+     * Resumes the reads once they have been paused. The handler may have stopped before the end of the read buffer, the
+     * bytes left are handed over to it again before anything else is read.
+     */
+    private void resumeReading() {
+
+        if (readBuffer != null && readBuffer.position() > 0) {
+            dispatchRead();
+        } else {
+            pendingRead();
+        }
+    }
+
+    /**
+     * Admits a request parsed from the read buffer, to be called by the handler before handling it. The first request
+     * of a read takes the permit taken when the read was handed over, the next pipelined requests take permits of
+     * their own : the concurrency limit applies to the requests, however they are spread over the reads.
+     *
+     * @return false if the server is overloaded and the request must be rejected, otherwise {@link #requestHandled()}
+     * must be called once it has been handled.
+     */
+    public boolean admitRequest() {
+
+        if (readPermit) {
+            readPermit = false;
+            return true;
+        }
+        if (admission.tryAcquireRequest()) {
+            return true;
+        }
+        metrics.requestRejected();
+        return false;
+    }
+
+    /**
+     * Releases the permit of a request admitted by {@link #admitRequest()}. Its latency is sampled from the time the
+     * read was handed over, so that it includes the time spent waiting for a worker.
+     */
+    public void requestHandled() {
+        admission.requestHandled(admittedAt);
+    }
+
+    /**
+     * Tells a handler whether to stop handling the pipelined requests left in the read buffer, because too many bytes
+     * are queued for writing. If so the reads are paused, and the bytes left are handed over to the handler again once
+     * enough bytes are sent.
+     *
+     * @return true if the handler should return at once.
+     */
+    public boolean checkWriteBackpressure() {
+
+        if (writeHighWatermark == 0) {
+            return false;
+        }
+        synchronized (writeQueue) {
+            if (!readPaused && writeQueue.getQueuedBytes() > writeHighWatermark) {
+                readPaused = true;
+                metrics.readPaused();
+            }
+            handlerBackpressured |= readPaused;
+            return readPaused;
+        }
+    }
+
+    /**
+     * Rejects the bytes that have just been read, and closes the connection once the handler has answered.
+     */
+    private void reject() {
+
+        metrics.requestRejected();
+        readBuffer.flip();
+        setKeepAlive(false);
+        if (getHandler() != null) {
+            getHandler().onRejected(this);
+        }
+        releaseReadBuffer();
+        closeAfterWrites();
+    }
+
+    private void armReadTimeout(ConnectionTimeout timeout, long millis) {
+
+        readTimeout = timeout;
+        readDeadline = millis > 0 ? System.nanoTime() + millis * 1_000_000L : 0;
+        if (!writing) {
+            armTimeout(timeout, readDeadline);
+        }
+    }
+
+    /**
+     * Arms the write stall timeout : called every time a write is issued, i.e. when the previous one has progressed.
+     * The read side timeouts are suspended while writing, even if there is no write stall timeout.
+     */
+    private void armWriteTimeout() {
+
+        final long millis = timeouts.getWriteMillis();
+        writing = true;
+        armTimeout(ConnectionTimeout.WRITE_STALL, millis > 0 ? System.nanoTime() + millis * 1_000_000L : 0);
+    }
+
+    private void armTimeout(ConnectionTimeout timeout, long deadline) {
+
+        final TimerWheel timer = timeouts.getTimer();
+        if (timer == null) {
+            return;
+        }
+        armedTimeout = timeout;
+        if (deadline == 0) {
+            timer.cancel(timeoutTask);
+        } else {
+            timer.scheduleAt(timeoutTask, deadline);
+        }
+    }
+
+    private void onTimeout() {
+
+        //The timeout may have been pushed back while expiring : the wheel keeps it armed
+        final long deadline = timeoutTask.getDeadline();
+        if (deadline == 0 || deadline - System.nanoTime() > 0 || closed.get()) {
+            return;
+        }
+        final ConnectionTimeout timeout = armedTimeout;
+        metrics.timeout(timeout);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Closing the connection of {} : {} timeout", getRemoteAddress(), timeout);
+        }
+        //The pending read or write fails, which releases its buffers. A stalled write leaves no room for a close_notify
+        if (timeout == ConnectionTimeout.WRITE_STALL) {
+            close();
+        } else {
+            shutdown();
+        }
+    }
+
+    private void releaseReadBuffer() {
+        readBuffer = bufferPool.releaseBuffer(readBuffer);
     }
 
     public Handler getHandler() {
@@ -184,12 +770,204 @@ public class Session {
 
     }
 
-    public Queue<ByteBuffer> getWriteQueue() {
-        return writeQueue;
+    /**
+     * Sets the bounds of the bytes queued for writing. Must be called before {@link #start()}.
+     *
+     * @param highWatermark the queued bytes above which the reads are paused, <i>0</i> to never pause.
+     * @param lowWatermark  the queued bytes below which the reads are resumed.
+     */
+    public void setWriteWatermarks(long highWatermark, long lowWatermark) {
+        if (highWatermark > 0 && (lowWatermark < 0 || lowWatermark > highWatermark)) {
+            throw new IllegalArgumentException("Invalid write watermarks : " + lowWatermark + " > " + highWatermark);
+        }
+        this.writeHighWatermark = highWatermark;
+        this.writeLowWatermark = lowWatermark;
+    }
+
+    /**
+     * @return the number of pending writes, i.e. the depth of the write queue.
+     */
+    public int getPendingWrites() {
+        synchronized (writeQueue) {
+            return writeQueue.size();
+        }
+    }
+
+    /**
+     * @return the bytes queued for writing, a streamed source counting for the buffer it holds.
+     */
+    public long getQueuedBytes() {
+        synchronized (writeQueue) {
+            return writeQueue.getQueuedBytes();
+        }
+    }
+
+    /**
+     * @return true if the reads are paused until enough queued bytes are sent.
+     */
+    public boolean isReadPaused() {
+        synchronized (writeQueue) {
+            return readPaused;
+        }
+    }
+
+    /**
+     * Secures the session : the first read performs the TLS handshake. Must be called before {@link #start()}.
+     *
+     * @param context the TLS configuration of the server.
+     */
+    public void useTls(TlsContext context) {
+        this.tls = new TlsTransport(this, client, context, bufferPool, metrics);
+    }
+
+    /**
+     * @return true if the session is secured by TLS.
+     */
+    public boolean isSecure() {
+        return tls != null;
+    }
+
+    /**
+     * @return the application protocol selected through ALPN, an empty string if none, <code>null</code> for a
+     * plaintext session or until the TLS handshake is done.
+     */
+    public String getApplicationProtocol() {
+        return tls != null ? tls.getApplicationProtocol() : null;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    public ByteBufferPool getBufferPool() {
+        return bufferPool;
     }
 
     public void start() {
 
+        armReadTimeout(ConnectionTimeout.IDLE, timeouts.getIdleMillis());
         pendingRead();
     }
+
+    /**
+     * An element of the write queue : either a single buffer or a source of buffers.
+     * <p>
+     * The elements are recycled by the write queue, so that queuing a write does not allocate.
+     */
+    private static final class PendingWrite {
+
+        private WriteSource source;
+        //The buffers being written, from 0 to count
+        private final ByteBuffer[] buffers = new ByteBuffer[WriteSource.MAX_BUFFERS];
+        private int count;
+        private boolean exhausted;
+        //The bytes accounted for this write while it is queued
+        private long queuedBytes;
+
+        private void set(ByteBuffer buffer, WriteSource source) {
+            Arrays.fill(buffers, null);
+            buffers[0] = buffer;
+            this.count = buffer != null ? 1 : 0;
+            this.source = source;
+            this.exhausted = source == null;
+            this.queuedBytes = source != null ? SOURCE_QUEUED_BYTES : buffer != null ? buffer.remaining() : 0;
+        }
+
+        /**
+         * Pulls the next buffers of the source once the current ones have been written.
+         */
+        private void fill() throws IOException {
+            if (!exhausted && !hasRemaining()) {
+                Arrays.fill(buffers, null);
+                count = source.next(buffers);
+                exhausted = count == 0;
+            }
+        }
+
+        private boolean hasRemaining() {
+            for (int i = 0; i < count; i++) {
+                if (buffers[i].hasRemaining()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isComplete() {
+            return exhausted && !hasRemaining();
+        }
+    }
+
+    /**
+     * A FIFO queue of pending writes backed by a ring buffer of recycled elements. Not thread-safe : guarded by the
+     * session.
+     */
+    private static final class WriteQueue {
+
+        private PendingWrite[] elements;
+        private int head;
+        private int size;
+        private long queuedBytes;
+
+        private WriteQueue(int capacity) {
+            elements = new PendingWrite[capacity];
+            for (int i = 0; i < capacity; i++) {
+                elements[i] = new PendingWrite();
+            }
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private void offer(ByteBuffer buffer, WriteSource source) {
+            if (size == elements.length) {
+                grow();
+            }
+            final PendingWrite element = elements[(head + size) & (elements.length - 1)];
+            element.set(buffer, source);
+            queuedBytes += element.queuedBytes;
+            size++;
+        }
+
+        private long getQueuedBytes() {
+            return queuedBytes;
+        }
+
+        /**
+         * @return the i-th element from the head of the queue, which is only valid until it is removed.
+         */
+        private PendingWrite get(int i) {
+            return elements[(head + i) & (elements.length - 1)];
+        }
+
+        private PendingWrite peek() {
+            return size == 0 ? null : elements[head];
+        }
+
+        private void removeHead() {
+            //Do not retain buffers (e.g. mapped files) nor sources once written
+            queuedBytes -= elements[head].queuedBytes;
+            elements[head].set(null, null);
+            head = (head + 1) & (elements.length - 1);
+            size--;
+        }
+
+        private void grow() {
+            //The capacity stays a power of two, the elements are unrolled from the head
+            final PendingWrite[] grown = new PendingWrite[elements.length * 2];
+            for (int i = 0; i < size; i++) {
+                grown[i] = get(i);
+            }
+            for (int i = size; i < grown.length; i++) {
+                grown[i] = new PendingWrite();
+            }
+            elements = grown;
+            head = 0;
+        }
+    }
 }
@@ -0,0 +1,168 @@
+package fr.meuret.webtesttech.nio;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The TLS configuration of a server, shared by all its secure sessions : the certificate and the private key, the
+ * protocols, the server-side session cache and the application protocols offered through ALPN.
+ * <p>
+ * The full handshakes are expensive (key exchange, signature) : the session cache lets the returning clients resume
+ * their session with an abbreviated handshake, and the delegated tasks of the handshakes run on a dedicated pool of
+ * threads, never on the I/O threads.
+ *
+ * @author Jerome
+ */
+public final class TlsContext implements Closeable {
+
+
+    /**
+     * The application protocols of the server, in order of preference.
+     */
+    public static final String[] DEFAULT_APPLICATION_PROTOCOLS = {"http/1.1"};
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 20480;
+    public static final int DEFAULT_SESSION_TIMEOUT = 3600;
+    //The older protocols are not enabled
+    private static final String[] PROTOCOLS = {"TLSv1.3", "TLSv1.2"};
+    private final SSLContext sslContext;
+    private final String[] protocols;
+    private final String[] applicationProtocols;
+    private final ExecutorService taskExecutor;
+
+
+    /**
+     * @param sslContext           an initialized context, holding the certificate and the private key of the server.
+     * @param sessionCacheSize     the maximum number of cached sessions, <i>0</i> for no limit.
+     * @param sessionTimeout       the lifetime of a cached session, in seconds.
+     * @param applicationProtocols the application protocols selected through ALPN, in order of preference.
+     */
+    public TlsContext(SSLContext sslContext, int sessionCacheSize, int sessionTimeout,
+                      String... applicationProtocols) {
+
+        this.sslContext = sslContext;
+        this.applicationProtocols = applicationProtocols.clone();
+        final SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+        sessionContext.setSessionCacheSize(sessionCacheSize);
+        sessionContext.setSessionTimeout(sessionTimeout);
+
+        final List<String> supported = Arrays.asList(sslContext.getSupportedSSLParameters().getProtocols());
+        final List<String> enabled = new ArrayList<>();
+        for (String protocol : PROTOCOLS) {
+            if (supported.contains(protocol)) {
+                enabled.add(protocol);
+            }
+        }
+        this.protocols = enabled.toArray(new String[enabled.size()]);
+
+        //The delegated tasks are CPU bound
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.taskExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            final Thread thread = new Thread(runnable, "tls-task-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Loads the certificate and the private key of the server from a key store, protected by a single password.
+     *
+     * @param keyStore         the key store file.
+     * @param keyStoreType     the type of the key store, e.g. <i>PKCS12</i> or <i>JKS</i>.
+     * @param password         the password of the key store and of the private key.
+     * @param sessionCacheSize the maximum number of cached sessions, <i>0</i> for no limit.
+     * @param sessionTimeout   the lifetime of a cached session, in seconds.
+     * @return the TLS context, offering the {@link #DEFAULT_APPLICATION_PROTOCOLS}.
+     * @throws IOException if the key store can not be read.
+     */
+    public static TlsContext load(Path keyStore, String keyStoreType, char[] password, int sessionCacheSize,
+                                  int sessionTimeout) throws IOException {
+
+        try (InputStream in = Files.newInputStream(keyStore)) {
+            final KeyStore store = KeyStore.getInstance(keyStoreType);
+            store.load(in, password);
+            final KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(
+                    KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(store, password);
+            final SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(keyManagers.getKeyManagers(), null, null);
+            return new TlsContext(sslContext, sessionCacheSize, sessionTimeout, DEFAULT_APPLICATION_PROTOCOLS);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to load the key store " + keyStore + " : " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return a new server engine, for a single connection.
+     */
+    SSLEngine createEngine() {
+
+        final SSLEngine engine = sslContext.createSSLEngine();
+        engine.setUseClientMode(false);
+        final SSLParameters parameters = engine.getSSLParameters();
+        parameters.setProtocols(protocols);
+        parameters.setUseCipherSuitesOrder(true);
+        engine.setSSLParameters(parameters);
+        engine.setHandshakeApplicationProtocolSelector((sslEngine, offered) -> selectApplicationProtocol(offered));
+        return engine;
+    }
+
+    /**
+     * The ALPN hook : the first protocol of the server offered by the client.
+     *
+     * @return the selected protocol, <code>null</code> to go on without ALPN if there is none.
+     */
+    private String selectApplicationProtocol(List<String> offered) {
+
+        for (String protocol : applicationProtocols) {
+            if (offered.contains(protocol)) {
+                return protocol;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs a task of a handshake, off the I/O threads.
+     */
+    void execute(Runnable task) {
+        taskExecutor.execute(task);
+    }
+
+    /**
+     * @return the server-side session cache.
+     */
+    public SSLSessionContext getSessionContext() {
+        return sslContext.getServerSessionContext();
+    }
+
+    @Override
+    public void close() {
+        taskExecutor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "TlsContext{" + "protocols=" + Arrays.toString(protocols) + ", applicationProtocols=" +
+                Arrays.toString(applicationProtocols) + ", sessionCacheSize=" +
+                getSessionContext().getSessionCacheSize() + ", sessionTimeout=" +
+                getSessionContext().getSessionTimeout() + '}';
+    }
+
+
+}
@@ -0,0 +1,694 @@
+package fr.meuret.webtesttech.nio;
+
+import fr.meuret.webtesttech.metrics.ServerMetrics;
+import fr.meuret.webtesttech.util.ByteBufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+
+/**
+ * The TLS layer of a secure {@link Session} : the session reads and writes plaintext, the transport unwraps and wraps
+ * the TLS records exchanged on the socket channel with an {@link SSLEngine}.
+ * <p>
+ * The handshake is driven by the first read, before any request can be received. Its delegated tasks (key exchange,
+ * signature) run on the pool of the {@link TlsContext}, the I/O threads only move the records. Once the handshake is
+ * done, the TLS 1.3 post-handshake messages (key update, session ticket) are handled, while a renegotiation is refused.
+ * <p>
+ * The buffers are borrowed from the pool of the session : the encrypted bytes received while a read is in flight or
+ * not unwrapped yet, the encrypted bytes to send while a write is in flight, and the decrypted bytes only when they do
+ * not fit in the read buffer of the session. An idle connection holds a single buffer, like a plaintext one.
+ * <p>
+ * As for the socket channel, at most one read and one write are in flight. The network writes are owned by a single
+ * writer at once : the handshake, the application, a post-handshake message or the close_notify alert.
+ * <p>
+ * A graceful close sends a close_notify alert before closing the socket channel, so that the client tells the end of
+ * the connection from a truncation, and a close_notify received from the client is answered the same way.
+ *
+ * @author Jerome
+ */
+final class TlsTransport {
+
+
+    private static final Logger logger = LoggerFactory.getLogger(TlsTransport.class);
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    //Reads completed in a row from the bytes already received, before the completion is handed over to another thread
+    private static final int MAX_BUFFERED_COMPLETIONS = 8;
+    //The owners of the network writes
+    private static final int NO_WRITER = 0;
+    private static final int HANDSHAKE_WRITER = 1;
+    private static final int APPLICATION_WRITER = 2;
+    private static final int POST_HANDSHAKE_WRITER = 3;
+    private static final int CLOSE_WRITER = 4;
+
+    //The completion handlers are stateless, the transport is passed as the attachment
+    private static final CompletionHandler<Integer, TlsTransport> NET_READ_HANDLER =
+            new CompletionHandler<Integer, TlsTransport>() {
+                @Override
+                public void completed(Integer bytesRead, TlsTransport transport) {
+                    transport.netRead(bytesRead);
+                }
+
+                @Override
+                public void failed(Throwable exc, TlsTransport transport) {
+                    transport.failRead(exc);
+                }
+            };
+    private static final CompletionHandler<Integer, TlsTransport> NET_WRITE_HANDLER =
+            new CompletionHandler<Integer, TlsTransport>() {
+                @Override
+                public void completed(Integer bytesWritten, TlsTransport transport) {
+                    transport.netWritten();
+                }
+
+                @Override
+                public void failed(Throwable exc, TlsTransport transport) {
+                    transport.failNetWrite(exc);
+                }
+            };
+
+    private final Session session;
+    private final AsynchronousSocketChannel channel;
+    private final SSLEngine engine;
+    private final TlsContext context;
+    private final ByteBufferPool bufferPool;
+    private final ServerMetrics metrics;
+    private final int packetBufferSize;
+    private final Runnable handshakeTasks = this::runHandshakeTasks;
+    private final Runnable postHandshakeTasks = this::runPostHandshakeTasks;
+    private int applicationBufferSize;
+    private volatile boolean handshaking = true;
+    private long handshakeStart;
+
+    //Only accessed by the read in progress
+    //The bytes received and not unwrapped yet, in fill mode
+    private ByteBuffer netIn;
+    //The bytes unwrapped and not delivered yet, in drain mode
+    private ByteBuffer appIn;
+    private ByteBuffer readDestination;
+    private int readStart;
+    private CompletionHandler<Integer, Session> readHandler;
+    private int bufferedCompletions;
+
+    //Only accessed by the owner of the network writes
+    private ByteBuffer netOut;
+    private ByteBuffer[] writeSources;
+    private int writeOffset;
+    private int writeLength;
+    private long wrappedBytes;
+    private CompletionHandler<Long, Session> writeHandler;
+
+    //Guarded by this
+    private int netWriter = NO_WRITER;
+    private int waitingWriter = NO_WRITER;
+    private boolean reading;
+    private boolean closed;
+
+
+    TlsTransport(Session session, AsynchronousSocketChannel channel, TlsContext context, ByteBufferPool bufferPool,
+                 ServerMetrics metrics) {
+        this.session = session;
+        this.channel = channel;
+        this.context = context;
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+        this.engine = context.createEngine();
+        this.packetBufferSize = engine.getSession().getPacketBufferSize();
+        this.applicationBufferSize = engine.getSession().getApplicationBufferSize();
+    }
+
+    /**
+     * Reads decrypted bytes, the first read performing the handshake.
+     *
+     * @param destination the buffer the bytes are appended to.
+     * @param handler     notified with the number of bytes read, <i>-1</i> once the client has closed the connection.
+     */
+    void read(ByteBuffer destination, CompletionHandler<Integer, Session> handler) {
+
+        final boolean open;
+        synchronized (this) {
+            open = !closed;
+            reading = open;
+        }
+        if (!open) {
+            handler.failed(new ClosedChannelException(), session);
+            return;
+        }
+        readDestination = destination;
+        readStart = destination.position();
+        readHandler = handler;
+        if (!handshaking) {
+            readApplication();
+        } else if (handshakeStart == 0) {
+            synchronized (this) {
+                //Nothing is written before the first read, the handshake owns the network writes
+                netWriter = HANDSHAKE_WRITER;
+            }
+            handshakeStart = System.currentTimeMillis();
+            try {
+                engine.beginHandshake();
+            } catch (SSLException e) {
+                failRead(e);
+                return;
+            }
+            handshake();
+        }
+    }
+
+    /**
+     * Writes encrypted bytes, at most a few records at once.
+     *
+     * @param sources the buffers to write.
+     * @param handler notified with the number of plaintext bytes written.
+     */
+    void write(ByteBuffer[] sources, int offset, int length, CompletionHandler<Long, Session> handler) {
+        writeSources = sources;
+        writeOffset = offset;
+        writeLength = length;
+        writeHandler = handler;
+        startNetWrite(APPLICATION_WRITER);
+    }
+
+    /**
+     * @return the size of a read buffer able to receive any record, so that the records are unwrapped directly into it.
+     */
+    int getApplicationBufferSize() {
+        return applicationBufferSize;
+    }
+
+    /**
+     * @return the application protocol selected through ALPN, an empty string if none, <code>null</code> until the
+     * handshake is done.
+     */
+    String getApplicationProtocol() {
+        return handshaking ? null : engine.getApplicationProtocol();
+    }
+
+    /**
+     * Gives the buffers which are not used by a read or a write in flight back to the pool, once the socket channel has
+     * been closed. The others are given back once their read or write fails.
+     */
+    void close() {
+
+        synchronized (this) {
+            closed = true;
+            if (!reading) {
+                releaseReadBuffers();
+            }
+            if (netWriter == NO_WRITER) {
+                netOut = bufferPool.releaseBuffer(netOut);
+            }
+        }
+    }
+
+    /**
+     * Closes the connection gracefully : sends a close_notify alert, then closes the session once it is sent. The
+     * session is closed at once if the network writes are busy, e.g. by a stalled write or by the handshake.
+     */
+    void shutdown() {
+
+        final boolean owner;
+        synchronized (this) {
+            owner = !closed && netWriter == NO_WRITER;
+            if (owner) {
+                netWriter = CLOSE_WRITER;
+            }
+        }
+        if (!owner) {
+            session.close();
+            return;
+        }
+        engine.closeOutbound();
+        wrap(CLOSE_WRITER);
+    }
+
+    /**
+     * Steps the handshake as far as possible, until it waits for the network or for a delegated task.
+     */
+    private void handshake() {
+
+        try {
+            while (true) {
+                switch (engine.getHandshakeStatus()) {
+                    case NEED_TASK:
+                        context.execute(handshakeTasks);
+                        return;
+                    case NEED_WRAP:
+                        if (netOut == null) {
+                            netOut = bufferPool.acquireBuffer(packetBufferSize);
+                        }
+                        final SSLEngineResult wrapped = engine.wrap(EMPTY, netOut);
+                        if (wrapped.getStatus() == SSLEngineResult.Status.CLOSED) {
+                            throw new SSLException("Handshake aborted");
+                        }
+                        //A whole flight is sent at once
+                        if (wrapped.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW ||
+                                engine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                            netOut.flip();
+                            channel.write(netOut, this, NET_WRITE_HANDLER);
+                            return;
+                        }
+                        break;
+                    case FINISHED:
+                    case NOT_HANDSHAKING:
+                        handshakeFinished();
+                        return;
+                    default:
+                        //Needs to unwrap
+                        if (netIn == null || netIn.position() == 0) {
+                            readNet();
+                            return;
+                        }
+                        final SSLEngineResult unwrapped = unwrap();
+                        if (unwrapped.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                            readNet();
+                            return;
+                        } else if (unwrapped.getStatus() != SSLEngineResult.Status.OK) {
+                            throw new SSLException("Handshake aborted : " + unwrapped.getStatus());
+                        }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            failRead(e);
+        }
+    }
+
+    private void runHandshakeTasks() {
+        runDelegatedTasks();
+        handshake();
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private void handshakeFinished() {
+
+        synchronized (this) {
+            //The last flight has been sent
+            netWriter = NO_WRITER;
+            netOut = bufferPool.releaseBuffer(netOut);
+        }
+        applicationBufferSize = engine.getSession().getApplicationBufferSize();
+        handshaking = false;
+        //A resumed session has been created by a former handshake
+        metrics.tlsHandshake(engine.getSession().getCreationTime() < handshakeStart);
+        if (logger.isDebugEnabled()) {
+            logger.debug("TLS handshake with {} : {}, {}, application protocol '{}'", session.getRemoteAddress(),
+                         engine.getSession().getProtocol(), engine.getSession().getCipherSuite(),
+                         engine.getApplicationProtocol());
+        }
+        readApplication();
+    }
+
+    /**
+     * Delivers the decrypted bytes, unwrapping the bytes received and reading from the network as needed.
+     */
+    private void readApplication() {
+
+        try {
+            while (true) {
+                if (appIn != null) {
+                    transferApplicationBytes();
+                }
+                if (readDestination.position() > readStart || !readDestination.hasRemaining()) {
+                    completeRead();
+                    return;
+                }
+                if (netIn == null || netIn.position() == 0) {
+                    readNet();
+                    return;
+                }
+                final SSLEngineResult result = unwrap();
+                switch (result.getStatus()) {
+                    case BUFFER_UNDERFLOW:
+                        readNet();
+                        return;
+                    case CLOSED:
+                        //The client has sent a close_notify alert
+                        finishRead(-1);
+                        return;
+                    case BUFFER_OVERFLOW:
+                        throw new SSLException("Record larger than the application buffer");
+                    default:
+                }
+                final SSLEngineResult.HandshakeStatus status = result.getHandshakeStatus();
+                if (status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING &&
+                        status != SSLEngineResult.HandshakeStatus.FINISHED && !postHandshake(status)) {
+                    return;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            failRead(e);
+        }
+    }
+
+    /**
+     * Handles a post-handshake message.
+     *
+     * @return false if the read goes on once the delegated tasks have run.
+     */
+    private boolean postHandshake(SSLEngineResult.HandshakeStatus status) throws SSLException {
+
+        if (!"TLSv1.3".equals(engine.getSession().getProtocol())) {
+            //The renegotiation of TLS 1.2 would let a client make the server compute handshakes at will
+            throw new SSLException("Renegotiation is not supported");
+        }
+        if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+            context.execute(postHandshakeTasks);
+            return false;
+        }
+        if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+            //Answered in parallel of the reads
+            startNetWrite(POST_HANDSHAKE_WRITER);
+        }
+        return true;
+    }
+
+    private void runPostHandshakeTasks() {
+        runDelegatedTasks();
+        if (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+            startNetWrite(POST_HANDSHAKE_WRITER);
+        }
+        readApplication();
+    }
+
+    /**
+     * Unwraps a record of the bytes received : directly into the read buffer of the session if it has room for any
+     * record, otherwise into the application buffer, which is kept until delivered.
+     */
+    private SSLEngineResult unwrap() throws SSLException {
+
+        netIn.flip();
+        try {
+            if (readDestination.remaining() >= applicationBufferSize) {
+                return engine.unwrap(netIn, readDestination);
+            }
+            appIn = bufferPool.acquireBuffer(applicationBufferSize);
+            final SSLEngineResult result = engine.unwrap(netIn, appIn);
+            appIn.flip();
+            if (!appIn.hasRemaining()) {
+                appIn = bufferPool.releaseBuffer(appIn);
+            }
+            return result;
+        } finally {
+            netIn.compact();
+        }
+    }
+
+    private void transferApplicationBytes() {
+
+        if (appIn.remaining() <= readDestination.remaining()) {
+            readDestination.put(appIn);
+            appIn = bufferPool.releaseBuffer(appIn);
+        } else {
+            final int limit = appIn.limit();
+            appIn.limit(appIn.position() + readDestination.remaining());
+            readDestination.put(appIn);
+            appIn.limit(limit);
+        }
+    }
+
+    private void readNet() {
+
+        if (netIn == null) {
+            //An idle connection waits for a small request : the buffer only grows once a record does not fit in it
+            netIn = bufferPool.acquireBuffer();
+        } else if (!netIn.hasRemaining() && netIn.capacity() < packetBufferSize) {
+            final ByteBuffer grown = bufferPool.acquireBuffer(packetBufferSize);
+            netIn.flip();
+            grown.put(netIn);
+            bufferPool.releaseBuffer(netIn);
+            netIn = grown;
+        }
+        bufferedCompletions = 0;
+        channel.read(netIn, this, NET_READ_HANDLER);
+    }
+
+    private void netRead(int bytesRead) {
+
+        if (bytesRead < 0) {
+            //The client has gone, e.g. in the middle of the handshake
+            finishRead(-1);
+        } else if (handshaking) {
+            handshake();
+        } else {
+            readApplication();
+        }
+    }
+
+    /**
+     * Completes the read with the bytes delivered. A read completed from the bytes already received runs the next
+     * read on the same thread : once in a while, the completion is handed over to another thread to bound the stack.
+     */
+    private void completeRead() {
+
+        if (++bufferedCompletions > MAX_BUFFERED_COMPLETIONS) {
+            bufferedCompletions = 0;
+            final int delivered = readDestination.position() - readStart;
+            context.execute(() -> finishRead(delivered));
+            return;
+        }
+        finishRead(readDestination.position() - readStart);
+    }
+
+    private void finishRead(int result) {
+
+        final CompletionHandler<Integer, Session> handler = readHandler;
+        readHandler = null;
+        readDestination = null;
+        endRead(result < 0);
+        handler.completed(result, session);
+    }
+
+    private void failRead(Throwable exc) {
+
+        if (handshaking) {
+            metrics.tlsHandshakeFailed();
+            if (logger.isDebugEnabled()) {
+                logger.debug("TLS handshake with {} failed : {}", session.getRemoteAddress(), exc.toString());
+            }
+            synchronized (this) {
+                //No flight is being sent
+                if (netWriter == HANDSHAKE_WRITER) {
+                    netWriter = NO_WRITER;
+                    netOut = bufferPool.releaseBuffer(netOut);
+                }
+            }
+        }
+        final CompletionHandler<Integer, Session> handler = readHandler;
+        readHandler = null;
+        readDestination = null;
+        endRead(true);
+        handler.failed(exc, session);
+    }
+
+    private void endRead(boolean release) {
+
+        synchronized (this) {
+            reading = false;
+            if (release || closed) {
+                releaseReadBuffers();
+            } else if (netIn != null && netIn.position() == 0) {
+                //Nothing is left to unwrap, the buffer is not kept while the connection is idle
+                netIn = bufferPool.releaseBuffer(netIn);
+            }
+        }
+    }
+
+    /**
+     * Guarded by this.
+     */
+    private void releaseReadBuffers() {
+        netIn = bufferPool.releaseBuffer(netIn);
+        appIn = bufferPool.releaseBuffer(appIn);
+    }
+
+    /**
+     * Takes the ownership of the network writes, or waits for it. At most an application write and a post-handshake
+     * message contend : the pending post-handshake messages are sent first by the next application write anyway.
+     */
+    private void startNetWrite(int writer) {
+
+        synchronized (this) {
+            if (netWriter != NO_WRITER) {
+                if (writer == APPLICATION_WRITER || waitingWriter == NO_WRITER) {
+                    waitingWriter = writer;
+                }
+                return;
+            }
+            netWriter = writer;
+        }
+        wrap(writer);
+    }
+
+    private void wrap(int writer) {
+
+        if (netOut == null) {
+            netOut = bufferPool.acquireBuffer(packetBufferSize);
+        }
+        long consumed = 0;
+        long produced = 0;
+        try {
+            do {
+                final SSLEngineResult result = writer == APPLICATION_WRITER ? engine.wrap(writeSources, writeOffset,
+                                                                                          writeLength, netOut) :
+                        engine.wrap(EMPTY, netOut);
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED && writer != CLOSE_WRITER) {
+                    throw new ClosedChannelException();
+                } else if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    break;
+                }
+                if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    //A post-handshake message, e.g. a key update : cheap enough to run in place
+                    runDelegatedTasks();
+                }
+                consumed += result.bytesConsumed();
+                produced += result.bytesProduced();
+                //The close_notify alert is the last record
+                if (result.bytesProduced() == 0 || result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    break;
+                }
+            } while (netOut.remaining() >= packetBufferSize && (writer == APPLICATION_WRITER ? hasRemaining() :
+                    engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP));
+            if (writer == APPLICATION_WRITER && produced == 0) {
+                throw new SSLException("Unable to wrap the application data");
+            }
+        } catch (IOException | RuntimeException e) {
+            failNetWrite(e);
+            return;
+        }
+        wrappedBytes = consumed;
+        netOut.flip();
+        netWritten();
+    }
+
+    private boolean hasRemaining() {
+
+        for (int i = writeOffset; i < writeOffset + writeLength; i++) {
+            if (writeSources[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the encrypted bytes left, then hands the result over to the owner of the network writes.
+     */
+    private void netWritten() {
+
+        if (netOut.hasRemaining()) {
+            channel.write(netOut, this, NET_WRITE_HANDLER);
+            return;
+        }
+        final int writer;
+        synchronized (this) {
+            writer = netWriter;
+        }
+        if (writer == HANDSHAKE_WRITER) {
+            netOut.clear();
+            handshake();
+        } else if (writer == APPLICATION_WRITER) {
+            final CompletionHandler<Long, Session> handler = writeHandler;
+            final long written = wrappedBytes;
+            //Do not retain the buffers of the session
+            writeHandler = null;
+            writeSources = null;
+            releaseNetWrite();
+            handler.completed(written, session);
+        } else if (writer == CLOSE_WRITER) {
+            closeSession();
+        } else {
+            releaseNetWrite();
+        }
+    }
+
+    private void failNetWrite(Throwable exc) {
+
+        final int writer;
+        synchronized (this) {
+            writer = netWriter;
+        }
+        if (writer == HANDSHAKE_WRITER) {
+            failRead(exc);
+        } else if (writer == CLOSE_WRITER) {
+            logger.debug("Unable to send the TLS close_notify alert : {}", exc.toString());
+            closeSession();
+        } else if (writer == APPLICATION_WRITER) {
+            final CompletionHandler<Long, Session> handler = writeHandler;
+            writeHandler = null;
+            writeSources = null;
+            releaseNetWrite();
+            handler.failed(exc, session);
+        } else {
+            //The pending read fails too
+            logger.debug("Unable to send a TLS post-handshake message : {}", exc.toString());
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.error("Error when closing the client socket : ", e);
+            }
+            releaseNetWrite();
+        }
+    }
+
+    /**
+     * Closes the session once the close_notify alert has been sent : nothing is written after it. An application write
+     * waiting behind the alert fails, so that the session discards the writes left in its queue.
+     */
+    private void closeSession() {
+
+        final boolean applicationWaiting;
+        synchronized (this) {
+            applicationWaiting = waitingWriter == APPLICATION_WRITER;
+            netWriter = NO_WRITER;
+            waitingWriter = NO_WRITER;
+            netOut = bufferPool.releaseBuffer(netOut);
+        }
+        session.close();
+        if (applicationWaiting) {
+            final CompletionHandler<Long, Session> handler = writeHandler;
+            writeHandler = null;
+            writeSources = null;
+            handler.failed(new ClosedChannelException(), session);
+        }
+    }
+
+    /**
+     * Hands the network writes over to the waiting writer, if any.
+     */
+    private void releaseNetWrite() {
+
+        final int next;
+        synchronized (this) {
+            next = waitingWriter;
+            waitingWriter = NO_WRITER;
+            netWriter = next;
+            if (next == NO_WRITER) {
+                netOut = bufferPool.releaseBuffer(netOut);
+            }
+        }
+        if (next != NO_WRITER) {
+            netOut.clear();
+            wrap(next);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TlsTransport{" + "handshaking=" + handshaking + ", session=" + engine.getSession() + '}';
+    }
+
+
+}
@@ -0,0 +1,54 @@
+package fr.meuret.webtesttech.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A source of buffers written one after the other by a {@link Session}.
+ * <p>
+ * A write source lets a session stream a content of any size with a bounded amount of memory : the next buffer is only
+ * asked for once the previous one has been completely written, so that a source may reuse the same buffer.
+ *
+ * @author Jerome
+ * @see Session#write(WriteSource)
+ */
+public interface WriteSource {
+
+
+    /**
+     * The maximum number of buffers returned at once by {@link #next(ByteBuffer[])}.
+     */
+    public static final int MAX_BUFFERS = 2;
+
+    /**
+     * Gets the next buffer to write.
+     *
+     * @return the next buffer, or <code>null</code> when the source is exhausted.
+     * @throws IOException if the content cannot be read.
+     */
+    public ByteBuffer next() throws IOException;
+
+    /**
+     * Gets the next buffers to write, which the session sends with a single gathering write : a source framing the
+     * buffers of another one, e.g. a chunk header and its data, does not need to copy them. Like {@link #next()}, only
+     * called once the buffers returned before have been completely written.
+     *
+     * @param buffers the array receiving the buffers, of {@link #MAX_BUFFERS} elements.
+     * @return the number of buffers put into the array, or 0 when the source is exhausted.
+     * @throws IOException if the content cannot be read.
+     */
+    public default int next(ByteBuffer[] buffers) throws IOException {
+        final ByteBuffer buffer = next();
+        if (buffer == null) {
+            return 0;
+        }
+        buffers[0] = buffer;
+        return 1;
+    }
+
+    /**
+     * Releases the resources held by this source. Gets called exactly once, either when the source is exhausted and
+     * everything queued before it has been sent, or when the session is closed.
+     */
+    public void close();
+}
@@ -14,8 +14,22 @@ public interface Handler {
 
     /**
      * Gets called when a message is received.
+     * <p>
+     * The handler consumes the bytes of the session read buffer it has processed. The remaining bytes are kept and
+     * handed over again, followed by the newly read bytes, the next time this method gets called. Every request is
+     * admitted by {@link Session#admitRequest()} before being handled, so that the concurrency limit of the server
+     * applies to the requests.
      *
      * @param session the session object that handles the communication between the server and the client.
      */
     public void onMessage(Session session);
+
+    /**
+     * Gets called instead of {@link #onMessage(Session)} when the server is overloaded : the received bytes are dropped
+     * and the connection is closed once the writes queued by this method, if any, are sent. Does nothing by default.
+     *
+     * @param session the session object that handles the communication between the server and the client.
+     */
+    public default void onRejected(Session session) {
+    }
 }
@@ -1,25 +1,51 @@
 package fr.meuret.webtesttech.nio.handlers;
 
+import fr.meuret.webtesttech.cache.FileMetadataCache;
+import fr.meuret.webtesttech.cache.ListingCache;
+import fr.meuret.webtesttech.cache.MappedFileCache;
+import fr.meuret.webtesttech.cache.ResponseCache;
+import fr.meuret.webtesttech.cache.ValidatorCache;
+import fr.meuret.webtesttech.http.ByteRange;
+import fr.meuret.webtesttech.http.ContentCoding;
 import fr.meuret.webtesttech.http.HttpException;
+import fr.meuret.webtesttech.http.HttpVersion;
+import fr.meuret.webtesttech.http.MimeTypes;
 import fr.meuret.webtesttech.http.request.HttpRequest;
+import fr.meuret.webtesttech.http.request.HttpRequestHeader;
+import fr.meuret.webtesttech.http.request.HttpRequestParser;
 import fr.meuret.webtesttech.http.response.HttpResponse;
 import fr.meuret.webtesttech.http.response.HttpResponseHeader;
 import fr.meuret.webtesttech.http.response.StatusCode;
+import fr.meuret.webtesttech.log.AccessLog;
+import fr.meuret.webtesttech.metrics.Route;
+import fr.meuret.webtesttech.metrics.ServerMetrics;
+import fr.meuret.webtesttech.nio.ChunkedWriteSource;
+import fr.meuret.webtesttech.nio.FileWriteSource;
 import fr.meuret.webtesttech.nio.Session;
-import fr.meuret.webtesttech.util.HttpUtils;
+import fr.meuret.webtesttech.nio.WriteSource;
+import fr.meuret.webtesttech.util.PooledByteBufferPool;
 import fr.meuret.webtesttech.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.activation.MimetypesFileTypeMap;
 import java.io.IOException;
-import java.nio.MappedByteBuffer;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.file.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.SecureRandom;
+import java.util.List;
 
 
 /**
  * A HTTP protocol handler that parses request and build responses.
+ * <p>
+ * A handler is bound to a single connection. It supports HTTP/1.1 pipelining : every complete request found in the
+ * read buffer is handled in order, and an incomplete request is left in the buffer until the next read completes it.
  *
  * @author Jerome
  * @see fr.meuret.webtesttech.nio.handlers.Handler
@@ -28,29 +54,185 @@ public class HttpProtocolHandler implements Handler {
 
 
     private static final Logger logger = LoggerFactory.getLogger(HttpProtocolHandler.class);
+    /**
+     * The request path of the metrics endpoint.
+     */
+    public static final String METRICS_PATH = "/__metrics";
+    //Number of entries of each chunk of a streamed listing
+    private static final int STREAMED_LISTING_ENTRIES = 256;
+    //Separates the parts of the multipart/byteranges responses, must not appear in the files
+    private static final String MULTIPART_BOUNDARY = "3d6b6a416f9b5" + Long.toHexString(new SecureRandom().nextLong());
+    private static final byte[] MULTIPART_END = (StringUtils.CRLF + "--" + MULTIPART_BOUNDARY + "--"
+            + StringUtils.CRLF).getBytes(StandardCharsets.ISO_8859_1);
+    //Smaller files would barely shrink, if at all
+    private static final int MIN_ENCODED_FILE_SIZE = 256;
+    //The overload is expected to be over by then
+    private static final String RETRY_AFTER_SECONDS = "1";
+    //The read buffer of a TLS connection is larger, to hold a whole record : the limit stays the same
+    private static final int MAX_HEADER_SECTION_SIZE = PooledByteBufferPool.DEFAULT_BUFFER_SIZE;
     private final Path rootPath;
-
-
-    public HttpProtocolHandler(Path rootPath) {
+    private final FileMetadataCache metadataCache;
+    private final MappedFileCache mappedFileCache;
+    private final ResponseCache responseCache;
+    private final ResponseCache compressedCache;
+    private final ValidatorCache validatorCache;
+    private final ListingCache listingCache;
+    private final ServerMetrics metrics;
+    private final AccessLog accessLog;
+    private final HttpRequestParser requestParser = new HttpRequestParser();
+    //The response to the request being handled, for the access log
+    private StatusCode responseStatus;
+    private long responseBodyLength;
+    //Bytes of the body of the last request that have not been read yet
+    private long bodyToSkip;
+
+
+    /**
+     * @param rootPath        the static files root path.
+     * @param metadataCache   the cache of the resolved request paths, shared by all the connections.
+     * @param mappedFileCache the cache of mapped files, shared by all the connections.
+     * @param responseCache   the cache of pre-rendered responses, shared by all the connections.
+     * @param compressedCache the cache of the responses compressed on the fly, shared by all the connections. Its
+     *                        maximum body size is the maximum size of the files compressed on the fly.
+     * @param validatorCache  the cache of the validators of the files, shared by all the connections.
+     * @param listingCache    the cache of directory listings, shared by all the connections.
+     * @param metrics         the metrics of the server, shared by all the connections.
+     * @param accessLog       the access log, shared by all the connections.
+     */
+    public HttpProtocolHandler(Path rootPath, FileMetadataCache metadataCache, MappedFileCache mappedFileCache,
+                               ResponseCache responseCache, ResponseCache compressedCache,
+                               ValidatorCache validatorCache, ListingCache listingCache, ServerMetrics metrics,
+                               AccessLog accessLog) {
         this.rootPath = rootPath;
+        this.metadataCache = metadataCache;
+        this.mappedFileCache = mappedFileCache;
+        this.responseCache = responseCache;
+        this.compressedCache = compressedCache;
+        this.validatorCache = validatorCache;
+        this.listingCache = listingCache;
+        this.metrics = metrics;
+        this.accessLog = accessLog;
     }
 
 
     @Override
     public void onMessage(Session session) {
 
+        final ByteBuffer readBuffer = session.getReadBuffer();
         try {
-            HttpRequest request = HttpRequest.from(session.getReadBuffer()); buildResponse(request, session);
+            //Pipelined requests are handled in order, their responses are queued in the same order, until the client
+            //has too many responses left to read : the next requests are handled once it has caught up
+            while (readBuffer.hasRemaining() && session.isKeepAlive() && !session.checkWriteBackpressure()) {
+                if (bodyToSkip > 0) {
+                    final int skipped = (int) Math.min(bodyToSkip, readBuffer.remaining());
+                    readBuffer.position(readBuffer.position() + skipped);
+                    bodyToSkip -= skipped;
+                    continue;
+                }
+                final HttpRequest request = requestParser.parse(readBuffer);
+                if (request == null) {
+                    //Incomplete request, wait for the next read unless it can't fit in the buffer
+                    if (readBuffer.remaining() == readBuffer.capacity()
+                            || readBuffer.remaining() >= MAX_HEADER_SECTION_SIZE) {
+                        throw new HttpException(StatusCode.REQUEST_HEADER_FIELDS_TOO_LARGE);
+                    }
+                    return;
+                }
+                bodyToSkip = getContentLength(request);
+                if (session.admitRequest()) {
+                    try {
+                        buildResponse(request, session);
+                    } finally {
+                        session.requestHandled();
+                    }
+                } else {
+                    rejectRequest(request, session);
+                }
+            }
+            if (!session.isKeepAlive()) {
+                //Nothing will be read anymore on this connection
+                readBuffer.position(readBuffer.limit());
+            }
         } catch (HttpException e) {
+            final long start = System.nanoTime();
+            metrics.parseFailure();
+            requestParser.reset();
+            readBuffer.position(readBuffer.limit());
             sendError(e.getStatusCode(), session);
+            logUnparsedRequest(session, start);
         }
 
 
     }
 
+    /**
+     * Answers a rejected request with a <i>503</i> response, without even parsing it : it must be as cheap as possible.
+     */
+    @Override
+    public void onRejected(Session session) {
+
+        final long start = System.nanoTime();
+        requestParser.reset();
+        sendServiceUnavailable(session);
+        logUnparsedRequest(session, start);
+    }
+
+    /**
+     * Answers a pipelined request that is not admitted with a <i>503</i> response, after the responses already queued,
+     * and closes the connection : the next requests are dropped.
+     */
+    private void rejectRequest(HttpRequest request, Session session) {
+
+        final long start = System.nanoTime();
+        session.setKeepAlive(false);
+        sendServiceUnavailable(session);
+        accessLog.log(session.getRemoteAddress(), request.getMethod(), request.getRequestPath(), request.getVersion(),
+                      responseStatus, responseBodyLength, start);
+        responseStatus = null;
+    }
+
+    private void sendServiceUnavailable(Session session) {
+
+        final HttpResponse response = HttpResponse.error(StatusCode.SERVICE_UNAVAILABLE);
+        response.setHeader(HttpResponseHeader.RETRY_AFTER, RETRY_AFTER_SECONDS);
+        try {
+            session.write(response.toByteBuffer());
+            responded(StatusCode.SERVICE_UNAVAILABLE, response.content().length());
+        } catch (Exception e) {
+            logger.error("Error when rejecting a request : ", e);
+        }
+    }
+
+    /**
+     * The bodies of the requests are not used, but must be skipped to find the next pipelined request.
+     */
+    private static long getContentLength(HttpRequest request) throws HttpException {
+
+        if (request.getHeader(HttpRequestHeader.TRANSFER_ENCODING) != null) {
+            //Chunked request bodies are not supported
+            throw new HttpException(StatusCode.LENGTH_REQUIRED);
+        }
+        final String contentLength = request.getHeader(HttpRequestHeader.CONTENT_LENGTH);
+        if (contentLength == null) {
+            return 0;
+        }
+        try {
+            final long length = Long.parseLong(contentLength);
+            if (length < 0) {
+                throw new HttpException(StatusCode.BAD_REQUEST);
+            }
+            return length;
+        } catch (NumberFormatException e) {
+            throw new HttpException(StatusCode.BAD_REQUEST);
+        }
+    }
+
 
     private void sendError(StatusCode statusCode, Session session) {
 
+        //Error responses close the connection
+        session.setKeepAlive(false);
+        responded(statusCode, statusCode.getReasonPhrase().length());
         try {
 
             session.write(HttpResponse.error(statusCode).toByteBuffer());
@@ -61,15 +243,43 @@ public class HttpProtocolHandler implements Handler {
 
     }
 
+    /**
+     * Records the response to the request being handled.
+     *
+     * @param bodyLength the length of the response body, <i>-1</i> if unknown.
+     */
+    private void responded(StatusCode statusCode, long bodyLength) {
+        metrics.response(statusCode);
+        responseStatus = statusCode;
+        responseBodyLength = bodyLength;
+    }
+
+    private void logUnparsedRequest(Session session, long start) {
+        if (responseStatus != null) {
+            accessLog.log(session.getRemoteAddress(), null, null, null, responseStatus, responseBodyLength, start);
+            responseStatus = null;
+        }
+    }
+
     private void buildResponse(HttpRequest request, Session session) {
 
+        final long start = System.nanoTime();
+        responseStatus = null;
+        metrics.request(request.getMethod());
         final HttpResponse response = new HttpResponse(request.getVersion());
         session.setKeepAlive(request.isKeepAlive()); if (request.isKeepAlive()) {
             response.setHeader(HttpResponseHeader.CONNECTION, "keep-alive");
+        } else {
+            response.setHeader(HttpResponseHeader.CONNECTION, "close");
         } switch (request.getMethod()) {
 
             case GET: doGet(request, response, session); break; default: sendError(StatusCode.NOT_IMPLEMENTED, session);
         }
+        if (responseStatus != null) {
+            accessLog.log(session.getRemoteAddress(), request.getMethod(), request.getRequestPath(),
+                          request.getVersion(), responseStatus, responseBodyLength, start);
+            responseStatus = null;
+        }
 
 
     }
@@ -77,33 +287,42 @@ public class HttpProtocolHandler implements Handler {
 
     private void doGet(HttpRequest request, HttpResponse response, Session session) {
 
+        final long start = System.nanoTime();
         String requestPath = request.getRequestPath();
-        String sanitizedRequestPath = HttpUtils.sanitizeRequestPath(request.getRequestPath());
+        if (METRICS_PATH.equals(requestPath)) {
+            sendMetrics(session, response);
+            return;
+        }
 
 
         try {
-            Path resolvedRequestPath = rootPath.resolve(sanitizedRequestPath);
-            if (Files.notExists(resolvedRequestPath) || Files.isHidden(resolvedRequestPath)) {
-                sendNotFound(session, response); return;
+            //A hot request path is resolved without any syscall
+            final FileMetadataCache.FileMetadata metadata = metadataCache.get(requestPath);
+            if (metadata.getType() == FileMetadataCache.FileType.NOT_FOUND) {
+                sendNotFound(session, response);
+                metrics.latency(Route.NOT_FOUND, start);
+                return;
             }
-            //At this time, we know that real request path exists
-            final Path realRequestPath = resolvedRequestPath.toRealPath();
+            final Path realRequestPath = metadata.getRealPath();
 
-            if (Files.isDirectory(realRequestPath)) {
+            if (metadata.getType() == FileMetadataCache.FileType.DIRECTORY) {
 
                 //By redirecting to the directory path suffixed by "/"
                 //we let the browser handle the path browsing and the parent->child relation
                 if (requestPath.endsWith("/")) {
-                    sendListing(session, response, realRequestPath); return;
+                    sendListing(request, session, response, realRequestPath);
+                    metrics.latency(Route.LISTING, start);
+                    return;
                 } else {
-                    sendRedirect(session, response, requestPath + "/"); return;
+                    sendRedirect(session, response, requestPath);
+                    metrics.latency(Route.REDIRECT, start);
+                    return;
                 }
 
             }
 
-            if (Files.isRegularFile(realRequestPath)) {
-                sendFile(session, response, realRequestPath);
-            }
+            sendFile(request, session, response, metadata);
+            metrics.latency(Route.FILE, start);
         } catch (Exception e) {
             sendError(StatusCode.INTERNAL_SERVER_ERROR, session);
         }
@@ -111,8 +330,27 @@ public class HttpProtocolHandler implements Handler {
 
     }
 
+    private void sendMetrics(Session session, HttpResponse response) {
+
+        response.setStatusCode(StatusCode.OK);
+        response.setHeader(HttpResponseHeader.CONTENT_TYPE, "text/plain; charset=ISO-8859-1");
+        response.content().append(metrics.render());
+        try {
+            session.write(response.toByteBuffer());
+            responded(StatusCode.OK, response.content().length());
+        } catch (Exception e) {
+            sendError(StatusCode.INTERNAL_SERVER_ERROR, session);
+        }
+    }
+
     private void sendNotFound(Session session, HttpResponse response) throws Exception {
 
+        //The not found page does not depend on the request
+        ResponseCache.CachedResponse cachedResponse = responseCache.get(StatusCode.NOT_FOUND);
+        if (cachedResponse != null) {
+            writeCachedResponse(session, response, cachedResponse);
+            return;
+        }
 
         response.setStatusCode(StatusCode.NOT_FOUND);
 
@@ -125,52 +363,307 @@ public class HttpProtocolHandler implements Handler {
                 .append("</body></html>");
 
         response.setHeader(HttpResponseHeader.CONTENT_LENGTH, Integer.toString(response.content().length()));
-        session.write(response.toByteBuffer());
+        cachedResponse = responseCache.put(StatusCode.NOT_FOUND, response,
+                                           response.content().toString().getBytes(StandardCharsets.ISO_8859_1));
+        writeCachedResponse(session, response, cachedResponse);
 
     }
 
-    private void sendRedirect(Session session, HttpResponse response, String requestPath) throws Exception {
+    private void sendRedirect(Session session, HttpResponse response, String directoryPath) throws Exception {
 
-        response.setStatusCode(StatusCode.FOUND); response.setHeader(HttpResponseHeader.LOCATION, requestPath);
-        //Firefox doesn't handle redirection if no content-length header (#see https://bugzilla.mozilla.org/show_bug.cgi?id=347149)
-        response.setHeader(HttpResponseHeader.CONTENT_LENGTH, Integer.toString(0));
-        response.content().append("").append(""); session.write(response.toByteBuffer());
+        //Redirections are keyed by the request path of the directory
+        ResponseCache.CachedResponse cachedResponse = responseCache.get(directoryPath);
+        if (cachedResponse == null) {
+            response.setStatusCode(StatusCode.FOUND);
+            response.setHeader(HttpResponseHeader.LOCATION, directoryPath + "/");
+            //Firefox doesn't handle redirection if no content-length header (#see https://bugzilla.mozilla.org/show_bug.cgi?id=347149)
+            response.setHeader(HttpResponseHeader.CONTENT_LENGTH, Integer.toString(0));
+            cachedResponse = responseCache.put(directoryPath, response, new byte[0]);
+        }
+        writeCachedResponse(session, response, cachedResponse);
 
 
     }
 
-    private void sendFile(Session session, HttpResponse response, Path file) throws Exception {
+    private void writeCachedResponse(Session session, HttpResponse response,
+                                     ResponseCache.CachedResponse cachedResponse) {
 
-        response.setStatusCode(StatusCode.OK);
+        responded(cachedResponse.getStatusCode(), cachedResponse.getBody().remaining());
+        //Headers and body are sent with a single gathering write
+        session.write(cachedResponse.renderHeaders(response.getHttpVersion(), session.isKeepAlive()),
+                      cachedResponse.getBody());
+    }
+
+    private void sendFile(HttpRequest request, Session session, HttpResponse response,
+                          FileMetadataCache.FileMetadata metadata) throws Exception {
+
+        final Path file = metadata.getRealPath();
+        final BasicFileAttributes attributes = metadata.getAttributes();
+        final MimeTypes.MimeType mimeType = metadata.getMimeType();
+        final String contentType = mimeType.getContentType();
+
+        final ValidatorCache.Validators validators = validatorCache.get(file, attributes);
+        response.setHeader(HttpResponseHeader.LAST_MODIFIED, validators.getLastModified());
+        response.setHeader(HttpResponseHeader.ACCEPT_RANGES, "bytes");
+        if (mimeType.getCacheControl() != null) {
+            response.setHeader(HttpResponseHeader.CACHE_CONTROL, mimeType.getCacheControl());
+        }
+        final boolean compressible = mimeType.isCompressible();
+        if (compressible) {
+            //The caches between the server and the client must not mix up the encoded and the identity responses
+            response.setHeader(HttpResponseHeader.VARY, "Accept-Encoding");
+        }
 
-        String contentType = MimetypesFileTypeMap.getDefaultFileTypeMap().getContentType(file.toFile());
-        if (contentType == null) {
-            contentType = "application/octet-stream";
+        //Ranges are served from the identity, and only if the client holds the current version of the file
+        final String range = request.getHeader(HttpRequestHeader.RANGE);
+        final List<ByteRange> ranges = range != null && validators.isRangeValid(request.getHeader(
+                HttpRequestHeader.IF_RANGE)) ? ByteRange.parse(range, attributes.size()) : null;
+        //The representation is selected before the preconditions are evaluated : they apply to the variant sent
+        final ContentCoding coding = compressible && ranges == null ? selectCoding(request, attributes) : null;
+
+        if (validators.isNotModified(coding, request.getHeader(HttpRequestHeader.IF_NONE_MATCH), request.getHeader(
+                HttpRequestHeader.IF_MODIFIED_SINCE))) {
+            sendNotModified(session, response, validators.getEntityTag(coding));
+            return;
         }
 
-        response.setHeader(HttpResponseHeader.CONTENT_TYPE, contentType);
+        if (ranges != null) {
+            response.setHeader(HttpResponseHeader.ETAG, validators.getEntityTag(null));
+            sendRanges(session, response, file, attributes, contentType, ranges);
+            return;
+        }
+
+        if (coding != null) {
+            sendEncodedFile(request, session, response, file, attributes, contentType, coding, validators);
+            return;
+        }
+        response.setHeader(HttpResponseHeader.ETAG, validators.getEntityTag(null));
+        sendContent(session, response, file, file, attributes, contentType);
 
 
-        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+    }
 
+    /**
+     * Sends a <i>304 Not Modified</i> response, which has no body : it only carries the validators and the headers that
+     * would have been sent with a <i>200 OK</i> response.
+     */
+    private void sendNotModified(Session session, HttpResponse response, String entityTag) throws Exception {
 
-            long size = Math.min(Integer.MAX_VALUE, fileChannel.size());
-            MappedByteBuffer mappedFile = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
-            response.setHeader(HttpResponseHeader.CONTENT_LENGTH, String.valueOf(fileChannel.size()));
-            //Write status and headers
+        response.setStatusCode(StatusCode.NOT_MODIFIED);
+        response.setHeader(HttpResponseHeader.ETAG, entityTag);
+        session.write(response.toByteBuffer());
+        responded(StatusCode.NOT_MODIFIED, 0);
+    }
+
+    /**
+     * Sends the requested ranges of a file : a single part, or a <i>multipart/byteranges</i> body. Only the requested
+     * slices are read, from the mapped file when it is cached or with positional reads.
+     *
+     * @param ranges the satisfiable ranges, sorted and coalesced. None if the request is not satisfiable.
+     */
+    private void sendRanges(Session session, HttpResponse response, Path file, BasicFileAttributes attributes,
+                            String contentType, List<ByteRange> ranges) throws Exception {
+
+        final long size = attributes.size();
+        if (ranges.isEmpty()) {
+            response.setStatusCode(StatusCode.RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpResponseHeader.CONTENT_RANGE, "bytes */" + size);
+            response.setHeader(HttpResponseHeader.CONTENT_LENGTH, "0");
+            session.write(response.toByteBuffer());
+            responded(StatusCode.RANGE_NOT_SATISFIABLE, 0);
+            return;
+        }
+
+        response.setStatusCode(StatusCode.PARTIAL_CONTENT);
+        final ByteBuffer mappedFile = mappedFileCache.get(file, attributes);
+        final FileChannel fileChannel = mappedFile == null ? FileChannel.open(file, StandardOpenOption.READ) : null;
+        try {
+            if (ranges.size() == 1) {
+                final ByteRange byteRange = ranges.get(0);
+                response.setHeader(HttpResponseHeader.CONTENT_TYPE, contentType);
+                response.setHeader(HttpResponseHeader.CONTENT_RANGE, byteRange.toContentRange(size));
+                response.setHeader(HttpResponseHeader.CONTENT_LENGTH, String.valueOf(byteRange.getLength()));
+                session.write(response.toByteBuffer());
+                responded(StatusCode.PARTIAL_CONTENT, byteRange.getLength());
+                writeRange(session, mappedFile, fileChannel, byteRange, true);
+                return;
+            }
+
+            //Every part is preceded by its own header section, the body length is known beforehand
+            final ByteBuffer[] partHeaders = new ByteBuffer[ranges.size()];
+            long contentLength = MULTIPART_END.length;
+            for (int i = 0; i < partHeaders.length; i++) {
+                final ByteRange byteRange = ranges.get(i);
+                final String partHeader = StringUtils.CRLF + "--" + MULTIPART_BOUNDARY + StringUtils.CRLF
+                        + HttpResponseHeader.CONTENT_TYPE.getHeaderName() + ": " + contentType + StringUtils.CRLF
+                        + HttpResponseHeader.CONTENT_RANGE.getHeaderName() + ": " + byteRange.toContentRange(size)
+                        + StringUtils.CRLF + StringUtils.CRLF;
+                partHeaders[i] = ByteBuffer.wrap(partHeader.getBytes(StandardCharsets.ISO_8859_1));
+                contentLength += partHeaders[i].remaining() + byteRange.getLength();
+            }
+            response.setHeader(HttpResponseHeader.CONTENT_TYPE, "multipart/byteranges; boundary=" + MULTIPART_BOUNDARY);
+            response.setHeader(HttpResponseHeader.CONTENT_LENGTH, String.valueOf(contentLength));
             session.write(response.toByteBuffer());
-            //Write file
-            session.write(mappedFile);
+            responded(StatusCode.PARTIAL_CONTENT, contentLength);
+            for (int i = 0; i < partHeaders.length; i++) {
+                session.write(partHeaders[i]);
+                //The file channel is shared by the parts, and closed by the last one
+                writeRange(session, mappedFile, fileChannel, ranges.get(i), i == partHeaders.length - 1);
+            }
+            session.write(ByteBuffer.wrap(MULTIPART_END));
+        } catch (Exception e) {
+            if (fileChannel != null) {
+                fileChannel.close();
+            }
+            throw e;
+        }
+    }
+
+    private static void writeRange(Session session, ByteBuffer mappedFile, FileChannel fileChannel, ByteRange byteRange,
+                                   boolean closeChannel) {
+
+        if (mappedFile != null) {
+            final ByteBuffer slice = mappedFile.duplicate();
+            slice.limit((int) byteRange.getLast() + 1);
+            slice.position((int) byteRange.getFirst());
+            session.write(slice);
+        } else {
+            session.write(new FileWriteSource(fileChannel, byteRange.getFirst(), byteRange.getLength(),
+                                              session.getBufferPool(), closeChannel));
+        }
+    }
 
+    /**
+     * Selects the content coding of a compressible file : the coding negotiated with the client, if the file has an up
+     * to date precompressed sibling or can be compressed on the fly.
+     *
+     * @return the content coding, <code>null</code> to send the identity.
+     */
+    private ContentCoding selectCoding(HttpRequest request, BasicFileAttributes attributes) throws IOException {
+
+        final ContentCoding coding = ContentCoding.negotiate(request.getHeader(HttpRequestHeader.ACCEPT_ENCODING));
+        if (coding == null || getPrecompressed(request, coding, attributes) != null) {
+            return coding;
+        }
+        //The maximum body size of the compressed cache bounds the size of the files compressed on the fly
+        if (attributes.size() < MIN_ENCODED_FILE_SIZE || attributes.size() > compressedCache.getMaxBodySize()) {
+            return null;
         }
+        return coding;
+    }
 
+    /**
+     * @return the precompressed sibling of the requested file (e.g. <i>app.js.gz</i>), <code>null</code> if there is
+     * none or if it is older than the file.
+     */
+    private FileMetadataCache.FileMetadata getPrecompressed(HttpRequest request, ContentCoding coding,
+                                                            BasicFileAttributes attributes) throws IOException {
 
+        if (coding != ContentCoding.GZIP) {
+            return null;
+        }
+        //The missing siblings are cached as well
+        final FileMetadataCache.FileMetadata precompressed = metadataCache.get(request.getRequestPath() + ".gz");
+        if (precompressed.getType() != FileMetadataCache.FileType.FILE
+                || precompressed.getAttributes().lastModifiedTime().compareTo(attributes.lastModifiedTime()) < 0) {
+            return null;
+        }
+        return precompressed;
+    }
+
+    /**
+     * Sends the encoded variant of a file, selected by {@link #selectCoding} : its precompressed sibling when there is
+     * an up to date one, or its content compressed on the fly.
+     */
+    private void sendEncodedFile(HttpRequest request, Session session, HttpResponse response, Path file,
+                                 BasicFileAttributes attributes, String contentType, ContentCoding coding,
+                                 ValidatorCache.Validators validators) throws Exception {
+
+        final ResponseCache.VariantKey variantKey = new ResponseCache.VariantKey(file, coding);
+        //Every representation has its own strong entity tag
+        response.setHeader(HttpResponseHeader.ETAG, validators.getEntityTag(coding));
+        final FileMetadataCache.FileMetadata precompressed = getPrecompressed(request, coding, attributes);
+        if (precompressed != null) {
+            response.setHeader(HttpResponseHeader.CONTENT_ENCODING, coding.getToken());
+            sendContent(session, response, variantKey, precompressed.getRealPath(), precompressed.getAttributes(),
+                        contentType);
+            return;
+        }
+
+        ResponseCache.CachedResponse cachedResponse = compressedCache.get(variantKey, attributes);
+        if (cachedResponse == null) {
+            final byte[] encoded;
+            try (InputStream in = Files.newInputStream(file)) {
+                encoded = coding.encode(in, attributes.size());
+            }
+            response.setStatusCode(StatusCode.OK);
+            response.setHeader(HttpResponseHeader.CONTENT_TYPE, contentType);
+            response.setHeader(HttpResponseHeader.CONTENT_ENCODING, coding.getToken());
+            response.setHeader(HttpResponseHeader.CONTENT_LENGTH, String.valueOf(encoded.length));
+            cachedResponse = compressedCache.put(variantKey, attributes, response, ByteBuffer.wrap(encoded));
+        }
+        writeCachedResponse(session, response, cachedResponse);
     }
 
+    /**
+     * Sends the content of a file, from the cache of pre-rendered responses, the cache of mapped files, or streamed.
+     *
+     * @param cacheKey    the key of the response in the cache of pre-rendered responses.
+     * @param contentFile the file holding the content.
+     * @param attributes  the attributes of the content file.
+     */
+    private void sendContent(Session session, HttpResponse response, Object cacheKey, Path contentFile,
+                             BasicFileAttributes attributes, String contentType) throws Exception {
+
+        //Small files are served as pre-rendered responses
+        ResponseCache.CachedResponse cachedResponse = responseCache.get(cacheKey, attributes);
+        if (cachedResponse != null) {
+            writeCachedResponse(session, response, cachedResponse);
+            return;
+        }
 
-    private void sendListing(Session session, HttpResponse response, Path realRequestPath) throws IOException {
         response.setStatusCode(StatusCode.OK);
-        response.setHeader(HttpResponseHeader.CONTENT_TYPE, "text/html; charset=UTF-8");
+        response.setHeader(HttpResponseHeader.CONTENT_TYPE, contentType);
+
+        if (attributes.size() <= responseCache.getMaxBodySize()) {
+            final ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(contentFile));
+            response.setHeader(HttpResponseHeader.CONTENT_LENGTH, String.valueOf(content.remaining()));
+            cachedResponse = responseCache.put(cacheKey, attributes, response, content);
+            writeCachedResponse(session, response, cachedResponse);
+            return;
+        }
+
+        //Hot files are served straight from the cache of mapped files
+        final ByteBuffer cachedFile = mappedFileCache.get(contentFile, attributes);
+        if (cachedFile != null) {
+            response.setHeader(HttpResponseHeader.CONTENT_LENGTH, String.valueOf(cachedFile.remaining()));
+            responded(StatusCode.OK, cachedFile.remaining());
+            session.write(response.toByteBuffer(), cachedFile);
+            return;
+        }
+
+        //Big files are streamed window after window, whatever their size
+        final FileChannel fileChannel = FileChannel.open(contentFile, StandardOpenOption.READ);
+        final long size;
+        try {
+            size = fileChannel.size();
+            response.setHeader(HttpResponseHeader.CONTENT_LENGTH, String.valueOf(size));
+            //Write status and headers
+            session.write(response.toByteBuffer());
+            responded(StatusCode.OK, size);
+        } catch (Exception e) {
+            fileChannel.close();
+            throw e;
+        }
+        //Write file, the channel is now owned by the session
+        session.write(new FileWriteSource(fileChannel, 0, size, session.getBufferPool()));
+
+
+    }
+
+
+    private void sendListing(HttpRequest request, Session session, HttpResponse response, Path realRequestPath)
+            throws Exception {
 
         //In case of disk mirroring, or just links, we need to know the real rootPath
         final Path relativeFilePath = rootPath.relativize(realRequestPath);
@@ -183,54 +676,82 @@ public class HttpProtocolHandler implements Handler {
             filename = relativeFilePath.getFileName().toString();
         }
 
+        if (!listingCache.isEnabled() && request.getVersion() == HttpVersion.HTTP_1_1) {
+            streamListing(session, response, realRequestPath, filename);
+            return;
+        }
+        final ListingCache.Listing listing = listingCache.get(realRequestPath, filename);
+        final int page = parsePage(request.getParameter("page"));
+        if (page > listing.getPageCount()) {
+            sendNotFound(session, response);
+            return;
+        }
+        final byte[] content = listing.getPage(page);
 
-        response.content()
-                .append("<!DOCTYPE html>")
-                .append(StringUtils.CRLF)
-                .append("<html><head><title>")
-                .append("Listing of: ");
-
-
-        response.content().append(filename);
-        response.content().append("</title></head><body>").append(StringUtils.CRLF);
+        response.setStatusCode(StatusCode.OK);
+        response.setHeader(HttpResponseHeader.CONTENT_TYPE, "text/html; charset=UTF-8");
+        response.setHeader(HttpResponseHeader.CONTENT_LENGTH, String.valueOf(content.length));
+        //The rendered page is shared : it is written as is, without being copied
+        session.write(response.toByteBuffer(), ByteBuffer.wrap(content));
+        responded(StatusCode.OK, content.length);
 
-        response.content().append("<h3>Listing of: "); response.content().append(filename);
-        response.content().append("</h3>").append(StringUtils.CRLF);
 
-        response.content().append("<ul>");
-        response.content().append("<li><a href=\"../\">..</a></li>").append(StringUtils.CRLF);
+    }
 
-        logger.info("Browsing the path : {}", realRequestPath);
+    /**
+     * Streams a listing that is not cached with the chunked transfer coding, so that the first entries are sent while
+     * the directory is still being read. The next entries are only read once the previous chunk has been sent.
+     */
+    private void streamListing(Session session, HttpResponse response, Path realRequestPath, String title)
+            throws Exception {
 
+        //Opened first, so that an unreadable directory still gets an error response
+        final ListingCache.StreamedListing listing = ListingCache.stream(realRequestPath, title,
+                                                                         STREAMED_LISTING_ENTRIES);
+        response.setStatusCode(StatusCode.OK);
+        response.setHeader(HttpResponseHeader.CONTENT_TYPE, "text/html; charset=UTF-8");
+        response.setHeader(HttpResponseHeader.TRANSFER_ENCODING, "chunked");
+        session.write(response.toByteBuffer());
+        responded(StatusCode.OK, -1);
+        //A read error closes the connection, so that the truncated listing does not look complete
+        session.write(new ChunkedWriteSource(new ListingWriteSource(listing), session.getBufferPool()));
+    }
 
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(realRequestPath, entry -> !Files.isHidden(
-                entry) && Files.isReadable(
-                entry) && HttpUtils.isAllowedFilename(
-                entry.getFileName().toString()))) {
-            for (Path entry : stream) {
-                logger.debug("Appending the path entry {} to the listing.", entry);
-                response.content().append("<li><a href=\""); response.content().append(entry.getFileName().toString());
-                response.content().append("\">"); response.content().append(entry.getFileName());
-                response.content().append("</a></li>").append(StringUtils.CRLF);
-            }
-        } catch (IOException | DirectoryIteratorException e) {
-            logger.error("Error occuring when browsing " + realRequestPath, e);
+    /**
+     * @return the requested listing page, the first one when the parameter is missing or invalid.
+     */
+    private static int parsePage(String parameter) {
 
+        if (parameter == null) {
+            return 1;
         }
+        try {
+            return Math.max(1, Integer.parseInt(parameter));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
 
+    /**
+     * The parts of a streamed listing, as a write source.
+     */
+    private static final class ListingWriteSource implements WriteSource {
 
-        response.content().append("</ul></body></html>" + StringUtils.CRLF);
-        response.setHeader(HttpResponseHeader.CONTENT_LENGTH, String.valueOf(response.content().length()));
-
+        private final ListingCache.StreamedListing listing;
 
-        try {
-            logger.debug("HTTP WRITE: content-length={} : {}", response.content().length(), session.getRemoteAddress());
-            session.write(response.toByteBuffer());
-        } catch (Exception e) {
-            sendError(StatusCode.INTERNAL_SERVER_ERROR, session);
+        private ListingWriteSource(ListingCache.StreamedListing listing) {
+            this.listing = listing;
         }
 
+        @Override
+        public ByteBuffer next() throws IOException {
+            return listing.next();
+        }
 
+        @Override
+        public void close() {
+            listing.close();
+        }
     }
 
 
@@ -0,0 +1,169 @@
+package fr.meuret.webtesttech.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrency limit adapting to the observed latency, in the spirit of TCP Vegas : the limit grows while the latency
+ * stays close to its long term average, and shrinks as soon as the latency rises, i.e. as soon as the requests start
+ * queuing somewhere (worker queue, disk, CPU). The work beyond the limit is rejected at once, which keeps the latency
+ * of the admitted work low instead of letting every request slow down until they all time out.
+ * <p>
+ * The latencies are averaged over a short window, and the limit is only computed once per window, by a single thread :
+ * acquiring and releasing a permit are a few atomic operations.
+ *
+ * @author Jerome
+ */
+public class AdaptiveLimiter {
+
+
+    private static final int MIN_LIMIT = 4;
+    private static final int INITIAL_LIMIT = 20;
+    private static final long DEFAULT_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    //Fewer samples are not significant, the window is extended
+    private static final int MIN_WINDOW_SAMPLES = 10;
+    //Number of windows of the long term latency average
+    private static final int LONG_WINDOWS = 60;
+    //The latency may exceed its long term average by this factor before the limit shrinks
+    private static final double RTT_TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long windowNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final LongAdder windowLatencies = new LongAdder();
+    private final LongAdder windowSamples = new LongAdder();
+    private final AtomicBoolean updating = new AtomicBoolean();
+    private final LongAdder rejected = new LongAdder();
+    private volatile int limit;
+    private volatile long windowEnd;
+    //Guarded by updating
+    private double estimatedLimit;
+    private double longLatency;
+
+
+    /**
+     * @param maxLimit the upper bound of the limit.
+     */
+    public AdaptiveLimiter(int maxLimit) {
+        this(Math.min(MIN_LIMIT, maxLimit), Math.min(INITIAL_LIMIT, maxLimit), maxLimit, DEFAULT_WINDOW_NANOS);
+    }
+
+    AdaptiveLimiter(int minLimit, int initialLimit, int maxLimit, long windowNanos) {
+
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Invalid limits : " + minLimit + " <= " + initialLimit + " <= " +
+                                                       maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.windowNanos = windowNanos;
+        this.limit = initialLimit;
+        this.estimatedLimit = initialLimit;
+        this.windowEnd = System.nanoTime() + windowNanos;
+    }
+
+    /**
+     * Acquires a permit, which must be released by {@link #release(long)} once the work is done.
+     *
+     * @return false if the limit is reached, in which case the work should be rejected.
+     */
+    public boolean tryAcquire() {
+
+        final int running = inFlight.incrementAndGet();
+        if (running > limit) {
+            inFlight.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        if (running > peakInFlight.get()) {
+            peakInFlight.accumulateAndGet(running, Math::max);
+        }
+        return true;
+    }
+
+    /**
+     * Releases a permit, and samples the latency of the work.
+     *
+     * @param startNanos the time the permit was acquired, as per {@link System#nanoTime()}.
+     */
+    public void release(long startNanos) {
+
+        inFlight.decrementAndGet();
+        final long now = System.nanoTime();
+        windowLatencies.add(now - startNanos);
+        windowSamples.increment();
+        if (now - windowEnd >= 0 && updating.compareAndSet(false, true)) {
+            try {
+                update(now);
+            } finally {
+                updating.set(false);
+            }
+        }
+    }
+
+    /**
+     * Releases a permit that has not been used, e.g. by a read which has not completed any request, without sampling
+     * any latency.
+     */
+    public void cancel() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Guarded by updating.
+     */
+    private void update(long now) {
+
+        final long samples = windowSamples.sum();
+        if (samples < MIN_WINDOW_SAMPLES) {
+            return;
+        }
+        final double shortLatency = (double) windowLatencies.sumThenReset() / windowSamples.sumThenReset();
+        final int peak = peakInFlight.getAndSet(inFlight.get());
+        windowEnd = now + windowNanos;
+
+        if (longLatency == 0) {
+            longLatency = shortLatency;
+        } else {
+            longLatency += (shortLatency - longLatency) / LONG_WINDOWS;
+            if (longLatency > 2 * shortLatency) {
+                //The latency has dropped for good, e.g. after a load peak : the average catches up faster
+                longLatency *= 0.95;
+            }
+        }
+
+        final double gradient = Math.max(0.5, Math.min(1.0, RTT_TOLERANCE * longLatency / shortLatency));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        if (peak < estimatedLimit / 2 && newLimit > estimatedLimit) {
+            //The limit is not what holds back the work, it must not grow unbounded
+            newLimit = estimatedLimit;
+        }
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit * (1 - SMOOTHING) + newLimit *
+                SMOOTHING));
+        limit = (int) estimatedLimit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveLimiter{" + "limit=" + getLimit() + ", maxLimit=" + maxLimit + ", inFlight=" + getInFlight() +
+                ", rejected=" + getRejectedCount() + '}';
+    }
+
+
+}
@@ -3,12 +3,36 @@ package fr.meuret.webtesttech.util;
 import java.nio.ByteBuffer;
 
 /**
- * Created by Jerome on 18/09/2014.
+ * A pool of byte buffers.
+ * <p>
+ * A buffer acquired from the pool must be released exactly once, and must not be used anymore once released.
+ *
+ * @author Jerome
+ * @see fr.meuret.webtesttech.util.PooledByteBufferPool
  */
 public abstract class ByteBufferPool {
 
 
+    /**
+     * Acquires a buffer of the default capacity of the pool.
+     *
+     * @return a cleared buffer.
+     */
     public abstract ByteBuffer acquireBuffer();
 
+    /**
+     * Acquires a buffer able to hold at least <code>capacity</code> bytes.
+     *
+     * @param capacity the minimal capacity of the buffer.
+     * @return a cleared buffer, which capacity may be greater than the requested one.
+     */
+    public abstract ByteBuffer acquireBuffer(int capacity);
+
+    /**
+     * Gives a buffer back to the pool.
+     *
+     * @param byteBuffer the buffer to release, may be <code>null</code>.
+     * @return always <code>null</code>, so that callers can write <code>buffer = pool.releaseBuffer(buffer)</code>.
+     */
     public abstract ByteBuffer releaseBuffer(ByteBuffer byteBuffer);
 }
@@ -0,0 +1,78 @@
+package fr.meuret.webtesttech.util;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * HTTP dates in the fixed-length IMF-fixdate format, e.g. <i>Sun, 06 Nov 1994 08:49:37 GMT</i>.
+ * <p>
+ * The current date is rendered at most once per second and shared by all the threads.
+ *
+ * @author Jerome
+ * @see <a href="https://tools.ietf.org/html/rfc7231#section-7.1.1.1">RFC 7231, section 7.1.1.1</a>
+ */
+public final class HttpDate {
+
+
+    /**
+     * The length of an IMF-fixdate.
+     */
+    public static final int LENGTH = 29;
+    private static final DateTimeFormatter IMF_FIXDATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'",
+                                                                                      Locale.US).withZone(
+            ZoneOffset.UTC);
+    private static volatile RenderedDate current = new RenderedDate(System.currentTimeMillis() / 1000);
+
+    private HttpDate() {
+    }
+
+    /**
+     * @return the current date, as ISO-8859-1 bytes. The returned array is shared and must not be modified.
+     */
+    public static byte[] now() {
+
+        final long second = System.currentTimeMillis() / 1000;
+        RenderedDate date = current;
+        if (date.second != second) {
+            //Concurrent threads may render the same second twice, which is harmless
+            date = new RenderedDate(second);
+            current = date;
+        }
+        return date.bytes;
+    }
+
+    public static String format(long epochMillis) {
+        return IMF_FIXDATE.format(Instant.ofEpochMilli(epochMillis));
+    }
+
+    /**
+     * Parses an HTTP date. Only the IMF-fixdate format is supported, the obsolete formats are ignored.
+     *
+     * @param date an HTTP date.
+     * @return the date in milliseconds since the epoch, or <i>-1</i> if the date is invalid.
+     */
+    public static long parse(String date) {
+        try {
+            return Instant.from(IMF_FIXDATE.parse(date.trim())).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static final class RenderedDate {
+
+        private final long second;
+        private final byte[] bytes;
+
+        private RenderedDate(long second) {
+            this.second = second;
+            this.bytes = IMF_FIXDATE.format(Instant.ofEpochSecond(second)).getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+
+}
@@ -0,0 +1,394 @@
+package fr.meuret.webtesttech.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of direct byte buffers.
+ * <p>
+ * Buffers are organized in size classes. For each size class, buffers are sliced out of big direct slabs that are
+ * allocated on demand, up to a maximum number of slabs. Released buffers are first kept in a small per-thread cache,
+ * so that the common acquire/release sequence done by an I/O thread does not contend with the other threads, and then
+ * in a lock-free free list shared by all the threads.
+ * <p>
+ * The buffers cached by a thread that has terminated are taken back before a new slab is allocated. Virtual threads,
+ * which are countless and short-lived, do not cache any buffer : they use the shared free lists directly.
+ * <p>
+ * When a size class is exhausted, or when the requested capacity is greater than the largest size class, an unpooled
+ * direct buffer is allocated and counted as an overflow.
+ * <p>
+ * In debug mode (leak detection enabled), the pool remembers where each outstanding buffer has been acquired, reports
+ * double releases and can log the buffers that have never been released.
+ *
+ * @author Jerome
+ */
+public class PooledByteBufferPool extends ByteBufferPool {
+
+
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+    /**
+     * Holds a TLS record, encrypted or not : the packet and application buffer sizes of the SSL engines are slightly
+     * larger than 16 KB.
+     */
+    public static final int TLS_BUFFER_SIZE = 17 * 1024;
+    public static final int LARGE_BUFFER_SIZE = 64 * 1024;
+    private static final Logger logger = LoggerFactory.getLogger(PooledByteBufferPool.class);
+    private static final int SLAB_SIZE = 1024 * 1024;
+    private static final int DEFAULT_MAX_SLABS = 64;
+    private static final int THREAD_CACHE_SIZE = 16;
+    //Thread.isVirtual(), null if the JDK does not support virtual threads
+    private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+    private final SizeClass[] sizeClasses;
+    private final ThreadLocal<ThreadCache> threadCaches;
+    //Every thread cache, so that the buffers of the terminated threads can be taken back
+    private final Set<ThreadCache> allThreadCaches = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final boolean leakDetection;
+    private final Map<ByteBuffer, Throwable> outstandingBuffers;
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+
+
+    /**
+     * Creates a pool with three size classes ({@link #DEFAULT_BUFFER_SIZE}, {@link #TLS_BUFFER_SIZE} and
+     * {@link #LARGE_BUFFER_SIZE}), each one being allowed to grow up to {@value #DEFAULT_MAX_SLABS} slabs of 1 MB.
+     *
+     * @param leakDetection true to enable the leak detection (debug mode).
+     */
+    public PooledByteBufferPool(boolean leakDetection) {
+        this(new int[]{DEFAULT_BUFFER_SIZE, TLS_BUFFER_SIZE, LARGE_BUFFER_SIZE}, DEFAULT_MAX_SLABS, leakDetection);
+    }
+
+    /**
+     * @param bufferSizes   the size classes, in ascending order. The first one is the default buffer size.
+     * @param maxSlabs      the maximum number of slabs per size class.
+     * @param leakDetection true to enable the leak detection (debug mode).
+     */
+    public PooledByteBufferPool(int[] bufferSizes, int maxSlabs, boolean leakDetection) {
+
+        if (bufferSizes.length == 0) {
+            throw new IllegalArgumentException("At least one buffer size is required.");
+        }
+        this.sizeClasses = new SizeClass[bufferSizes.length];
+        for (int i = 0; i < bufferSizes.length; i++) {
+            if (i > 0 && bufferSizes[i] <= bufferSizes[i - 1]) {
+                throw new IllegalArgumentException("Buffer sizes must be in ascending order.");
+            }
+            sizeClasses[i] = new SizeClass(bufferSizes[i], maxSlabs);
+        }
+        this.threadCaches = ThreadLocal.withInitial(this::newThreadCache);
+        this.leakDetection = leakDetection;
+        this.outstandingBuffers = leakDetection ? Collections.synchronizedMap(new IdentityHashMap<>()) : null;
+
+    }
+
+    @Override
+    public ByteBuffer acquireBuffer() {
+        return acquireBuffer(sizeClasses[0].bufferSize);
+    }
+
+    @Override
+    public ByteBuffer acquireBuffer(int capacity) {
+
+        final int index = sizeClassIndex(capacity);
+        ByteBuffer buffer = null;
+        if (index >= 0) {
+            final ThreadCache threadCache = getThreadCache();
+            if (threadCache != null) {
+                buffer = threadCache.poll(index);
+            }
+            if (buffer == null) {
+                buffer = sizeClasses[index].poll();
+            }
+            if (buffer == null && reclaimThreadCaches()) {
+                buffer = sizeClasses[index].poll();
+            }
+            if (buffer == null) {
+                buffer = sizeClasses[index].allocateSlab();
+            }
+        }
+        if (buffer == null) {
+            overflows.increment();
+            buffer = ByteBuffer.allocateDirect(index >= 0 ? sizeClasses[index].bufferSize : capacity);
+        }
+
+        acquired.increment();
+        if (leakDetection) {
+            outstandingBuffers.put(buffer, new Throwable("Buffer acquired by " + Thread.currentThread().getName()));
+        }
+        return buffer;
+    }
+
+    @Override
+    public ByteBuffer releaseBuffer(ByteBuffer byteBuffer) {
+
+        if (byteBuffer == null) {
+            return null;
+        }
+        if (leakDetection && outstandingBuffers.remove(byteBuffer) == null) {
+            logger.error("Releasing a buffer that is not outstanding (double release ?)",
+                         new Throwable("Buffer released by " + Thread.currentThread().getName()));
+            return null;
+        }
+
+        released.increment();
+        final int index = sizeClassIndex(byteBuffer.capacity());
+        if (index >= 0 && sizeClasses[index].bufferSize == byteBuffer.capacity() && byteBuffer.isDirect()) {
+            byteBuffer.clear();
+            final ThreadCache threadCache = getThreadCache();
+            if (threadCache == null || !threadCache.offer(index, byteBuffer)) {
+                sizeClasses[index].release(byteBuffer);
+            }
+        }
+        //Unpooled buffers are left to the garbage collector
+        return null;
+    }
+
+    /**
+     * Logs the buffers that are still outstanding, along with the place where they have been acquired.
+     * Only works in debug mode.
+     *
+     * @return the number of outstanding buffers, or -1 if the leak detection is disabled.
+     */
+    public int reportLeaks() {
+
+        if (!leakDetection) {
+            return -1;
+        }
+        final List<Throwable> acquisitions;
+        synchronized (outstandingBuffers) {
+            acquisitions = new ArrayList<>(outstandingBuffers.values());
+        }
+        for (Throwable acquisition : acquisitions) {
+            logger.warn("Buffer not released yet : ", acquisition);
+        }
+        return acquisitions.size();
+    }
+
+    public long getAcquiredCount() {
+        return acquired.sum();
+    }
+
+    public long getReleasedCount() {
+        return released.sum();
+    }
+
+    public long getOverflowCount() {
+        return overflows.sum();
+    }
+
+    public long getOutstandingCount() {
+        return acquired.sum() - released.sum();
+    }
+
+    /**
+     * @return the number of bytes of direct memory allocated as slabs.
+     */
+    public long getSlabBytes() {
+        long slabBytes = 0;
+        for (SizeClass sizeClass : sizeClasses) {
+            slabBytes += (long) sizeClass.slabs.get() * sizeClass.buffersPerSlab * sizeClass.bufferSize;
+        }
+        return slabBytes;
+    }
+
+    /**
+     * @return the ratio of the slab buffers that are currently in use, between 0 and 1.
+     */
+    public double getOccupancy() {
+        long capacity = 0;
+        long free = 0;
+        for (SizeClass sizeClass : sizeClasses) {
+            capacity += (long) sizeClass.slabs.get() * sizeClass.buffersPerSlab;
+            free += sizeClass.freeCount.get();
+        }
+        //Buffers held by the thread caches are counted as used
+        return capacity == 0 ? 0 : (double) (capacity - free) / capacity;
+    }
+
+    @Override
+    public String toString() {
+        return "PooledByteBufferPool{" + "acquired=" + getAcquiredCount() + ", released=" + getReleasedCount()
+                + ", outstanding=" + getOutstandingCount() + ", overflows=" + getOverflowCount() + ", slabBytes="
+                + getSlabBytes() + ", occupancy=" + getOccupancy() + '}';
+    }
+
+    /**
+     * @return the cache of the current thread, <code>null</code> for a virtual thread : it would mostly hold buffers
+     * until the thread terminates.
+     */
+    private ThreadCache getThreadCache() {
+        return isVirtual(Thread.currentThread()) ? null : threadCaches.get();
+    }
+
+    private ThreadCache newThreadCache() {
+        final ThreadCache threadCache = new ThreadCache(Thread.currentThread(), sizeClasses.length);
+        allThreadCaches.add(threadCache);
+        return threadCache;
+    }
+
+    /**
+     * Gives the buffers cached by the threads that have terminated back to the shared free lists.
+     *
+     * @return true if any buffer has been given back.
+     */
+    private boolean reclaimThreadCaches() {
+
+        boolean reclaimed = false;
+        for (ThreadCache threadCache : allThreadCaches) {
+            //Everything done by a thread is visible once it is seen terminated, and the cache is removed only once
+            if (threadCache.owner.isAlive() || !allThreadCaches.remove(threadCache)) {
+                continue;
+            }
+            for (int i = 0; i < sizeClasses.length; i++) {
+                ByteBuffer buffer;
+                while ((buffer = threadCache.poll(i)) != null) {
+                    sizeClasses[i].release(buffer);
+                    reclaimed = true;
+                }
+            }
+        }
+        return reclaimed;
+    }
+
+    private static boolean isVirtual(Thread thread) {
+
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(thread);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Unable to call Thread.isVirtual()", e);
+        }
+    }
+
+    private static MethodHandle findIsVirtual() {
+        //The sources target Java 8 : virtual threads are looked up at runtime
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(
+                    boolean.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private int sizeClassIndex(int capacity) {
+        for (int i = 0; i < sizeClasses.length; i++) {
+            if (capacity <= sizeClasses[i].bufferSize) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The buffers of a given size, sliced out of shared slabs.
+     */
+    private static final class SizeClass {
+
+        private final int bufferSize;
+        private final int buffersPerSlab;
+        private final int maxSlabs;
+        private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+        //ConcurrentLinkedQueue.size() is not a constant-time operation
+        private final AtomicInteger freeCount = new AtomicInteger();
+        private final AtomicInteger slabs = new AtomicInteger();
+
+        private SizeClass(int bufferSize, int maxSlabs) {
+            this.bufferSize = bufferSize;
+            this.buffersPerSlab = Math.max(1, SLAB_SIZE / bufferSize);
+            this.maxSlabs = maxSlabs;
+        }
+
+        private ByteBuffer poll() {
+
+            final ByteBuffer buffer = freeBuffers.poll();
+            if (buffer != null) {
+                freeCount.decrementAndGet();
+            }
+            return buffer;
+        }
+
+        private void release(ByteBuffer buffer) {
+            //Never keep more buffers than the slabs can provide (overflow buffers may be released too)
+            if (freeCount.incrementAndGet() > maxSlabs * buffersPerSlab) {
+                freeCount.decrementAndGet();
+                return;
+            }
+            freeBuffers.offer(buffer);
+        }
+
+        private ByteBuffer allocateSlab() {
+
+            int current;
+            do {
+                current = slabs.get();
+                if (current >= maxSlabs) {
+                    return null;
+                }
+            } while (!slabs.compareAndSet(current, current + 1));
+
+            final ByteBuffer slab = ByteBuffer.allocateDirect(buffersPerSlab * bufferSize);
+            ByteBuffer first = null;
+            for (int i = 0; i < buffersPerSlab; i++) {
+                slab.limit((i + 1) * bufferSize).position(i * bufferSize);
+                final ByteBuffer buffer = slab.slice();
+                if (first == null) {
+                    first = buffer;
+                } else {
+                    freeCount.incrementAndGet();
+                    freeBuffers.offer(buffer);
+                }
+            }
+            return first;
+        }
+    }
+
+    /**
+     * A small cache of free buffers owned by a single thread.
+     */
+    private static final class ThreadCache {
+
+        private final Thread owner;
+        private final List<ArrayDeque<ByteBuffer>> buffers;
+
+        private ThreadCache(Thread owner, int sizeClasses) {
+            this.owner = owner;
+            buffers = new ArrayList<>(sizeClasses);
+            for (int i = 0; i < sizeClasses; i++) {
+                buffers.add(new ArrayDeque<>(THREAD_CACHE_SIZE));
+            }
+        }
+
+        private ByteBuffer poll(int sizeClass) {
+            return buffers.get(sizeClass).pollLast();
+        }
+
+        private boolean offer(int sizeClass, ByteBuffer buffer) {
+            if (buffers.get(sizeClass).size() >= THREAD_CACHE_SIZE) {
+                return false;
+            }
+            buffers.get(sizeClass).offerLast(buffer);
+            return true;
+        }
+    }
+
+
+}
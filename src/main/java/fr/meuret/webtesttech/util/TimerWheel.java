@@ -0,0 +1,249 @@
+package fr.meuret.webtesttech.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel, driving the timeouts of many tasks with a single thread and no allocation per timeout.
+ * <p>
+ * The tasks are linked in the buckets of a ring, one bucket per tick. The timeouts are rescheduled lazily : arming an
+ * already scheduled task to a later deadline only moves its deadline forward, and the task is moved to the right bucket
+ * when the wheel reaches its current one. This makes pushing back a timeout on every read or write a volatile write,
+ * which is the common case of the connection timeouts : they are pushed back far more often than they expire. A
+ * deadline brought forward moves the task to an earlier bucket at once.
+ * <p>
+ * The timeouts expire up to one tick late, and are run by the thread of the wheel : they must be short.
+ *
+ * @author Jerome
+ */
+public class TimerWheel implements Closeable {
+
+
+    private static final Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+    private final Task[] buckets;
+    private final int mask;
+    private final long tickNanos;
+    private final long startTime = System.nanoTime();
+    private final Thread thread;
+    //Owned by the thread of the wheel : an expired task may be scheduled again while it is being run
+    private final List<Task> expiredTasks = new ArrayList<>();
+    //The last tick processed, guarded by the wheel
+    private long tick;
+    private volatile boolean closed;
+
+
+    /**
+     * @param tickMillis  the duration of a tick, i.e. the resolution of the timeouts, in milliseconds.
+     * @param bucketCount the number of buckets of the ring, rounded up to a power of two.
+     * @param name        the name of the thread of the wheel.
+     */
+    public TimerWheel(long tickMillis, int bucketCount, String name) {
+
+        this.buckets = new Task[Integer.highestOneBit(Math.max(1, bucketCount - 1)) << 1];
+        this.mask = buckets.length - 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Arms the timeout of a task, replacing its previous deadline if any.
+     *
+     * @param task        the task.
+     * @param delayMillis the delay before the task expires, in milliseconds.
+     */
+    public void schedule(Task task, long delayMillis) {
+        scheduleAt(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+    }
+
+    /**
+     * Arms the timeout of a task at an absolute deadline, replacing its previous deadline if any.
+     *
+     * @param task     the task.
+     * @param deadline the deadline, as per {@link System#nanoTime()}.
+     */
+    public void scheduleAt(Task task, long deadline) {
+
+        //Zero means cancelled
+        final long taskDeadline = deadline == 0 ? 1 : deadline;
+        task.deadline = taskDeadline;
+        final long bucketDeadline = task.bucketDeadline;
+        if (bucketDeadline == 0 || taskDeadline - bucketDeadline < 0) {
+            synchronized (this) {
+                if (task.bucketDeadline == 0) {
+                    insert(task);
+                } else if (task.deadline - task.bucketDeadline < 0) {
+                    //Brought forward : its bucket would be reached too late
+                    unlink(task);
+                    insert(task);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels the timeout of a task. The task is dropped by the wheel when its bucket is reached.
+     *
+     * @param task the task.
+     */
+    public void cancel(Task task) {
+        task.deadline = 0;
+    }
+
+    /**
+     * Stops the wheel, and waits for the timeouts being run : none is run once this method has returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join(TimeUnit.NANOSECONDS.toMillis(tickNanos) + 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Guarded by the wheel.
+     */
+    private void insert(Task task) {
+
+        //A deadline in the past or within the current tick is handled by the next tick
+        final long deadline = task.deadline;
+        final long deadlineTick = Math.max((deadline - startTime) / tickNanos, tick + 1);
+        final int index = (int) (deadlineTick & mask);
+        task.bucket = index;
+        task.prev = null;
+        task.next = buckets[index];
+        if (task.next != null) {
+            task.next.prev = task;
+        }
+        buckets[index] = task;
+        task.bucketDeadline = deadline == 0 ? 1 : deadline;
+    }
+
+    /**
+     * Guarded by the wheel.
+     */
+    private void unlink(Task task) {
+
+        if (task.prev != null) {
+            task.prev.next = task.next;
+        } else {
+            buckets[task.bucket] = task.next;
+        }
+        if (task.next != null) {
+            task.next.prev = task.prev;
+        }
+        task.prev = null;
+        task.next = null;
+        task.bucketDeadline = 0;
+    }
+
+    private void run() {
+
+        while (!closed) {
+            final long nextTick = startTime + (tick + 1) * tickNanos;
+            final long wait = nextTick - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+
+            synchronized (this) {
+                tick++;
+                final int index = (int) (tick & mask);
+                Task task = buckets[index];
+                buckets[index] = null;
+                final long now = System.nanoTime();
+                while (task != null) {
+                    final Task next = task.next;
+                    task.prev = null;
+                    task.next = null;
+                    task.bucketDeadline = 0;
+                    final long deadline = task.deadline;
+                    if (deadline != 0) {
+                        if (deadline - now > 0) {
+                            //Pushed back, or due in a later round
+                            insert(task);
+                        } else {
+                            expiredTasks.add(task);
+                        }
+                    }
+                    task = next;
+                }
+            }
+
+            //Expired tasks are run outside of the lock, so that they can schedule timeouts
+            for (Task task : expiredTasks) {
+                try {
+                    task.expire();
+                } catch (RuntimeException e) {
+                    logger.error("Error when running an expired timeout : ", e);
+                }
+            }
+            if (!expiredTasks.isEmpty()) {
+                rearmPushedBack();
+                expiredTasks.clear();
+            }
+        }
+    }
+
+    /**
+     * Arms again the expired tasks which have been pushed back while expiring, by a thread which did not see that the
+     * task had just been unlinked : they would never expire otherwise.
+     */
+    private synchronized void rearmPushedBack() {
+
+        final long now = System.nanoTime();
+        for (Task task : expiredTasks) {
+            final long deadline = task.deadline;
+            if (task.bucketDeadline == 0 && deadline != 0 && deadline - now > 0) {
+                insert(task);
+            }
+        }
+    }
+
+    /**
+     * A task which timeout is driven by a wheel. A task is meant to be rescheduled many times, e.g. one task per
+     * connection.
+     */
+    public abstract static class Task {
+
+        //Zero when cancelled
+        private volatile long deadline;
+        //The deadline the bucket of the task was chosen for, zero when not scheduled. Written under the lock of the
+        //wheel, read without it to skip the lock when the task is pushed back
+        private volatile long bucketDeadline;
+        //Guarded by the wheel
+        private int bucket;
+        private Task prev;
+        private Task next;
+
+        /**
+         * @return the current deadline of the task, as per {@link System#nanoTime()}, <i>0</i> if cancelled.
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * Gets called by the thread of the wheel once the deadline is reached. The task may have been rescheduled in
+         * the meantime : implementations needing certainty check {@link #getDeadline()} again, and simply return if it
+         * is in the future, the wheel keeps the task armed for its new deadline.
+         */
+        protected abstract void expire();
+    }
+
+
+}
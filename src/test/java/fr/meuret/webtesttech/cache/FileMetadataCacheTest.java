@@ -0,0 +1,77 @@
+package fr.meuret.webtesttech.cache;
+
+import fr.meuret.webtesttech.http.MimeTypes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class FileMetadataCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResolution() throws Exception {
+
+        final Path root = folder.getRoot().toPath().toRealPath();
+        Files.write(root.resolve("index.html"), "hello".getBytes());
+        Files.createDirectory(root.resolve("docs"));
+        Files.createFile(root.resolve(".hidden"));
+        try (FileMetadataCache cache = new FileMetadataCache(root, MimeTypes.defaults(), 16, 60000)) {
+
+            final FileMetadataCache.FileMetadata file = cache.get("/index.html");
+            assertEquals(FileMetadataCache.FileType.FILE, file.getType());
+            assertEquals(root.resolve("index.html"), file.getRealPath());
+            assertEquals(5, file.getAttributes().size());
+            assertEquals("text/html", file.getMimeType().getContentType());
+            assertSame(file, cache.get("/index.html"));
+            assertEquals(1, cache.getHitCount());
+            assertEquals(1, cache.getMissCount());
+
+            assertEquals(FileMetadataCache.FileType.DIRECTORY, cache.get("/docs").getType());
+            assertEquals(FileMetadataCache.FileType.NOT_FOUND, cache.get("/missing.html").getType());
+            assertEquals(FileMetadataCache.FileType.NOT_FOUND, cache.get("/.hidden").getType());
+            assertEquals(FileMetadataCache.FileType.NOT_FOUND, cache.get("/../etc/passwd").getType());
+        }
+
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+
+        final Path root = folder.getRoot().toPath().toRealPath();
+        try (FileMetadataCache cache = new FileMetadataCache(root, MimeTypes.defaults(), 16, 60000)) {
+
+            //Missing files are cached, until they are created
+            assertEquals(FileMetadataCache.FileType.NOT_FOUND, cache.get("/late.txt").getType());
+            assertEquals(FileMetadataCache.FileType.NOT_FOUND, cache.get("/late.txt").getType());
+            assertEquals(1, cache.getHitCount());
+
+            Files.write(root.resolve("late.txt"), "late".getBytes());
+            //Polling watch services may take a few seconds to report the changes
+            final long deadline = System.currentTimeMillis() + 30000;
+            while (cache.get("/late.txt").getType() != FileMetadataCache.FileType.FILE &&
+                    System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(FileMetadataCache.FileType.FILE, cache.get("/late.txt").getType());
+            assertTrue(cache.getInvalidationCount() > 0);
+        }
+
+        //Without time to live, nothing is cached
+        try (FileMetadataCache cache = new FileMetadataCache(root, MimeTypes.defaults(), 16, 0)) {
+            cache.get("/late.txt");
+            cache.get("/late.txt");
+            assertEquals(0, cache.getHitCount());
+            assertEquals(2, cache.getMissCount());
+        }
+
+    }
+
+
+}
@@ -0,0 +1,101 @@
+package fr.meuret.webtesttech.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class ListingCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPagination() throws Exception {
+
+        final Path directory = folder.newFolder("listing").toPath().toRealPath();
+        for (int i = 0; i < 5; i++) {
+            Files.createFile(directory.resolve("file" + i));
+        }
+        try (ListingCache cache = new ListingCache(1024 * 1024, 2)) {
+
+            final ListingCache.Listing listing = cache.get(directory, "listing");
+            assertEquals(5, listing.getEntryCount());
+            assertEquals(3, listing.getPageCount());
+
+            final String first = new String(listing.getPage(1), StandardCharsets.UTF_8);
+            assertTrue(first.contains("file0"));
+            assertTrue(first.contains("file1"));
+            assertFalse(first.contains("file2"));
+            assertTrue(first.contains("?page=2"));
+            assertFalse(first.contains("previous"));
+            final String last = new String(listing.getPage(3), StandardCharsets.UTF_8);
+            assertTrue(last.contains("file4"));
+            assertTrue(last.contains("?page=2"));
+            assertFalse(last.contains("next"));
+            //Pages are rendered once
+            assertSame(listing.getPage(1), listing.getPage(1));
+        }
+
+    }
+
+    @Test
+    public void testEvictionStopsWatching() throws Exception {
+
+        //Room for three listings of a single one-letter entry
+        try (ListingCache cache = new ListingCache(3 * (2 + 64), 100)) {
+            final Path[] directories = new Path[10];
+            for (int i = 0; i < directories.length; i++) {
+                directories[i] = folder.newFolder("evicted" + i).toPath().toRealPath();
+                Files.createFile(directories[i].resolve("f"));
+                cache.get(directories[i], "evicted");
+                assertEquals(Math.min(i + 1, 3), cache.getWatchedDirectoryCount());
+            }
+
+            //An evicted directory is watched again once cached again
+            cache.get(directories[0], "evicted");
+            assertEquals(11, cache.getMissCount());
+            assertEquals(3, cache.getWatchedDirectoryCount());
+            cache.get(directories[0], "evicted");
+            assertEquals(1, cache.getHitCount());
+        }
+
+    }
+
+    @Test
+    public void testWatchedUpdates() throws Exception {
+
+        final Path directory = folder.newFolder("watched").toPath().toRealPath();
+        Files.createFile(directory.resolve("a"));
+        try (ListingCache cache = new ListingCache(1024 * 1024, 100)) {
+
+            assertEquals(1, cache.get(directory, "watched").getEntryCount());
+            assertEquals(1, cache.get(directory, "watched").getEntryCount());
+            assertEquals(1, cache.getHitCount());
+            assertEquals(1, cache.getMissCount());
+
+            Files.createFile(directory.resolve("b"));
+            Files.delete(directory.resolve("a"));
+            //Polling watch services may take a few seconds to report the changes
+            final long deadline = System.currentTimeMillis() + 30000;
+            String page = "";
+            while (System.currentTimeMillis() < deadline) {
+                page = new String(cache.get(directory, "watched").getPage(1), StandardCharsets.UTF_8);
+                if (page.contains("\"b\"") && !page.contains("\"a\"")) {
+                    break;
+                }
+                Thread.sleep(50);
+            }
+            assertTrue(page.contains("\"b\""));
+            assertFalse(page.contains("\"a\""));
+        }
+
+    }
+
+
+}
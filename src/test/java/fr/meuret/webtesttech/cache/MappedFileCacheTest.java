@@ -0,0 +1,61 @@
+package fr.meuret.webtesttech.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class MappedFileCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testHitAndInvalidation() throws Exception {
+
+        final Path file = folder.newFile("index.html").toPath();
+        Files.write(file, "hello".getBytes());
+        final MappedFileCache cache = new MappedFileCache(1024);
+
+        assertEquals(5, cache.get(file).remaining());
+        final ByteBuffer hit = cache.get(file);
+        assertEquals(5, hit.remaining());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        //Consuming a cached buffer does not affect the next hits
+        hit.position(hit.limit());
+        assertEquals(5, cache.get(file).remaining());
+
+        Files.write(file, "hello world".getBytes());
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+        assertEquals(11, cache.get(file).remaining());
+        assertEquals(2, cache.getMissCount());
+
+    }
+
+    @Test
+    public void testEvictionAndOversizedFiles() throws Exception {
+
+        final MappedFileCache cache = new MappedFileCache(400);
+        final Path oversized = folder.newFile("oversized").toPath();
+        Files.write(oversized, new byte[101]);
+        assertNull(cache.get(oversized));
+
+        for (int i = 0; i < 5; i++) {
+            final Path file = folder.newFile("file" + i).toPath();
+            Files.write(file, new byte[100]);
+            cache.get(file);
+        }
+        assertEquals(400, cache.getMappedBytes());
+        assertEquals(1, cache.getEvictionCount());
+
+    }
+
+
+}
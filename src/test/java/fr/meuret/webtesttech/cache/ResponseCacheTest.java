@@ -0,0 +1,168 @@
+package fr.meuret.webtesttech.cache;
+
+import fr.meuret.webtesttech.http.ContentCoding;
+import fr.meuret.webtesttech.http.HttpVersion;
+import fr.meuret.webtesttech.http.response.HttpResponse;
+import fr.meuret.webtesttech.http.response.HttpResponseHeader;
+import fr.meuret.webtesttech.http.response.StatusCode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class ResponseCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSizeChangeInvalidates() throws Exception {
+
+        final Path file = folder.newFile("index.html").toPath();
+        Files.write(file, "hello".getBytes());
+        Files.setLastModifiedTime(file, FileTime.fromMillis(784111777000L));
+        final ResponseCache cache = new ResponseCache(1024 * 1024, ResponseCache.DEFAULT_MAX_BODY_SIZE);
+
+        final ResponseCache.CachedResponse cached = put(cache, file, file);
+        assertSame(cached, cache.get(file, attributes(file)));
+
+        //Same modification time, other size
+        Files.write(file, "hello world".getBytes());
+        Files.setLastModifiedTime(file, FileTime.fromMillis(784111777000L));
+        assertNull(cache.get(file, attributes(file)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+    }
+
+    @Test
+    public void testLastModifiedChangeInvalidates() throws Exception {
+
+        final Path file = folder.newFile("style.css").toPath();
+        Files.write(file, "body {}".getBytes());
+        Files.setLastModifiedTime(file, FileTime.fromMillis(784111777000L));
+        final ResponseCache cache = new ResponseCache(1024 * 1024, ResponseCache.DEFAULT_MAX_BODY_SIZE);
+        final ResponseCache.VariantKey variantKey = new ResponseCache.VariantKey(file, ContentCoding.GZIP);
+
+        final ResponseCache.CachedResponse cached = put(cache, file, file);
+        final ResponseCache.CachedResponse variant = put(cache, variantKey, file);
+        assertSame(cached, cache.get(file, attributes(file)));
+        assertSame(variant, cache.get(variantKey, attributes(file)));
+
+        //Same size, other modification time : the file and its variants are stale
+        Files.write(file, "body {}".getBytes());
+        Files.setLastModifiedTime(file, FileTime.fromMillis(784111778000L));
+        assertNull(cache.get(file, attributes(file)));
+        assertNull(cache.get(variantKey, attributes(file)));
+
+        //The new content replaces the stale one
+        final ResponseCache.CachedResponse refreshed = put(cache, file, file);
+        assertNotSame(cached, refreshed);
+        assertSame(refreshed, cache.get(file, attributes(file)));
+
+    }
+
+    @Test
+    public void testEvictionAtByteBudget() throws Exception {
+
+        final Path first = file("first.bin");
+        final Path second = file("second.bin");
+        final Path third = file("third.bin");
+        final ResponseCache sizing = new ResponseCache(1024 * 1024, ResponseCache.DEFAULT_MAX_BODY_SIZE);
+        put(sizing, first, first);
+        final long weight = sizing.getCachedBytes();
+        assertTrue(weight > 1000);
+
+        //Room for two responses only
+        final ResponseCache cache = new ResponseCache(2 * weight + weight / 2, ResponseCache.DEFAULT_MAX_BODY_SIZE);
+        final ResponseCache.CachedResponse firstResponse = put(cache, first, first);
+        put(cache, second, second);
+        assertEquals(2 * weight, cache.getCachedBytes());
+        assertEquals(0, cache.getEvictionCount());
+
+        //The first response is the most recently used, the second one goes
+        assertSame(firstResponse, cache.get(first, attributes(first)));
+        final ResponseCache.CachedResponse thirdResponse = put(cache, third, third);
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2 * weight, cache.getCachedBytes());
+        assertNull(cache.get(second, attributes(second)));
+        assertSame(firstResponse, cache.get(first, attributes(first)));
+        assertSame(thirdResponse, cache.get(third, attributes(third)));
+
+        //Replacing a response does not count its previous weight twice
+        put(cache, third, third);
+        assertEquals(2 * weight, cache.getCachedBytes());
+        assertEquals(1, cache.getEvictionCount());
+
+        //A budget smaller than one response keeps nothing
+        final ResponseCache tiny = new ResponseCache(weight - 1, ResponseCache.DEFAULT_MAX_BODY_SIZE);
+        put(tiny, first, first);
+        assertEquals(0, tiny.getCachedBytes());
+        assertNull(tiny.get(first, attributes(first)));
+        assertEquals(1, tiny.getEvictionCount());
+
+    }
+
+    @Test
+    public void testRenderHeaders() throws Exception {
+
+        final Path file = folder.newFile("page.html").toPath();
+        Files.write(file, "hello".getBytes());
+        final ResponseCache cache = new ResponseCache(1024 * 1024, ResponseCache.DEFAULT_MAX_BODY_SIZE);
+        final ResponseCache.CachedResponse cached = put(cache, file, file);
+
+        final String keepAlive = ascii(cached.renderHeaders(HttpVersion.HTTP_1_1, true));
+        assertTrue(keepAlive.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(keepAlive.contains("\r\nconnection: keep-alive\r\n"));
+        assertTrue(keepAlive.endsWith("\r\n\r\n"));
+        //The cached and the uncached responses both say when the connection is closed
+        final String close = ascii(cached.renderHeaders(HttpVersion.HTTP_1_1, false));
+        assertTrue(close.contains("\r\nconnection: close\r\n"));
+        assertFalse(close.contains("keep-alive"));
+        //The status line follows the version of the request
+        assertTrue(ascii(cached.renderHeaders(HttpVersion.HTTP_1_0, true)).startsWith("HTTP/1.0 200 OK\r\n"));
+
+        //The rendered sections are shared, the callers get views of their own
+        final ByteBuffer first = cached.renderHeaders(HttpVersion.HTTP_1_1, true);
+        assertTrue(first.isReadOnly());
+        first.position(first.limit());
+        assertTrue(cached.renderHeaders(HttpVersion.HTTP_1_1, true).hasRemaining());
+
+    }
+
+    private static String ascii(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private Path file(String name) throws Exception {
+
+        final Path file = folder.newFile(name).toPath();
+        Files.write(file, new byte[1000]);
+        return file;
+    }
+
+    private static ResponseCache.CachedResponse put(ResponseCache cache, Object key, Path file) throws Exception {
+
+        final byte[] content = Files.readAllBytes(file);
+        final HttpResponse response = new HttpResponse(HttpVersion.HTTP_1_1);
+        response.setStatusCode(StatusCode.OK);
+        response.setHeader(HttpResponseHeader.CONTENT_LENGTH, String.valueOf(content.length));
+        return cache.put(key, attributes(file), response, ByteBuffer.wrap(content));
+    }
+
+    private static BasicFileAttributes attributes(Path file) throws Exception {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+
+
+}
@@ -0,0 +1,75 @@
+package fr.meuret.webtesttech.cache;
+
+import fr.meuret.webtesttech.http.ContentCoding;
+import fr.meuret.webtesttech.util.HttpDate;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class ValidatorCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testValidatorsFollowTheFile() throws Exception {
+
+        final Path file = folder.newFile("index.html").toPath();
+        Files.write(file, "hello".getBytes());
+        Files.setLastModifiedTime(file, FileTime.fromMillis(784111777000L));
+        final ValidatorCache cache = new ValidatorCache(16);
+
+        final ValidatorCache.Validators validators = cache.get(file, attributes(file));
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", validators.getLastModified());
+        assertSame(validators, cache.get(file, attributes(file)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertFalse(validators.getEntityTag(null).equals(validators.getEntityTag(ContentCoding.GZIP)));
+
+        Files.write(file, "hello world".getBytes());
+        final ValidatorCache.Validators changed = cache.get(file, attributes(file));
+        assertFalse(validators.getEntityTag(null).equals(changed.getEntityTag(null)));
+        assertEquals(2, cache.getMissCount());
+
+    }
+
+    @Test
+    public void testPreconditions() throws Exception {
+
+        final Path file = folder.newFile("style.css").toPath();
+        Files.setLastModifiedTime(file, FileTime.fromMillis(784111777123L));
+        final ValidatorCache.Validators validators = new ValidatorCache(16).get(file, attributes(file));
+        final String tag = validators.getEntityTag(null);
+
+        assertFalse(validators.isNotModified(null, null, null));
+        assertTrue(validators.isNotModified(null, tag, null));
+        final String gzipTag = validators.getEntityTag(ContentCoding.GZIP);
+        assertTrue(validators.isNotModified(ContentCoding.GZIP, "\"other\", W/" + gzipTag, null));
+        //The tag of another representation does not validate the selected one
+        assertFalse(validators.isNotModified(null, gzipTag, null));
+        assertFalse(validators.isNotModified(ContentCoding.GZIP, tag, null));
+        assertTrue(validators.isNotModified(null, "*", null));
+        assertFalse(validators.isNotModified(null, "\"other\"", null));
+        //If-None-Match takes precedence over If-Modified-Since
+        assertFalse(validators.isNotModified(null, "\"other\"", validators.getLastModified()));
+
+        assertTrue(validators.isNotModified(null, null, validators.getLastModified()));
+        assertTrue(validators.isNotModified(null, null, HttpDate.format(784111777000L + 3600000)));
+        assertFalse(validators.isNotModified(null, null, HttpDate.format(784111777000L - 1000)));
+        assertFalse(validators.isNotModified(null, null, "not a date"));
+
+    }
+
+    private static BasicFileAttributes attributes(Path file) throws Exception {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+
+
+}
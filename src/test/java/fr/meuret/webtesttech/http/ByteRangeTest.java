@@ -0,0 +1,61 @@
+package fr.meuret.webtesttech.http;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ByteRangeTest {
+
+    @Test
+    public void testSatisfiableRanges() throws Exception {
+
+        assertRanges("0-499", ByteRange.parse("bytes=0-499", 10000));
+        assertRanges("9500-9999", ByteRange.parse("bytes=-500", 10000));
+        assertRanges("9500-9999", ByteRange.parse("bytes=9500-", 10000));
+        assertRanges("0-9999", ByteRange.parse("bytes=0-99999999999999999999", 10000));
+        assertRanges("0-0,9999-9999", ByteRange.parse("Bytes= 0-0 , -1", 10000));
+        //Overlapping and adjacent ranges are coalesced, and sorted
+        assertRanges("0-199,500-599", ByteRange.parse("bytes=500-599,100-199,0-99,50-150", 10000));
+        //The unsatisfiable ranges are dropped
+        assertRanges("0-9", ByteRange.parse("bytes=0-9,20000-", 10000));
+        assertEquals(500, ByteRange.parse("bytes=0-499", 10000).get(0).getLength());
+        assertEquals("bytes 0-499/10000", ByteRange.parse("bytes=0-499", 10000).get(0).toContentRange(10000));
+
+    }
+
+    @Test
+    public void testUnsatisfiableRanges() throws Exception {
+
+        assertTrue(ByteRange.parse("bytes=10000-", 10000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", 10000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-10", 0).isEmpty());
+
+    }
+
+    @Test
+    public void testIgnoredRanges() throws Exception {
+
+        assertNull(ByteRange.parse("items=0-9", 10000));
+        assertNull(ByteRange.parse("bytes=", 10000));
+        assertNull(ByteRange.parse("bytes=9-0", 10000));
+        assertNull(ByteRange.parse("bytes=a-b", 10000));
+        assertNull(ByteRange.parse("bytes=5", 10000));
+        assertNull(ByteRange.parse("bytes=--5", 10000));
+        final StringBuilder tooMany = new StringBuilder("bytes=0-0");
+        for (int i = 1; i <= ByteRange.MAX_RANGES; i++) {
+            tooMany.append(',').append(i * 2).append('-').append(i * 2);
+        }
+        assertNull(ByteRange.parse(tooMany.toString(), 10000));
+
+    }
+
+    private static void assertRanges(String expected, List<ByteRange> ranges) {
+        final StringBuilder actual = new StringBuilder();
+        for (ByteRange range : ranges) {
+            actual.append(actual.length() > 0 ? "," : "").append(range);
+        }
+        assertEquals(expected, actual.toString());
+    }
+}
@@ -0,0 +1,58 @@
+package fr.meuret.webtesttech.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+public class ContentCodingTest {
+
+    @Test
+    public void testNegotiate() throws Exception {
+
+        assertNull(ContentCoding.negotiate(null));
+        assertNull(ContentCoding.negotiate("identity"));
+        assertEquals(ContentCoding.GZIP, ContentCoding.negotiate("gzip, deflate, br"));
+        assertEquals(ContentCoding.DEFLATE, ContentCoding.negotiate("deflate"));
+        assertEquals(ContentCoding.DEFLATE, ContentCoding.negotiate("gzip;q=0.5, deflate"));
+        assertEquals(ContentCoding.DEFLATE, ContentCoding.negotiate("gzip;q=0, *"));
+        assertEquals(ContentCoding.GZIP, ContentCoding.negotiate("*;q=0.1"));
+        assertNull(ContentCoding.negotiate("gzip;q=0, deflate;q=0"));
+        assertNull(ContentCoding.negotiate("*;q=0"));
+
+    }
+
+    @Test
+    public void testEncode() throws Exception {
+
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            content.append("<li><a href=\"file").append(i).append("\">file").append(i).append("</a></li>\r\n");
+        }
+        final byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+
+        final byte[] gzip = ContentCoding.GZIP.encode(new ByteArrayInputStream(bytes), bytes.length);
+        assertTrue(gzip.length < bytes.length / 4);
+        assertArrayEquals(bytes, readFully(new GZIPInputStream(new ByteArrayInputStream(gzip))));
+
+        final byte[] deflate = ContentCoding.DEFLATE.encode(new ByteArrayInputStream(bytes), bytes.length);
+        assertArrayEquals(bytes, readFully(new InflaterInputStream(new ByteArrayInputStream(deflate))));
+
+    }
+
+    private static byte[] readFully(InputStream in) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
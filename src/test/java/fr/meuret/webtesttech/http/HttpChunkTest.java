@@ -0,0 +1,45 @@
+package fr.meuret.webtesttech.http;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class HttpChunkTest {
+
+    @Test
+    public void testPutHeader() throws Exception {
+
+        assertEquals("1\r\n", header(1, true));
+        assertEquals("\r\nf\r\n", header(15, false));
+        assertEquals("10\r\n", header(16, true));
+        assertEquals("4000\r\n", header(16384, true));
+        assertEquals("\r\n7fffffff\r\n", header(Integer.MAX_VALUE, false));
+
+    }
+
+    @Test
+    public void testPutLastChunk() throws Exception {
+
+        final ByteBuffer target = ByteBuffer.allocate(HttpChunk.LAST_CHUNK_LENGTH);
+        HttpChunk.putLastChunk(target, false);
+        assertEquals("\r\n0\r\n\r\n", new String(target.array(), 0, target.position(), StandardCharsets.US_ASCII));
+        target.clear();
+        HttpChunk.putLastChunk(target, true);
+        assertEquals("0\r\n\r\n", new String(target.array(), 0, target.position(), StandardCharsets.US_ASCII));
+
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyChunk() throws Exception {
+        HttpChunk.putHeader(ByteBuffer.allocate(HttpChunk.MAX_HEADER_LENGTH), 0, true);
+    }
+
+    private static String header(int size, boolean first) {
+        final ByteBuffer target = ByteBuffer.allocate(HttpChunk.MAX_HEADER_LENGTH);
+        HttpChunk.putHeader(target, size, first);
+        return new String(target.array(), 0, target.position(), StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,111 @@
+package fr.meuret.webtesttech.http;
+
+import fr.meuret.webtesttech.http.request.HttpRequest;
+import fr.meuret.webtesttech.http.request.HttpRequestHeader;
+import fr.meuret.webtesttech.http.request.HttpRequestParser;
+import fr.meuret.webtesttech.http.response.StatusCode;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class HttpRequestParserTest {
+
+    @Test
+    public void testParseRequestSplitAcrossSeveralReads() throws Exception {
+
+        final String request = "GET /path/file.html?lang=fr&page=2 HTTP/1.1\r\n" +
+                "HOST: localhost\r\n" +
+                "User-Agent:   HTTPTool/1.0  \r\n" +
+                "Connection: close\r\n\r\n";
+        final byte[] bytes = request.getBytes(StandardCharsets.ISO_8859_1);
+        final HttpRequestParser parser = new HttpRequestParser();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+
+        HttpRequest httpRequest = null;
+        for (int i = 0; i < bytes.length; i += 7) {
+            //Simulate a read, then flip the buffer as the session does
+            buffer.put(bytes, i, Math.min(7, bytes.length - i));
+            buffer.flip();
+            httpRequest = parser.parse(buffer);
+            if (httpRequest == null) {
+                assertEquals("Position must not move on an incomplete request", 0, buffer.position());
+            }
+            buffer.compact();
+        }
+
+        assertNotNull(httpRequest);
+        assertEquals(HttpMethod.GET, httpRequest.getMethod());
+        assertEquals(HttpVersion.HTTP_1_1, httpRequest.getVersion());
+        assertEquals("/path/file.html", httpRequest.getRequestPath());
+        assertEquals("fr", httpRequest.getParameter("lang"));
+        assertEquals("2", httpRequest.getParameter("page"));
+        assertEquals("HTTPTool/1.0", httpRequest.getHeader(HttpRequestHeader.USER_AGENT));
+        assertFalse(httpRequest.isKeepAlive());
+
+    }
+
+    @Test
+    public void testParsePipelinedRequests() throws Exception {
+
+        final String requests = "GET /first HTTP/1.1\r\n\r\n"
+                + "GET /second HTTP/1.0\r\nconnection: keep-alive\r\n\r\n"
+                + "GET /thi";
+        final ByteBuffer buffer = ByteBuffer.wrap(requests.getBytes(StandardCharsets.ISO_8859_1));
+        final HttpRequestParser parser = new HttpRequestParser();
+
+        final HttpRequest first = parser.parse(buffer);
+        final HttpRequest second = parser.parse(buffer);
+
+        assertEquals("/first", first.getRequestPath());
+        assertTrue(first.isKeepAlive());
+        assertEquals("/second", second.getRequestPath());
+        assertEquals(HttpVersion.HTTP_1_0, second.getVersion());
+        assertTrue(second.isKeepAlive());
+        assertNull(second.getParameter("lang"));
+
+        final int remaining = buffer.remaining();
+        assertNull(parser.parse(buffer));
+        assertEquals(remaining, buffer.remaining());
+
+    }
+
+    @Test
+    public void testSkipEmptyLinesBeforeRequest() throws Exception {
+
+        //A client may send an extra CRLF after a request, e.g. after a body
+        final String requests = "\r\n\r\nGET /first HTTP/1.1\r\n\r\n\r\nGET /second HTTP/1.1\r\n\r\n\r\n";
+        final ByteBuffer buffer = ByteBuffer.wrap(requests.getBytes(StandardCharsets.ISO_8859_1));
+        final HttpRequestParser parser = new HttpRequestParser();
+
+        assertEquals("/first", parser.parse(buffer).getRequestPath());
+        assertEquals("/second", parser.parse(buffer).getRequestPath());
+        //The empty lines are consumed, nothing is left to wait for
+        assertNull(parser.parse(buffer));
+        assertFalse(buffer.hasRemaining());
+
+    }
+
+    @Test
+    public void testParseMalformedRequest() throws Exception {
+
+        final String[] malformedRequests = {"GET/path HTTP/1.1\r\n\r\n", "GET /path HTTP/2.0\r\n\r\n",
+                "BREW /pot HTTP/1.1\r\n\r\n", "GET /path HTTP/1.1\r\nHost : localhost\r\n\r\n",
+                "GET /path HTTP/1.1\r\nHost: localhost\r\n folded\r\n\r\n",
+                "GET /path HTTP/1.1\r\n:foo: bar\r\n\r\n", "GET /path HTTP/1.1\r\n\u0001Host: localhost\r\n\r\n"};
+
+        for (String malformedRequest : malformedRequests) {
+            try {
+                new HttpRequestParser().parse(ByteBuffer.wrap(malformedRequest.getBytes(StandardCharsets.ISO_8859_1)));
+                fail("Request should have been rejected : " + malformedRequest);
+            } catch (HttpException e) {
+                assertEquals(StatusCode.BAD_REQUEST, e.getStatusCode());
+            }
+        }
+
+    }
+
+
+}
@@ -0,0 +1,56 @@
+package fr.meuret.webtesttech.http;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class MimeTypesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDefaults() throws Exception {
+
+        final MimeTypes mimeTypes = MimeTypes.defaults();
+        assertEquals("text/css", mimeTypes.get("site.css").getContentType());
+        assertTrue(mimeTypes.get("site.css").isCompressible());
+        assertEquals("application/javascript", mimeTypes.get("APP.JS").getContentType());
+        assertFalse(mimeTypes.get("photo.jpg").isCompressible());
+        assertEquals("no-cache", mimeTypes.get("index.html").getCacheControl());
+        assertNull(mimeTypes.get("archive.zip").getCacheControl());
+        assertSame(MimeTypes.DEFAULT_TYPE, mimeTypes.get("README"));
+        assertSame(MimeTypes.DEFAULT_TYPE, mimeTypes.get("file."));
+        assertSame(MimeTypes.DEFAULT_TYPE, mimeTypes.get("file.unknown"));
+
+    }
+
+    @Test
+    public void testOverrides() throws Exception {
+
+        final Path overrides = folder.newFile("mime-types.properties").toPath();
+        Files.write(overrides, "css = text/x-css | false | max-age=60\nlog = text/plain | true |\n".getBytes());
+        final MimeTypes mimeTypes = MimeTypes.load(overrides);
+        assertEquals("text/x-css", mimeTypes.get("site.css").getContentType());
+        assertFalse(mimeTypes.get("site.css").isCompressible());
+        assertEquals("max-age=60", mimeTypes.get("site.css").getCacheControl());
+        assertTrue(mimeTypes.get("server.log").isCompressible());
+        assertEquals(MimeTypes.defaults().size() + 1, mimeTypes.size());
+
+        Files.write(overrides, "css = text/css\n".getBytes());
+        try {
+            MimeTypes.load(overrides);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //Expected
+        }
+
+    }
+
+
+}
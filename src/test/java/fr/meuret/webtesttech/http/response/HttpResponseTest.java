@@ -0,0 +1,43 @@
+package fr.meuret.webtesttech.http.response;
+
+import fr.meuret.webtesttech.http.HttpVersion;
+import fr.meuret.webtesttech.util.HttpDate;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class HttpResponseTest {
+
+    @Test
+    public void testToByteBuffer() throws Exception {
+
+        final HttpResponse response = new HttpResponse(HttpVersion.HTTP_1_0);
+        response.setStatusCode(StatusCode.OK);
+        response.setHeader(HttpResponseHeader.CONTENT_TYPE, "text/plain");
+        response.content().append("café");
+        final ByteBuffer buffer = response.toByteBuffer();
+        final String rendered = StandardCharsets.ISO_8859_1.decode(buffer).toString();
+
+        assertTrue(rendered.startsWith("HTTP/1.0 200 OK\r\nserver: AdobeWebTechTest/1.0\r\ndate: "));
+        final int date = rendered.indexOf("date: ") + "date: ".length();
+        assertTrue(HttpDate.parse(rendered.substring(date, date + HttpDate.LENGTH)) > 0);
+        assertTrue(rendered.contains("\r\ncontent-type: text/plain\r\n"));
+        assertTrue(rendered.contains("\r\ncontent-length: 4\r\n"));
+        assertTrue(rendered.endsWith("\r\n\r\ncafé"));
+
+    }
+
+    @Test
+    public void testRenderHead() throws Exception {
+
+        final String head = new String(HttpResponse.renderHead(HttpVersion.HTTP_1_1, StatusCode.NOT_FOUND),
+                                       StandardCharsets.ISO_8859_1);
+        assertEquals("HTTP/1.1 404 Not Found\r\nserver: AdobeWebTechTest/1.0\r\ndate: ", head);
+
+    }
+
+
+}
@@ -0,0 +1,59 @@
+package fr.meuret.webtesttech.log;
+
+import fr.meuret.webtesttech.http.HttpMethod;
+import fr.meuret.webtesttech.http.HttpVersion;
+import fr.meuret.webtesttech.http.response.StatusCode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AccessLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCommonLogFormat() throws Exception {
+
+        final Path file = folder.getRoot().toPath().resolve("logs").resolve("access.log");
+        final AccessLog accessLog = new AccessLog(file, 16);
+        final long start = System.nanoTime();
+        accessLog.log("127.0.0.1", HttpMethod.GET, "/index.html", HttpVersion.HTTP_1_1, StatusCode.OK, 2326, start);
+        accessLog.log("::1", HttpMethod.GET, "/a\"b\nc", HttpVersion.HTTP_1_1, StatusCode.NOT_FOUND, -1, start);
+        accessLog.log("10.0.0.1", null, null, null, StatusCode.BAD_REQUEST, 11, start);
+        accessLog.close();
+
+        final List<String> lines = Files.readAllLines(file, StandardCharsets.ISO_8859_1);
+        assertEquals(3, lines.size());
+        assertEquals(3, accessLog.getWrittenCount());
+        assertTrue(lines.get(0), lines.get(0).matches(
+                "127\\.0\\.0\\.1 - - \\[\\d{2}/\\w{3}/\\d{4}:\\d{2}:\\d{2}:\\d{2} [+-]\\d{4}] " +
+                        "\"GET /index\\.html HTTP/1\\.1\" 200 2326 \\d+"));
+        //The request path can not break the line nor the quoted request
+        assertTrue(lines.get(1), lines.get(1).contains("\"GET /a?b?c HTTP/1.1\" 404 - "));
+        assertTrue(lines.get(2), lines.get(2).contains("\"-\" 400 11 "));
+
+    }
+
+    @Test
+    public void testFullRingDropsRecords() throws Exception {
+
+        final Path file = folder.newFile("access.log").toPath();
+        final AccessLog accessLog = new AccessLog(file, 4);
+        for (int i = 0; i < 10000; i++) {
+            accessLog.log("127.0.0.1", HttpMethod.GET, "/", HttpVersion.HTTP_1_1, StatusCode.OK, 0, System.nanoTime());
+        }
+        accessLog.close();
+
+        assertEquals(10000, accessLog.getWrittenCount() + accessLog.getDroppedCount());
+        assertEquals(accessLog.getWrittenCount(), Files.readAllLines(file, StandardCharsets.ISO_8859_1).size());
+
+    }
+}
@@ -0,0 +1,57 @@
+package fr.meuret.webtesttech.metrics;
+
+import fr.meuret.webtesttech.http.HttpMethod;
+import fr.meuret.webtesttech.http.response.StatusCode;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ServerMetricsTest {
+
+    @Test
+    public void testCountersAndRendering() {
+
+        final ServerMetrics metrics = new ServerMetrics();
+        metrics.connectionOpened();
+        metrics.connectionOpened();
+        metrics.connectionClosed();
+        metrics.bytesRead(100);
+        metrics.bytesWritten(2048);
+        metrics.request(HttpMethod.GET);
+        metrics.request(HttpMethod.GET);
+        metrics.response(StatusCode.NOT_FOUND);
+        metrics.parseFailure();
+
+        assertEquals(2, metrics.getAcceptedConnections());
+        assertEquals(1, metrics.getActiveConnections());
+        assertEquals(2, metrics.getRequests(HttpMethod.GET));
+        assertEquals(0, metrics.getRequests(HttpMethod.POST));
+
+        final String rendered = metrics.render();
+        assertTrue(rendered.contains("connections_active 1\n"));
+        assertTrue(rendered.contains("bytes_written 2048\n"));
+        assertTrue(rendered.contains("requests{method=\"GET\"} 2\n"));
+        assertTrue(rendered.contains("responses{status=\"404\"} 1\n"));
+        assertTrue(rendered.contains("parse_failures 1\n"));
+        //Counters that are still zero are omitted
+        assertFalse(rendered.contains("method=\"POST\""));
+    }
+
+    @Test
+    public void testLatencyPercentiles() {
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+        histogram.record(50000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50000, histogram.getMax());
+        //Within a factor of two of the recorded values
+        assertEquals(127, histogram.getValueAtPercentile(50));
+        assertEquals(127, histogram.getValueAtPercentile(99));
+        assertEquals(50000, histogram.getValueAtPercentile(100));
+    }
+}
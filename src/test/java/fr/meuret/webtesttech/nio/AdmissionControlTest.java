@@ -0,0 +1,47 @@
+package fr.meuret.webtesttech.nio;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AdmissionControlTest {
+
+    @Test
+    public void testConnectionLimit() throws Exception {
+
+        final AtomicInteger resumes = new AtomicInteger();
+        final AdmissionControl admission = new AdmissionControl(3, 1, null, resumes::incrementAndGet);
+        assertTrue(admission.connectionAccepted());
+        assertTrue(admission.connectionAccepted());
+        //The maximum is reached : the acceptor pauses
+        assertFalse(admission.connectionAccepted());
+        assertFalse(admission.isAccepting());
+        assertEquals(3, admission.getConnections());
+
+        //Above the low-water mark, the acceptor stays paused
+        admission.connectionClosed();
+        assertFalse(admission.isAccepting());
+        assertEquals(0, resumes.get());
+        admission.connectionClosed();
+        assertTrue(admission.isAccepting());
+        assertEquals(1, resumes.get());
+        admission.connectionClosed();
+        assertEquals(1, resumes.get());
+        assertEquals(0, admission.getConnections());
+
+    }
+
+    @Test
+    public void testNoLimit() throws Exception {
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(AdmissionControl.NONE.connectionAccepted());
+            assertTrue(AdmissionControl.NONE.tryAcquireRequest());
+        }
+        AdmissionControl.NONE.connectionClosed();
+        assertTrue(AdmissionControl.NONE.isAccepting());
+
+    }
+}
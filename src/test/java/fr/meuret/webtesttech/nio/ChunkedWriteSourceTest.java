@@ -0,0 +1,152 @@
+package fr.meuret.webtesttech.nio;
+
+import fr.meuret.webtesttech.util.PooledByteBufferPool;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import static org.junit.Assert.*;
+
+public class ChunkedWriteSourceTest {
+
+    @Test
+    public void testChunks() throws Exception {
+
+        final PooledByteBufferPool bufferPool = new PooledByteBufferPool(true);
+        final BodySource body = new BodySource(ascii("hello"), ByteBuffer.allocate(0), ascii(" world"));
+        final ChunkedWriteSource source = new ChunkedWriteSource(body, bufferPool);
+
+        assertEquals("5\r\nhello", next(source));
+        //The empty buffer is skipped
+        assertEquals("\r\n6\r\n world", next(source));
+        assertEquals("\r\n0\r\n\r\n", next(source));
+        assertNull(next(source));
+
+        source.close();
+        assertTrue(body.closed);
+        assertEquals(0, bufferPool.getOutstandingCount());
+
+    }
+
+    @Test
+    public void testEmptyBody() throws Exception {
+
+        final PooledByteBufferPool bufferPool = new PooledByteBufferPool(true);
+        final ChunkedWriteSource source = new ChunkedWriteSource(new BodySource(), bufferPool);
+
+        assertEquals("0\r\n\r\n", next(source));
+        assertNull(next(source));
+        source.close();
+        assertEquals(0, bufferPool.getOutstandingCount());
+
+    }
+
+    @Test
+    public void testDataIsNotCopied() throws Exception {
+
+        final PooledByteBufferPool bufferPool = new PooledByteBufferPool(true);
+        final ByteBuffer data = ByteBuffer.wrap(new byte[2 * PooledByteBufferPool.LARGE_BUFFER_SIZE + 100]);
+        final ChunkedWriteSource source = new ChunkedWriteSource(new BodySource(data), bufferPool);
+
+        //The header and the body buffer itself are gathered, whatever its size
+        final ByteBuffer[] buffers = new ByteBuffer[WriteSource.MAX_BUFFERS];
+        assertEquals(2, source.next(buffers));
+        assertEquals("20064\r\n", ascii(buffers[0]));
+        assertSame(data, buffers[1]);
+        buffers[0].position(buffers[0].limit());
+        data.position(data.limit());
+
+        assertEquals(1, source.next(buffers));
+        assertEquals("\r\n0\r\n\r\n", ascii(buffers[0]));
+        assertEquals(0, source.next(buffers));
+
+        source.close();
+        assertEquals(0, bufferPool.getOutstandingCount());
+
+    }
+
+    @Test
+    public void testSingleBuffers() throws Exception {
+
+        final ByteBuffer data = ascii("hello");
+        final ChunkedWriteSource source = new ChunkedWriteSource(new BodySource(data), new PooledByteBufferPool(false));
+
+        //A session asking for one buffer at a time gets the header, then the data
+        assertEquals("5\r\n", ascii(source.next()));
+        assertSame(data, source.next());
+        assertEquals("\r\n0\r\n\r\n", ascii(source.next()));
+        assertNull(source.next());
+        source.close();
+
+    }
+
+    @Test
+    public void testPullsOnDemand() throws Exception {
+
+        final BodySource body = new BodySource(ascii("a"), ascii("b"));
+        final ChunkedWriteSource source = new ChunkedWriteSource(body, new PooledByteBufferPool(false));
+
+        //Nothing is produced before the session asks for it
+        assertEquals(0, body.pulls);
+        next(source);
+        assertEquals(1, body.pulls);
+        next(source);
+        assertEquals(2, body.pulls);
+        source.close();
+
+    }
+
+    /**
+     * Gets the next buffers of a source, as the session does, and consumes them.
+     */
+    private static String next(WriteSource source) throws Exception {
+
+        final ByteBuffer[] buffers = new ByteBuffer[WriteSource.MAX_BUFFERS];
+        final int count = source.next(buffers);
+        if (count == 0) {
+            return null;
+        }
+        final StringBuilder sent = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sent.append(ascii(buffers[i]));
+            buffers[i].position(buffers[i].limit());
+        }
+        return sent.toString();
+    }
+
+    private static ByteBuffer ascii(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String ascii(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static final class BodySource implements WriteSource {
+
+        private final Deque<ByteBuffer> buffers;
+        private int pulls;
+        private boolean closed;
+
+        private BodySource(ByteBuffer... buffers) {
+            this.buffers = new ArrayDeque<>(Arrays.asList(buffers));
+        }
+
+        @Override
+        public ByteBuffer next() {
+            pulls++;
+            return buffers.poll();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
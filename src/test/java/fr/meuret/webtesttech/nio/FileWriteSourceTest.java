@@ -0,0 +1,107 @@
+package fr.meuret.webtesttech.nio;
+
+import fr.meuret.webtesttech.util.PooledByteBufferPool;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FileWriteSourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFileLargerThanIntegerMaxValue() throws Exception {
+
+        //A sparse file of more than 3 GB, with data around Integer.MAX_VALUE and at its end only
+        final long size = 3L * 1024 * 1024 * 1024 + 12345;
+        final long middle = Integer.MAX_VALUE - 100000L;
+        final byte[] middleBytes = random(300000);
+        final byte[] lastBytes = random(100000);
+        final Path file = folder.newFile("sparse.bin").toPath();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            write(channel, middleBytes, middle);
+            write(channel, lastBytes, size - lastBytes.length);
+        }
+        assertEquals(size, Files.size(file));
+
+        final PooledByteBufferPool pool = new PooledByteBufferPool(true);
+        //The windows go past Integer.MAX_VALUE without any overflow
+        assertArrayEquals(middleBytes, stream(file, middle, middleBytes.length, pool));
+        //The last window ends with the last byte of the file
+        assertArrayEquals(lastBytes, stream(file, size - lastBytes.length, lastBytes.length, pool));
+        assertEquals(0, pool.getOutstandingCount());
+
+    }
+
+    @Test
+    public void testTruncatedFile() throws Exception {
+
+        final Path file = folder.newFile("truncated.bin").toPath();
+        Files.write(file, random(1000));
+        final PooledByteBufferPool pool = new PooledByteBufferPool(true);
+
+        //The content length sent is larger than what is left in the file
+        final FileWriteSource source = new FileWriteSource(FileChannel.open(file, StandardOpenOption.READ), 0, 2000,
+                                                           pool);
+        try {
+            source.next();
+            fail("The end of file must be reported");
+        } catch (EOFException e) {
+            //Expected
+        } finally {
+            source.close();
+        }
+        assertEquals(0, pool.getOutstandingCount());
+
+    }
+
+    /**
+     * Streams a region of a file, checking that every window is full but the last one.
+     */
+    private static byte[] stream(Path file, long position, int count, PooledByteBufferPool pool) throws Exception {
+
+        final FileWriteSource source = new FileWriteSource(FileChannel.open(file, StandardOpenOption.READ), position,
+                                                           count, pool);
+        final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        try {
+            ByteBuffer window;
+            while ((window = source.next()) != null) {
+                assertEquals(Math.min(PooledByteBufferPool.LARGE_BUFFER_SIZE, count - streamed.size()),
+                             window.remaining());
+                final byte[] bytes = new byte[window.remaining()];
+                window.get(bytes);
+                streamed.write(bytes);
+            }
+        } finally {
+            source.close();
+        }
+        assertEquals(count, streamed.size());
+        return streamed.toByteArray();
+    }
+
+    private static void write(FileChannel channel, byte[] bytes, long position) throws Exception {
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static byte[] random(int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,119 @@
+package fr.meuret.webtesttech.nio;
+
+import fr.meuret.webtesttech.metrics.ServerMetrics;
+import fr.meuret.webtesttech.nio.handlers.Handler;
+import fr.meuret.webtesttech.util.PooledByteBufferPool;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Allocation-rate regression test of the session I/O path : keep-alive requests are answered by a handler that does
+ * not allocate, so that everything allocated by the single I/O thread is due to the session (and to the JDK).
+ */
+public class SessionAllocationTest {
+
+    private static final byte[] REQUEST = "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(
+            StandardCharsets.US_ASCII);
+    private static final byte[] RESPONSE = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes(
+            StandardCharsets.US_ASCII);
+    //What is left is allocated by the JDK : the boxed results of the writes and the copy of the gathered buffers array
+    private static final long MAX_BYTES_PER_REQUEST = 64;
+    private static final int WARMUP_REQUESTS = 20000;
+    private static final int MEASURED_REQUESTS = 20000;
+
+    @Test
+    public void testBytesAllocatedPerKeepAliveRequest() throws Exception {
+
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        final Thread[] ioThread = new Thread[1];
+        final AsynchronousChannelGroup group = AsynchronousChannelGroup.withFixedThreadPool(1, runnable -> {
+            ioThread[0] = new Thread(runnable, "allocation-test-io");
+            return ioThread[0];
+        });
+        try (AsynchronousServerSocketChannel server = AsynchronousServerSocketChannel.open(group).bind(
+                new InetSocketAddress("127.0.0.1", 0)); SocketChannel client = SocketChannel.open(
+                server.getLocalAddress())) {
+
+            final AsynchronousSocketChannel accepted = server.accept().get(5, TimeUnit.SECONDS);
+            final Session session = new Session(accepted, new PooledByteBufferPool(false), Runnable::run,
+                                                new ServerMetrics());
+            session.registerHandler(new PreallocatedResponseHandler());
+            session.start();
+
+            final ByteBuffer request = ByteBuffer.wrap(REQUEST);
+            final ByteBuffer response = ByteBuffer.allocate(RESPONSE.length);
+            exchange(client, request, response, WARMUP_REQUESTS);
+
+            final long before = threads.getThreadAllocatedBytes(ioThread[0].getId());
+            exchange(client, request, response, MEASURED_REQUESTS);
+            final long bytesPerRequest = (threads.getThreadAllocatedBytes(ioThread[0].getId()) - before)
+                    / MEASURED_REQUESTS;
+
+            assertTrue("Allocated " + bytesPerRequest + " bytes per request", bytesPerRequest <= MAX_BYTES_PER_REQUEST);
+        } finally {
+            group.shutdownNow();
+        }
+    }
+
+    private static void exchange(SocketChannel client, ByteBuffer request, ByteBuffer response, int count)
+            throws Exception {
+
+        for (int i = 0; i < count; i++) {
+            request.clear();
+            while (request.hasRemaining()) {
+                client.write(request);
+            }
+            response.clear();
+            while (response.hasRemaining()) {
+                assertTrue(client.read(response) >= 0);
+            }
+            assertArrayEquals(RESPONSE, response.array());
+        }
+    }
+
+    /**
+     * Answers every request with one of a few pre-allocated responses, used in turn so that a response is never
+     * rewound while it is still queued.
+     */
+    private static final class PreallocatedResponseHandler implements Handler {
+
+        private final ByteBuffer[] responses = new ByteBuffer[64];
+        private int next;
+
+        private PreallocatedResponseHandler() {
+            for (int i = 0; i < responses.length; i++) {
+                responses[i] = ByteBuffer.allocateDirect(RESPONSE.length);
+                responses[i].put(RESPONSE);
+            }
+        }
+
+        @Override
+        public void onMessage(Session session) {
+
+            final ByteBuffer readBuffer = session.getReadBuffer();
+            while (readBuffer.remaining() >= REQUEST.length) {
+                readBuffer.position(readBuffer.position() + REQUEST.length);
+                final ByteBuffer response = responses[next++ & (responses.length - 1)];
+                response.rewind();
+                session.write(response);
+            }
+        }
+    }
+}
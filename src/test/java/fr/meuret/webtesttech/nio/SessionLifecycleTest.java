@@ -0,0 +1,292 @@
+package fr.meuret.webtesttech.nio;
+
+import fr.meuret.webtesttech.metrics.ConnectionTimeout;
+import fr.meuret.webtesttech.metrics.ServerMetrics;
+import fr.meuret.webtesttech.util.AdaptiveLimiter;
+import fr.meuret.webtesttech.util.PooledByteBufferPool;
+import fr.meuret.webtesttech.util.TimerWheel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SessionLifecycleTest {
+
+    private AsynchronousChannelGroup group;
+    private AsynchronousServerSocketChannel server;
+    private TimerWheel timer;
+    private ServerMetrics metrics;
+
+    @Before
+    public void setUp() throws Exception {
+        group = AsynchronousChannelGroup.withFixedThreadPool(1, Executors.defaultThreadFactory());
+        server = AsynchronousServerSocketChannel.open(group).bind(new InetSocketAddress("127.0.0.1", 0));
+        timer = new TimerWheel(10, 64, "lifecycle-test-timer");
+        metrics = new ServerMetrics();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        timer.close();
+        server.close();
+        group.shutdownNow();
+    }
+
+    @Test
+    public void testCloseAfterLastResponse() throws Exception {
+
+        try (SocketChannel client = SocketChannel.open(server.getLocalAddress())) {
+            final Session session = accept(new ConnectionTimeouts(timer, 0, 0, 0));
+            //Answers with a response written in several parts, then asks for the connection to be closed
+            session.registerHandler(s -> {
+                s.getReadBuffer().position(s.getReadBuffer().limit());
+                s.setKeepAlive(false);
+                s.write(ascii("HTTP/1.1 200 OK\r\n"));
+                s.write(ascii("Content-Length: 2\r\n\r\n"), ascii("ok"));
+            });
+            session.start();
+
+            client.write(ascii("GET / HTTP/1.1\r\n\r\n"));
+            assertEquals("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok", readUntilClosed(client));
+        }
+        assertEquals(0, metrics.getActiveConnections());
+
+    }
+
+    @Test
+    public void testIdleTimeout() throws Exception {
+
+        try (SocketChannel client = SocketChannel.open(server.getLocalAddress())) {
+            final Session session = accept(new ConnectionTimeouts(timer, 100, 0, 0));
+            session.registerHandler(s -> s.getReadBuffer().position(s.getReadBuffer().limit()));
+            session.start();
+
+            assertEquals("", readUntilClosed(client));
+        }
+        assertEquals(1, metrics.getTimeouts(ConnectionTimeout.IDLE));
+        assertEquals(0, metrics.getActiveConnections());
+
+    }
+
+    @Test
+    public void testHeaderReadTimeout() throws Exception {
+
+        try (SocketChannel client = SocketChannel.open(server.getLocalAddress())) {
+            final Session session = accept(new ConnectionTimeouts(timer, 0, 200, 0));
+            //Never consumes anything : the request is never complete
+            session.registerHandler(s -> {
+            });
+            session.start();
+
+            //Trickling bytes does not push the timeout back
+            final long deadline = System.currentTimeMillis() + 5000;
+            try {
+                while (System.currentTimeMillis() < deadline) {
+                    client.write(ascii("G"));
+                    Thread.sleep(20);
+                }
+            } catch (java.io.IOException e) {
+                //Closed by the server
+            }
+            assertTrue(System.currentTimeMillis() < deadline);
+        }
+        assertEquals(1, metrics.getTimeouts(ConnectionTimeout.HEADER_READ));
+
+    }
+
+    @Test
+    public void testWriteBackpressure() throws Exception {
+
+        final int responseSize = 256 * 1024;
+        final int requests = 40;
+        final ByteBuffer response = ByteBuffer.allocate(responseSize);
+        final AtomicInteger handled = new AtomicInteger();
+        try (SocketChannel client = SocketChannel.open()) {
+            //Small socket buffers, so that the responses are queued instead of being absorbed by the kernel
+            client.setOption(StandardSocketOptions.SO_RCVBUF, 16 * 1024);
+            client.connect(server.getLocalAddress());
+            final Session session = accept(ConnectionTimeouts.NONE);
+            session.getClient().setOption(StandardSocketOptions.SO_SNDBUF, 16 * 1024);
+            session.setWriteWatermarks(512 * 1024, 128 * 1024);
+            //Every byte is a request, answered by a large response
+            session.registerHandler(s -> {
+                while (s.getReadBuffer().hasRemaining() && !s.checkWriteBackpressure()) {
+                    s.getReadBuffer().get();
+                    handled.incrementAndGet();
+                    s.write(response.duplicate());
+                }
+            });
+            session.start();
+
+            //A client pipelining requests without reading the responses
+            final StringBuilder pipelined = new StringBuilder();
+            for (int i = 0; i < requests; i++) {
+                pipelined.append('x');
+            }
+            client.write(ascii(pipelined.toString()));
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (!session.isReadPaused() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(session.isReadPaused());
+            assertTrue(metrics.getPausedReads() > 0);
+            //The pipelined requests are not all answered at once
+            assertTrue(handled.get() < requests);
+            assertTrue(session.getQueuedBytes() <= 512 * 1024 + responseSize);
+
+            //Reading the responses resumes the reads, until every request is answered
+            final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long received = 0;
+            while (received < (long) requests * responseSize && System.currentTimeMillis() < deadline + 10000) {
+                received += client.read(buffer);
+                buffer.clear();
+            }
+            assertEquals((long) requests * responseSize, received);
+            //The last write may complete after the client has received its bytes
+            while (session.getQueuedBytes() > 0 && System.currentTimeMillis() < deadline + 10000) {
+                Thread.sleep(10);
+            }
+            assertEquals(requests, handled.get());
+            assertFalse(session.isReadPaused());
+            assertEquals(0, session.getQueuedBytes());
+            assertEquals(0, metrics.getQueuedWriteBytes());
+            assertTrue(metrics.getMaxQueuedWriteBytes() >= 512 * 1024);
+        }
+
+    }
+
+    @Test
+    public void testPartialGatheringWrite() throws Exception {
+
+        //Buffers of odd sizes, so that the partial writes stop in the middle of a buffer
+        final int[] sizes = {70001, 1, 3, 50000, 123457, 9999, 2, 77777};
+        int total = 0;
+        for (int size : sizes) {
+            total += size;
+        }
+        final byte[] expected = new byte[total];
+        new Random(42).nextBytes(expected);
+
+        try (SocketChannel client = SocketChannel.open()) {
+            //Small socket buffers : the channel accepts far fewer bytes than are queued
+            client.setOption(StandardSocketOptions.SO_RCVBUF, 16 * 1024);
+            client.connect(server.getLocalAddress());
+            final Session session = accept(ConnectionTimeouts.NONE);
+            session.getClient().setOption(StandardSocketOptions.SO_SNDBUF, 16 * 1024);
+            //The buffers are queued at once, with the different write methods
+            session.registerHandler(s -> {
+                s.getReadBuffer().position(s.getReadBuffer().limit());
+                final ByteBuffer[] buffers = new ByteBuffer[sizes.length];
+                int offset = 0;
+                for (int i = 0; i < sizes.length; i++) {
+                    buffers[i] = ByteBuffer.wrap(expected, offset, sizes[i]).slice();
+                    offset += sizes[i];
+                }
+                s.write(buffers[0]);
+                s.write(buffers[1], buffers[2]);
+                s.write(buffers[3], buffers[4]);
+                s.write(buffers[5]);
+                s.write(buffers[6], buffers[7]);
+            });
+            session.start();
+
+            client.write(ascii("x"));
+            Thread.sleep(200);
+            //Nothing is read yet : most of the bytes are still queued
+            assertTrue(String.valueOf(session.getQueuedBytes()), session.getQueuedBytes() > total / 2);
+
+            //Every byte is received once, in order
+            final ByteBuffer received = ByteBuffer.allocate(total);
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (received.hasRemaining() && System.currentTimeMillis() < deadline) {
+                client.read(received);
+            }
+            assertArrayEquals(expected, received.array());
+            while (session.getQueuedBytes() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, session.getQueuedBytes());
+        }
+
+    }
+
+    @Test
+    public void testRequestAdmission() throws Exception {
+
+        final AdaptiveLimiter limiter = new AdaptiveLimiter(1);
+        final BlockingQueue<String> admissions = new LinkedBlockingQueue<>();
+        try (SocketChannel client = SocketChannel.open(server.getLocalAddress())) {
+            final Session session = new Session(server.accept().get(5, TimeUnit.SECONDS),
+                                                new PooledByteBufferPool(false), Runnable::run, metrics,
+                                                ConnectionTimeouts.NONE, new AdmissionControl(0, 0, limiter, null));
+            //Every 'r' is a request, kept in flight until the whole read is handled, a '-' is not a whole request
+            session.registerHandler(s -> {
+                final StringBuilder admitted = new StringBuilder();
+                int inFlight = 0;
+                while (s.getReadBuffer().hasRemaining()) {
+                    if (s.getReadBuffer().get() != 'r') {
+                        continue;
+                    }
+                    if (s.admitRequest()) {
+                        admitted.append('A');
+                        inFlight++;
+                    } else {
+                        admitted.append('R');
+                    }
+                }
+                for (; inFlight > 0; inFlight--) {
+                    s.requestHandled();
+                }
+                admissions.add(admitted.toString());
+            });
+            session.start();
+
+            //The first request of a read takes the permit of the read, the next one needs a permit of its own
+            client.write(ascii("rr"));
+            assertEquals("AR", admissions.poll(5, TimeUnit.SECONDS));
+            //A read which does not complete any request gives its permit back, or the next read would be rejected
+            client.write(ascii("-"));
+            assertEquals("", admissions.poll(5, TimeUnit.SECONDS));
+            client.write(ascii("r"));
+            assertEquals("A", admissions.poll(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, metrics.getRejectedRequests());
+
+    }
+
+    private Session accept(ConnectionTimeouts timeouts) throws Exception {
+        return new Session(server.accept().get(5, TimeUnit.SECONDS), new PooledByteBufferPool(false), Runnable::run,
+                           metrics, timeouts);
+    }
+
+    private static ByteBuffer ascii(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String readUntilClosed(SocketChannel client) throws Exception {
+
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final ByteBuffer buffer = ByteBuffer.allocate(1024);
+        while (client.read(buffer) >= 0) {
+            received.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+        return new String(received.toByteArray(), StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,390 @@
+package fr.meuret.webtesttech.nio;
+
+import fr.meuret.webtesttech.metrics.ServerMetrics;
+import fr.meuret.webtesttech.util.PooledByteBufferPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TlsTransportTest {
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private AsynchronousChannelGroup group;
+    private AsynchronousServerSocketChannel server;
+    private TlsContext tlsContext;
+    private PooledByteBufferPool bufferPool;
+    private ServerMetrics metrics;
+    private Path keyStore;
+
+    @Before
+    public void setUp() throws Exception {
+        group = AsynchronousChannelGroup.withFixedThreadPool(1, Executors.defaultThreadFactory());
+        server = AsynchronousServerSocketChannel.open(group).bind(new InetSocketAddress("127.0.0.1", 0));
+        keyStore = Paths.get(getClass().getResource("localhost.p12").toURI());
+        tlsContext = TlsContext.load(keyStore, "PKCS12", PASSWORD, 100, 60);
+        bufferPool = new PooledByteBufferPool(true);
+        metrics = new ServerMetrics();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tlsContext.close();
+        server.close();
+        group.shutdownNow();
+    }
+
+    @Test
+    public void testExchange() throws Exception {
+
+        final byte[] response = new byte[300 * 1024];
+        for (int i = 0; i < response.length; i++) {
+            response[i] = (byte) i;
+        }
+        final AtomicLong received = new AtomicLong();
+        try (SSLSocket client = connect(clientContext(), "TLSv1.3", "h2", "http/1.1")) {
+            final Session session = accept(received, response);
+
+            //A request larger than a record and than the read buffer of the session
+            final byte[] request = new byte[100 * 1024];
+            Arrays.fill(request, (byte) 'x');
+            request[request.length - 1] = '\n';
+            final OutputStream out = client.getOutputStream();
+            out.write(request);
+            out.flush();
+            final byte[] actual = new byte[response.length];
+            new DataInputStream(client.getInputStream()).readFully(actual);
+            assertArrayEquals(response, actual);
+            assertEquals(request.length, received.get());
+
+            //The ALPN hook selects the protocol of the server
+            assertEquals("http/1.1", client.getApplicationProtocol());
+            assertTrue(session.isSecure());
+            assertEquals("http/1.1", session.getApplicationProtocol());
+        }
+        awaitClosed();
+        assertEquals(1, metrics.getTlsHandshakes());
+        assertEquals(0, bufferPool.getOutstandingCount());
+
+    }
+
+    @Test
+    public void testBufferSizes() throws Exception {
+
+        //A single slab per size class : any buffer larger than needed would show in the slabs
+        bufferPool = new PooledByteBufferPool(new int[]{PooledByteBufferPool.DEFAULT_BUFFER_SIZE,
+                PooledByteBufferPool.TLS_BUFFER_SIZE, PooledByteBufferPool.LARGE_BUFFER_SIZE}, 1, true);
+        try (SSLSocket client = connect(clientContext(), "TLSv1.3")) {
+            accept(new AtomicLong(), "ok".getBytes(StandardCharsets.US_ASCII));
+            //Records larger than the initial network buffer
+            final byte[] request = new byte[100 * 1024];
+            Arrays.fill(request, (byte) 'x');
+            request[request.length - 1] = '\n';
+            final OutputStream out = client.getOutputStream();
+            out.write(request);
+            out.flush();
+            final InputStream in = client.getInputStream();
+            assertEquals('o', in.read());
+            assertEquals('k', in.read());
+
+            //Only the TLS and the default size classes are used
+            final int tlsSlabSize = 1024 * 1024 / PooledByteBufferPool.TLS_BUFFER_SIZE
+                    * PooledByteBufferPool.TLS_BUFFER_SIZE;
+            assertEquals(1024 * 1024 + tlsSlabSize, bufferPool.getSlabBytes());
+            assertEquals(0, bufferPool.getOverflowCount());
+        }
+        awaitClosed();
+        assertEquals(0, bufferPool.getOutstandingCount());
+
+    }
+
+    @Test
+    public void testResumption() throws Exception {
+
+        for (String protocol : new String[]{"TLSv1.2", "TLSv1.3"}) {
+            metrics = new ServerMetrics();
+            final SSLContext clientContext = clientContext();
+            for (int i = 0; i < 2; i++) {
+                try (SSLSocket client = connect(clientContext, protocol)) {
+                    accept(new AtomicLong(), "ok".getBytes(StandardCharsets.US_ASCII));
+                    //The session ticket of TLS 1.3 is received after the handshake, along with the response
+                    final OutputStream out = client.getOutputStream();
+                    out.write('\n');
+                    out.flush();
+                    final InputStream in = client.getInputStream();
+                    assertEquals('o', in.read());
+                    assertEquals('k', in.read());
+                    assertEquals(protocol, client.getSession().getProtocol());
+                }
+                awaitClosed();
+            }
+            assertEquals(protocol, 2, metrics.getTlsHandshakes());
+            assertEquals(protocol, 1, metrics.getResumedTlsHandshakes());
+        }
+        assertEquals(0, bufferPool.getOutstandingCount());
+
+    }
+
+    @Test
+    public void testHandshakeFailure() throws Exception {
+
+        try (SocketChannel client = SocketChannel.open(server.getLocalAddress())) {
+            accept(new AtomicLong(), new byte[0]);
+            //A plaintext request
+            client.write(ByteBuffer.wrap("GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII)));
+            final ByteBuffer buffer = ByteBuffer.allocate(1024);
+            while (client.read(buffer) >= 0) {
+                buffer.clear();
+            }
+        }
+        awaitClosed();
+        assertEquals(1, metrics.getFailedTlsHandshakes());
+        assertEquals(0, metrics.getTlsHandshakes());
+        assertEquals(0, bufferPool.getOutstandingCount());
+
+    }
+
+    @Test
+    public void testGracefulClose() throws Exception {
+
+        final byte[] response = "ok".getBytes(StandardCharsets.US_ASCII);
+        for (String protocol : new String[]{"TLSv1.2", "TLSv1.3"}) {
+            //Closed by the server after the last response, e.g. to a Connection: close request
+            try (EngineClient client = new EngineClient(clientContext(), protocol)) {
+                accept(new AtomicLong(), response, false);
+                client.handshake();
+                client.write('\n');
+                assertEquals('o', client.read());
+                assertEquals('k', client.read());
+                //A truncation would fail
+                assertEquals(protocol, -1, client.read());
+            }
+            awaitClosed();
+
+            //Closed by the client : its close_notify alert is answered
+            try (EngineClient client = new EngineClient(clientContext(), protocol)) {
+                accept(new AtomicLong(), response);
+                client.handshake();
+                client.write('\n');
+                assertEquals('o', client.read());
+                assertEquals('k', client.read());
+                client.closeOutbound();
+                assertEquals(protocol, -1, client.read());
+            }
+            awaitClosed();
+        }
+        assertEquals(0, metrics.getFailedTlsHandshakes());
+        assertEquals(0, bufferPool.getOutstandingCount());
+
+    }
+
+    /**
+     * Accepts a secure session, answering every line feed received with the given response.
+     */
+    private Session accept(AtomicLong received, byte[] response) throws Exception {
+        return accept(received, response, true);
+    }
+
+    /**
+     * Accepts a secure session, answering every line feed received with the given response.
+     *
+     * @param keepAlive false to close the session after the first response.
+     */
+    private Session accept(AtomicLong received, byte[] response, boolean keepAlive) throws Exception {
+
+        final Session session = new Session(server.accept().get(5, TimeUnit.SECONDS), bufferPool, Runnable::run,
+                                            metrics);
+        session.useTls(tlsContext);
+        session.registerHandler(s -> {
+            final ByteBuffer readBuffer = s.getReadBuffer();
+            while (readBuffer.hasRemaining()) {
+                received.incrementAndGet();
+                if (readBuffer.get() == '\n') {
+                    s.write(ByteBuffer.wrap(response));
+                    s.setKeepAlive(keepAlive);
+                }
+            }
+        });
+        session.start();
+        return session;
+    }
+
+    private void awaitClosed() throws Exception {
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (metrics.getActiveConnections() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, metrics.getActiveConnections());
+    }
+
+    /**
+     * A client trusting the self-signed certificate of the server.
+     */
+    private SSLContext clientContext() throws Exception {
+
+        final KeyStore trustStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = getClass().getResourceAsStream(
+                "localhost.p12")) {
+            trustStore.load(in, PASSWORD);
+        }
+        final TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(
+                TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(trustStore);
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(),
+                                                                               null);
+        return context;
+    }
+
+    private SSLSocket connect(SSLContext context, String protocol, String... applicationProtocols) throws Exception {
+
+        final InetSocketAddress address = (InetSocketAddress) server.getLocalAddress();
+        final SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(address.getAddress(),
+                                                                                     address.getPort());
+        final SSLParameters parameters = socket.getSSLParameters();
+        parameters.setProtocols(new String[]{protocol});
+        parameters.setApplicationProtocols(applicationProtocols);
+        socket.setSSLParameters(parameters);
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    /**
+     * A blocking client driving its own engine, which tells a close_notify alert from a truncation : unlike an {@link
+     * SSLSocket}, its reads fail if the server closes the connection without an alert.
+     */
+    private final class EngineClient implements Closeable {
+
+        private final Socket socket;
+        private final SSLEngine engine;
+        private final ByteBuffer netIn;
+        private final ByteBuffer netOut;
+        private final ByteBuffer appIn;
+
+        private EngineClient(SSLContext context, String protocol) throws Exception {
+
+            final InetSocketAddress address = (InetSocketAddress) server.getLocalAddress();
+            socket = new Socket(address.getAddress(), address.getPort());
+            socket.setSoTimeout(5000);
+            engine = context.createSSLEngine("localhost", 0);
+            engine.setUseClientMode(true);
+            engine.setEnabledProtocols(new String[]{protocol});
+            netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        }
+
+        private void handshake() throws Exception {
+
+            engine.beginHandshake();
+            SSLEngineResult.HandshakeStatus status;
+            while ((status = engine.getHandshakeStatus()) != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    wrap(ByteBuffer.allocate(0));
+                } else {
+                    assertNotNull("Connection closed during the handshake", unwrap());
+                }
+            }
+        }
+
+        private void write(int b) throws Exception {
+            wrap(ByteBuffer.wrap(new byte[]{(byte) b}));
+        }
+
+        /**
+         * @return the next byte, <i>-1</i> once the close_notify alert of the server has been received.
+         */
+        private int read() throws Exception {
+
+            while (appIn.position() == 0) {
+                final SSLEngineResult result = unwrap();
+                if (result == null) {
+                    //Throws if no close_notify alert has been received
+                    engine.closeInbound();
+                    return -1;
+                }
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    return -1;
+                }
+            }
+            appIn.flip();
+            final int b = appIn.get();
+            appIn.compact();
+            return b;
+        }
+
+        /**
+         * Sends a close_notify alert.
+         */
+        private void closeOutbound() throws Exception {
+            engine.closeOutbound();
+            wrap(ByteBuffer.allocate(0));
+        }
+
+        private void wrap(ByteBuffer source) throws Exception {
+
+            netOut.clear();
+            engine.wrap(source, netOut);
+            socket.getOutputStream().write(netOut.array(), 0, netOut.position());
+        }
+
+        /**
+         * @return the result of the unwrap of a record, <code>null</code> if the connection has been closed.
+         */
+        private SSLEngineResult unwrap() throws Exception {
+
+            while (true) {
+                netIn.flip();
+                final SSLEngineResult result = engine.unwrap(netIn, appIn);
+                netIn.compact();
+                if (result.getStatus() != SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    return result;
+                }
+                final int bytesRead = socket.getInputStream().read(netIn.array(), netIn.position(),
+                                                                   netIn.remaining());
+                if (bytesRead < 0) {
+                    return null;
+                }
+                netIn.position(netIn.position() + bytesRead);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,507 @@
+package fr.meuret.webtesttech.nio.handlers;
+
+import fr.meuret.webtesttech.cache.FileMetadataCache;
+import fr.meuret.webtesttech.cache.ListingCache;
+import fr.meuret.webtesttech.cache.MappedFileCache;
+import fr.meuret.webtesttech.cache.ResponseCache;
+import fr.meuret.webtesttech.cache.ValidatorCache;
+import fr.meuret.webtesttech.http.MimeTypes;
+import fr.meuret.webtesttech.log.AccessLog;
+import fr.meuret.webtesttech.metrics.ServerMetrics;
+import fr.meuret.webtesttech.nio.AdmissionControl;
+import fr.meuret.webtesttech.nio.ConnectionTimeouts;
+import fr.meuret.webtesttech.nio.Session;
+import fr.meuret.webtesttech.util.AdaptiveLimiter;
+import fr.meuret.webtesttech.util.PooledByteBufferPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.Socket;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HttpProtocolHandlerTest {
+
+    private static final int SOCKET_BUFFER_SIZE = 16 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private AsynchronousChannelGroup group;
+    private AsynchronousServerSocketChannel server;
+    private ServerMetrics metrics;
+    private Path rootPath;
+    private FileMetadataCache metadataCache;
+
+    @Before
+    public void setUp() throws Exception {
+        group = AsynchronousChannelGroup.withFixedThreadPool(1, Executors.defaultThreadFactory());
+        server = AsynchronousServerSocketChannel.open(group).bind(new InetSocketAddress("127.0.0.1", 0));
+        metrics = new ServerMetrics();
+        rootPath = folder.getRoot().toPath().toRealPath();
+        metadataCache = new FileMetadataCache(rootPath, MimeTypes.defaults(), FileMetadataCache.DEFAULT_MAX_ENTRIES, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        metadataCache.close();
+        server.close();
+        group.shutdownNow();
+    }
+
+    @Test
+    public void testPipelining() throws Exception {
+
+        Files.write(rootPath.resolve("a.txt"), "alpha".getBytes(StandardCharsets.US_ASCII));
+        Files.write(rootPath.resolve("b.txt"), "beta".getBytes(StandardCharsets.US_ASCII));
+
+        try (Socket client = connect()) {
+            //The requests are sent at once, the responses come back in the same order
+            final OutputStream out = client.getOutputStream();
+            out.write(("GET /a.txt HTTP/1.1\r\n\r\nGET /missing.txt HTTP/1.1\r\n\r\n"
+                    + "GET /b.txt HTTP/1.1\r\nContent-Length: 5\r\n\r\nhelloGET /a.txt HTTP/1.1\r\n\r\n").getBytes(
+                    StandardCharsets.US_ASCII));
+            final InputStream in = client.getInputStream();
+            final Response first = Response.read(in);
+            assertEquals(200, first.status);
+            assertEquals("alpha", new String(first.body, StandardCharsets.US_ASCII));
+            assertEquals(404, Response.read(in).status);
+            //The body of a request is skipped
+            final Response third = Response.read(in);
+            assertEquals(200, third.status);
+            assertEquals("beta", new String(third.body, StandardCharsets.US_ASCII));
+            final Response fourth = Response.read(in);
+            assertEquals(200, fourth.status);
+            assertEquals("alpha", new String(fourth.body, StandardCharsets.US_ASCII));
+
+            //A request split across reads is answered once complete
+            out.write("GET /b.t".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            Thread.sleep(100);
+            final Response split = exchange(client, "xt HTTP/1.1\r\n\r\n");
+            assertEquals(200, split.status);
+            assertEquals("beta", new String(split.body, StandardCharsets.US_ASCII));
+        }
+
+    }
+
+    @Test
+    public void testHeadersTooLarge() throws Exception {
+
+        //A request filling the read buffer without ending its header section
+        final StringBuilder request = new StringBuilder("GET / HTTP/1.1\r\nX-Large: ");
+        while (request.length() < PooledByteBufferPool.DEFAULT_BUFFER_SIZE) {
+            request.append('x');
+        }
+
+        try (Socket client = connect()) {
+            final Response tooLarge = exchange(client, request.toString());
+            assertEquals(431, tooLarge.status);
+            //The connection is closed
+            assertEquals(-1, client.getInputStream().read());
+        }
+        assertEquals(1, metrics.getParseFailures());
+
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+
+        final byte[] content = createFile("photo.png", 1000);
+
+        try (Socket client = connect()) {
+            final Response ok = exchange(client, "GET /photo.png HTTP/1.1\r\n\r\n");
+            assertEquals(200, ok.status);
+            assertArrayEquals(content, ok.body);
+            final String entityTag = ok.header("etag");
+            assertEquals("Wed, 01 Jan 2020 00:00:00 GMT", ok.header("last-modified"));
+
+            final Response ifNoneMatch = exchange(client, "GET /photo.png HTTP/1.1\r\nIf-None-Match: \"other\", "
+                    + entityTag + "\r\n\r\n");
+            assertEquals(304, ifNoneMatch.status);
+            assertEquals(entityTag, ifNoneMatch.header("etag"));
+            assertEquals("Wed, 01 Jan 2020 00:00:00 GMT", ifNoneMatch.header("last-modified"));
+            assertEquals(0, ifNoneMatch.body.length);
+
+            final Response ifModifiedSince = exchange(client, "GET /photo.png HTTP/1.1\r\n"
+                    + "If-Modified-Since: Wed, 01 Jan 2020 00:00:00 GMT\r\n\r\n");
+            assertEquals(304, ifModifiedSince.status);
+            assertEquals(entityTag, ifModifiedSince.header("etag"));
+            assertEquals(0, ifModifiedSince.body.length);
+            final Response later = exchange(client, "GET /photo.png HTTP/1.1\r\n"
+                    + "If-Modified-Since: Fri, 01 Jan 2021 00:00:00 GMT\r\n\r\n");
+            assertEquals(304, later.status);
+
+            //The file is sent again to the clients holding an older version
+            final Response modified = exchange(client, "GET /photo.png HTTP/1.1\r\n"
+                    + "If-Modified-Since: Tue, 31 Dec 2019 23:59:59 GMT\r\n\r\n");
+            assertEquals(200, modified.status);
+            assertArrayEquals(content, modified.body);
+            //If-None-Match takes precedence over If-Modified-Since
+            final Response otherTag = exchange(client, "GET /photo.png HTTP/1.1\r\nIf-None-Match: \"other\"\r\n"
+                    + "If-Modified-Since: Wed, 01 Jan 2020 00:00:00 GMT\r\n\r\n");
+            assertEquals(200, otherTag.status);
+            assertArrayEquals(content, otherTag.body);
+        }
+
+    }
+
+    @Test
+    public void testNotModifiedEncodedVariant() throws Exception {
+
+        final StringBuilder css = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            css.append("body { margin: 0; }\n");
+        }
+        Files.write(rootPath.resolve("site.css"), css.toString().getBytes(StandardCharsets.US_ASCII));
+
+        try (Socket client = connect()) {
+            final Response gzip = exchange(client, "GET /site.css HTTP/1.1\r\nAccept-Encoding: gzip\r\n\r\n");
+            assertEquals(200, gzip.status);
+            assertEquals("gzip", gzip.header("content-encoding"));
+            final String gzipTag = gzip.header("etag");
+            assertTrue(gzipTag, gzipTag.endsWith("-gzip\""));
+
+            //The revalidation of the gzip representation is answered with its own tag
+            final Response notModified = exchange(client, "GET /site.css HTTP/1.1\r\nAccept-Encoding: gzip\r\n"
+                    + "If-None-Match: " + gzipTag + "\r\n\r\n");
+            assertEquals(304, notModified.status);
+            assertEquals(gzipTag, notModified.header("etag"));
+            assertEquals("Accept-Encoding", notModified.header("vary"));
+            assertEquals(0, notModified.body.length);
+
+            //The gzip tag does not validate the identity sent to a client which does not accept gzip any more
+            final Response identity = exchange(client, "GET /site.css HTTP/1.1\r\nIf-None-Match: " + gzipTag
+                    + "\r\n\r\n");
+            assertEquals(200, identity.status);
+            assertNull(identity.header("content-encoding"));
+            assertEquals(css.toString(), new String(identity.body, StandardCharsets.US_ASCII));
+            final Response identityNotModified = exchange(client, "GET /site.css HTTP/1.1\r\nIf-None-Match: "
+                    + identity.header("etag") + "\r\n\r\n");
+            assertEquals(304, identityNotModified.status);
+            assertEquals(identity.header("etag"), identityNotModified.header("etag"));
+        }
+
+    }
+
+    @Test
+    public void testRanges() throws Exception {
+
+        final byte[] content = createFile("video.mp4", 10000);
+
+        try (Socket client = connect()) {
+            final Response single = exchange(client, "GET /video.mp4 HTTP/1.1\r\nRange: bytes=100-199\r\n\r\n");
+            assertEquals(206, single.status);
+            assertEquals("bytes 100-199/10000", single.header("content-range"));
+            assertEquals("video/mp4", single.header("content-type"));
+            assertArrayEquals(Arrays.copyOfRange(content, 100, 200), single.body);
+
+            final Response suffix = exchange(client, "GET /video.mp4 HTTP/1.1\r\nRange: bytes=-100\r\n\r\n");
+            assertEquals(206, suffix.status);
+            assertEquals("bytes 9900-9999/10000", suffix.header("content-range"));
+            assertArrayEquals(Arrays.copyOfRange(content, 9900, 10000), suffix.body);
+
+            //The parts are sent in the order of the file
+            final Response multipart = exchange(client, "GET /video.mp4 HTTP/1.1\r\nRange: bytes=500-509,0-9\r\n\r\n");
+            assertEquals(206, multipart.status);
+            assertNull(multipart.header("content-range"));
+            final String contentType = multipart.header("content-type");
+            assertTrue(contentType, contentType.startsWith("multipart/byteranges; boundary="));
+            final String boundary = contentType.substring("multipart/byteranges; boundary=".length());
+            final String body = new String(multipart.body, StandardCharsets.ISO_8859_1);
+            assertTrue(body.startsWith("\r\n--" + boundary + "\r\n"));
+            assertTrue(body.endsWith("\r\n--" + boundary + "--\r\n"));
+            final String[] parts = body.substring(0, body.length() - boundary.length() - 8).split(
+                    "\r\n--" + boundary + "\r\n");
+            assertEquals(3, parts.length);
+            assertPart(parts[1], "bytes 0-9/10000", Arrays.copyOfRange(content, 0, 10));
+            assertPart(parts[2], "bytes 500-509/10000", Arrays.copyOfRange(content, 500, 510));
+
+            final Response notSatisfiable = exchange(client, "GET /video.mp4 HTTP/1.1\r\n"
+                    + "Range: bytes=20000-30000\r\n\r\n");
+            assertEquals(416, notSatisfiable.status);
+            assertEquals("bytes */10000", notSatisfiable.header("content-range"));
+            assertEquals(0, notSatisfiable.body.length);
+
+            //The connection is still usable after every response
+            final Response full = exchange(client, "GET /video.mp4 HTTP/1.1\r\n\r\n");
+            assertEquals(200, full.status);
+            assertEquals("bytes", full.header("accept-ranges"));
+            assertArrayEquals(content, full.body);
+        }
+
+    }
+
+    @Test
+    public void testIfRange() throws Exception {
+
+        final byte[] content = createFile("video.mp4", 10000);
+
+        try (Socket client = connect()) {
+            final String entityTag = exchange(client, "GET /video.mp4 HTTP/1.1\r\n\r\n").header("etag");
+
+            //The range is served to a client holding the current version of the file
+            final Response sameTag = exchange(client, "GET /video.mp4 HTTP/1.1\r\nRange: bytes=0-99\r\n"
+                    + "If-Range: " + entityTag + "\r\n\r\n");
+            assertEquals(206, sameTag.status);
+            assertArrayEquals(Arrays.copyOf(content, 100), sameTag.body);
+            final Response sameDate = exchange(client, "GET /video.mp4 HTTP/1.1\r\nRange: bytes=0-99\r\n"
+                    + "If-Range: Wed, 01 Jan 2020 00:00:00 GMT\r\n\r\n");
+            assertEquals(206, sameDate.status);
+            assertArrayEquals(Arrays.copyOf(content, 100), sameDate.body);
+
+            //Otherwise the whole file is sent
+            final Response otherTag = exchange(client, "GET /video.mp4 HTTP/1.1\r\nRange: bytes=0-99\r\n"
+                    + "If-Range: \"other\"\r\n\r\n");
+            assertEquals(200, otherTag.status);
+            assertNull(otherTag.header("content-range"));
+            assertArrayEquals(content, otherTag.body);
+            final Response otherDate = exchange(client, "GET /video.mp4 HTTP/1.1\r\nRange: bytes=0-99\r\n"
+                    + "If-Range: Tue, 31 Dec 2019 00:00:00 GMT\r\n\r\n");
+            assertEquals(200, otherDate.status);
+            assertArrayEquals(content, otherDate.body);
+            //Weak tags never match
+            final Response weakTag = exchange(client, "GET /video.mp4 HTTP/1.1\r\nRange: bytes=0-99\r\n"
+                    + "If-Range: W/" + entityTag + "\r\n\r\n");
+            assertEquals(200, weakTag.status);
+        }
+
+    }
+
+    @Test
+    public void testServiceUnavailable() throws Exception {
+
+        final byte[] content = createFile("photo.png", 1000);
+        final AdaptiveLimiter limiter = new AdaptiveLimiter(1);
+        final AdmissionControl admission = new AdmissionControl(0, 0, limiter, null);
+
+        //The only permit is taken by another request
+        assertTrue(limiter.tryAcquire());
+        try (Socket client = connect(new ListingCache(1024 * 1024, 100), admission)) {
+            final Response rejected = exchange(client, "GET /photo.png HTTP/1.1\r\n\r\n");
+            assertEquals(503, rejected.status);
+            assertEquals("1", rejected.header("retry-after"));
+            //The connection is closed
+            assertEquals(-1, client.getInputStream().read());
+        }
+        assertEquals(1, metrics.getRejectedRequests());
+
+        //Served again once the other request is over
+        limiter.release(System.nanoTime());
+        try (Socket client = connect(new ListingCache(1024 * 1024, 100), admission)) {
+            final Response ok = exchange(client, "GET /photo.png HTTP/1.1\r\n\r\n");
+            assertEquals(200, ok.status);
+            assertArrayEquals(content, ok.body);
+        }
+
+    }
+
+    @Test
+    public void testStreamedListing() throws Exception {
+
+        final Path directory = Files.createDirectory(rootPath.resolve("dir"));
+        for (int i = 0; i < 3000; i++) {
+            Files.createFile(directory.resolve(String.format("entry-%04d-with-a-rather-long-file-name.txt", i)));
+        }
+
+        //A listing cache of no size is disabled : the listing is streamed while the directory is read
+        try (Socket client = connect(new ListingCache(0, 100))) {
+            client.getOutputStream().write("GET /dir/ HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            //The client does not read for a while : the socket buffers fill up
+            Thread.sleep(500);
+            final Response listing = Response.read(client.getInputStream());
+            assertEquals(200, listing.status);
+            assertEquals("chunked", listing.header("transfer-encoding"));
+            final String html = new String(listing.body, StandardCharsets.UTF_8);
+            assertTrue(html.endsWith("</body></html>\r\n"));
+            for (int i = 0; i < 3000; i++) {
+                assertTrue(html.contains(String.format("entry-%04d-with-a-rather-long-file-name.txt", i)));
+            }
+            assertTrue(listing.body.length > 256 * 1024);
+        }
+        //The next entries are only read once the previous chunk has been sent
+        assertTrue(String.valueOf(metrics.getMaxQueuedWriteBytes()), metrics.getMaxQueuedWriteBytes() < 128 * 1024);
+
+    }
+
+    /**
+     * Checks a part of a <i>multipart/byteranges</i> body, without its leading boundary.
+     */
+    private static void assertPart(String part, String contentRange, byte[] data) {
+
+        final int headersEnd = part.indexOf("\r\n\r\n");
+        final String headers = part.substring(0, headersEnd).toLowerCase(Locale.ROOT);
+        assertTrue(headers, headers.contains("content-type: video/mp4"));
+        assertTrue(headers, headers.contains("content-range: " + contentRange));
+        assertArrayEquals(data, part.substring(headersEnd + 4).getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Creates a file of the root folder, last modified on 2020-01-01.
+     *
+     * @return the content of the file.
+     */
+    private byte[] createFile(String name, int size) throws Exception {
+
+        final byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        final Path file = rootPath.resolve(name);
+        Files.write(file, content);
+        Files.setLastModifiedTime(file, FileTime.from(Instant.parse("2020-01-01T00:00:00Z")));
+        return content;
+    }
+
+    private Socket connect() throws Exception {
+        return connect(new ListingCache(1024 * 1024, 100));
+    }
+
+    private Socket connect(ListingCache listingCache) throws Exception {
+        return connect(listingCache, AdmissionControl.NONE);
+    }
+
+    private Socket connect(ListingCache listingCache, AdmissionControl admission) throws Exception {
+
+        final InetSocketAddress address = (InetSocketAddress) server.getLocalAddress();
+        //Small socket buffers, so that a client which does not read soon holds back the server writes
+        final Socket client = new Socket();
+        client.setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+        client.connect(address);
+        client.setSoTimeout(5000);
+        final AsynchronousSocketChannel channel = server.accept().get(5, TimeUnit.SECONDS);
+        channel.setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_BUFFER_SIZE);
+        final Session session = new Session(channel, new PooledByteBufferPool(false), Runnable::run, metrics,
+                                            ConnectionTimeouts.NONE, admission);
+        session.registerHandler(new HttpProtocolHandler(rootPath, metadataCache, new MappedFileCache(0),
+                                                        new ResponseCache(1024 * 1024,
+                                                                          ResponseCache.DEFAULT_MAX_BODY_SIZE),
+                                                        new ResponseCache(1024 * 1024,
+                                                                          ResponseCache.DEFAULT_MAX_BODY_SIZE),
+                                                        new ValidatorCache(16), listingCache,
+                                                        metrics, AccessLog.NONE));
+        session.start();
+        return client;
+    }
+
+    private static Response exchange(Socket client, String request) throws Exception {
+
+        client.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+        return Response.read(client.getInputStream());
+    }
+
+    /**
+     * A response read from the wire, which body is delimited by its <code>Content-Length</code> header or chunked.
+     */
+    private static final class Response {
+
+        private final int status;
+        private final String headers;
+        private final byte[] body;
+
+        private Response(int status, String headers, byte[] body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        private static Response read(InputStream in) throws Exception {
+
+            final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            //The last four bytes read, until the empty line
+            int last = 0;
+            while (last != 0x0d0a0d0a) {
+                final int b = in.read();
+                if (b < 0) {
+                    throw new EOFException("Connection closed by the server");
+                }
+                headerBytes.write(b);
+                last = last << 8 | b;
+            }
+            final String headers = new String(headerBytes.toByteArray(), StandardCharsets.ISO_8859_1);
+            final Response response = new Response(Integer.parseInt(headers.substring(9, 12)), headers, null);
+            if ("chunked".equals(response.header("transfer-encoding"))) {
+                return new Response(response.status, headers, readChunks(in));
+            }
+            final String contentLength = response.header("content-length");
+            final byte[] body = new byte[contentLength == null ? 0 : Integer.parseInt(contentLength)];
+            readFully(in, body);
+            return new Response(response.status, headers, body);
+        }
+
+        private static byte[] readChunks(InputStream in) throws Exception {
+
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            while (true) {
+                final int size = Integer.parseInt(readLine(in), 16);
+                if (size == 0) {
+                    //No trailer section
+                    readLine(in);
+                    return body.toByteArray();
+                }
+                final byte[] chunk = new byte[size];
+                readFully(in, chunk);
+                body.write(chunk);
+                readLine(in);
+            }
+        }
+
+        private static String readLine(InputStream in) throws Exception {
+
+            final StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new EOFException("Connection closed by the server");
+                }
+                line.append((char) b);
+            }
+            return line.toString().trim();
+        }
+
+        private static void readFully(InputStream in, byte[] bytes) throws Exception {
+
+            int read = 0;
+            while (read < bytes.length) {
+                final int bytesRead = in.read(bytes, read, bytes.length - read);
+                if (bytesRead < 0) {
+                    throw new EOFException("Connection closed by the server");
+                }
+                read += bytesRead;
+            }
+        }
+
+        /**
+         * @return the value of a header, <code>null</code> if it is missing.
+         */
+        private String header(String name) {
+
+            final String prefix = "\r\n" + name.toLowerCase(Locale.ROOT) + ":";
+            final int start = headers.toLowerCase(Locale.ROOT).indexOf(prefix);
+            if (start < 0) {
+                return null;
+            }
+            return headers.substring(start + prefix.length(), headers.indexOf("\r\n", start + 2)).trim();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package fr.meuret.webtesttech.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveLimiterTest {
+
+    @Test
+    public void testRejection() throws Exception {
+
+        final AdaptiveLimiter limiter = new AdaptiveLimiter(1, 2, 2, TimeUnit.SECONDS.toNanos(60));
+        final long start = System.nanoTime();
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(1, limiter.getRejectedCount());
+        limiter.release(start);
+        assertTrue(limiter.tryAcquire());
+        //An unused permit is given back as well
+        limiter.cancel();
+        assertEquals(1, limiter.getInFlight());
+        assertTrue(limiter.tryAcquire());
+
+    }
+
+    @Test
+    public void testAdaptation() throws Exception {
+
+        final AdaptiveLimiter limiter = new AdaptiveLimiter(2, 20, 1000, TimeUnit.MILLISECONDS.toNanos(1));
+
+        //A steady latency with every permit in use : the limit grows
+        runWindows(limiter, 20, 1);
+        final int grownLimit = limiter.getLimit();
+        assertTrue("Limit " + grownLimit, grownLimit > 20);
+
+        //The latency rises, e.g. the requests are queuing : the limit shrinks
+        runWindows(limiter, 20, 50);
+        assertTrue("Limit " + limiter.getLimit(), limiter.getLimit() < grownLimit / 2);
+        assertEquals(0, limiter.getInFlight());
+
+    }
+
+    private static void runWindows(AdaptiveLimiter limiter, int windows, long latencyMillis) throws Exception {
+
+        for (int i = 0; i < windows; i++) {
+            final int permits = limiter.getLimit();
+            for (int j = 0; j < permits; j++) {
+                assertTrue(limiter.tryAcquire());
+            }
+            //Released as if acquired the given latency ago
+            final long start = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+            for (int j = 0; j < permits; j++) {
+                limiter.release(start);
+            }
+            Thread.sleep(2);
+        }
+    }
+}
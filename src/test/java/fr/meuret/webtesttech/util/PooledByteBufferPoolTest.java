@@ -0,0 +1,134 @@
+package fr.meuret.webtesttech.util;
+
+import fr.meuret.webtesttech.conf.ExecutionModel;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class PooledByteBufferPoolTest {
+
+    @Test
+    public void testReleasedBufferIsReused() throws Exception {
+
+        final PooledByteBufferPool pool = new PooledByteBufferPool(false);
+        final ByteBuffer buffer = pool.acquireBuffer();
+        assertTrue(buffer.isDirect());
+        assertEquals(PooledByteBufferPool.DEFAULT_BUFFER_SIZE, buffer.capacity());
+
+        buffer.put((byte) 1);
+        assertNull(pool.releaseBuffer(buffer));
+        final ByteBuffer reused = pool.acquireBuffer();
+
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(reused.capacity(), reused.limit());
+        assertEquals(1, pool.getOutstandingCount());
+
+    }
+
+    @Test
+    public void testSizeClassesAndOverflow() throws Exception {
+
+        final PooledByteBufferPool pool = new PooledByteBufferPool(new int[]{1024, 4096}, 1, false);
+
+        assertEquals(4096, pool.acquireBuffer(2000).capacity());
+        assertEquals(10000, pool.acquireBuffer(10000).capacity());
+        assertEquals(1, pool.getOverflowCount());
+
+        //A single slab of 1 MB holds 1024 buffers of 1 KB, the next one overflows
+        for (int i = 0; i <= 1024; i++) {
+            pool.acquireBuffer();
+        }
+        assertEquals(2, pool.getOverflowCount());
+        assertEquals((1024 + 1) / (1024.0 + 256), pool.getOccupancy(), 0.0);
+
+    }
+
+    @Test
+    public void testShortLivedThreads() throws Exception {
+
+        //A single slab of 128 buffers
+        final PooledByteBufferPool pool = new PooledByteBufferPool(new int[]{8192}, 1, false);
+
+        //Every thread terminates with the buffers it has released in its cache
+        for (int round = 0; round < 50; round++) {
+            final Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(() -> cycle(pool, 16));
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+        assertEquals(50 * 4 * 16, pool.getAcquiredCount());
+        assertEquals(0, pool.getOutstandingCount());
+        //The buffers cached by the terminated threads are reused, the slab is enough
+        assertEquals(0, pool.getOverflowCount());
+        assertEquals(8192 * 128, pool.getSlabBytes());
+
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+
+        Assume.assumeTrue(ExecutionModel.VIRTUAL_THREADS.isSupported());
+        final PooledByteBufferPool pool = new PooledByteBufferPool(new int[]{8192}, 1, false);
+
+        final ExecutorService executor = ExecutionModel.newVirtualThreadPerTaskExecutor();
+        try {
+            final List<Future<?>> tasks = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                tasks.add(executor.submit(() -> cycle(pool, 4)));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(0, pool.getOutstandingCount());
+        //The virtual threads do not keep any buffer, they never run out of the slab
+        assertEquals(0, pool.getOverflowCount());
+        assertEquals(0, pool.getOccupancy(), 0.0);
+
+    }
+
+    @Test
+    public void testLeakDetection() throws Exception {
+
+        final PooledByteBufferPool pool = new PooledByteBufferPool(true);
+        final ByteBuffer released = pool.acquireBuffer();
+        pool.acquireBuffer();
+        pool.releaseBuffer(released);
+        //Double release is reported and ignored
+        pool.releaseBuffer(released);
+
+        assertEquals(1, pool.reportLeaks());
+        assertEquals(1, pool.getReleasedCount());
+        assertEquals(-1, new PooledByteBufferPool(false).reportLeaks());
+
+    }
+
+    private static void cycle(PooledByteBufferPool pool, int buffers) {
+
+        final ByteBuffer[] acquired = new ByteBuffer[buffers];
+        for (int i = 0; i < buffers; i++) {
+            acquired[i] = pool.acquireBuffer();
+        }
+        for (ByteBuffer buffer : acquired) {
+            pool.releaseBuffer(buffer);
+        }
+    }
+
+
+}
@@ -0,0 +1,144 @@
+package fr.meuret.webtesttech.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+
+    @Test
+    public void testExpiration() throws Exception {
+
+        final TimerWheel timer = new TimerWheel(10, 8, "timer-test");
+        try {
+            final CountDownLatch expired = new CountDownLatch(1);
+            final long start = System.nanoTime();
+            //Longer than a round of the wheel
+            timer.schedule(new LatchTask(expired), 200);
+            assertTrue(expired.await(5, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+        } finally {
+            timer.close();
+        }
+
+    }
+
+    @Test
+    public void testRescheduleAndCancel() throws Exception {
+
+        final TimerWheel timer = new TimerWheel(10, 64, "timer-test");
+        try {
+            final AtomicInteger expirations = new AtomicInteger();
+            final TimerWheel.Task pushedBack = new TimerWheel.Task() {
+                @Override
+                protected void expire() {
+                    expirations.incrementAndGet();
+                }
+            };
+            //Pushed back before expiring, like the timeout of an active connection
+            final long start = System.nanoTime();
+            for (int i = 0; i < 20; i++) {
+                timer.schedule(pushedBack, 100);
+                Thread.sleep(10);
+            }
+            final CountDownLatch cancelledRan = new CountDownLatch(1);
+            final TimerWheel.Task cancelled = new LatchTask(cancelledRan);
+            timer.schedule(cancelled, 50);
+            timer.cancel(cancelled);
+
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (expirations.get() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, expirations.get());
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+            assertFalse(cancelledRan.await(200, TimeUnit.MILLISECONDS));
+            assertEquals(1, expirations.get());
+        } finally {
+            timer.close();
+        }
+
+    }
+
+    @Test
+    public void testBringForward() throws Exception {
+
+        final TimerWheel timer = new TimerWheel(10, 64, "timer-test");
+        try {
+            final CountDownLatch expired = new CountDownLatch(1);
+            final TimerWheel.Task task = new LatchTask(expired);
+            //Like an idle timeout replaced by a shorter write timeout
+            timer.schedule(task, 60000);
+            timer.schedule(task, 50);
+            assertTrue(expired.await(5, TimeUnit.SECONDS));
+        } finally {
+            timer.close();
+        }
+
+    }
+
+    @Test
+    public void testRescheduleRacingExpiry() throws Exception {
+
+        final TimerWheel timer = new TimerWheel(1, 64, "timer-test");
+        try {
+            final RecordingTask[] tasks = new RecordingTask[64];
+            for (int i = 0; i < tasks.length; i++) {
+                tasks[i] = new RecordingTask();
+            }
+            //Deadlines pushed back by a tick, again and again : the pushes keep colliding with the expirations
+            final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+            while (System.nanoTime() < end) {
+                for (RecordingTask task : tasks) {
+                    timer.schedule(task, 1);
+                }
+            }
+
+            //The last deadline of every task must be reached, none was lost by the wheel
+            final long deadline = System.currentTimeMillis() + 5000;
+            for (RecordingTask task : tasks) {
+                while (task.expiredDeadline != task.getDeadline() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                assertEquals(task.getDeadline(), task.expiredDeadline);
+            }
+        } finally {
+            timer.close();
+        }
+
+    }
+
+    /**
+     * Like the timeout of a session, ignores an expiration if the deadline has been pushed back in the meantime.
+     */
+    private static final class RecordingTask extends TimerWheel.Task {
+
+        private volatile long expiredDeadline;
+
+        @Override
+        protected void expire() {
+            final long deadline = getDeadline();
+            if (deadline != 0 && deadline - System.nanoTime() <= 0) {
+                expiredDeadline = deadline;
+            }
+        }
+    }
+
+    private static final class LatchTask extends TimerWheel.Task {
+
+        private final CountDownLatch latch;
+
+        private LatchTask(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        protected void expire() {
+            latch.countDown();
+        }
+    }
+}